@@ -0,0 +1,156 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmarks;
+
+import org.geoserver.catalog.CatalogFactory;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.JTSFactoryFinder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Builds the synthetic, in memory data sets shared by the benchmarks, so that the numbers do not
+ * depend on a data directory or on external stores and can be compared across runs
+ */
+public class BenchmarkData {
+
+    /**
+     * The extent covered by the synthetic feature sources
+     */
+    public static final ReferencedEnvelope WORLD = new ReferencedEnvelope(-180, 180, -90, 90,
+            DefaultGeographicCRS.WGS84);
+
+    /**
+     * Loads the minimal OWS application context (kvp parsers and a test service), also making it
+     * available to {@link org.geoserver.platform.GeoServerExtensions}
+     */
+    public static ClassPathXmlApplicationContext owsContext() {
+        return new ClassPathXmlApplicationContext("org/geoserver/benchmarks/applicationContext.xml");
+    }
+
+    /**
+     * Name of the j-th layer in the i-th workspace of a catalog built by
+     * {@link #catalog(int, int)}
+     */
+    public static String layerName(int workspace, int layer) {
+        return "layer_" + workspace + "_" + layer;
+    }
+
+    /**
+     * Name of the i-th workspace of a catalog built by {@link #catalog(int, int)}
+     */
+    public static String workspaceName(int workspace) {
+        return "ws" + workspace;
+    }
+
+    /**
+     * Builds a catalog with the given number of workspaces, each one containing a single store
+     * and the given number of vector layers. Every tenth layer is disabled and every seventh one
+     * is not advertised, to give filtered queries something to chew on
+     */
+    public static CatalogImpl catalog(int workspaces, int layersPerWorkspace) {
+        CatalogImpl catalog = new CatalogImpl();
+        CatalogFactory factory = catalog.getFactory();
+
+        StyleInfo style = factory.createStyle();
+        style.setName("polygon");
+        style.setFilename("polygon.sld");
+        catalog.add(style);
+
+        for (int i = 0; i < workspaces; i++) {
+            String wsName = workspaceName(i);
+            NamespaceInfo ns = factory.createNamespace();
+            ns.setPrefix(wsName);
+            ns.setURI("http://geoserver.org/benchmarks/" + wsName);
+            catalog.add(ns);
+
+            WorkspaceInfo ws = factory.createWorkspace();
+            ws.setName(wsName);
+            catalog.add(ws);
+
+            DataStoreInfo ds = factory.createDataStore();
+            ds.setName(wsName + "_store");
+            ds.setWorkspace(ws);
+            ds.setEnabled(true);
+            catalog.add(ds);
+
+            for (int j = 0; j < layersPerWorkspace; j++) {
+                String name = layerName(i, j);
+                FeatureTypeInfo ft = factory.createFeatureType();
+                ft.setName(name);
+                ft.setNativeName(name);
+                ft.setNamespace(ns);
+                ft.setStore(ds);
+                ft.setEnabled(j % 10 != 0);
+                ft.setAdvertised(j % 7 != 0);
+                ft.setNativeBoundingBox(WORLD);
+                ft.setLatLonBoundingBox(WORLD);
+                catalog.add(ft);
+
+                LayerInfo layer = factory.createLayer();
+                layer.setResource(ft);
+                layer.setDefaultStyle(style);
+                layer.setEnabled(j % 10 != 0);
+                catalog.add(layer);
+            }
+        }
+
+        return catalog;
+    }
+
+    /**
+     * Builds an in memory feature source with a regular grid of {@code side * side} square
+     * polygons covering {@link #WORLD}, each one with an integer and a string attribute
+     */
+    public static SimpleFeatureSource polygonGrid(String typeName, int side) {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName(typeName);
+        tb.add("geom", Polygon.class, DefaultGeographicCRS.WGS84);
+        tb.add("id", Integer.class);
+        tb.add("name", String.class);
+        SimpleFeatureType schema = tb.buildFeatureType();
+
+        GeometryFactory gf = JTSFactoryFinder.getGeometryFactory();
+        ListFeatureCollection features = new ListFeatureCollection(schema);
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(schema);
+        double dx = WORLD.getWidth() / side;
+        double dy = WORLD.getHeight() / side;
+        int id = 0;
+        for (int i = 0; i < side; i++) {
+            for (int j = 0; j < side; j++) {
+                double x = WORLD.getMinX() + i * dx;
+                double y = WORLD.getMinY() + j * dy;
+                // leave a small gap between cells so that outlines are actually painted
+                Polygon cell = gf.createPolygon(new Coordinate[] { new Coordinate(x, y),
+                        new Coordinate(x + dx * 0.9, y), new Coordinate(x + dx * 0.9, y + dy * 0.9),
+                        new Coordinate(x, y + dy * 0.9), new Coordinate(x, y) });
+                fb.add(cell);
+                fb.add(id);
+                fb.add("cell " + id);
+                features.add(fb.buildFeature(typeName + "." + id));
+                id++;
+            }
+        }
+
+        return DataUtilities.source(features);
+    }
+}
@@ -0,0 +1,101 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.benchmarks.BenchmarkData;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.Predicates;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.opengis.filter.Filter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the {@link CatalogImpl} layer lookups by name and the filtered listings used by
+ * capabilities, REST and the web UI, on catalogs of growing size
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CatalogImplBenchmark {
+
+    @Param({ "10", "100" })
+    int workspaces;
+
+    @Param({ "100" })
+    int layersPerWorkspace;
+
+    CatalogImpl catalog;
+
+    Filter workspaceFilter;
+
+    Filter enabledAdvertisedFilter;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        catalog = BenchmarkData.catalog(workspaces, layersPerWorkspace);
+        workspaceFilter = Predicates.equal("resource.store.workspace.name",
+                BenchmarkData.workspaceName(workspaces / 2));
+        enabledAdvertisedFilter = Predicates.and(Predicates.equal("enabled", true),
+                Predicates.equal("advertised", true));
+    }
+
+    String randomLayerName() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return BenchmarkData.layerName(random.nextInt(workspaces),
+                random.nextInt(layersPerWorkspace));
+    }
+
+    @Benchmark
+    public LayerInfo getLayerByName() {
+        return catalog.getLayerByName(randomLayerName());
+    }
+
+    @Benchmark
+    public LayerInfo getLayerByPrefixedName() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int ws = random.nextInt(workspaces);
+        String name = BenchmarkData.layerName(ws, random.nextInt(layersPerWorkspace));
+        return catalog.getLayerByName(BenchmarkData.workspaceName(ws) + ":" + name);
+    }
+
+    @Benchmark
+    public int listLayersInWorkspace() {
+        return count(LayerInfo.class, workspaceFilter);
+    }
+
+    @Benchmark
+    public int listEnabledAdvertisedLayers() {
+        return count(LayerInfo.class, enabledAdvertisedFilter);
+    }
+
+    <T extends CatalogInfo> int count(Class<T> type, Filter filter) {
+        int count = 0;
+        try (CloseableIterator<T> it = catalog.list(type, filter)) {
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,83 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.benchmarks.BenchmarkData;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.Service;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+/**
+ * Measures the {@link Dispatcher} request initialization, service lookup and operation lookup
+ * (including the request bean kvp parsing), that is, everything the dispatcher does before
+ * actually executing the operation
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class DispatcherBenchmark {
+
+    ClassPathXmlApplicationContext context;
+
+    Dispatcher dispatcher;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = BenchmarkData.owsContext();
+        dispatcher = new Dispatcher();
+        dispatcher.setApplicationContext(context);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    Request newRequest() {
+        MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        httpRequest.setMethod("GET");
+        httpRequest.setContextPath("/geoserver");
+        httpRequest.setRequestURI("/geoserver/ows");
+        httpRequest.addParameter("service", "hello");
+        httpRequest.addParameter("request", "Hello");
+        httpRequest.addParameter("version", "1.0.0");
+        httpRequest.addParameter("message", "Hello world!");
+
+        Request request = new Request();
+        request.setHttpRequest(httpRequest);
+        return request;
+    }
+
+    @Benchmark
+    public Service serviceLookup() throws Exception {
+        Request request = dispatcher.init(newRequest());
+        return dispatcher.service(request);
+    }
+
+    @Benchmark
+    public Operation operationLookup() throws Throwable {
+        Request request = dispatcher.init(newRequest());
+        Service service = dispatcher.service(request);
+        return dispatcher.dispatch(request, service);
+    }
+}
@@ -0,0 +1,81 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows.util;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.benchmarks.BenchmarkData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+/**
+ * Measures the normalization and parsing of a typical tiled GetMap request kvp set through
+ * {@link KvpUtils}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class KvpUtilsBenchmark {
+
+    ClassPathXmlApplicationContext context;
+
+    Map<String, String[]> raw;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = BenchmarkData.owsContext();
+
+        // same shape as the servlet request parameter map
+        raw = new HashMap<>();
+        raw.put("SERVICE", new String[] { "WMS" });
+        raw.put("VERSION", new String[] { "1.1.1" });
+        raw.put("REQUEST", new String[] { "GetMap" });
+        raw.put("LAYERS", new String[] { "topp:states,topp:roads" });
+        raw.put("STYLES", new String[] { "," });
+        raw.put("SRS", new String[] { "EPSG:900913" });
+        raw.put("BBOX", new String[] { "-8766409.899970293,5009377.085697312,-7514065.628545966,6261721.35712164" });
+        raw.put("WIDTH", new String[] { "256" });
+        raw.put("HEIGHT", new String[] { "256" });
+        raw.put("FORMAT", new String[] { "image/png" });
+        raw.put("TRANSPARENT", new String[] { "true" });
+        raw.put("TILED", new String[] { "true" });
+        raw.put("BGCOLOR", new String[] { "0xFFFFFF" });
+        raw.put("FORMAT_OPTIONS", new String[] { "antialias:full;dpi:90" });
+        raw.put("TIME", new String[] { "2017-01-01T00:00:00Z/2017-01-31T00:00:00Z" });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public KvpMap normalize() {
+        return KvpUtils.normalize(raw);
+    }
+
+    @Benchmark
+    public List<Throwable> normalizeAndParse() {
+        KvpMap kvp = KvpUtils.normalize(raw);
+        return KvpUtils.parse(kvp);
+    }
+}
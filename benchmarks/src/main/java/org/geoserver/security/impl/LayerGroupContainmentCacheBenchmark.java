@@ -0,0 +1,175 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.security.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.benchmarks.BenchmarkData;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.PublishedInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.event.impl.CatalogAddEventImpl;
+import org.geoserver.catalog.event.impl.CatalogModifyEventImpl;
+import org.geoserver.catalog.event.impl.CatalogRemoveEventImpl;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.catalog.impl.LayerGroupInfoImpl;
+import org.geoserver.security.impl.LayerGroupContainmentCache.LayerGroupSummary;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of keeping {@link LayerGroupContainmentCache} up to date on layer group edits,
+ * which should not grow with the number of groups in the catalog, and of the containment lookups
+ * performed by the security subsystem. Groups are nested in chains ten levels deep.
+ * <p>
+ * The events are delivered straight to the cache listener, so that the numbers do not include
+ * the catalog own bookkeeping.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class LayerGroupContainmentCacheBenchmark {
+
+    static final int LAYERS_PER_GROUP = 5;
+
+    static final int NESTING_DEPTH = 10;
+
+    @Param({ "100", "1000", "10000" })
+    int groups;
+
+    CatalogImpl catalog;
+
+    LayerGroupContainmentCache cache;
+
+    LayerGroupContainmentCache.CatalogChangeListener listener;
+
+    LayerGroupInfo edited;
+
+    LayerInfo toggled;
+
+    List<PublishedInfo> withoutToggled;
+
+    List<PublishedInfo> withToggled;
+
+    LayerGroupInfo transientGroup;
+
+    ResourceInfo lookedUp;
+
+    boolean contained;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        catalog = BenchmarkData.catalog(10, 100);
+        List<LayerInfo> layers = catalog.getLayers();
+
+        LayerGroupInfo previous = null;
+        for (int i = 0; i < groups; i++) {
+            List<PublishedInfo> contents = new ArrayList<>();
+            for (int j = 0; j < LAYERS_PER_GROUP; j++) {
+                contents.add(layers.get((i * LAYERS_PER_GROUP + j) % layers.size()));
+            }
+            if (previous != null && i % NESTING_DEPTH != 0) {
+                contents.add(previous);
+            }
+            LayerGroupInfo group = buildGroup("group" + i, contents);
+            catalog.add(group);
+            previous = catalog.getLayerGroupByName(group.getName());
+        }
+
+        cache = new LayerGroupContainmentCache(catalog);
+        listener = cache.new CatalogChangeListener();
+
+        // a group in the middle of the catalog, and a layer it does not contain yet
+        edited = catalog.getLayerGroupByName("group" + groups / 2);
+        toggled = layers.get(layers.size() - 1);
+        withoutToggled = new ArrayList<>(edited.getLayers());
+        withToggled = new ArrayList<>(withoutToggled);
+        withToggled.add(toggled);
+
+        // not added to the catalog, only its events are delivered
+        transientGroup = buildGroup("transient", Arrays.asList(layers.get(0), edited));
+        ((LayerGroupInfoImpl) transientGroup).setId("transient-id");
+        lookedUp = layers.get(0).getResource();
+    }
+
+    LayerGroupInfo buildGroup(String name, List<PublishedInfo> contents) {
+        LayerGroupInfo group = catalog.getFactory().createLayerGroup();
+        group.setName(name);
+        group.setMode(LayerGroupInfo.Mode.CONTAINER);
+        for (PublishedInfo published : contents) {
+            group.getLayers().add(published);
+            group.getStyles().add(null);
+        }
+        return group;
+    }
+
+    /**
+     * Adds or removes a layer from a group, like a REST edit of the group contents would do
+     */
+    @Benchmark
+    public void modifyGroupLayers() {
+        CatalogModifyEventImpl event = new CatalogModifyEventImpl();
+        event.setSource(edited);
+        event.setPropertyNames(Collections.singletonList("layers"));
+        event.setOldValues(Collections.singletonList(contained ? withToggled : withoutToggled));
+        event.setNewValues(Collections.singletonList(contained ? withoutToggled : withToggled));
+        listener.handleModifyEvent(event);
+        contained = !contained;
+    }
+
+    /**
+     * Renames a group
+     */
+    @Benchmark
+    public void renameGroup() {
+        CatalogModifyEventImpl event = new CatalogModifyEventImpl();
+        event.setSource(edited);
+        event.setPropertyNames(Collections.singletonList("name"));
+        event.setOldValues(Collections.singletonList(edited.getName()));
+        event.setNewValues(Collections.singletonList(edited.getName()));
+        listener.handleModifyEvent(event);
+    }
+
+    /**
+     * Adds and then removes a group containing another group
+     */
+    @Benchmark
+    public void addRemoveGroup() {
+        CatalogAddEventImpl add = new CatalogAddEventImpl();
+        add.setSource(transientGroup);
+        listener.handleAddEvent(add);
+        CatalogRemoveEventImpl remove = new CatalogRemoveEventImpl();
+        remove.setSource(transientGroup);
+        listener.handleRemoveEvent(remove);
+    }
+
+    /**
+     * Looks up the groups containing a layer, directly or indirectly
+     */
+    @Benchmark
+    public Collection<LayerGroupSummary> containersLookup() {
+        return cache.getContainerGroupsFor(lookedUp);
+    }
+}
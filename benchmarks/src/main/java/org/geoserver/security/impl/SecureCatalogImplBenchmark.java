@@ -0,0 +1,108 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.security.impl;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.benchmarks.BenchmarkData;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.Predicates;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.geoserver.security.SecureCatalogImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Measures the layer filtering performed by {@link SecureCatalogImpl} backed by the
+ * {@link DefaultResourceAccessManager}, with half of the workspaces readable only by a role the
+ * benchmark user does not have
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SecureCatalogImplBenchmark {
+
+    @Param({ "10", "100" })
+    int workspaces;
+
+    @Param({ "100" })
+    int layersPerWorkspace;
+
+    SecureCatalogImpl secureCatalog;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        CatalogImpl catalog = BenchmarkData.catalog(workspaces, layersPerWorkspace);
+
+        Properties props = new Properties();
+        props.put("mode", "HIDE");
+        props.put("*.*.r", "*");
+        props.put("*.*.w", "*");
+        for (int i = 0; i < workspaces; i += 2) {
+            props.put(BenchmarkData.workspaceName(i) + ".*.r", "ROLE_RESTRICTED");
+        }
+        DefaultResourceAccessManager manager = new DefaultResourceAccessManager(
+                new MemoryDataAccessRuleDAO(catalog, props), catalog);
+        secureCatalog = new SecureCatalogImpl(catalog, manager);
+
+        // the benchmark threads are not the setup one, share the authentication among them
+        SecurityContextHolder.setStrategyName(SecurityContextHolder.MODE_GLOBAL);
+        Authentication user = new UsernamePasswordAuthenticationToken("user", "password",
+                Arrays.asList(new GeoServerRole("ROLE_USER")));
+        SecurityContextHolder.getContext().setAuthentication(user);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+        SecurityContextHolder.setStrategyName(SecurityContextHolder.MODE_THREADLOCAL);
+    }
+
+    @Benchmark
+    public List<LayerInfo> getLayers() {
+        return secureCatalog.getLayers();
+    }
+
+    @Benchmark
+    public int listLayers() {
+        int count = 0;
+        try (CloseableIterator<LayerInfo> it = secureCatalog.list(LayerInfo.class,
+                Predicates.acceptAll())) {
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public LayerInfo getLayerByName() {
+        // an accessible layer in the middle of the catalog
+        return secureCatalog.getLayerByName(
+                BenchmarkData.layerName(workspaces / 2 + 1, layersPerWorkspace / 2));
+    }
+}
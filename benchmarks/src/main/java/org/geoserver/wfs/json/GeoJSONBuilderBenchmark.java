@@ -0,0 +1,118 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.json;
+
+import java.io.StringWriter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.geotools.geometry.jts.JTSFactoryFinder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Measures the {@link GeoJSONBuilder} geometry encoding for points, large polygons and multi
+ * polygons
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class GeoJSONBuilderBenchmark {
+
+    @Param({ "100", "10000" })
+    int vertices;
+
+    Point[] points;
+
+    Polygon polygon;
+
+    Geometry multiPolygon;
+
+    StringWriter writer;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        GeometryFactory gf = JTSFactoryFinder.getGeometryFactory();
+        // fixed seed, the data set has to be the same across runs
+        Random random = new Random(0);
+
+        points = new Point[vertices];
+        for (int i = 0; i < vertices; i++) {
+            points[i] = gf.createPoint(
+                    new Coordinate(random.nextDouble() * 360 - 180, random.nextDouble() * 180 - 90));
+        }
+
+        polygon = star(gf, 0, 0, vertices);
+        Polygon[] polygons = new Polygon[10];
+        for (int i = 0; i < polygons.length; i++) {
+            polygons[i] = star(gf, i * 10, i * 5, vertices / polygons.length);
+        }
+        multiPolygon = gf.createMultiPolygon(polygons);
+
+        writer = new StringWriter();
+    }
+
+    /**
+     * Builds a star shaped polygon, its coordinates have a full set of decimals
+     */
+    Polygon star(GeometryFactory gf, double cx, double cy, int vertices) {
+        Coordinate[] coords = new Coordinate[vertices + 1];
+        for (int i = 0; i < vertices; i++) {
+            double angle = 2 * Math.PI * i / vertices;
+            double radius = i % 2 == 0 ? 5 : 2.5;
+            coords[i] = new Coordinate(cx + radius * Math.cos(angle),
+                    cy + radius * Math.sin(angle));
+        }
+        coords[vertices] = coords[0];
+        return gf.createPolygon(coords);
+    }
+
+    GeoJSONBuilder builder() {
+        writer.getBuffer().setLength(0);
+        return new GeoJSONBuilder(writer);
+    }
+
+    @Benchmark
+    public int encodePoints() {
+        GeoJSONBuilder builder = builder();
+        builder.array();
+        for (Point point : points) {
+            builder.writeGeom(point);
+        }
+        builder.endArray();
+        return writer.getBuffer().length();
+    }
+
+    @Benchmark
+    public int encodePolygon() {
+        builder().writeGeom(polygon);
+        return writer.getBuffer().length();
+    }
+
+    @Benchmark
+    public int encodeMultiPolygon() {
+        builder().writeGeom(multiPolygon);
+        return writer.getBuffer().length();
+    }
+}
@@ -0,0 +1,99 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.Color;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.benchmarks.BenchmarkData;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.config.impl.GeoServerImpl;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.WMS;
+import org.geoserver.wms.WMSInfoImpl;
+import org.geoserver.wms.WMSMapContent;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.map.FeatureLayer;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link RenderedImageMapOutputFormat#produceMap(WMSMapContent)} rendering a set of
+ * synthetic in memory polygon layers, both as a small tile and as a larger map
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class RenderedImageMapOutputFormatBenchmark {
+
+    @Param({ "256", "1024" })
+    int size;
+
+    @Param({ "1", "4" })
+    int layers;
+
+    RenderedImageMapOutputFormat format;
+
+    SimpleFeatureSource[] sources;
+
+    Style[] styles;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        GeoServerImpl gs = new GeoServerImpl();
+        CatalogImpl catalog = new CatalogImpl();
+        gs.setCatalog(catalog);
+        gs.add(new WMSInfoImpl());
+        WMS wms = new WMS(gs);
+        format = new RenderedImageMapOutputFormat("image/png", wms);
+
+        StyleBuilder sb = new StyleBuilder();
+        sources = new SimpleFeatureSource[layers];
+        styles = new Style[layers];
+        for (int i = 0; i < layers; i++) {
+            sources[i] = BenchmarkData.polygonGrid("grid" + i, 50 + i * 10);
+            Color fill = Color.getHSBColor(i / (float) layers, 0.6f, 0.9f);
+            styles[i] = sb.createStyle(sb.createPolygonSymbolizer(fill, Color.BLACK, 1));
+        }
+    }
+
+    @Benchmark
+    public Object produceMap() {
+        GetMapRequest request = new GetMapRequest();
+        request.setFormat("image/png");
+        WMSMapContent mapContent = new WMSMapContent(request);
+        mapContent.getViewport().setBounds(new ReferencedEnvelope(-90, 90, -45, 45,
+                DefaultGeographicCRS.WGS84));
+        mapContent.setMapWidth(size);
+        mapContent.setMapHeight(size);
+        mapContent.setTransparent(true);
+        for (int i = 0; i < layers; i++) {
+            mapContent.addLayer(new FeatureLayer(sources[i], styles[i]));
+        }
+
+        // disposing the map also disposes the map content
+        RenderedImageMap map = format.produceMap(mapContent);
+        Object image = map.getImage();
+        map.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,115 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.geoserver.wms.WMSMapContent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the {@link PNGJWriter} encoding of map-like RGBA and paletted images, either on a
+ * single thread or deflating in parallel (see {@link ParallelPNGEncoder})
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PNGJWriterBenchmark {
+
+    @Param({ "256", "1024", "4096", "8192" })
+    int size;
+
+    @Param({ "false", "true" })
+    boolean parallel;
+
+    BufferedImage rgba;
+
+    BufferedImage paletted;
+
+    WMSMapContent mapContent;
+
+    PNGJWriter writer;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        rgba = new BufferedImage(size, size, BufferedImage.TYPE_4BYTE_ABGR);
+        paint(rgba);
+        paletted = new BufferedImage(size, size, BufferedImage.TYPE_BYTE_INDEXED);
+        paint(paletted);
+        mapContent = new WMSMapContent();
+        writer = new PNGJWriter(parallel ? 1 : Long.MAX_VALUE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mapContent.dispose();
+    }
+
+    /**
+     * Paints a repeatable map-like pattern, flat areas with antialiased shapes on top
+     */
+    void paint(BufferedImage image) {
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    RenderingHints.VALUE_ANTIALIAS_ON);
+            Random random = new Random(0);
+            int shapes = size / 4;
+            for (int i = 0; i < shapes; i++) {
+                graphics.setColor(new Color(random.nextInt(256), random.nextInt(256),
+                        random.nextInt(256), 128 + random.nextInt(128)));
+                int x = random.nextInt(size);
+                int y = random.nextInt(size);
+                int w = 1 + random.nextInt(size / 8);
+                int h = 1 + random.nextInt(size / 8);
+                if (i % 2 == 0) {
+                    graphics.fillOval(x, y, w, h);
+                } else {
+                    graphics.drawLine(x, y, x + w, y + h);
+                }
+            }
+        } finally {
+            graphics.dispose();
+        }
+    }
+
+    long encode(BufferedImage image) {
+        CountingOutputStream out = new CountingOutputStream(new NullOutputStream());
+        writer.writePNG(image, out, 0.25f, mapContent);
+        return out.getByteCount();
+    }
+
+    @Benchmark
+    public long encodeRGBA() {
+        return encode(rgba);
+    }
+
+    @Benchmark
+    public long encodePaletted() {
+        return encode(paletted);
+    }
+}
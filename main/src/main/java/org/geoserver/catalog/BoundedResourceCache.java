@@ -0,0 +1,227 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.lang.management.ManagementFactory;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.type.FeatureType;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+
+/**
+ * A {@link Map} backed by a Guava {@link Cache}, used by {@link ResourcePool} as an alternative to
+ * its soft reference based caches when a cache specification is configured for them.
+ * <p>
+ * The specification uses the {@link com.google.common.cache.CacheBuilderSpec} syntax, e.g.
+ * <code>maximumSize=1000,expireAfterAccess=30m</code>, and is read from the
+ * <code>GEOSERVER_RESOURCE_POOL_CACHE_&lt;NAME&gt;</code> system/environment/servlet context
+ * variable, where the name is the upper case cache name (e.g.,
+ * <code>GEOSERVER_RESOURCE_POOL_CACHE_COVERAGE_READER</code>). When <code>maximumWeight</code>
+ * is used, feature types and attribute lists weigh as many units as their attributes, any other
+ * value weighs one unit.
+ * </p>
+ * <p>
+ * Entries that are explicitly removed or cleared, as the catalog changes or the pool is reset, are
+ * handed to the disposer, which releases the associated resources (readers, connections).
+ * Entries evicted by size or expiry are not disposed, as other requests might still be using
+ * them, they are left to the garbage collector, same as the soft reference based caches do with
+ * the collected values. Hit, miss and eviction counts are
+ * always recorded, and are published as a JMX bean named
+ * <code>org.geoserver:type=ResourcePoolCache,name=&lt;name&gt;</code>.
+ * </p>
+ */
+public class BoundedResourceCache<K, V> extends AbstractMap<K, V>
+        implements BoundedResourceCacheMXBean {
+
+    static final Logger LOGGER = Logging.getLogger(BoundedResourceCache.class);
+
+    static final String PROPERTY_PREFIX = "GEOSERVER_RESOURCE_POOL_CACHE_";
+
+    final String name;
+
+    final Cache<K, V> cache;
+
+    final ConcurrentMap<K, V> map;
+
+    /**
+     * Returns a bounded cache if a specification has been configured for the named cache, null
+     * otherwise
+     */
+    public static <K, V> BoundedResourceCache<K, V> create(String name,
+            BiConsumer<K, V> disposer) {
+        String property = PROPERTY_PREFIX + name.toUpperCase();
+        String spec = GeoServerExtensions.getProperty(property);
+        if (spec == null || spec.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            BoundedResourceCache<K, V> result = new BoundedResourceCache<>(name, spec.trim(),
+                    disposer);
+            result.register();
+            return result;
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            LOGGER.log(Level.WARNING, "Invalid cache specification for " + property + ": " + spec
+                    + ", using the default cache", e);
+            return null;
+        }
+    }
+
+    public BoundedResourceCache(String name, String spec, BiConsumer<K, V> disposer) {
+        this.name = name;
+        RemovalListener<K, V> listener = notification -> {
+            // only explicit removals dispose, same as the soft reference based caches: evicted
+            // and expired values might still be in use by other requests, replaced ones are not
+            // disposed either, and collected ones are already gone
+            if (notification.getCause() != RemovalCause.EXPLICIT
+                    || notification.getValue() == null) {
+                return;
+            }
+            try {
+                disposer.accept(notification.getKey(), notification.getValue());
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Error disposing entry " + notification.getKey()
+                        + " of the " + name + " cache", e);
+            }
+        };
+        CacheBuilder<Object, Object> builder = CacheBuilder.from(spec).recordStats();
+        if (spec.contains("maximumWeight")) {
+            builder.weigher((k, v) -> weight(v));
+        }
+        this.cache = builder.removalListener(listener).build();
+        this.map = cache.asMap();
+    }
+
+    static int weight(Object value) {
+        if (value instanceof FeatureType) {
+            return ((FeatureType) value).getDescriptors().size() + 1;
+        } else if (value instanceof Collection) {
+            return ((Collection<?>) value).size() + 1;
+        }
+        return 1;
+    }
+
+    void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("org.geoserver:type=ResourcePoolCache,name="
+                    + name);
+            // a new resource pool replaces the old one
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not register the " + name + " cache JMX bean", e);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the cache statistics
+     */
+    public CacheStats getStatistics() {
+        return cache.stats();
+    }
+
+    @Override
+    public long getSize() {
+        return cache.size();
+    }
+
+    @Override
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    @Override
+    public double getHitRate() {
+        return cache.stats().hitRate();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    @Override
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public V get(Object key) {
+        // the cache map does not record statistics
+        return key == null ? null : cache.getIfPresent(key);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        if (value == null) {
+            return remove(key);
+        }
+        return map.put(key, value);
+    }
+
+    @Override
+    public V remove(Object key) {
+        return key == null ? null : map.remove(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key != null && map.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return map.keySet();
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return map.entrySet();
+    }
+
+    @Override
+    public String toString() {
+        return "BoundedResourceCache [name=" + name + ", size=" + cache.size() + "]";
+    }
+}
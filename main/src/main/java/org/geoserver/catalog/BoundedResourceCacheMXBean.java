@@ -0,0 +1,28 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+/**
+ * JMX view of a {@link BoundedResourceCache}
+ */
+public interface BoundedResourceCacheMXBean {
+
+    String getName();
+
+    long getSize();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRate();
+
+    long getEvictionCount();
+
+    /**
+     * Removes all the entries, disposing them
+     */
+    void invalidateAll();
+}
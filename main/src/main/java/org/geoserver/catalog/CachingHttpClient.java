@@ -0,0 +1,418 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import static org.geoserver.platform.GeoServerExtensions.getIntProperty;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+import org.geoserver.catalog.CascadedResponseCache.CachedResponse;
+import org.geoserver.platform.resource.Resource;
+import org.geotools.data.ows.HTTPClient;
+import org.geotools.data.ows.HTTPResponse;
+import org.geotools.util.logging.Logging;
+
+/**
+ * {@link HTTPClient} decorator caching the GetMap and GetFeatureInfo responses of a cascaded WMS
+ * store, so that identical requests (e.g., the same tile asked by different clients) do not hit
+ * the remote server every time. All the other requests, GetCapabilities included, go straight to
+ * the wrapped client.
+ * <p>
+ * Responses are keyed on the normalised request URL (parameter names upper cased, parameters
+ * sorted), and are cached only as long as the remote server allows it via the
+ * <code>Cache-Control</code> (<code>s-maxage</code>, <code>max-age</code>, <code>no-store</code>,
+ * <code>no-cache</code>, <code>private</code>) or <code>Expires</code> headers. Responses without
+ * any caching header are not cached, unless a default time to live is configured. Service
+ * exceptions, and GetMap responses that are not images, are never cached.
+ * </p>
+ * <p>
+ * Each store gets its own {@link CascadedResponseCache}, with the following
+ * system/environment/servlet context variables controlling it:
+ * <ul>
+ * <li>{@value #MEMORY_SIZE_PROPERTY}: the memory tier size, in MB, defaults to
+ * {@value #DEFAULT_MEMORY_SIZE}, zero disables caching altogether</li>
+ * <li>{@value #DISK_SIZE_PROPERTY}: the disk tier size, in MB, defaults to
+ * {@value #DEFAULT_DISK_SIZE}, zero disables the disk tier</li>
+ * <li>{@value #DEFAULT_TTL_PROPERTY}: the time to live, in seconds, of responses without caching
+ * headers, defaults to zero</li>
+ * </ul>
+ * </p>
+ */
+public class CachingHttpClient implements HTTPClient, Closeable {
+
+    static final Logger LOGGER = Logging.getLogger(CachingHttpClient.class);
+
+    public static final String MEMORY_SIZE_PROPERTY = "WMS_CASCADE_CACHE_MEMORY_SIZE";
+
+    public static final String DISK_SIZE_PROPERTY = "WMS_CASCADE_CACHE_DISK_SIZE";
+
+    public static final String DEFAULT_TTL_PROPERTY = "WMS_CASCADE_CACHE_DEFAULT_TTL";
+
+    static final int DEFAULT_MEMORY_SIZE = 16;
+
+    static final int DEFAULT_DISK_SIZE = 64;
+
+    static final List<String> CACHED_REQUESTS = Arrays.asList("GETMAP", "GETFEATUREINFO");
+
+    /**
+     * The response headers preserved in the cache, the payload related ones are dropped as the
+     * cached content is already decoded
+     */
+    static final List<String> CACHED_HEADERS = Arrays.asList("cache-control", "expires", "date",
+            "age", "pragma", "last-modified", "content-disposition", "content-language");
+
+    static final long MB = 1024 * 1024;
+
+    final HTTPClient delegate;
+
+    final CascadedResponseCache cache;
+
+    final long defaultTimeToLive;
+
+    /**
+     * Wraps the client into a caching one, unless caching has been disabled
+     *
+     * @param client the client to wrap
+     * @param directory the directory for the disk tier, can be null to disable it
+     */
+    public static HTTPClient wrap(HTTPClient client, Resource directory) {
+        long memory = getIntProperty(MEMORY_SIZE_PROPERTY, DEFAULT_MEMORY_SIZE) * MB;
+        if (memory <= 0) {
+            return client;
+        }
+        long disk = getIntProperty(DISK_SIZE_PROPERTY, DEFAULT_DISK_SIZE) * MB;
+        long ttl = getIntProperty(DEFAULT_TTL_PROPERTY, 0) * 1000L;
+        CascadedResponseCache cache;
+        if (disk > 0 && directory != null) {
+            cache = new CascadedResponseCache(memory, disk, directory.dir());
+        } else {
+            cache = new CascadedResponseCache(memory, 0, null);
+        }
+        return new CachingHttpClient(client, cache, ttl);
+    }
+
+    public CachingHttpClient(HTTPClient delegate, CascadedResponseCache cache,
+            long defaultTimeToLive) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.defaultTimeToLive = defaultTimeToLive;
+    }
+
+    /**
+     * The wrapped client
+     */
+    public HTTPClient getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * The response cache
+     */
+    public CascadedResponseCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public HTTPResponse get(URL url) throws IOException {
+        Map<String, String> kvp = parseQuery(url);
+        String request = kvp.get("REQUEST");
+        if (request == null || !CACHED_REQUESTS.contains(request.toUpperCase())) {
+            return delegate.get(url);
+        }
+        boolean image = "GETMAP".equalsIgnoreCase(request);
+        CachedResponse response = cache.get(getCacheKey(url, kvp), () -> fetch(url, image));
+        return new CachedHTTPResponse(response);
+    }
+
+    CachedResponse fetch(URL url, boolean image) throws IOException {
+        HTTPResponse response = delegate.get(url);
+        try {
+            byte[] content;
+            try (InputStream is = response.getResponseStream()) {
+                content = IOUtils.toByteArray(is);
+            }
+            Map<String, String> headers = new HashMap<>();
+            for (String name : CACHED_HEADERS) {
+                String value = response.getResponseHeader(name);
+                if (value != null) {
+                    headers.put(name, value);
+                }
+            }
+            String contentType = response.getContentType();
+            long expires = 0;
+            if (isCacheable(contentType, image)) {
+                expires = getExpiration(headers, System.currentTimeMillis());
+            }
+            return new CachedResponse(content, contentType, response.getResponseCharset(),
+                    headers, expires);
+        } finally {
+            response.dispose();
+        }
+    }
+
+    static boolean isCacheable(String contentType, boolean image) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase();
+        if (type.contains("se_xml") || type.contains("se_inimage")
+                || type.contains("se_blank")) {
+            return false;
+        }
+        return !image || type.startsWith("image/");
+    }
+
+    /**
+     * Computes the time the response expires at based on its caching headers, a time in the
+     * past (or now) means the response cannot be cached
+     */
+    long getExpiration(Map<String, String> headers, long now) {
+        String cacheControl = headers.get("cache-control");
+        if (cacheControl != null) {
+            Long maxAge = null;
+            Long sharedMaxAge = null;
+            for (String directive : cacheControl.toLowerCase().split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-store") || directive.startsWith("no-cache")
+                        || directive.startsWith("private")) {
+                    return now;
+                } else if (directive.startsWith("s-maxage=")) {
+                    sharedMaxAge = parseSeconds(directive.substring("s-maxage=".length()));
+                } else if (directive.startsWith("max-age=")) {
+                    maxAge = parseSeconds(directive.substring("max-age=".length()));
+                }
+            }
+            Long seconds = sharedMaxAge != null ? sharedMaxAge : maxAge;
+            if (seconds != null) {
+                Long age = parseSeconds(headers.get("age"));
+                return now + (seconds - (age != null ? age : 0)) * 1000;
+            }
+        } else if ("no-cache".equalsIgnoreCase(headers.get("pragma"))) {
+            return now;
+        }
+
+        String expires = headers.get("expires");
+        if (expires != null) {
+            // invalid dates, such as "0", mean already expired
+            Long expiresTime = parseDate(expires);
+            if (expiresTime == null) {
+                return now;
+            }
+            // use the server clock as the reference, if available
+            Long date = parseDate(headers.get("date"));
+            return now + expiresTime - (date != null ? date : now);
+        }
+
+        return now + defaultTimeToLive;
+    }
+
+    static Long parseSeconds(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value.trim().replace("\"", ""));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    static Long parseDate(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+                    .toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses the URL query string into a map with upper case keys, sorted by key
+     */
+    static Map<String, String> parseQuery(URL url) {
+        Map<String, String> kvp = new TreeMap<>();
+        String query = url.getQuery();
+        if (query == null) {
+            return kvp;
+        }
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int idx = pair.indexOf('=');
+            String key = idx >= 0 ? pair.substring(0, idx) : pair;
+            String value = idx >= 0 ? pair.substring(idx + 1) : "";
+            kvp.put(decode(key).toUpperCase(), decode(value));
+        }
+        return kvp;
+    }
+
+    /**
+     * Builds the cache key, a normalised version of the request URL: the host name is lower
+     * cased, default ports are dropped, and parameters are sorted by upper cased name
+     */
+    static String getCacheKey(URL url, Map<String, String> kvp) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(url.getProtocol().toLowerCase()).append("://");
+        sb.append(url.getHost().toLowerCase());
+        if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+            sb.append(":").append(url.getPort());
+        }
+        sb.append(url.getPath()).append("?");
+        boolean first = true;
+        for (Map.Entry<String, String> entry : kvp.entrySet()) {
+            if (!first) {
+                sb.append("&");
+            }
+            first = false;
+            sb.append(encode(entry.getKey())).append("=").append(encode(entry.getValue()));
+        }
+        return sb.toString();
+    }
+
+    static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return value;
+        }
+    }
+
+    static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return value;
+        }
+    }
+
+    @Override
+    public HTTPResponse post(URL url, InputStream postContent, String postContentType)
+            throws IOException {
+        return delegate.post(url, postContent, postContentType);
+    }
+
+    @Override
+    public String getUser() {
+        return delegate.getUser();
+    }
+
+    @Override
+    public void setUser(String user) {
+        delegate.setUser(user);
+    }
+
+    @Override
+    public String getPassword() {
+        return delegate.getPassword();
+    }
+
+    @Override
+    public void setPassword(String password) {
+        delegate.setPassword(password);
+    }
+
+    @Override
+    public int getConnectTimeout() {
+        return delegate.getConnectTimeout();
+    }
+
+    @Override
+    public void setConnectTimeout(int connectTimeout) {
+        delegate.setConnectTimeout(connectTimeout);
+    }
+
+    @Override
+    public int getReadTimeout() {
+        return delegate.getReadTimeout();
+    }
+
+    @Override
+    public void setReadTimeout(int readTimeout) {
+        delegate.setReadTimeout(readTimeout);
+    }
+
+    @Override
+    public void setTryGzip(boolean tryGZIP) {
+        delegate.setTryGzip(tryGZIP);
+    }
+
+    @Override
+    public boolean isTryGzip() {
+        return delegate.isTryGzip();
+    }
+
+    /**
+     * Drops the cached responses and closes the wrapped client, if closeable
+     */
+    @Override
+    public void close() throws IOException {
+        cache.dispose();
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+    }
+
+    /**
+     * A response served from the cache
+     */
+    static class CachedHTTPResponse implements HTTPResponse {
+
+        final CachedResponse response;
+
+        CachedHTTPResponse(CachedResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public void dispose() {
+            // nothing to release
+        }
+
+        @Override
+        public String getContentType() {
+            return response.getContentType();
+        }
+
+        @Override
+        public String getResponseHeader(String headerName) {
+            if ("content-type".equalsIgnoreCase(headerName)) {
+                return response.getContentType();
+            }
+            return response.getHeaders().get(headerName.toLowerCase(Locale.ENGLISH));
+        }
+
+        @Override
+        public InputStream getResponseStream() throws IOException {
+            return new ByteArrayInputStream(response.getContent());
+        }
+
+        @Override
+        public String getResponseCharset() {
+            return response.getCharset();
+        }
+    }
+}
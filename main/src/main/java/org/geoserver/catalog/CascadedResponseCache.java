@@ -0,0 +1,432 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+import org.geotools.util.logging.Logging;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+
+/**
+ * Two tier cache of the responses of a single cascaded store: recently used responses are kept
+ * in memory, the ones pushed out of it spill into a directory on disk, both tiers are bounded in
+ * bytes. Each response carries its own expiration time, expired ones are dropped on access.
+ * <p>
+ * Concurrent lookups of the same missing key are coalesced, only one of them runs the fetch and
+ * the others wait for its outcome. The disk tier index is held in memory, each cache writes in its
+ * own subdirectory of the given directory, removed on {@link #dispose()}, the subdirectories left
+ * behind by previous runs are removed on creation.
+ * </p>
+ */
+public class CascadedResponseCache {
+
+    static final Logger LOGGER = Logging.getLogger(CascadedResponseCache.class);
+
+    /**
+     * A fetched response, along with the time it expires at (milliseconds since the epoch)
+     */
+    public static class CachedResponse implements Serializable {
+
+        private static final long serialVersionUID = 3021877562341955623L;
+
+        final byte[] content;
+
+        final String contentType;
+
+        final String charset;
+
+        final Map<String, String> headers;
+
+        final long expires;
+
+        public CachedResponse(byte[] content, String contentType, String charset,
+                Map<String, String> headers, long expires) {
+            this.content = content;
+            this.contentType = contentType;
+            this.charset = charset;
+            this.headers = headers;
+            this.expires = expires;
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getCharset() {
+            return charset;
+        }
+
+        /**
+         * The response headers, keyed by lower case name
+         */
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        public long getExpires() {
+            return expires;
+        }
+
+        /**
+         * Returns true if the response can still be served at the given time
+         */
+        public boolean isFresh(long now) {
+            return expires > now;
+        }
+
+        int getWeight() {
+            return content.length + 256;
+        }
+    }
+
+    /**
+     * Fetches a response on cache misses
+     */
+    public interface Fetcher {
+        CachedResponse fetch() throws IOException;
+    }
+
+    final long maxMemory;
+
+    final Cache<String, CachedResponse> memory;
+
+    final DiskTier disk;
+
+    final ConcurrentHashMap<String, CompletableFuture<CachedResponse>> inFlight = new ConcurrentHashMap<>();
+
+    final AtomicLong hits = new AtomicLong();
+
+    final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Builds a new cache
+     *
+     * @param maxMemory the maximum size of the memory tier, in bytes
+     * @param maxDisk the maximum size of the disk tier, in bytes, zero or negative disables it
+     * @param directory the directory holding the disk tier, can be null if the disk tier is
+     *        disabled
+     */
+    public CascadedResponseCache(long maxMemory, long maxDisk, File directory) {
+        this.maxMemory = maxMemory;
+        this.disk = maxDisk > 0 && directory != null ? new DiskTier(directory, maxDisk) : null;
+        this.memory = CacheBuilder.newBuilder().maximumWeight(Math.max(maxMemory, 0))
+                .weigher((String key, CachedResponse response) -> response.getWeight())
+                .<String, CachedResponse> removalListener(notification -> {
+                    // responses pushed out of memory by size get a second chance on disk
+                    if (notification.getCause() == RemovalCause.SIZE && disk != null) {
+                        disk.put(notification.getKey(), notification.getValue());
+                    }
+                }).build();
+    }
+
+    /**
+     * Returns the cached response for the given key, or runs the fetcher and caches the
+     * response if it can be, that is, if it's still fresh once fetched. Concurrent calls for the
+     * same key share the same fetch.
+     */
+    public CachedResponse get(String key, Fetcher fetcher) throws IOException {
+        CachedResponse cached = getIfPresent(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        CompletableFuture<CachedResponse> future = new CompletableFuture<>();
+        CompletableFuture<CachedResponse> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            hits.incrementAndGet();
+            return await(running);
+        }
+
+        misses.incrementAndGet();
+        try {
+            CachedResponse response = fetcher.fetch();
+            put(key, response);
+            future.complete(response);
+            return response;
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    CachedResponse await(CompletableFuture<CachedResponse> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a cascaded response", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Returns the fresh cached response for the given key, looking first in memory and then on
+     * disk, or null if not found
+     */
+    public CachedResponse getIfPresent(String key) {
+        long now = System.currentTimeMillis();
+        CachedResponse response = memory.getIfPresent(key);
+        if (response != null) {
+            if (response.isFresh(now)) {
+                return response;
+            }
+            memory.invalidate(key);
+        }
+        if (disk != null) {
+            response = disk.get(key, now);
+            if (response != null && fitsMemory(response)) {
+                // promote back in memory
+                disk.remove(key);
+                memory.put(key, response);
+            }
+            return response;
+        }
+        return null;
+    }
+
+    /**
+     * Caches the response, provided it is still fresh
+     */
+    public void put(String key, CachedResponse response) {
+        if (!response.isFresh(System.currentTimeMillis())) {
+            return;
+        }
+        if (fitsMemory(response)) {
+            if (disk != null) {
+                disk.remove(key);
+            }
+            memory.put(key, response);
+        } else if (disk != null) {
+            disk.put(key, response);
+        }
+    }
+
+    /**
+     * Responses taking a good share of the memory tier go straight to disk, they would just
+     * flush it otherwise
+     */
+    boolean fitsMemory(CachedResponse response) {
+        return response.getWeight() <= maxMemory / 4;
+    }
+
+    /**
+     * Number of lookups answered without fetching
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Number of lookups that required a fetch
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Drops all cached responses
+     */
+    public void clear() {
+        memory.invalidateAll();
+        if (disk != null) {
+            disk.clear();
+        }
+    }
+
+    /**
+     * Drops all cached responses and removes the disk tier directory
+     */
+    public void dispose() {
+        clear();
+        if (disk != null) {
+            disk.dispose();
+        }
+    }
+
+
+    /**
+     * The disk tier, an access ordered index of the response files, bounded by their total size.
+     * Only the response metadata is kept in memory.
+     */
+    static class DiskTier {
+
+        static class DiskEntry {
+            final File file;
+
+            final CachedResponse metadata;
+
+            final long length;
+
+            DiskEntry(File file, CachedResponse metadata, long length) {
+                this.file = file;
+                this.metadata = metadata;
+                this.length = length;
+            }
+        }
+
+        static final byte[] NO_CONTENT = new byte[0];
+
+        static final String DIRECTORY_PREFIX = "tier-";
+
+        /**
+         * The directories of the disk tiers alive in this JVM, a cache being replaced might still
+         * be using its own while the new one starts
+         */
+        static final Set<File> LIVE_DIRECTORIES = ConcurrentHashMap.newKeySet();
+
+        final File directory;
+
+        final long maxSize;
+
+        final AtomicLong sequence = new AtomicLong();
+
+        final LinkedHashMap<String, DiskEntry> index = new LinkedHashMap<>(16, 0.75f, true);
+
+        long size;
+
+        DiskTier(File parent, long maxSize) {
+            File root = parent.getAbsoluteFile();
+            this.directory = new File(root, DIRECTORY_PREFIX + UUID.randomUUID());
+            this.maxSize = maxSize;
+            LIVE_DIRECTORIES.add(directory);
+            // leftovers of a previous run are not indexed, get rid of them
+            File[] children = root.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    if (!LIVE_DIRECTORIES.contains(child)) {
+                        FileUtils.deleteQuietly(child);
+                    }
+                }
+            }
+            if (!directory.mkdirs()) {
+                LOGGER.warning("Could not create the cascaded response cache directory "
+                        + directory);
+            }
+        }
+
+        void put(String key, CachedResponse response) {
+            long length = response.content.length;
+            if (length > maxSize) {
+                return;
+            }
+            // every write goes to a new file, readers of a replaced entry never see it change
+            File file = new File(directory, "response-" + sequence.incrementAndGet());
+            try {
+                // in case it got removed behind our back
+                directory.mkdirs();
+                Files.write(file.toPath(), response.content);
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to store a cascaded response on disk", e);
+                file.delete();
+                return;
+            }
+            CachedResponse metadata = new CachedResponse(NO_CONTENT, response.contentType,
+                    response.charset, response.headers, response.expires);
+            synchronized (this) {
+                DiskEntry previous = index.put(key, new DiskEntry(file, metadata, length));
+                if (previous != null) {
+                    size -= previous.length;
+                    previous.file.delete();
+                }
+                size += length;
+                evict();
+            }
+        }
+
+        void evict() {
+            Iterator<DiskEntry> it = index.values().iterator();
+            while (size > maxSize && it.hasNext()) {
+                DiskEntry entry = it.next();
+                it.remove();
+                size -= entry.length;
+                entry.file.delete();
+            }
+        }
+
+        CachedResponse get(String key, long now) {
+            DiskEntry entry;
+            synchronized (this) {
+                entry = index.get(key);
+                if (entry == null) {
+                    return null;
+                }
+                if (!entry.metadata.isFresh(now)) {
+                    remove(key);
+                    return null;
+                }
+            }
+            try {
+                byte[] content = Files.readAllBytes(entry.file.toPath());
+                CachedResponse metadata = entry.metadata;
+                return new CachedResponse(content, metadata.contentType, metadata.charset,
+                        metadata.headers, metadata.expires);
+            } catch (IOException e) {
+                // replaced or evicted in the meantime, or not readable, treat as a miss
+                LOGGER.log(Level.FINE, "Failed to read a cascaded response from disk", e);
+                return null;
+            }
+        }
+
+        synchronized void remove(String key) {
+            DiskEntry entry = index.remove(key);
+            if (entry != null) {
+                size -= entry.length;
+                entry.file.delete();
+            }
+        }
+
+        synchronized void clear() {
+            for (DiskEntry entry : index.values()) {
+                entry.file.delete();
+            }
+            index.clear();
+            size = 0;
+        }
+
+        synchronized void dispose() {
+            clear();
+            try {
+                FileUtils.deleteDirectory(directory);
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to remove the cascaded response cache at "
+                        + directory, e);
+            } finally {
+                LIVE_DIRECTORIES.remove(directory);
+            }
+        }
+    }
+}
@@ -27,6 +27,7 @@ import javax.media.jai.PropertySourceImpl;
 
 import org.geoserver.catalog.CoverageView.CoverageBand;
 import org.geoserver.catalog.impl.CoverageDimensionImpl;
+import org.geoserver.jai.LayerTileCache;
 import org.geotools.coverage.Category;
 import org.geotools.coverage.GridSampleDimension;
 import org.geotools.coverage.grid.GridCoverage2D;
@@ -233,6 +234,10 @@ public class CoverageDimensionCustomizerReader implements GridCoverage2DReader {
         if (coverage == null) {
             return coverage;
         }
+        if (info != null) {
+            // account the tiles of the coverage image chain to the layer
+            LayerTileCache.registerDefault(coverage.getRenderedImage(), info.prefixedName());
+        }
         final Map<String, Object> properties = coverage.getProperties();
         final SampleDimension[] dims = coverage.getSampleDimensions();
         
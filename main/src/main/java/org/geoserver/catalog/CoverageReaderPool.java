@@ -0,0 +1,627 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import static org.geoserver.platform.GeoServerExtensions.getIntProperty;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.ClassUtils;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.GranuleSource;
+import org.geotools.coverage.grid.io.GridCoverage2DReader;
+import org.geotools.coverage.grid.io.StructuredGridCoverage2DReader;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.util.logging.Logging;
+import org.opengis.coverage.grid.Format;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+
+/**
+ * A pool of coverage readers for formats whose readers cannot be used concurrently, allowing
+ * parallel requests against the same store to scale across cores instead of queuing on a single
+ * reader.
+ * <p>
+ * The pool hands out a single reader facade (see {@link #wrap}) that can be cached and shared
+ * like any other reader: each method call on it borrows a reader from the pool, runs the call,
+ * and gives the reader back. Readers are created on demand up to the maximum pool size, calls
+ * exceeding it wait for a reader to be returned, up to the borrow timeout. Readers idle for more
+ * than the idle time are disposed, as long as the pool holds more than its minimum size.
+ * </p>
+ * <p>
+ * A reader goes back to the pool as soon as the call returns, so the objects it returned must not
+ * keep using it afterwards. Coverages read with deferred loading (see
+ * {@link AbstractGridFormat#USE_JAI_IMAGEREAD}) load their tiles lazily, and do so using the
+ * reader resources for most formats, e.g., the dataset shared by NetCDF and GRIB readers. Reads
+ * are thus forced to load the coverage immediately, unless the format is one of
+ * {@link #DEFERRED_LOADING_FORMATS}: GeoTIFF deferred tiles are read through a stream opened for
+ * each coverage, and are safe. The granule sources of structured readers are returned as facades
+ * too, each call borrowing a reader and working against its own granule source, with the
+ * returned granule collections loaded in memory before the reader goes back to the pool.
+ * </p>
+ * <p>
+ * Pooling is enabled listing the format names (e.g., <code>GeoTIFF,NetCDF</code>) in the
+ * {@value #FORMATS_PROPERTY} system/environment/servlet context variable. The pool sizes,
+ * idle time and borrow timeout are configured with {@value #MIN_SIZE_PROPERTY} (default 1),
+ * {@value #MAX_SIZE_PROPERTY} (default, the number of available processors),
+ * {@value #IDLE_TIME_PROPERTY} (seconds, default {@value #DEFAULT_IDLE_TIME}) and
+ * {@value #BORROW_TIMEOUT_PROPERTY} (seconds, default {@value #DEFAULT_BORROW_TIMEOUT}).
+ * </p>
+ */
+public class CoverageReaderPool implements InvocationHandler {
+
+    static final Logger LOGGER = Logging.getLogger(CoverageReaderPool.class);
+
+    public static final String FORMATS_PROPERTY = "GEOSERVER_COVERAGE_READER_POOL_FORMATS";
+
+    public static final String MIN_SIZE_PROPERTY = "GEOSERVER_COVERAGE_READER_POOL_MIN_SIZE";
+
+    public static final String MAX_SIZE_PROPERTY = "GEOSERVER_COVERAGE_READER_POOL_MAX_SIZE";
+
+    public static final String IDLE_TIME_PROPERTY = "GEOSERVER_COVERAGE_READER_POOL_IDLE_TIME";
+
+    public static final String BORROW_TIMEOUT_PROPERTY = "GEOSERVER_COVERAGE_READER_POOL_BORROW_TIMEOUT";
+
+    static final int DEFAULT_IDLE_TIME = 300;
+
+    static final int DEFAULT_BORROW_TIMEOUT = 60;
+
+    /**
+     * Formats whose coverages, read with deferred loading, do not use the reader once the read
+     * returned
+     */
+    public static final Set<String> DEFERRED_LOADING_FORMATS = Collections
+            .unmodifiableSet(new HashSet<>(Arrays.asList("GeoTIFF")));
+
+    /**
+     * Periodically disposes the readers idle for too long in pools not seeing any traffic
+     */
+    static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(
+            r -> {
+                Thread thread = new Thread(r, "CoverageReaderPoolEvictor");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * Creates the pooled readers
+     */
+    public interface ReaderFactory {
+        GridCoverage2DReader create() throws IOException;
+    }
+
+    static final class IdleReader {
+        final GridCoverage2DReader reader;
+
+        final long since;
+
+        IdleReader(GridCoverage2DReader reader, long since) {
+            this.reader = reader;
+            this.since = since;
+        }
+    }
+
+    final String name;
+
+    final ReaderFactory factory;
+
+    final int minSize;
+
+    final int maxSize;
+
+    final long idleTime;
+
+    final long borrowTimeout;
+
+    /**
+     * Whether read calls are forced to load the coverage immediately
+     */
+    final boolean immediateLoading;
+
+    final Semaphore permits;
+
+    /**
+     * Idle readers, most recently returned first, guarded by this
+     */
+    final Deque<IdleReader> idle = new ArrayDeque<>();
+
+    /**
+     * Readers alive, borrowed or idle, guarded by this
+     */
+    int size;
+
+    boolean disposed;
+
+    ScheduledFuture<?> eviction;
+
+    final AtomicLong borrowCount = new AtomicLong();
+
+    final AtomicLong createdCount = new AtomicLong();
+
+    final AtomicLong destroyedCount = new AtomicLong();
+
+    final AtomicLong timeoutCount = new AtomicLong();
+
+    final AtomicLong waitTime = new AtomicLong();
+
+    final AtomicLong maxWaitTime = new AtomicLong();
+
+    /**
+     * Builds a new pool
+     *
+     * @param name the pool name, used in logs and statistics
+     * @param reader the first reader, it will be pooled along with the ones built by the factory
+     * @param factory the factory for the other readers
+     * @param minSize the number of idle readers never disposed
+     * @param maxSize the maximum number of readers
+     * @param idleTime how long a reader can stay idle before being disposed, in milliseconds
+     * @param borrowTimeout how long to wait for a reader when all are in use, in milliseconds
+     * @param immediateLoading if true, read calls are forced to load the coverage immediately,
+     *        for formats whose deferred loading keeps using the reader
+     */
+    public CoverageReaderPool(String name, GridCoverage2DReader reader, ReaderFactory factory,
+            int minSize, int maxSize, long idleTime, long borrowTimeout,
+            boolean immediateLoading) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("The maximum pool size must be positive");
+        }
+        this.name = name;
+        this.factory = factory;
+        this.minSize = Math.min(Math.max(minSize, 1), maxSize);
+        this.maxSize = maxSize;
+        this.idleTime = idleTime;
+        this.borrowTimeout = borrowTimeout;
+        this.immediateLoading = immediateLoading;
+        this.permits = new Semaphore(maxSize, true);
+        this.idle.add(new IdleReader(reader, System.currentTimeMillis()));
+        this.size = 1;
+        this.createdCount.incrementAndGet();
+    }
+
+    /**
+     * Schedules the periodic eviction of the idle readers. The task references the pool weakly,
+     * and stops when the pool is disposed or garbage collected.
+     */
+    void scheduleEviction() {
+        long period = Math.max(idleTime / 2, 1000);
+        WeakReference<CoverageReaderPool> reference = new WeakReference<>(this);
+        AtomicReference<ScheduledFuture<?>> future = new AtomicReference<>();
+        future.set(EVICTOR.scheduleWithFixedDelay(() -> {
+            CoverageReaderPool pool = reference.get();
+            if (pool == null) {
+                future.get().cancel(false);
+            } else {
+                pool.evictIdle(System.currentTimeMillis());
+            }
+        }, period, period, TimeUnit.MILLISECONDS));
+        synchronized (this) {
+            eviction = future.get();
+        }
+    }
+
+    /**
+     * Returns true if readers of the given format should be pooled
+     */
+    public static boolean isPooled(AbstractGridFormat format) {
+        String formats = GeoServerExtensions.getProperty(FORMATS_PROPERTY);
+        if (formats == null || format == null || format.getName() == null) {
+            return false;
+        }
+        for (String name : formats.split(",")) {
+            if (name.trim().equalsIgnoreCase(format.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if coverages of the given format, read with deferred loading, do not use the
+     * reader once the read returned
+     */
+    public static boolean isDeferredLoadingSafe(Format format) {
+        return format != null && format.getName() != null
+                && DEFERRED_LOADING_FORMATS.contains(format.getName());
+    }
+
+    /**
+     * Wraps the reader into a pooling facade, using the configured pool parameters
+     */
+    public static GridCoverage2DReader wrap(String name, GridCoverage2DReader reader,
+            ReaderFactory factory) {
+        int maxSize = getIntProperty(MAX_SIZE_PROPERTY,
+                Runtime.getRuntime().availableProcessors());
+        int minSize = getIntProperty(MIN_SIZE_PROPERTY, 1);
+        long idleTime = getIntProperty(IDLE_TIME_PROPERTY, DEFAULT_IDLE_TIME) * 1000L;
+        long borrowTimeout = getIntProperty(BORROW_TIMEOUT_PROPERTY, DEFAULT_BORROW_TIMEOUT)
+                * 1000L;
+        if (maxSize < 1) {
+            LOGGER.warning("Invalid value for " + MAX_SIZE_PROPERTY + ": " + maxSize
+                    + ", using a single reader");
+            maxSize = 1;
+        }
+        boolean immediateLoading = !isDeferredLoadingSafe(reader.getFormat());
+        CoverageReaderPool pool = new CoverageReaderPool(name, reader, factory, minSize, maxSize,
+                idleTime, borrowTimeout, immediateLoading);
+        pool.scheduleEviction();
+        return wrap(pool, reader);
+    }
+
+    static GridCoverage2DReader wrap(CoverageReaderPool pool, GridCoverage2DReader reader) {
+        // expose the same interfaces as the pooled readers, e.g., StructuredGridCoverage2DReader
+        Set<Class<?>> interfaces = new HashSet<>();
+        for (Object type : (List<?>) ClassUtils.getAllInterfaces(reader.getClass())) {
+            interfaces.add((Class<?>) type);
+        }
+        interfaces.add(GridCoverage2DReader.class);
+        return (GridCoverage2DReader) Proxy.newProxyInstance(reader.getClass().getClassLoader(),
+                interfaces.toArray(new Class<?>[interfaces.size()]), pool);
+    }
+
+    /**
+     * Returns the pool behind the reader, or null if the reader is not a pooling facade
+     */
+    public static CoverageReaderPool getPool(Object reader) {
+        if (reader != null && Proxy.isProxyClass(reader.getClass())) {
+            InvocationHandler handler = Proxy.getInvocationHandler(reader);
+            if (handler instanceof CoverageReaderPool) {
+                return (CoverageReaderPool) handler;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "CoverageReaderPool[" + name + "]";
+            default:
+                return method.invoke(this, args);
+            }
+        }
+        if ("dispose".equals(method.getName()) && method.getParameterTypes().length == 0) {
+            dispose();
+            return null;
+        }
+
+        GridCoverage2DReader reader = borrow(method);
+        Object result;
+        try {
+            if (immediateLoading) {
+                args = forceImmediateLoading(method, args);
+            }
+            result = method.invoke(reader, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        } finally {
+            release(reader);
+        }
+        if (result instanceof GranuleSource && "getGranules".equals(method.getName())) {
+            // the granule source uses the reader, wrap it so that each call borrows its own
+            return wrapGranuleSource((GranuleSource) result, (String) args[0],
+                    (Boolean) args[1]);
+        }
+        return result;
+    }
+
+    /**
+     * Borrows a reader for the given method call, rethrowing the borrow failures as exceptions
+     * the method can throw
+     */
+    GridCoverage2DReader borrow(Method method) throws IOException {
+        try {
+            return borrow();
+        } catch (IOException e) {
+            for (Class<?> exception : method.getExceptionTypes()) {
+                if (exception.isAssignableFrom(IOException.class)) {
+                    throw e;
+                }
+            }
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    GranuleSource wrapGranuleSource(GranuleSource source, String coverageName,
+            boolean readOnly) {
+        Set<Class<?>> interfaces = new HashSet<>();
+        for (Object type : (List<?>) ClassUtils.getAllInterfaces(source.getClass())) {
+            interfaces.add((Class<?>) type);
+        }
+        interfaces.add(GranuleSource.class);
+        return (GranuleSource) Proxy.newProxyInstance(source.getClass().getClassLoader(),
+                interfaces.toArray(new Class<?>[interfaces.size()]),
+                new PooledGranuleSource(coverageName, readOnly));
+    }
+
+    /**
+     * Granule source facade, each call borrows a reader and runs against its granule source.
+     * Granule collections are lazy, they are loaded in memory before the reader is released.
+     */
+    class PooledGranuleSource implements InvocationHandler {
+
+        final String coverageName;
+
+        final boolean readOnly;
+
+        PooledGranuleSource(String coverageName, boolean readOnly) {
+            this.coverageName = coverageName;
+            this.readOnly = readOnly;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledGranuleSource[" + name + ", " + coverageName + "]";
+                default:
+                    return method.invoke(this, args);
+                }
+            }
+            if ("dispose".equals(method.getName()) && method.getParameterTypes().length == 0) {
+                // nothing to release, the granule sources are looked up at each call
+                return null;
+            }
+
+            GridCoverage2DReader reader = borrow(method);
+            try {
+                GranuleSource source = ((StructuredGridCoverage2DReader) reader)
+                        .getGranules(coverageName, readOnly);
+                Object result = method.invoke(source, args);
+                if (result instanceof SimpleFeatureCollection) {
+                    SimpleFeatureCollection granules = (SimpleFeatureCollection) result;
+                    result = new ListFeatureCollection(granules.getSchema(),
+                            DataUtilities.list(granules));
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                release(reader);
+            }
+        }
+    }
+
+    /**
+     * Returns the arguments of read calls with deferred loading disabled, deferred tiles would
+     * otherwise be loaded by the reader after it went back to the pool
+     */
+    static Object[] forceImmediateLoading(Method method, Object[] args) {
+        if (!"read".equals(method.getName()) || args == null) {
+            return args;
+        }
+        Class<?>[] types = method.getParameterTypes();
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == GeneralParameterValue[].class) {
+                Object[] result = args.clone();
+                result[i] = forceImmediateLoading((GeneralParameterValue[]) args[i]);
+                return result;
+            }
+        }
+        return args;
+    }
+
+    static GeneralParameterValue[] forceImmediateLoading(GeneralParameterValue[] parameters) {
+        String code = AbstractGridFormat.USE_JAI_IMAGEREAD.getName().getCode();
+        List<GeneralParameterValue> result = new ArrayList<>();
+        if (parameters != null) {
+            for (GeneralParameterValue parameter : parameters) {
+                if (parameter != null
+                        && !code.equals(parameter.getDescriptor().getName().getCode())) {
+                    result.add(parameter);
+                }
+            }
+        }
+        ParameterValue<Boolean> immediate = AbstractGridFormat.USE_JAI_IMAGEREAD.createValue();
+        immediate.setValue(false);
+        result.add(immediate);
+        return result.toArray(new GeneralParameterValue[result.size()]);
+    }
+
+    /**
+     * Borrows a reader, creating a new one if none is idle and the pool is not full, waiting
+     * for one to be released otherwise
+     */
+    GridCoverage2DReader borrow() throws IOException {
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a reader of " + name, e);
+        }
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        waitTime.addAndGet(waited);
+        maxWaitTime.accumulateAndGet(waited, Math::max);
+        if (!acquired) {
+            timeoutCount.incrementAndGet();
+            throw new IOException("Timed out after " + borrowTimeout
+                    + "ms waiting for a reader of " + name + ", all " + maxSize
+                    + " readers are in use");
+        }
+        borrowCount.incrementAndGet();
+
+        try {
+            synchronized (this) {
+                if (disposed) {
+                    throw new IOException("The reader pool for " + name + " has been disposed");
+                }
+                IdleReader idleReader = idle.pollFirst();
+                if (idleReader != null) {
+                    return idleReader.reader;
+                }
+                size++;
+            }
+            try {
+                GridCoverage2DReader reader = factory.create();
+                if (reader == null) {
+                    throw new IOException("Failed to create a new reader for " + name);
+                }
+                createdCount.incrementAndGet();
+                return reader;
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    size--;
+                }
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Gives back a borrowed reader
+     */
+    void release(GridCoverage2DReader reader) {
+        try {
+            synchronized (this) {
+                if (disposed) {
+                    size--;
+                    dispose(reader);
+                } else {
+                    long now = System.currentTimeMillis();
+                    idle.addFirst(new IdleReader(reader, now));
+                    evictIdle(now);
+                }
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Disposes the readers that have been idle for too long, oldest first, without going below
+     * the minimum pool size
+     */
+    synchronized void evictIdle(long now) {
+        while (size > minSize && !idle.isEmpty() && now - idle.peekLast().since > idleTime) {
+            IdleReader idleReader = idle.pollLast();
+            size--;
+            dispose(idleReader.reader);
+        }
+    }
+
+    void dispose(GridCoverage2DReader reader) {
+        destroyedCount.incrementAndGet();
+        try {
+            reader.dispose();
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Failure while disposing a pooled reader of " + name, e);
+        }
+    }
+
+    /**
+     * Disposes the idle readers, and the borrowed ones as they get released
+     */
+    public synchronized void dispose() {
+        disposed = true;
+        if (eviction != null) {
+            eviction.cancel(false);
+        }
+        while (!idle.isEmpty()) {
+            size--;
+            dispose(idle.pollFirst().reader);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Number of readers alive, borrowed or idle
+     */
+    public synchronized int getSize() {
+        return size;
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    public synchronized int getActiveCount() {
+        return size - idle.size();
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    public long getDestroyedCount() {
+        return destroyedCount.get();
+    }
+
+    /**
+     * Number of borrow attempts that timed out waiting for a reader
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /**
+     * Average time spent waiting for a reader, in milliseconds
+     */
+    public double getAverageWaitTime() {
+        long borrows = borrowCount.get() + timeoutCount.get();
+        return borrows == 0 ? 0 : ((double) waitTime.get()) / borrows;
+    }
+
+    /**
+     * Longest time spent waiting for a reader, in milliseconds
+     */
+    public long getMaxWaitTime() {
+        return maxWaitTime.get();
+    }
+}
@@ -29,6 +29,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -65,6 +66,7 @@ import org.geoserver.platform.GeoServerEnvironment;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.platform.resource.Paths;
 import org.geoserver.platform.resource.Resource;
 import org.geoserver.platform.resource.ResourceListener;
 import org.geoserver.platform.resource.ResourceNotification;
@@ -132,6 +134,8 @@ import org.vfny.geoserver.global.GeoServerFeatureLocking;
 import org.vfny.geoserver.util.DataStoreUtils;
 import org.xml.sax.EntityResolver;
 
+import com.google.common.cache.CacheStats;
+
 /**
  * Provides access to resources such as datastores, coverage readers, and 
  * feature types.
@@ -192,6 +196,17 @@ public class ResourcePool {
      * Default number of hard references
      */
     static int FEATURETYPE_CACHE_SIZE_DEFAULT = 100;
+
+    /*
+     * Names of the caches that can be replaced by a bounded one, see BoundedResourceCache
+     */
+    public static final String CRS_CACHE = "crs";
+    public static final String FEATURE_TYPE_CACHE = "feature_type";
+    public static final String FEATURE_TYPE_ATTRIBUTE_CACHE = "feature_type_attribute";
+    public static final String COVERAGE_READER_CACHE = "coverage_reader";
+    public static final String HINT_COVERAGE_READER_CACHE = "hint_coverage_reader";
+    public static final String STYLE_CACHE = "style";
+    public static final String WMS_CACHE = "wms";
     
     private static final String IMAGE_PYRAMID = "ImagePyramid";
     private static final String IMAGE_MOSAIC = "ImageMosaic";
@@ -278,7 +293,9 @@ public class ResourcePool {
     }
 
     protected Map<String,CoordinateReferenceSystem> createCrsCache() {
-        return new HashMap<String, CoordinateReferenceSystem>();
+        Map<String, CoordinateReferenceSystem> bounded = BoundedResourceCache.create(CRS_CACHE,
+                (k, v) -> {});
+        return bounded != null ? bounded : new HashMap<String, CoordinateReferenceSystem>();
     }
 
     /**
@@ -318,6 +335,11 @@ public class ResourcePool {
     }
 
     protected Map<String,FeatureType> createFeatureTypeCache(int size) {
+        Map<String, FeatureType> bounded = BoundedResourceCache.create(FEATURE_TYPE_CACHE,
+                this::disposeFeatureType);
+        if (bounded != null) {
+            return bounded;
+        }
         // for each feature type we cache two versions, one with the projection policy applied, one
         // without it
         return new FeatureTypeCache(size * 2);
@@ -337,6 +359,11 @@ public class ResourcePool {
     }
 
     protected Map<String, List<AttributeTypeInfo>> createFeatureTypeAttributeCache(int size) {
+        Map<String, List<AttributeTypeInfo>> bounded = BoundedResourceCache
+                .create(FEATURE_TYPE_ATTRIBUTE_CACHE, (k, v) -> {});
+        if (bounded != null) {
+            return bounded;
+        }
         // for each feature type we cache two versions, one with the projection policy applied, one
         // without it
         return new FeatureTypeAttributeCache(size * 2);
@@ -356,7 +383,9 @@ public class ResourcePool {
     }
 
     protected Map<String, GridCoverageReader> createCoverageReaderCache() {
-        return new CoverageReaderCache();
+        Map<String, GridCoverageReader> bounded = BoundedResourceCache
+                .create(COVERAGE_READER_CACHE, this::disposeCoverageReader);
+        return bounded != null ? bounded : new CoverageReaderCache();
     }
 
     /**
@@ -370,7 +399,9 @@ public class ResourcePool {
     }
     
     protected Map<CoverageHintReaderKey, GridCoverageReader> createHintCoverageReaderCache() {
-        return new CoverageHintReaderCache();
+        Map<CoverageHintReaderKey, GridCoverageReader> bounded = BoundedResourceCache.create(
+                HINT_COVERAGE_READER_CACHE, (k, v) -> disposeCoverageReader(k.id, v));
+        return bounded != null ? bounded : new CoverageHintReaderCache();
     }
 
     /**
@@ -384,7 +415,8 @@ public class ResourcePool {
     }
 
     protected Map<StyleInfo, Style> createStyleCache() {
-        return new HashMap<StyleInfo, Style>();
+        Map<StyleInfo, Style> bounded = BoundedResourceCache.create(STYLE_CACHE, (k, v) -> {});
+        return bounded != null ? bounded : new HashMap<StyleInfo, Style>();
     }
 
     /**
@@ -401,7 +433,26 @@ public class ResourcePool {
     }
 
     protected Map<String, WebMapServer> createWmsCache() {
-        return new WMSCache();
+        Map<String, WebMapServer> bounded = BoundedResourceCache.create(WMS_CACHE,
+                this::disposeWebMapServer);
+        return bounded != null ? bounded : new WMSCache();
+    }
+
+    /**
+     * Returns the statistics of the caches configured as bounded ones (see
+     * {@link BoundedResourceCache}), keyed by cache name
+     */
+    public Map<String, CacheStats> getCacheStatistics() {
+        Map<String, CacheStats> result = new LinkedHashMap<>();
+        for (Map<?, ?> cache : Arrays.asList(crsCache, featureTypeCache,
+                featureTypeAttributeCache, coverageReaderCache, hintCoverageReaderCache,
+                styleCache, wmsCache)) {
+            if (cache instanceof BoundedResourceCache) {
+                BoundedResourceCache<?, ?> bounded = (BoundedResourceCache<?, ?>) cache;
+                result.put(bounded.getName(), bounded.getStatistics());
+            }
+        }
+        return result;
     }
 
     /**
@@ -1494,6 +1545,14 @@ public class ResourcePool {
                     if(reader == null) {
                         throw new IOException("Failed to create reader from " + urlString + " and hints " + hints);
                     }
+                    // readers not safe for concurrent use get pooled, if so configured
+                    if (reader instanceof GridCoverage2DReader && CoverageReaderPool.isPooled(gridFormat)) {
+                        final Hints readerHints = hints;
+                        reader = CoverageReaderPool.wrap(getPoolName(info),
+                                (GridCoverage2DReader) reader,
+                                () -> (GridCoverage2DReader) gridFormat.getReader(readObject,
+                                        new Hints(readerHints)));
+                    }
                     if(key != null) {
                         if(hints != null) {
                             hintCoverageReaderCache.put((CoverageHintReaderKey) key, reader);
@@ -1577,6 +1636,28 @@ public class ResourcePool {
         return readObject;
     }
 
+    String getPoolName(CoverageStoreInfo info) {
+        WorkspaceInfo ws = info.getWorkspace();
+        return ws != null ? ws.getName() + ":" + info.getName() : info.getName();
+    }
+
+    /**
+     * Returns the pools of the cached coverage readers that are pooled (see
+     * {@link CoverageReaderPool})
+     */
+    public List<CoverageReaderPool> getCoverageReaderPools() {
+        List<CoverageReaderPool> result = new ArrayList<>();
+        for (Map<?, ?> cache : Arrays.asList(coverageReaderCache, hintCoverageReaderCache)) {
+            for (Object reader : new ArrayList<>(cache.values())) {
+                CoverageReaderPool pool = CoverageReaderPool.getPool(reader);
+                if (pool != null) {
+                    result.add(pool);
+                }
+            }
+        }
+        return result;
+    }
+
     /**
      * Clears any cached readers for the coverage.
      */
@@ -1815,7 +1896,13 @@ public class ResourcePool {
         client.setConnectTimeout(connectTimeout);
         client.setReadTimeout(readTimeout);
         
-        return client;
+        // cache the GetMap/GetFeatureInfo responses the remote server allows caching
+        GeoServerResourceLoader loader = catalog.getResourceLoader();
+        Resource cacheDirectory = null;
+        if (loader != null && info.getId() != null) {
+            cacheDirectory = loader.get(Paths.path("temp", "cascade-cache", info.getId()));
+        }
+        return CachingHttpClient.wrap(client, cacheDirectory);
     }
 
     /**
@@ -2079,15 +2166,19 @@ public class ResourcePool {
         }
         
         protected void dispose(String key, FeatureType featureType) {
-            String id = key.substring(0, key.indexOf(PROJECTION_POLICY_SEPARATOR));
-        	FeatureTypeInfo info = catalog.getFeatureType(id);
-            if(info != null){
-                LOGGER.fine( "Disposing feature type '" + info.getName() + "'/" + id);
-                fireDisposed(info, featureType);
-                if (null != featureTypeAttributeCache.remove(id)) {
-                    LOGGER.fine("AttributeType cache cleared for feature type '" + info.getName()
-                            + "'/" + id + " as a side effect of its cache disposal");
-                }
+            disposeFeatureType(key, featureType);
+        }
+    }
+
+    void disposeFeatureType(String key, FeatureType featureType) {
+        String id = key.substring(0, key.indexOf(PROJECTION_POLICY_SEPARATOR));
+        FeatureTypeInfo info = catalog.getFeatureType(id);
+        if(info != null){
+            LOGGER.fine( "Disposing feature type '" + info.getName() + "'/" + id);
+            fireDisposed(info, featureType);
+            if (null != featureTypeAttributeCache.remove(id)) {
+                LOGGER.fine("AttributeType cache cleared for feature type '" + info.getName()
+                        + "'/" + id + " as a side effect of its cache disposal");
             }
         }
     }
@@ -2135,43 +2226,34 @@ public class ResourcePool {
     class CoverageReaderCache extends CatalogResourceCache<String, GridCoverageReader> {
         
         protected void dispose(String id, GridCoverageReader reader) {
-        	CoverageStoreInfo info = catalog.getCoverageStore(id);
-        	if(info != null) {
-                String name = info.getName();
-                LOGGER.fine( "Disposing coverage store '" + name + "'" );
-                
-                fireDisposed(info, reader);
-            }
-            try {
-                reader.dispose();
-            }
-            catch( Exception e ) {
-                LOGGER.warning( "Error occured disposing coverage reader '" + info.getName() + "'");
-                LOGGER.log(Level.FINE, "", e );
-            }
+            disposeCoverageReader(id, reader);
         }
     }
     
     class CoverageHintReaderCache extends CatalogResourceCache<CoverageHintReaderKey, GridCoverageReader> {
         
         protected void dispose(CoverageHintReaderKey key, GridCoverageReader reader) {
-        	CoverageStoreInfo info = catalog.getCoverageStore(key.id);
-        	if(info != null) {
-                String name = info.getName();
-                LOGGER.fine( "Disposing coverage store '" + name + "'" );
-                
-                fireDisposed(info, reader);
-            }
-            try {
-                reader.dispose();
-            }
-            catch( Exception e ) {
-                LOGGER.warning( "Error occured disposing coverage reader '" + info.getName() + "'");
-                LOGGER.log(Level.FINE, "", e );
-            }
+            disposeCoverageReader(key.id, reader);
         }
         
     }
+
+    void disposeCoverageReader(String id, GridCoverageReader reader) {
+        CoverageStoreInfo info = catalog.getCoverageStore(id);
+        String name = info != null ? info.getName() : id;
+        if(info != null) {
+            LOGGER.fine( "Disposing coverage store '" + name + "'" );
+            
+            fireDisposed(info, reader);
+        }
+        try {
+            reader.dispose();
+        }
+        catch( Exception e ) {
+            LOGGER.warning( "Error occured disposing coverage reader '" + name + "'");
+            LOGGER.log(Level.FINE, "", e );
+        }
+    }
     
     /**
      * The key in the {@link CoverageHintReaderCache}
@@ -2236,22 +2318,26 @@ public class ResourcePool {
 
         @Override
         protected void dispose(String key, WebMapServer server) {
-            HTTPClient client = server.getHTTPClient();
-            if (client instanceof Closeable) {
-                // dispose the client, and the connection pool hosted into it as a consequence
-                // the connection pool additionally holds a few threads that are also getting
-                // disposed with this call
-                Closeable closeable = (Closeable) client;
-                try {
-                    closeable.close();
-                } catch (IOException e) {
-                    LOGGER.log(Level.FINE,
-                            "Failure while disposing the http client for a WMS store", e);
-                }
-            }
+            disposeWebMapServer(key, server);
         }
 
     }
+
+    void disposeWebMapServer(String key, WebMapServer server) {
+        HTTPClient client = server.getHTTPClient();
+        if (client instanceof Closeable) {
+            // dispose the client, and the connection pool hosted into it as a consequence
+            // the connection pool additionally holds a few threads that are also getting
+            // disposed with this call
+            Closeable closeable = (Closeable) client;
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE,
+                        "Failure while disposing the http client for a WMS store", e);
+            }
+        }
+    }
     
     /**
      * Listens to catalog events clearing cache entires when resources are modified.
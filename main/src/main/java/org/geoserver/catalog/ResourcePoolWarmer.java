@@ -0,0 +1,410 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import static org.geoserver.platform.GeoServerExtensions.getIntProperty;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+import org.geoserver.catalog.ResourcePool.CoverageHintReaderKey;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerReinitializer;
+import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.ModuleStatus;
+import org.geoserver.platform.resource.Resource;
+import org.geoserver.platform.resource.Resources;
+import org.geotools.util.logging.Logging;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Opens the enabled data stores and coverage readers, and builds the feature types, in the
+ * background once the configuration has been loaded (and again after each reload), so that the
+ * first requests hitting each layer do not have to pay for it.
+ * <p>
+ * The warm-up is disabled by default, it can be enabled by setting the
+ * "GEOSERVER_RESOURCE_POOL_WARMUP" variable to "true" (as a system, environment or servlet context
+ * variable). The "GEOSERVER_RESOURCE_POOL_WARMUP_THREADS" variable controls how many stores are
+ * warmed up in parallel (defaults to the number of available processors).
+ * </p>
+ * <p>
+ * On shutdown the ids of the stores found in the {@link ResourcePool} caches are saved in the
+ * data directory temp folder, and warmed up first on the next startup. Progress is logged and reported via
+ * {@link ModuleStatus} and {@link #getStatus()}, {@link #isReady()} returns true only once a
+ * warm-up has run to completion.
+ * </p>
+ */
+public class ResourcePoolWarmer
+        implements GeoServerReinitializer, GeoServerLifecycleHandler, ModuleStatus {
+
+    static final Logger LOGGER = Logging.getLogger(ResourcePoolWarmer.class);
+
+    static final String WARMUP = "GEOSERVER_RESOURCE_POOL_WARMUP";
+
+    static final String WARMUP_THREADS = "GEOSERVER_RESOURCE_POOL_WARMUP_THREADS";
+
+    /**
+     * Where the stores in use are saved, relative to the data directory
+     */
+    static final String USAGE_FILE = "temp/resource_pool_usage.txt";
+
+    /**
+     * How long a cancellation waits for the stores being warmed up, in seconds
+     */
+    static final int CANCEL_TIMEOUT = 10;
+
+    public enum Status {
+        /** The warm-up is not enabled */
+        DISABLED,
+        /** Stores are being warmed up */
+        RUNNING,
+        /** All the stores have been warmed up, or failed to */
+        COMPLETE,
+        /** The warm-up has been stopped before completion */
+        CANCELLED
+    }
+
+    /**
+     * A single warm-up run
+     */
+    static class WarmUp {
+        final ExecutorService executor;
+
+        final int total;
+
+        final AtomicInteger completed = new AtomicInteger();
+
+        final AtomicInteger failed = new AtomicInteger();
+
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        final long start = System.currentTimeMillis();
+
+        volatile boolean cancelled;
+
+        WarmUp(ExecutorService executor, int total) {
+            this.executor = executor;
+            this.total = total;
+        }
+
+        /**
+         * Stops the run, the queued stores are skipped while the ones being opened get a
+         * chance to complete, as interrupting them could leave the stores half initialized in the
+         * resource pool
+         */
+        void cancel() {
+            cancelled = true;
+            executor.shutdown();
+            latch.countDown();
+            try {
+                if (!executor.awaitTermination(CANCEL_TIMEOUT, TimeUnit.SECONDS)) {
+                    LOGGER.warning("The resource pool warm-up did not stop within "
+                            + CANCEL_TIMEOUT
+                            + " seconds, leaving it to complete in the background");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    Catalog catalog;
+
+    volatile WarmUp current;
+
+    @Override
+    public void initialize(GeoServer geoServer) throws Exception {
+        this.catalog = geoServer.getCatalog();
+        if (catalog instanceof Wrapper) {
+            catalog = ((Wrapper) catalog).unwrap(Catalog.class);
+        }
+        if (Boolean.parseBoolean(GeoServerExtensions.getProperty(WARMUP))) {
+            start(getIntProperty(WARMUP_THREADS, Runtime.getRuntime().availableProcessors(), 1));
+        } else {
+            current = null;
+        }
+    }
+
+    @Override
+    public void reinitialize(GeoServer geoServer) throws Exception {
+        // the reload has emptied the resource pool, start over
+        cancel();
+        initialize(geoServer);
+    }
+
+    /**
+     * Starts warming up the resource pool with the given number of threads, cancelling any warm-up
+     * in progress
+     */
+    public void start(int threads) {
+        cancel();
+
+        List<StoreInfo> stores = new ArrayList<>();
+        for (StoreInfo store : catalog.getStores(StoreInfo.class)) {
+            if (store.isEnabled()
+                    && (store instanceof DataStoreInfo || store instanceof CoverageStoreInfo)) {
+                stores.add(store);
+            }
+        }
+        // stores used before the last shutdown go first, the others keep the catalog order
+        Map<String, Integer> ranks = new HashMap<>();
+        for (String id : readUsage()) {
+            ranks.putIfAbsent(id, ranks.size());
+        }
+        stores.sort(Comparator
+                .comparing((StoreInfo s) -> ranks.getOrDefault(s.getId(), Integer.MAX_VALUE)));
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new CustomizableThreadFactory("ResourcePoolWarmer-"));
+        WarmUp warmUp = new WarmUp(executor, stores.size());
+        current = warmUp;
+        LOGGER.info("Warming up " + stores.size() + " stores with " + threads + " threads");
+        if (stores.isEmpty()) {
+            complete(warmUp);
+            return;
+        }
+        for (StoreInfo store : stores) {
+            executor.execute(() -> {
+                if (warmUp.cancelled) {
+                    return;
+                }
+                try {
+                    warmUp(store);
+                } catch (Exception e) {
+                    warmUp.failed.incrementAndGet();
+                    LOGGER.log(Level.WARNING, "Failed to warm up store " + store.getName() + ": "
+                            + e.getMessage());
+                    LOGGER.log(Level.FINE, "", e);
+                }
+                progress(warmUp);
+            });
+        }
+    }
+
+    void warmUp(StoreInfo store) throws IOException {
+        ResourcePool pool = catalog.getResourcePool();
+        if (store instanceof DataStoreInfo) {
+            pool.getDataStore((DataStoreInfo) store);
+            for (FeatureTypeInfo ft : catalog.getResourcesByStore(store, FeatureTypeInfo.class)) {
+                if (ft.isEnabled()) {
+                    pool.getFeatureType(ft);
+                }
+            }
+        } else {
+            pool.getGridCoverageReader((CoverageStoreInfo) store, null);
+        }
+    }
+
+    void progress(WarmUp warmUp) {
+        int done = warmUp.completed.incrementAndGet();
+        if (done == warmUp.total) {
+            complete(warmUp);
+        } else if (done * 10 / warmUp.total > (done - 1) * 10 / warmUp.total) {
+            LOGGER.info("Warmed up " + done + " out of " + warmUp.total + " stores");
+        }
+    }
+
+    void complete(WarmUp warmUp) {
+        warmUp.executor.shutdown();
+        warmUp.latch.countDown();
+        LOGGER.info("Resource pool warm-up completed in "
+                + (System.currentTimeMillis() - warmUp.start) + "ms, " + warmUp.failed.get()
+                + " stores failed");
+    }
+
+    /**
+     * Stops the warm-up in progress, if any. The run is kept around to report its state.
+     */
+    void cancel() {
+        WarmUp warmUp = current;
+        if (warmUp != null && warmUp.latch.getCount() > 0) {
+            LOGGER.info("Cancelling the resource pool warm-up");
+            warmUp.cancel();
+        }
+    }
+
+    /**
+     * Waits for the warm-up in progress, if any, to complete
+     *
+     * @return true if the warm-up is over, false if the timeout elapsed first
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        WarmUp warmUp = current;
+        return warmUp == null || warmUp.latch.await(timeout, unit);
+    }
+
+    /**
+     * Returns true if a warm-up has run to completion, false if it's disabled, running or got
+     * cancelled (see {@link #getStatus()} to tell these apart)
+     */
+    public boolean isReady() {
+        return getStatus() == Status.COMPLETE;
+    }
+
+    public Status getStatus() {
+        WarmUp warmUp = current;
+        if (warmUp == null) {
+            return Status.DISABLED;
+        } else if (warmUp.cancelled) {
+            return Status.CANCELLED;
+        }
+        return warmUp.latch.getCount() > 0 ? Status.RUNNING : Status.COMPLETE;
+    }
+
+    /**
+     * Returns the number of stores to be warmed up
+     */
+    public int getTotal() {
+        WarmUp warmUp = current;
+        return warmUp == null ? 0 : warmUp.total;
+    }
+
+    /**
+     * Returns the number of stores warmed up so far, including the failed ones
+     */
+    public int getCompleted() {
+        WarmUp warmUp = current;
+        return warmUp == null ? 0 : warmUp.completed.get();
+    }
+
+    /**
+     * Returns the number of stores that could not be opened
+     */
+    public int getFailed() {
+        WarmUp warmUp = current;
+        return warmUp == null ? 0 : warmUp.failed.get();
+    }
+
+    List<String> readUsage() {
+        Resource resource = catalog.getResourceLoader().get(USAGE_FILE);
+        if (!Resources.exists(resource)) {
+            return new ArrayList<>();
+        }
+        try (InputStream in = resource.in()) {
+            return IOUtils.readLines(in, "UTF-8");
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not read the resource pool usage", e);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Saves the ids of the stores currently open in the resource pool, to be warmed up first at
+     * the next startup
+     */
+    void saveUsage() {
+        ResourcePool pool = catalog.getResourcePool();
+        Set<String> ids = new LinkedHashSet<>();
+        ids.addAll(new ArrayList<>(pool.getDataStoreCache().keySet()));
+        ids.addAll(new ArrayList<>(pool.getCoverageReaderCache().keySet()));
+        for (CoverageHintReaderKey key : new ArrayList<>(
+                pool.getHintCoverageReaderCache().keySet())) {
+            ids.add(key.id);
+        }
+        if (ids.isEmpty()) {
+            // nothing got used, keep the previous information
+            return;
+        }
+        Resource resource = catalog.getResourceLoader().get(USAGE_FILE);
+        try (OutputStream out = resource.out()) {
+            IOUtils.writeLines(ids, "\n", out, "UTF-8");
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not save the resource pool usage", e);
+        }
+    }
+
+    @Override
+    public void onReset() {
+        // the pool has already been emptied, nothing to save
+    }
+
+    /**
+     * Called before the catalog, and thus the resource pool, gets disposed
+     */
+    @Override
+    public void onDispose() {
+        cancel();
+        if (catalog != null) {
+            saveUsage();
+        }
+    }
+
+    @Override
+    public void beforeReload() {
+        // save while the pool still holds the stores in use
+        cancel();
+        if (catalog != null) {
+            saveUsage();
+        }
+    }
+
+    @Override
+    public void onReload() {
+        // the warm-up is restarted by reinitialize
+    }
+
+    @Override
+    public String getModule() {
+        return "gs-main";
+    }
+
+    @Override
+    public Optional<String> getComponent() {
+        return Optional.of("resource-pool-warmup");
+    }
+
+    @Override
+    public String getName() {
+        return "Resource pool warm-up";
+    }
+
+    @Override
+    public Optional<String> getVersion() {
+        return Optional.empty();
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return getStatus() != Status.DISABLED;
+    }
+
+    @Override
+    public Optional<String> getMessage() {
+        Status status = getStatus();
+        if (status == Status.DISABLED) {
+            return Optional.empty();
+        }
+        return Optional.of(status + ": " + getCompleted() + " out of " + getTotal()
+                + " stores warmed up, " + getFailed() + " failed");
+    }
+
+    @Override
+    public Optional<String> getDocumentation() {
+        return Optional.empty();
+    }
+}
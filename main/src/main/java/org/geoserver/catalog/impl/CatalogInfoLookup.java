@@ -7,8 +7,10 @@ package org.geoserver.catalog.impl;
 import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.function.Function;
@@ -24,6 +26,12 @@ import org.opengis.feature.type.Name;
  * The lookups by predicate have been tested and optimized for performance, in particular
  * the current for loops turned out to be significantly faster than building and returning streams
  * 
+ * Secondary indexes can be registered with {@link #addIndex(String, Function)}, they map the
+ * identifier of a related object (e.g., the workspace of a store) to the objects referring to it,
+ * allowing {@link #list(Class, String, Collection, Predicate)} to avoid a full scan. Index keys
+ * should be stable identifiers, as the indexes are only updated when the indexed object itself is
+ * added, removed or saved.
+ * 
  * @param <T>
  */
 class CatalogInfoLookup<T extends CatalogInfo> {
@@ -32,11 +40,92 @@ class CatalogInfoLookup<T extends CatalogInfo> {
     Function<T, Name> nameMapper;
     static final Predicate TRUE = x -> true;
     
+    /**
+     * Key used in the secondary indexes for null values, concurrent maps do not accept nulls
+     */
+    static final Object NULL_KEY = new Object();
+    
+    /**
+     * The secondary index key mappers, by index name
+     */
+    Map<String, Function<T, Object>> indexMappers = new LinkedHashMap<>();
+    
+    /**
+     * The secondary indexes, by index name, class and key, each one containing the indexed
+     * objects sorted by name
+     */
+    Map<String, ConcurrentHashMap<Class<T>, ConcurrentHashMap<Object, Map<Name, T>>>> indexes = new LinkedHashMap<>();
+    
     public CatalogInfoLookup(Function<T, Name> nameMapper) {
         super();
         this.nameMapper = nameMapper;
     }
     
+    /**
+     * Registers a secondary index. Must be called before any object is added to the lookup.
+     * 
+     * @param index The index name, usually the property path of the key (e.g. "workspace.id")
+     * @param keyMapper Extracts the index key from the objects
+     */
+    public CatalogInfoLookup<T> addIndex(String index, Function<T, Object> keyMapper) {
+        indexMappers.put(index, keyMapper);
+        indexes.put(index, new ConcurrentHashMap<>());
+        return this;
+    }
+    
+    /**
+     * Returns true if a secondary index with the given name has been registered
+     */
+    public boolean hasIndex(String index) {
+        return indexMappers.containsKey(index);
+    }
+    
+    Class<T> getValueClass(T value) {
+        if(Proxy.isProxyClass(value.getClass())) {
+            ModificationProxy h = (ModificationProxy) Proxy.getInvocationHandler(value);
+            return (Class<T>) h.getProxyObject().getClass();
+        } else {
+            return (Class<T>) value.getClass();
+        }
+    }
+    
+    static Object indexKey(Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+    
+    void addToIndex(String index, Class<T> clazz, Object key, Name name, T value) {
+        ConcurrentHashMap<Object, Map<Name, T>> keyMap = indexes.get(index).computeIfAbsent(clazz,
+                k -> new ConcurrentHashMap<>());
+        keyMap.compute(indexKey(key), (k, v) -> {
+            Map<Name, T> map = v != null ? v : new ConcurrentSkipListMap<>();
+            map.put(name, value);
+            return map;
+        });
+    }
+    
+    void removeFromIndex(String index, Class<T> clazz, Object key, Name name) {
+        ConcurrentHashMap<Object, Map<Name, T>> keyMap = indexes.get(index).get(clazz);
+        if (keyMap != null) {
+            keyMap.computeIfPresent(indexKey(key), (k, v) -> {
+                v.remove(name);
+                return v.isEmpty() ? null : v;
+            });
+        }
+    }
+    
+    /**
+     * Moves the value to the new name in all secondary indexes, used when the name changes
+     * without the value itself being saved
+     */
+    void renameInIndexes(T value, Name oldName, Name newName) {
+        Class<T> clazz = getValueClass(value);
+        for (Map.Entry<String, Function<T, Object>> entry : indexMappers.entrySet()) {
+            Object key = entry.getValue().apply(value);
+            removeFromIndex(entry.getKey(), clazz, key, oldName);
+            addToIndex(entry.getKey(), clazz, key, newName, value);
+        }
+    }
+    
     <K> Map<K, T> getMapForValue(ConcurrentHashMap<Class<T>, Map<K, T>> maps, T value) {
         Class<T> vc;
         if(Proxy.isProxyClass(value.getClass())) {
@@ -67,6 +156,10 @@ class CatalogInfoLookup<T extends CatalogInfo> {
         Map<Name, T> nameMap = getMapForValue(nameMultiMap, value);
         Name name = nameMapper.apply(value);
         nameMap.put(name, value);
+        for (Map.Entry<String, Function<T, Object>> entry : indexMappers.entrySet()) {
+            addToIndex(entry.getKey(), getValueClass(value), entry.getValue().apply(value), name,
+                    value);
+        }
         Map<String, T> idMap = getMapForValue(idMultiMap, value);
         return idMap.put(value.getId(), value);
     }
@@ -84,12 +177,17 @@ class CatalogInfoLookup<T extends CatalogInfo> {
         Name name = nameMapper.apply(value);
         Map<Name, T> nameMap = getMapForValue(nameMultiMap, value);
         nameMap.remove(name);
+        for (Map.Entry<String, Function<T, Object>> entry : indexMappers.entrySet()) {
+            removeFromIndex(entry.getKey(), getValueClass(value), entry.getValue().apply(value),
+                    name);
+        }
         Map<String, T> idMap = getMapForValue(idMultiMap, value);
         return idMap.remove(value.getId());
     }
     
     /**
-     * Updates the value in the name map. The new value must be a ModificationProxy
+     * Updates the value in the name map and secondary indexes. The new value must be a
+     * ModificationProxy
      */
     public void update(T proxiedValue) {
         ModificationProxy h = (ModificationProxy) Proxy.getInvocationHandler(proxiedValue);
@@ -97,17 +195,31 @@ class CatalogInfoLookup<T extends CatalogInfo> {
 
         Name oldName = nameMapper.apply(actualValue);
         Name newName = nameMapper.apply(proxiedValue);
-        if(!oldName.equals(newName)) {
+        boolean renamed = !oldName.equals(newName);
+        if(renamed) {
             Map<Name, T> nameMap = getMapForValue(nameMultiMap, actualValue);
             nameMap.remove(oldName);
             nameMap.put(newName, actualValue);
         }
+        
+        Class<T> clazz = getValueClass(actualValue);
+        for (Map.Entry<String, Function<T, Object>> entry : indexMappers.entrySet()) {
+            Object oldKey = entry.getValue().apply(actualValue);
+            Object newKey = entry.getValue().apply(proxiedValue);
+            if (renamed || !Objects.equals(oldKey, newKey)) {
+                removeFromIndex(entry.getKey(), clazz, oldKey, oldName);
+                addToIndex(entry.getKey(), clazz, newKey, newName, actualValue);
+            }
+        }
     }
 
     
     public void clear() {
         idMultiMap.clear();
         nameMultiMap.clear();
+        for (Map<Class<T>, ConcurrentHashMap<Object, Map<Name, T>>> index : indexes.values()) {
+            index.clear();
+        }
     }
 
     /**
@@ -139,6 +251,44 @@ class CatalogInfoLookup<T extends CatalogInfo> {
         return result;
     }
     
+    /**
+     * Looks up objects by class and matching predicate, using a secondary index to narrow down the
+     * objects to be tested to the ones whose index key is among the given keys
+     * 
+     * @param clazz
+     * @param index The name of a secondary index registered via {@link #addIndex(String, Function)}
+     * @param keys The keys to look for in the index
+     * @param predicate
+     * @return
+     */
+    <U extends CatalogInfo> List<U> list(Class<U> clazz, String index, Collection<?> keys,
+            Predicate<U> predicate) {
+        ArrayList<U> result = new ArrayList<U>();
+        ConcurrentHashMap<Class<T>, ConcurrentHashMap<Object, Map<Name, T>>> indexMap = indexes
+                .get(index);
+        for (Class<T> key : indexMap.keySet()) {
+            if (clazz.isAssignableFrom(key)) {
+                ConcurrentHashMap<Object, Map<Name, T>> keyMap = indexMap.get(key);
+                if (keyMap == null) {
+                    continue;
+                }
+                for (Object k : keys) {
+                    Map<Name, T> valueMap = keyMap.get(indexKey(k));
+                    if (valueMap != null) {
+                        for (T v : valueMap.values()) {
+                            final U u = (U) v;
+                            if (predicate == TRUE || predicate.test(u)) {
+                                result.add(u);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+    
     /**
      * Looks up a CatalogInfo by class and identifier
      * @param id
@@ -9,6 +9,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
@@ -40,7 +41,11 @@ import org.geoserver.catalog.util.CloseableIteratorAdapter;
 import org.geoserver.ows.util.OwsUtils;
 import org.geotools.feature.NameImpl;
 import org.opengis.feature.type.Name;
+import org.opengis.filter.And;
 import org.opengis.filter.Filter;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
 import org.opengis.filter.sort.SortBy;
 import org.opengis.filter.sort.SortOrder;
 
@@ -85,11 +90,45 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     
     static final Function<StyleInfo, Name> STYLE_NAME_MAPPER = s -> 
         new NameImpl(s.getWorkspace() != null ? s.getWorkspace().getId() : null, s.getName());
+    
+    /*
+     * Secondary index names. The keys are identifiers, which do not change when the referenced
+     * objects are renamed, so the indexes need to be updated only when the indexed objects are saved 
+     */
+    static final String WORKSPACE_ID = "workspace.id";
+    
+    static final String NAMESPACE_ID = "namespace.id";
+    
+    static final String STORE_ID = "store.id";
+    
+    static final String RESOURCE_ID = "resource.id";
+    
+    static CatalogInfoLookup<StoreInfo> newStoreLookup() {
+        return new CatalogInfoLookup<>(STORE_NAME_MAPPER).addIndex(WORKSPACE_ID,
+                s -> s.getWorkspace() != null ? s.getWorkspace().getId() : null);
+    }
+    
+    static CatalogInfoLookup<ResourceInfo> newResourceLookup() {
+        return new CatalogInfoLookup<>(RESOURCE_NAME_MAPPER)
+                .addIndex(STORE_ID, r -> r.getStore() != null ? r.getStore().getId() : null)
+                .addIndex(NAMESPACE_ID, r -> r.getNamespace() != null ? r.getNamespace().getId() : null);
+    }
+    
+    static CatalogInfoLookup<LayerGroupInfo> newLayerGroupLookup() {
+        return new CatalogInfoLookup<>(LAYERGROUP_NAME_MAPPER).addIndex(WORKSPACE_ID,
+                lg -> lg.getWorkspace() != null ? lg.getWorkspace().getId() : null);
+    }
+    
+    static CatalogInfoLookup<StyleInfo> newStyleLookup() {
+        return new CatalogInfoLookup<>(STYLE_NAME_MAPPER).addIndex(WORKSPACE_ID,
+                s -> s.getWorkspace() != null ? s.getWorkspace().getId() : null);
+    }
         
     static final class LayerInfoLookup extends CatalogInfoLookup<LayerInfo> {
 
         public LayerInfoLookup() {
             super(LAYER_NAME_MAPPER);
+            addIndex(RESOURCE_ID, l -> l.getResource() != null ? l.getResource().getId() : null);
         }
         
         public void update(ResourceInfo proxiedValue) {
@@ -104,6 +143,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
                 // handle case of feature type without a corresponding layer
                 if(value != null) {
                     nameMap.put(newName, value);
+                    renameInIndexes(value, oldName, newName);
                 }
             }
         }
@@ -113,7 +153,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     /**
      * Contains the stores keyed by implementation class
      */
-    protected CatalogInfoLookup<StoreInfo> stores = new CatalogInfoLookup<>(STORE_NAME_MAPPER);
+    protected CatalogInfoLookup<StoreInfo> stores = newStoreLookup();
     
     /**
      * The default store keyed by workspace id
@@ -123,7 +163,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     /**
      * resources
      */
-    protected CatalogInfoLookup<ResourceInfo> resources = new CatalogInfoLookup<>(RESOURCE_NAME_MAPPER);
+    protected CatalogInfoLookup<ResourceInfo> resources = newResourceLookup();
 
     /**
      * The default namespace
@@ -158,12 +198,12 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     /**
      * layer groups
      */
-    protected CatalogInfoLookup<LayerGroupInfo> layerGroups = new CatalogInfoLookup<>(LAYERGROUP_NAME_MAPPER);
+    protected CatalogInfoLookup<LayerGroupInfo> layerGroups = newLayerGroupLookup();
     
     /**
      * styles
      */
-    protected CatalogInfoLookup<StyleInfo> styles = new CatalogInfoLookup<>(STYLE_NAME_MAPPER);
+    protected CatalogInfoLookup<StyleInfo> styles = newStyleLookup();
 
     /**
      * the catalog
@@ -246,7 +286,8 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
             ws = workspace;
         }
 
-        List<T> matches = stores.list(clazz, s -> ws.equals(s.getWorkspace()));
+        List<T> matches = stores.list(clazz, WORKSPACE_ID, singletonId(ws),
+                s -> ws.equals(s.getWorkspace()));
         return ModificationProxy.createList(matches,clazz);
     }
     
@@ -352,7 +393,8 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
             ns = namespace;
         }
 
-        List<T> matches = resources.list(clazz, r -> ns.equals(r.getNamespace()));
+        List<T> matches = resources.list(clazz, NAMESPACE_ID, singletonId(ns),
+                r -> ns.equals(r.getNamespace()));
         return ModificationProxy.createList( matches, clazz );
     }
     
@@ -374,6 +416,10 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         return wrapInModificationProxy(resource, clazz);
     }
 
+    private static Collection<String> singletonId(CatalogInfo info) {
+        return Collections.singleton(info != null ? info.getId() : null);
+    }
+
     private <T extends CatalogInfo> T wrapInModificationProxy(T ci, Class<T> clazz) {
         if (ci != null) {
             return ModificationProxy.create(ci, clazz);
@@ -384,7 +430,8 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     
     public <T extends ResourceInfo> List<T> getResourcesByStore(
             StoreInfo store, Class<T> clazz) {
-        List<T> matches = resources.list(clazz, r -> store.equals(r.getStore()));
+        List<T> matches = resources.list(clazz, STORE_ID, singletonId(store),
+                r -> store.equals(r.getStore()));
         return  ModificationProxy.createList( matches, clazz );
     }
     
@@ -574,13 +621,17 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
             ws = workspace;
         }
         Predicate<LayerGroupInfo> predicate;
+        Collection<String> keys;
         if(workspace == NO_WORKSPACE) {
             predicate = lg -> lg.getWorkspace() == null;
+            keys = Collections.singleton(null);
         } else {
             predicate = lg -> ws.equals(lg.getWorkspace());
+            keys = singletonId(ws);
         }
 
-        List<LayerGroupInfo> matches = layerGroups.list(LayerGroupInfo.class, predicate);
+        List<LayerGroupInfo> matches = layerGroups.list(LayerGroupInfo.class, WORKSPACE_ID, keys,
+                predicate);
         return ModificationProxy.createList(matches,LayerGroupInfo.class);
 
     }
@@ -828,7 +879,8 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         //TODO: support ANY_WORKSPACE?
         List<StyleInfo> matches;
         if (workspace == NO_WORKSPACE) {
-            matches = styles.list(StyleInfo.class, s -> s.getWorkspace() == null);
+            matches = styles.list(StyleInfo.class, WORKSPACE_ID, Collections.singleton(null),
+                    s -> s.getWorkspace() == null);
         } else {
             WorkspaceInfo ws;
             if ( workspace == null ) {
@@ -837,7 +889,8 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
                 ws = workspace;
             }
             
-            matches = styles.list(StyleInfo.class, s -> ws.equals(s.getWorkspace()));
+            matches = styles.list(StyleInfo.class, WORKSPACE_ID, singletonId(ws),
+                    s -> ws.equals(s.getWorkspace()));
         }
 
         return ModificationProxy.createList(matches,StyleInfo.class);
@@ -877,7 +930,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         
         //stores
         if ( stores == null ) {
-            stores = new CatalogInfoLookup<>(STORE_NAME_MAPPER);
+            stores = newStoreLookup();
         }
         for ( Object o : stores.values() ) {
             resolve((StoreInfoImpl)o);
@@ -885,7 +938,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         
         //styles
         if ( styles == null ) {
-            styles = new CatalogInfoLookup<>(STYLE_NAME_MAPPER);
+            styles = newStyleLookup();
         }
         for ( StyleInfo s : styles.values() ) {
             resolve(s);
@@ -893,7 +946,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         
         //resources
         if ( resources == null ) {
-            resources = new CatalogInfoLookup<>(RESOURCE_NAME_MAPPER);
+            resources = newResourceLookup();
         }
         for( Object o : resources.values() ) {
             resolve((ResourceInfo)o);
@@ -909,7 +962,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         
         //layer groups
         if ( layerGroups == null ) {
-            layerGroups = new CatalogInfoLookup<>(LAYERGROUP_NAME_MAPPER);
+            layerGroups = newLayerGroupLookup();
         }
         for (LayerGroupInfo lg : layerGroups.values()) {
             resolve(lg);
@@ -1062,23 +1115,23 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         
         T t = null;
         if (NamespaceInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) namespaces.list(of, toPredicate(filter));
+            all = (List<T>) list(namespaces, of, filter);
         } else if (WorkspaceInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) workspaces.list(of, toPredicate(filter));
+            all = (List<T>) list(workspaces, of, filter);
         } else if (StoreInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) stores.list(of, toPredicate(filter));
+            all = (List<T>) list(stores, of, filter);
         } else if (ResourceInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) resources.list(of, toPredicate(filter));
+            all = (List<T>) list(resources, of, filter);
         } else if (LayerInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) layers.list(of, toPredicate(filter));
+            all = (List<T>) list(layers, of, filter);
         } else if (LayerGroupInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) layerGroups.list(of, toPredicate(filter));
+            all = (List<T>) list(layerGroups, of, filter);
         } else if (PublishedInfo.class.isAssignableFrom(of)) {
             all = new ArrayList<>();
-            all.addAll((List<T>) layers.list(LayerInfo.class, toPredicate(filter)));
-            all.addAll((List<T>) layerGroups.list(LayerGroupInfo.class, toPredicate(filter)));
+            all.addAll((List<T>) list(layers, LayerInfo.class, filter));
+            all.addAll((List<T>) list(layerGroups, LayerGroupInfo.class, filter));
         } else if (StyleInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) styles.list(of, toPredicate(filter));
+            all = (List<T>) list(styles, of, filter);
         } else if (MapInfo.class.isAssignableFrom(of)) {
             all = (List<T>) new ArrayList<>(maps);
         } else {
@@ -1099,6 +1152,124 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         return ModificationProxy.createList(all, of);
     }
 
+    /**
+     * Lists the objects in the lookup matching the filter. If the filter is, or contains in a
+     * logical and, an equality comparison against the object id or against the id/name of one of
+     * the objects it refers to (e.g. "resource.store.workspace.name"), the secondary indexes are
+     * used to narrow down the candidates, instead of scanning all objects. The full filter is
+     * evaluated against the candidates in any case.
+     */
+    <T extends CatalogInfo, U extends CatalogInfo> List<U> list(CatalogInfoLookup<T> lookup,
+            Class<U> of, Filter filter) {
+        Predicate<U> predicate = toPredicate(filter);
+        for (PropertyIsEqualTo equal : getIndexableComparisons(filter)) {
+            String property = ((PropertyName) equal.getExpression1()).getPropertyName();
+            String value = (String) ((Literal) equal.getExpression2()).getValue();
+            if ("id".equals(property)) {
+                List<U> result = new ArrayList<>();
+                U match = lookup.findById(value, of);
+                if (match != null && (predicate == CatalogInfoLookup.TRUE || predicate.test(match))) {
+                    result.add(match);
+                }
+                return result;
+            }
+            int idx = property.indexOf('.');
+            if (idx > 0) {
+                String relation = property.substring(0, idx);
+                String index = relation + ".id";
+                if (lookup.hasIndex(index)) {
+                    Collection<String> ids = getIds(relation, property.substring(idx + 1), value);
+                    if (ids != null) {
+                        return lookup.list(of, index, ids, predicate);
+                    }
+                }
+            }
+        }
+
+        return lookup.list(of, predicate);
+    }
+
+    /**
+     * Returns the ids of the workspaces, namespaces, stores or resources (depending on the
+     * relation) whose property at the given path equals the value, or null if the ids cannot be
+     * computed using the indexes
+     */
+    private Collection<String> getIds(String relation, String path, String value) {
+        if ("id".equals(path)) {
+            return Collections.singleton(value);
+        }
+
+        CatalogInfoLookup<?> lookup;
+        if ("workspace".equals(relation)) {
+            if ("name".equals(path)) {
+                return ids(workspaces.findByName(new NameImpl(value), WorkspaceInfo.class));
+            }
+            return null;
+        } else if ("namespace".equals(relation)) {
+            if ("prefix".equals(path)) {
+                return ids(namespaces.findByName(new NameImpl(value), NamespaceInfo.class));
+            }
+            return null;
+        } else if ("store".equals(relation)) {
+            lookup = stores;
+        } else if ("resource".equals(relation)) {
+            lookup = resources;
+        } else {
+            return null;
+        }
+
+        // nested relation, e.g. resource.store.workspace.name
+        int idx = path.indexOf('.');
+        if (idx > 0) {
+            String nested = path.substring(0, idx);
+            String index = nested + ".id";
+            if (lookup.hasIndex(index)) {
+                Collection<String> nestedIds = getIds(nested, path.substring(idx + 1), value);
+                if (nestedIds != null) {
+                    List<String> result = new ArrayList<>();
+                    for (CatalogInfo info : lookup.list(CatalogInfo.class, index, nestedIds,
+                            CatalogInfoLookup.TRUE)) {
+                        result.add(info.getId());
+                    }
+                    return result;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static Collection<String> ids(CatalogInfo info) {
+        return info == null ? Collections.emptyList() : Collections.singleton(info.getId());
+    }
+
+    /**
+     * Returns the case sensitive property/literal equality comparisons that, when false, make the
+     * whole filter false
+     */
+    static List<PropertyIsEqualTo> getIndexableComparisons(Filter filter) {
+        List<Filter> candidates;
+        if (filter instanceof And) {
+            candidates = ((And) filter).getChildren();
+        } else {
+            candidates = Collections.singletonList(filter);
+        }
+
+        List<PropertyIsEqualTo> result = new ArrayList<>();
+        for (Filter f : candidates) {
+            if (f instanceof PropertyIsEqualTo) {
+                PropertyIsEqualTo equal = (PropertyIsEqualTo) f;
+                if (equal.isMatchingCase() && equal.getExpression1() instanceof PropertyName
+                        && equal.getExpression2() instanceof Literal
+                        && ((Literal) equal.getExpression2()).getValue() instanceof String) {
+                    result.add(equal);
+                }
+            }
+        }
+
+        return result;
+    }
+
     private <T> Predicate<T> toPredicate(Filter filter) {
         if(filter != null && filter != Filter.INCLUDE) {
             return  o -> filter.evaluate(o);
@@ -0,0 +1,40 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import java.util.List;
+
+/**
+ * Configuration listener clearing a cache when the global or service configuration changes, or
+ * the configuration is reloaded, for caches whose contents depend on those settings.
+ */
+public class CacheClearingListener extends ConfigurationListenerAdapter {
+
+    final Runnable clear;
+
+    /**
+     * @param clear The action clearing the cache
+     */
+    public CacheClearingListener(Runnable clear) {
+        this.clear = clear;
+    }
+
+    @Override
+    public void handleGlobalChange(GeoServerInfo global, List<String> propertyNames,
+            List<Object> oldValues, List<Object> newValues) {
+        clear.run();
+    }
+
+    @Override
+    public void handleServiceChange(ServiceInfo service, List<String> propertyNames,
+            List<Object> oldValues, List<Object> newValues) {
+        clear.run();
+    }
+
+    @Override
+    public void reloaded() {
+        clear.run();
+    }
+}
@@ -0,0 +1,468 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import static org.geoserver.platform.GeoServerExtensions.getLongProperty;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.apache.commons.io.IOUtils;
+import org.geoserver.catalog.PublishedInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.filters.GZIPResponseWrapper;
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.HttpErrorCodeException;
+import org.geoserver.ows.LocalPublished;
+import org.geoserver.ows.LocalWorkspace;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.Response;
+import org.geoserver.ows.URLMangler.URLType;
+import org.geoserver.ows.util.RequestUtils;
+import org.geoserver.ows.util.ResponseUtils;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
+import org.geotools.util.logging.Logging;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+/**
+ * Caches the encoded capabilities documents, so that large catalogs do not have to be encoded
+ * over and over for each GetCapabilities request.
+ * <p>
+ * Documents are keyed by service, version, request parameters, base URL, virtual service, the
+ * roles of the current user and the global update sequence, which is increased on every catalog
+ * and configuration change, making old entries unreachable. Documents are stored gzipped, and
+ * served as such to clients accepting gzip encoding (unless the GZIP filter is already going to
+ * compress the output), along with an ETag specific to the content encoding, supporting
+ * conditional requests via If-None-Match.
+ * </p>
+ * <p>
+ * The cache is disabled by default, it can be enabled by setting the
+ * {@value #CACHE_SIZE_PROPERTY} system/environment/servlet context variable to the amount of
+ * memory, in megabytes, the cache can use. {@value #CACHE_TTL_PROPERTY} controls the time to live
+ * of the documents, in seconds (default {@value #DEFAULT_TTL_SECONDS}), to pick up changes that do
+ * not affect the update sequence, such as data security rules.
+ * {@value #CACHE_SERVICES_PROPERTY} is a comma separated list of the services whose capabilities
+ * are cached (default {@value #DEFAULT_SERVICES}).
+ * </p>
+ */
+public class CapabilitiesResponseCache extends AbstractDispatcherCallback implements
+        GeoServerLifecycleHandler {
+
+    static final Logger LOGGER = Logging.getLogger(CapabilitiesResponseCache.class);
+
+    public static final String CACHE_SIZE_PROPERTY = "CAPABILITIES_RESPONSE_CACHE_SIZE";
+
+    public static final String CACHE_TTL_PROPERTY = "CAPABILITIES_RESPONSE_CACHE_TTL";
+
+    public static final String CACHE_SERVICES_PROPERTY = "CAPABILITIES_RESPONSE_CACHE_SERVICES";
+
+    static final int DEFAULT_TTL_SECONDS = 300;
+
+    static final String DEFAULT_SERVICES = "WMS,WFS,WCS";
+
+    /**
+     * Parameters that do not affect the capabilities document contents
+     */
+    static final Set<String> IGNORED_PARAMETERS = new HashSet<String>(Arrays.asList("SERVICE",
+            "VERSION", "REQUEST", "UPDATESEQUENCE"));
+
+    GeoServer gs;
+
+    Set<String> services = new HashSet<String>();
+
+    long ttlSeconds;
+
+    Cache<String, CachedCapabilities> cache;
+
+    public CapabilitiesResponseCache(GeoServer gs) {
+        this.gs = gs;
+
+        String list = GeoServerExtensions.getProperty(CACHE_SERVICES_PROPERTY);
+        for (String service : (list != null ? list : DEFAULT_SERVICES).split("\\s*,\\s*")) {
+            services.add(service.trim().toUpperCase());
+        }
+        ttlSeconds = getLongProperty(CACHE_TTL_PROPERTY, DEFAULT_TTL_SECONDS);
+        setCacheSize(getLongProperty(CACHE_SIZE_PROPERTY, 0));
+    }
+
+    /**
+     * Sets the amount of memory, in megabytes, the cache can use. Zero or a negative value disables
+     * the cache. Any cached document is dropped.
+     */
+    public void setCacheSize(long megabytes) {
+        if (megabytes <= 0) {
+            cache = null;
+        } else {
+            CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                    .maximumWeight(megabytes * 1024 * 1024).recordStats();
+            if (ttlSeconds > 0) {
+                builder.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS);
+            }
+            cache = builder.weigher(new Weigher<String, CachedCapabilities>() {
+                @Override
+                public int weigh(String key, CachedCapabilities value) {
+                    return key.length() * 2 + value.gzipped.length;
+                }
+            }).build();
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Capabilities response cache enabled: " + isEnabled());
+        }
+    }
+
+    /**
+     * Returns true if the capabilities documents are getting cached
+     */
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * Returns the cache statistics, hit and miss counts in particular
+     */
+    public CacheStats getStatistics() {
+        Cache<String, CachedCapabilities> cache = this.cache;
+        return cache != null ? cache.stats() : new CacheStats(0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Drops all the cached documents
+     */
+    public void clear() {
+        Cache<String, CachedCapabilities> cache = this.cache;
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    @Override
+    public Response responseDispatched(Request request, Operation operation, Object result,
+            Response response) {
+        Cache<String, CachedCapabilities> cache = this.cache;
+        if (cache != null && isCacheable(request, operation)) {
+            return new CachingResponse(response, cache, getKey(request, operation), request);
+        }
+
+        return response;
+    }
+
+    boolean isCacheable(Request request, Operation operation) {
+        return "GetCapabilities".equalsIgnoreCase(request.getRequest()) && request.isGet()
+                && !request.isSOAP() && request.getRawKvp() != null
+                && operation.getService() != null && operation.getService().getId() != null
+                && services.contains(operation.getService().getId().toUpperCase());
+    }
+
+    String getKey(Request request, Operation operation) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(operation.getService().getId().toUpperCase()).append('/');
+        sb.append(operation.getService().getVersion()).append('?');
+
+        // request parameters, sorted
+        Map<String, Object> sorted = new TreeMap<String, Object>();
+        for (Object o : request.getRawKvp().entrySet()) {
+            Map.Entry entry = (Map.Entry) o;
+            String name = String.valueOf(entry.getKey()).toUpperCase();
+            if (!IGNORED_PARAMETERS.contains(name)) {
+                Object value = entry.getValue();
+                sorted.put(name, value instanceof Object[] ? Arrays.asList((Object[]) value)
+                        : value);
+            }
+        }
+        for (Map.Entry<String, Object> entry : sorted.entrySet()) {
+            sb.append(entry.getKey()).append('=').append(entry.getValue()).append('&');
+        }
+
+        // the links in the document, as proxified by the URL manglers
+        HttpServletRequest httpRequest = request.getHttpRequest();
+        if (httpRequest != null) {
+            sb.append("@base=").append(ResponseUtils.buildURL(RequestUtils.baseURL(httpRequest),
+                    null, null, URLType.SERVICE));
+        }
+
+        // virtual services
+        WorkspaceInfo ws = LocalWorkspace.get();
+        if (ws != null) {
+            sb.append("@workspace=").append(ws.getName());
+        }
+        PublishedInfo published = LocalPublished.get();
+        if (published != null) {
+            sb.append("@published=").append(published.getName());
+        }
+
+        // effective roles
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null && auth.getAuthorities() != null) {
+            Set<String> roles = new TreeSet<String>();
+            for (GrantedAuthority authority : auth.getAuthorities()) {
+                roles.add(authority.getAuthority());
+            }
+            sb.append("@roles=").append(roles);
+        }
+
+        // and the configuration version
+        sb.append("@sequence=").append(gs.getGlobal().getUpdateSequence());
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns true if the client accepts gzip encoding and the response is not going to be
+     * compressed by the GZIP filter already
+     */
+    static boolean isGzipAccepted(Request request) {
+        HttpServletRequest httpRequest = request.getHttpRequest();
+        String acceptEncoding = httpRequest != null ? httpRequest.getHeader("Accept-Encoding")
+                : null;
+        if (acceptEncoding == null || !acceptEncoding.toLowerCase().contains("gzip")) {
+            return false;
+        }
+        ServletResponse response = request.getHttpResponse();
+        while (response instanceof HttpServletResponseWrapper) {
+            if (response instanceof GZIPResponseWrapper) {
+                return false;
+            }
+            response = ((HttpServletResponseWrapper) response).getResponse();
+        }
+        return response instanceof HttpServletResponse;
+    }
+
+    /**
+     * Returns true if the If-None-Match header contains the given entity tag
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static String toHexString(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void onReset() {
+        clear();
+    }
+
+    @Override
+    public void onDispose() {
+        clear();
+    }
+
+    @Override
+    public void beforeReload() {
+        // nothing to do
+    }
+
+    @Override
+    public void onReload() {
+        clear();
+    }
+
+    /**
+     * A gzipped capabilities document along with the digest of its contents
+     */
+    static class CachedCapabilities {
+        final byte[] gzipped;
+
+        final String digest;
+
+        CachedCapabilities(byte[] gzipped, String digest) {
+            this.gzipped = gzipped;
+            this.digest = digest;
+        }
+
+        /**
+         * Returns the entity tag of the document, the gzipped and identity representations being
+         * different entities
+         */
+        String getETag(boolean gzip) {
+            return "\"" + digest + (gzip ? "-gzip" : "") + "\"";
+        }
+    }
+
+    /**
+     * A Response wrapper encoding the document once, and serving it from the cache afterwards
+     */
+    private static class CachingResponse extends Response {
+
+        Response delegate;
+
+        Cache<String, CachedCapabilities> cache;
+
+        String key;
+
+        Request request;
+
+        boolean gzip;
+
+        CachedCapabilities cached;
+
+        public CachingResponse(Response delegate, Cache<String, CachedCapabilities> cache,
+                String key, Request request) {
+            super(delegate.getBinding());
+            this.delegate = delegate;
+            this.cache = cache;
+            this.key = key;
+            this.request = request;
+            this.gzip = isGzipAccepted(request);
+        }
+
+        /**
+         * Grabs the document from the cache, encoding it if missing. Concurrent requests for the
+         * same missing document wait for a single encoding.
+         */
+        CachedCapabilities getCached(final Object value, final Operation operation)
+                throws ServiceException {
+            if (cached == null) {
+                try {
+                    cached = cache.get(key, new Callable<CachedCapabilities>() {
+
+                        @Override
+                        public CachedCapabilities call() throws Exception {
+                            return encode(value, operation);
+                        }
+                    });
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof ServiceException) {
+                        throw (ServiceException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new ServiceException("Failed to encode the capabilities document", cause);
+                }
+            }
+            return cached;
+        }
+
+        CachedCapabilities encode(Object value, Operation operation) throws Exception {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (OutputStream output = new DigestOutputStream(new GZIPOutputStream(bytes), md5)) {
+                delegate.write(value, output, operation);
+            }
+            return new CachedCapabilities(bytes.toByteArray(), toHexString(md5.digest()));
+        }
+
+        public boolean canHandle(Operation operation) {
+            return delegate.canHandle(operation);
+        }
+
+        public String getMimeType(Object value, Operation operation) throws ServiceException {
+            return delegate.getMimeType(value, operation);
+        }
+
+        /**
+         * Adds the ETag and content encoding headers, and returns a 304 if the client already has
+         * the current version of the document
+         */
+        public String[][] getHeaders(Object value, Operation operation) throws ServiceException {
+            CachedCapabilities cached = getCached(value, operation);
+            String etag = cached.getETag(gzip);
+            if (matches(request.getHttpRequest().getHeader("If-None-Match"), etag)) {
+                throw new HttpErrorCodeException(HttpServletResponse.SC_NOT_MODIFIED);
+            }
+
+            Map<String, String> map = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+            String[][] headers = delegate.getHeaders(value, operation);
+            if (headers != null) {
+                for (String[] header : headers) {
+                    map.put(header[0], header[1]);
+                }
+            }
+            map.put(HttpHeaders.ETAG, etag);
+            map.put(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            if (gzip) {
+                map.put(HttpHeaders.CONTENT_ENCODING, "gzip");
+            }
+
+            String[][] result = new String[map.size()][2];
+            int i = 0;
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                result[i][0] = entry.getKey();
+                result[i][1] = entry.getValue();
+                i++;
+            }
+            return result;
+        }
+
+        public void write(Object value, OutputStream output, Operation operation)
+                throws IOException, ServiceException {
+            CachedCapabilities cached = getCached(value, operation);
+            if (gzip) {
+                output.write(cached.gzipped);
+            } else {
+                try (GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(
+                        cached.gzipped))) {
+                    IOUtils.copy(input, output);
+                }
+            }
+        }
+
+        public String getPreferredDisposition(Object value, Operation operation) {
+            return delegate.getPreferredDisposition(value, operation);
+        }
+
+        public String getAttachmentFileName(Object value, Operation operation) {
+            return delegate.getAttachmentFileName(value, operation);
+        }
+
+        public String getCharset(Operation operation) {
+            return delegate.getCharset(operation);
+        }
+
+    }
+
+}
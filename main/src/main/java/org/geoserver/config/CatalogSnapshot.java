@@ -0,0 +1,738 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.GeoServerLoader.LayerContents;
+import org.geoserver.config.GeoServerLoader.ResourceLayerMapper;
+import org.geoserver.config.GeoServerLoader.StoreContents;
+import org.geoserver.config.GeoServerLoader.WorkspaceContents;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geoserver.platform.resource.Paths;
+import org.geoserver.platform.resource.Resource;
+import org.geoserver.platform.resource.Resource.Type;
+import org.geoserver.platform.resource.Resources;
+import org.geotools.util.logging.Logging;
+
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.binary.BinaryStreamWriter;
+import com.thoughtworks.xstream.io.copy.HierarchicalStreamCopier;
+import com.thoughtworks.xstream.io.xml.XppDriver;
+
+/**
+ * Compact binary snapshot of the catalog and configuration files, used by {@link GeoServerLoader}
+ * to speed up startup on data directories with many stores and layers.
+ * <p>
+ * Each workspace gets a single compressed file packing the workspace, namespace, settings, style,
+ * layer group, store, resource and layer configuration documents, while a global snapshot packs
+ * the global and logging configuration along with the global styles and layer groups. At startup
+ * the snapshots are read in parallel with a handful of sequential reads instead of walking the
+ * data directory tree. The documents are stored in the XStream binary format, which the loader
+ * unmarshals in parallel without parsing xml. Service configurations are still read from their
+ * xml files, by the pluggable service loaders owning them.
+ * </p>
+ * <p>
+ * Along with the contents the snapshot records the stamps of all the files and directories it
+ * was built from, that is, their modification time along with the file size, or a hash of the
+ * child names for directories, to catch the changes happening within the granularity of the
+ * modification time. A snapshot whose stamps do not match the data directory anymore is ignored
+ * and the loader falls back on the XML files for that workspace (or the global configuration)
+ * only.
+ * </p>
+ * <p>
+ * Snapshots are written for the workspaces modified since startup (or found without a valid
+ * snapshot at startup) shortly after catalog changes, and on clean shutdown. Since the data
+ * directory can also be modified without catalog events (configuration changes, manual edits,
+ * resource uploads) the stamps of the current snapshots are also checked periodically and on
+ * shutdown against the data directory. The snapshot is disabled by default, it can be enabled by
+ * setting the {@value #SNAPSHOT_PROPERTY} system/environment/servlet context variable to true.
+ * </p>
+ */
+public class CatalogSnapshot implements CatalogListener {
+
+    static final Logger LOGGER = Logging.getLogger(CatalogSnapshot.class);
+
+    /**
+     * Property enabling the catalog snapshot
+     */
+    public static final String SNAPSHOT_PROPERTY = "GEOSERVER_CATALOG_SNAPSHOT";
+
+    /**
+     * Data directory path holding the snapshot files
+     */
+    static final String SNAPSHOT_DIRECTORY = Paths.path("temp", "catalog-snapshot");
+
+    static final String SNAPSHOT_EXTENSION = ".bin";
+
+    /**
+     * Key of the global snapshot, workspace snapshots are keyed by the workspace directory path
+     * instead, so that the two cannot clash
+     */
+    static final String GLOBAL = "global";
+
+    /**
+     * Configuration files packed in the global snapshot
+     */
+    static final String[] GLOBAL_FILES = { "global.xml", "logging.xml" };
+
+    /**
+     * Configuration files packed in the workspace snapshots
+     */
+    static final String[] WORKSPACE_FILES = { "settings.xml" };
+
+    static final int MAGIC = 0x47534353;
+
+    static final int VERSION = 3;
+
+    /**
+     * Delay between a configuration change and the snapshot update, allows to coalesce sequences
+     * of changes and to make sure the XML files have been written down before reading them back
+     */
+    static final long FLUSH_DELAY_SECONDS = 10;
+
+    /**
+     * Interval between checks of the snapshot stamps against the data directory
+     */
+    static final long STALE_CHECK_SECONDS = 60;
+
+    /**
+     * The state of a file or directory a snapshot was built from
+     */
+    static final class Stamp {
+        final long lastModified;
+
+        /**
+         * The file length, or the hash of the child names for directories
+         */
+        final long size;
+
+        Stamp(long lastModified, long size) {
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Stamp)) {
+                return false;
+            }
+            Stamp other = (Stamp) obj;
+            return lastModified == other.lastModified && size == other.size;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(lastModified) * 31 + Long.hashCode(size);
+        }
+
+        @Override
+        public String toString() {
+            return "Stamp[" + lastModified + ", " + size + "]";
+        }
+    }
+
+    /**
+     * The contents of a snapshot, configuration files, styles and layer groups are found both in
+     * the global and the workspace ones
+     */
+    static class Snapshot {
+        Map<String, Stamp> stamps = new LinkedHashMap<>();
+
+        /**
+         * The configuration documents, keyed by file name
+         */
+        Map<String, byte[]> files = new LinkedHashMap<>();
+
+        List<byte[]> styles = new ArrayList<>();
+
+        List<byte[]> layerGroups = new ArrayList<>();
+    }
+
+    /**
+     * The contents of a workspace snapshot
+     */
+    static final class WorkspaceSnapshot extends Snapshot {
+        WorkspaceContents workspace;
+
+        List<StoreContents> stores = new ArrayList<>();
+    }
+
+    GeoServerResourceLoader resourceLoader;
+
+    /**
+     * Keys of the snapshots that need to be written
+     */
+    Set<String> dirty = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The stamps of the current snapshots, keyed by snapshot key
+     */
+    Map<String, Map<String, Stamp>> stamps = new ConcurrentHashMap<>();
+
+    ScheduledExecutorService executor;
+
+    ScheduledFuture<?> flushTask;
+
+    ScheduledFuture<?> staleCheckTask;
+
+    public CatalogSnapshot(GeoServerResourceLoader resourceLoader) {
+        this.resourceLoader = resourceLoader;
+    }
+
+    /**
+     * Returns true if the catalog snapshot has been enabled via {@value #SNAPSHOT_PROPERTY}
+     */
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(GeoServerExtensions.getProperty(SNAPSHOT_PROPERTY));
+    }
+
+    /**
+     * Returns the snapshot key of a workspace
+     */
+    static String getKey(String workspace) {
+        return Paths.path("workspaces", workspace);
+    }
+
+    Resource getSnapshotResource(String key) {
+        return resourceLoader.get(Paths.path(SNAPSHOT_DIRECTORY, key + SNAPSHOT_EXTENSION));
+    }
+
+    /**
+     * Reads the snapshot of the global configuration, styles and layer groups, or returns null if
+     * missing, stale or unreadable, in which case it's scheduled for creation
+     */
+    Snapshot readGlobal() {
+        Snapshot snapshot = read(GLOBAL, null);
+        if (snapshot != null) {
+            stamps.put(GLOBAL, snapshot.stamps);
+        } else {
+            dirty.add(GLOBAL);
+            scheduleFlush();
+        }
+        scheduleStaleCheck();
+        return snapshot;
+    }
+
+    /**
+     * Reads in parallel the snapshots of the specified workspace directories, returning the valid
+     * ones keyed by workspace directory name. Workspaces lacking a valid snapshot are scheduled
+     * for snapshot creation.
+     */
+    Map<String, WorkspaceSnapshot> read(List<Resource> workspaceDirectories) {
+        Map<String, WorkspaceSnapshot> result = new ConcurrentHashMap<>();
+        workspaceDirectories.parallelStream().forEach(wsd -> {
+            WorkspaceSnapshot snapshot = read(wsd);
+            if (snapshot != null) {
+                result.put(wsd.name(), snapshot);
+                stamps.put(wsd.path(), snapshot.stamps);
+            } else {
+                dirty.add(wsd.path());
+            }
+        });
+        if (LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.info("Catalog snapshot available for " + result.size() + " out of "
+                    + workspaceDirectories.size() + " workspaces");
+        }
+        // build the missing and stale snapshots for the next startup
+        if (!dirty.isEmpty()) {
+            scheduleFlush();
+        }
+        scheduleStaleCheck();
+        return result;
+    }
+
+    /**
+     * Reads the snapshot of the specified workspace directory, or returns null if missing, stale
+     * or unreadable
+     */
+    WorkspaceSnapshot read(Resource wsd) {
+        return (WorkspaceSnapshot) read(wsd.path(), wsd);
+    }
+
+    /**
+     * Reads the snapshot with the specified key, the workspace directory is null for the global
+     * one. Returns null if the snapshot is missing, stale or unreadable
+     */
+    Snapshot read(String key, Resource wsd) {
+        Resource resource = getSnapshotResource(key);
+        if (!Resources.exists(resource)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(resource.in())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOGGER.fine("Ignoring snapshot in unknown format " + resource.path());
+                return null;
+            }
+
+            // check the stamps before bothering reading the contents
+            Snapshot snapshot = wsd != null ? new WorkspaceSnapshot() : new Snapshot();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                Stamp stamp = new Stamp(in.readLong(), in.readLong());
+                if (!stamp.equals(stamp(resourceLoader.get(path)))) {
+                    LOGGER.fine("Ignoring stale snapshot " + resource.path() + ", " + path
+                            + " has been modified");
+                    return null;
+                }
+                snapshot.stamps.put(path, stamp);
+            }
+
+            int fileCount = in.readInt();
+            for (int i = 0; i < fileCount; i++) {
+                snapshot.files.put(in.readUTF(), readBytes(in));
+            }
+            int styleCount = in.readInt();
+            for (int i = 0; i < styleCount; i++) {
+                snapshot.styles.add(readBytes(in));
+            }
+            int layerGroupCount = in.readInt();
+            for (int i = 0; i < layerGroupCount; i++) {
+                snapshot.layerGroups.add(readBytes(in));
+            }
+            if (wsd == null) {
+                return snapshot;
+            }
+
+            WorkspaceSnapshot ws = (WorkspaceSnapshot) snapshot;
+            ws.workspace = new WorkspaceContents(wsd, readBytes(in), readBytes(in));
+            ws.workspace.binary = true;
+            int storeCount = in.readInt();
+            for (int i = 0; i < storeCount; i++) {
+                Resource sd = wsd.get(in.readUTF());
+                StoreContents store = new StoreContents(sd.get(in.readUTF()), readBytes(in));
+                store.binary = true;
+                int layerCount = in.readInt();
+                store.layers = new ArrayList<>(layerCount);
+                for (int j = 0; j < layerCount; j++) {
+                    Resource ld = sd.get(in.readUTF());
+                    LayerContents layer = new LayerContents(ld, readBytes(in), readBytes(in));
+                    layer.binary = true;
+                    store.layers.add(layer);
+                }
+                ws.stores.add(store);
+            }
+
+            return ws;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read catalog snapshot " + resource.path(), e);
+            return null;
+        }
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Converts a xml configuration document into the XStream binary format, the element names are
+     * decoded by the same driver the xml persister uses, so that the binary stream can be
+     * unmarshalled by the persister XStream as is
+     */
+    static byte[] toBinary(byte[] xml) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(xml.length);
+        HierarchicalStreamReader reader = new XppDriver().createReader(new ByteArrayInputStream(
+                xml));
+        BinaryStreamWriter writer = new BinaryStreamWriter(bos);
+        try {
+            new HierarchicalStreamCopier().copy(reader, writer);
+        } finally {
+            reader.close();
+            writer.close();
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Builds the global snapshot from the global configuration files, styles and layer groups
+     */
+    Snapshot createGlobal() throws IOException {
+        Snapshot snapshot = new Snapshot();
+        collect(snapshot, resourceLoader.get(Paths.BASE), GLOBAL_FILES);
+        return snapshot;
+    }
+
+    /**
+     * Builds a snapshot from the contents of the specified workspace directory, or returns null if
+     * the directory does not contain a valid workspace
+     */
+    WorkspaceSnapshot create(Resource wsd) throws IOException {
+        if (wsd.getType() != Type.DIRECTORY) {
+            return null;
+        }
+        Resource wr = wsd.get("workspace.xml");
+        Resource nr = wsd.get("namespace.xml");
+        if (!Resources.exists(wr) || !Resources.exists(nr)) {
+            return null;
+        }
+        // directory stamps track added and removed children, file stamps track their contents
+        WorkspaceSnapshot snapshot = new WorkspaceSnapshot();
+        stamp(snapshot, wsd);
+        stamp(snapshot, wr);
+        stamp(snapshot, nr);
+        snapshot.workspace = new WorkspaceContents(wsd, wr.getContents(), nr.getContents());
+        collect(snapshot, wsd, WORKSPACE_FILES);
+
+        for (Resource sd : wsd.list()) {
+            if (sd.getType() != Type.DIRECTORY || "styles".equals(sd.name())
+                    || "layergroups".equals(sd.name())) {
+                continue;
+            }
+            stamp(snapshot, sd);
+            Resource sr = null;
+            ResourceLayerMapper mapper = null;
+            if (Resources.exists(sd.get("datastore.xml"))) {
+                sr = sd.get("datastore.xml");
+                mapper = GeoServerLoader.FEATURE_LAYER_MAPPER;
+            } else if (Resources.exists(sd.get("coveragestore.xml"))) {
+                sr = sd.get("coveragestore.xml");
+                mapper = GeoServerLoader.COVERAGE_LAYER_MAPPER;
+            } else if (Resources.exists(sd.get("wmsstore.xml"))) {
+                sr = sd.get("wmsstore.xml");
+                mapper = GeoServerLoader.WMS_LAYER_MAPPER;
+            } else {
+                continue;
+            }
+            stamp(snapshot, sr);
+            StoreContents store = new StoreContents(sr, sr.getContents());
+            store.layers = new ArrayList<>();
+            for (Resource ld : sd.list()) {
+                if (ld.getType() != Type.DIRECTORY) {
+                    continue;
+                }
+                stamp(snapshot, ld);
+                Resource r = ld.get(mapper.resourceFileName);
+                Resource lr = ld.get("layer.xml");
+                if (Resources.exists(r) && Resources.exists(lr)) {
+                    stamp(snapshot, r);
+                    stamp(snapshot, lr);
+                    store.layers.add(new LayerContents(ld, r.getContents(), lr.getContents()));
+                }
+            }
+            snapshot.stores.add(store);
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Collects the configuration files, styles and layer groups found in the specified directory,
+     * the missing ones are stamped as well so that their creation is noticed
+     */
+    private void collect(Snapshot snapshot, Resource directory, String[] files)
+            throws IOException {
+        for (String name : files) {
+            Resource file = directory.get(name);
+            stamp(snapshot, file);
+            if (Resources.exists(file)) {
+                snapshot.files.put(name, file.getContents());
+            }
+        }
+
+        Resource styles = directory.get("styles");
+        stamp(snapshot, styles);
+        if (styles.getType() == Type.DIRECTORY) {
+            for (Resource style : Resources.list(styles, GeoServerLoader.styleFilter(styles))) {
+                stamp(snapshot, style);
+                snapshot.styles.add(style.getContents());
+            }
+        }
+
+        Resource layerGroups = directory.get("layergroups");
+        stamp(snapshot, layerGroups);
+        if (layerGroups.getType() == Type.DIRECTORY) {
+            for (Resource layerGroup : Resources.list(layerGroups, GeoServerLoader.XML_FILTER)) {
+                stamp(snapshot, layerGroup);
+                snapshot.layerGroups.add(layerGroup.getContents());
+            }
+        }
+    }
+
+    private void stamp(Snapshot snapshot, Resource resource) {
+        snapshot.stamps.put(resource.path(), stamp(resource));
+    }
+
+    /**
+     * Returns the current stamp of a file or directory. The modification time alone has a coarse
+     * granularity on many file systems, it's paired with the file size, or a hash of the child
+     * names for directories
+     */
+    static Stamp stamp(Resource resource) {
+        switch (resource.getType()) {
+        case RESOURCE:
+            return new Stamp(resource.lastmodified(), resource.file().length());
+        case DIRECTORY:
+            List<String> names = resource.list().stream().map(Resource::name).sorted()
+                    .collect(Collectors.toList());
+            return new Stamp(resource.lastmodified(), names.hashCode());
+        default:
+            return new Stamp(0, -1);
+        }
+    }
+
+    /**
+     * Writes down the snapshot with the specified key, or removes it if the workspace does not
+     * exist anymore
+     */
+    void write(String key) throws IOException {
+        Resource resource = getSnapshotResource(key);
+        Snapshot snapshot = GLOBAL.equals(key) ? createGlobal() : create(resourceLoader.get(key));
+        if (snapshot == null) {
+            stamps.remove(key);
+            if (Resources.exists(resource)) {
+                resource.delete();
+            }
+            return;
+        }
+
+        try (OutputStream os = resource.out();
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new GZIPOutputStream(os)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.stamps.size());
+            for (Map.Entry<String, Stamp> entry : snapshot.stamps.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().lastModified);
+                out.writeLong(entry.getValue().size);
+            }
+            out.writeInt(snapshot.files.size());
+            for (Map.Entry<String, byte[]> entry : snapshot.files.entrySet()) {
+                out.writeUTF(entry.getKey());
+                writeBytes(out, toBinary(entry.getValue()));
+            }
+            out.writeInt(snapshot.styles.size());
+            for (byte[] style : snapshot.styles) {
+                writeBytes(out, toBinary(style));
+            }
+            out.writeInt(snapshot.layerGroups.size());
+            for (byte[] layerGroup : snapshot.layerGroups) {
+                writeBytes(out, toBinary(layerGroup));
+            }
+            if (snapshot instanceof WorkspaceSnapshot) {
+                WorkspaceSnapshot ws = (WorkspaceSnapshot) snapshot;
+                writeBytes(out, toBinary(ws.workspace.contents));
+                writeBytes(out, toBinary(ws.workspace.nsContents));
+                out.writeInt(ws.stores.size());
+                for (StoreContents store : ws.stores) {
+                    out.writeUTF(store.resource.parent().name());
+                    out.writeUTF(store.resource.name());
+                    writeBytes(out, toBinary(store.contents));
+                    out.writeInt(store.layers.size());
+                    for (LayerContents layer : store.layers) {
+                        out.writeUTF(layer.resource.name());
+                        writeBytes(out, toBinary(layer.contents));
+                        writeBytes(out, toBinary(layer.layerContents));
+                    }
+                }
+            }
+        }
+        stamps.put(key, snapshot.stamps);
+    }
+
+    /**
+     * Marks as dirty the snapshots whose stamps do not match the data directory anymore, catching
+     * the changes that did not go through the catalog
+     */
+    void markStale() {
+        for (Map.Entry<String, Map<String, Stamp>> entry : stamps.entrySet()) {
+            for (Map.Entry<String, Stamp> stamp : entry.getValue().entrySet()) {
+                if (!stamp.getValue().equals(stamp(resourceLoader.get(stamp.getKey())))) {
+                    LOGGER.fine("Catalog snapshot " + entry.getKey() + " is stale, "
+                            + stamp.getKey() + " has been modified");
+                    dirty.add(entry.getKey());
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Periodic check of the snapshot stamps, schedules the update of the stale ones
+     */
+    void checkStale() {
+        try {
+            markStale();
+            if (!dirty.isEmpty()) {
+                scheduleFlush();
+            }
+        } catch (Exception e) {
+            // keep the periodic check alive
+            LOGGER.log(Level.WARNING, "Failed to check the catalog snapshot stamps", e);
+        }
+    }
+
+    /**
+     * Writes down all the snapshots modified since the last flush
+     */
+    public void flush() {
+        for (String key : new ArrayList<>(dirty)) {
+            dirty.remove(key);
+            try {
+                write(key);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to write catalog snapshot " + key, e);
+            }
+        }
+    }
+
+    /**
+     * Writes down the pending and stale snapshots and releases the background writer
+     */
+    public void dispose() {
+        synchronized (this) {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+                flushTask = null;
+                staleCheckTask = null;
+            }
+        }
+        try {
+            // catches the configuration changes happened since the last periodic check
+            markStale();
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to check the catalog snapshot stamps", e);
+        }
+        flush();
+    }
+
+    synchronized void scheduleFlush() {
+        if (flushTask == null || flushTask.isDone()) {
+            flushTask = getExecutor().schedule(this::flush, FLUSH_DELAY_SECONDS,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    synchronized void scheduleStaleCheck() {
+        if (staleCheckTask == null) {
+            staleCheckTask = getExecutor().scheduleWithFixedDelay(this::checkStale,
+                    STALE_CHECK_SECONDS, STALE_CHECK_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "CatalogSnapshotWriter");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Returns the keys of the snapshots that need to be updated, as the result of a change in the
+     * specified object, or an empty set if no snapshot contains it
+     */
+    Set<String> getSnapshots(Object source) {
+        WorkspaceInfo ws = null;
+        if (source instanceof WorkspaceInfo) {
+            ws = (WorkspaceInfo) source;
+        } else if (source instanceof NamespaceInfo) {
+            return Collections.singleton(getKey(((NamespaceInfo) source).getPrefix()));
+        } else if (source instanceof StoreInfo) {
+            ws = ((StoreInfo) source).getWorkspace();
+        } else if (source instanceof ResourceInfo) {
+            StoreInfo store = ((ResourceInfo) source).getStore();
+            ws = store != null ? store.getWorkspace() : null;
+        } else if (source instanceof LayerInfo) {
+            ResourceInfo resource = ((LayerInfo) source).getResource();
+            StoreInfo store = resource != null ? resource.getStore() : null;
+            ws = store != null ? store.getWorkspace() : null;
+        } else if (source instanceof StyleInfo || source instanceof LayerGroupInfo) {
+            ws = source instanceof StyleInfo ? ((StyleInfo) source).getWorkspace()
+                    : ((LayerGroupInfo) source).getWorkspace();
+            if (ws == null) {
+                return Collections.singleton(GLOBAL);
+            }
+        }
+        if (ws == null || ws.getName() == null) {
+            return Collections.emptySet();
+        }
+        return Collections.singleton(getKey(ws.getName()));
+    }
+
+    void markDirty(CatalogInfo source) {
+        Set<String> snapshots = getSnapshots(source);
+        if (!snapshots.isEmpty()) {
+            dirty.addAll(snapshots);
+            scheduleFlush();
+        }
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) {
+        markDirty(event.getSource());
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) {
+        markDirty(event.getSource());
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) {
+        // catches the old workspace in case of renames
+        markDirty(event.getSource());
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+        markDirty(event.getSource());
+    }
+
+    @Override
+    public void reloaded() {
+        // the loader checks all snapshots against the data directory on reload
+    }
+}
@@ -25,6 +25,7 @@ public class DefaultGeoServerLoader extends GeoServerLoader {
     
     ConfigurationListener listener;
     GeoServerPersister persister; 
+    GeoServerPersister catalogPersister;
 
     public DefaultGeoServerLoader(GeoServerResourceLoader resourceLoader) {
         super(resourceLoader);
@@ -37,7 +38,17 @@ public class DefaultGeoServerLoader extends GeoServerLoader {
         
         if ( !legacy ) {
             //add the listener which will persist changes
-            catalog.addListener( new GeoServerPersister( resourceLoader, xp ) );
+            if ( catalogPersister != null ) {
+                // reloading, make sure the pending changes are written down first
+                catalogPersister.dispose();
+            }
+            catalogPersister = createPersister(xp);
+            catalog.addListener( catalogPersister );
+            
+            //and the one keeping the catalog snapshot up to date
+            if ( snapshot != null ) {
+                catalog.addListener( snapshot );
+            }
         }
     }
     
@@ -58,9 +69,13 @@ public class DefaultGeoServerLoader extends GeoServerLoader {
                 // avoid having the persister write down new config files while we read the config,
                 // otherwise it'll dump it back in xml files
                 geoserver.removeListener(persister);
+                // it might have been switched to synchronous mode by a previous destroy
+                if (GeoServerPersister.isAsynchronousEnabled()) {
+                    persister.setAsynchronous(true);
+                }
             } else {
                 // lazy creation of the persister at the first need
-                this.persister = new GeoServerPersister(resourceLoader, xp);
+                this.persister = createPersister(xp);
             }
             readConfiguration(geoServer, xp);
         } finally {
@@ -70,6 +85,35 @@ public class DefaultGeoServerLoader extends GeoServerLoader {
         }
     }
     
+    GeoServerPersister createPersister(XStreamPersister xp) {
+        GeoServerPersister p = new GeoServerPersister(resourceLoader, xp);
+        if (GeoServerPersister.isAsynchronousEnabled()) {
+            p.setAsynchronous(true);
+        }
+        return p;
+    }
+    
+    @Override
+    public void flush() throws Exception {
+        if (catalogPersister != null) {
+            catalogPersister.flush();
+        }
+        if (persister != null) {
+            persister.flush();
+        }
+    }
+    
+    @Override
+    public void destroy() throws Exception {
+        if (catalogPersister != null) {
+            catalogPersister.dispose();
+        }
+        if (persister != null) {
+            persister.dispose();
+        }
+        super.destroy();
+    }
+    
     @Override
     protected void initializeStyles(Catalog catalog, XStreamPersister xp) throws IOException {
         //add a persister temporarily in case the styles don't exist on disk
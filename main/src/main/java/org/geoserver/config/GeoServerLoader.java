@@ -10,9 +10,12 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -27,6 +30,7 @@ import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.NamespaceInfo;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.ResourcePool;
+import org.geoserver.catalog.StoreInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.WMSStoreInfo;
@@ -38,6 +42,8 @@ import org.geoserver.catalog.util.LegacyCatalogImporter;
 import org.geoserver.catalog.util.LegacyCatalogReader;
 import org.geoserver.catalog.util.LegacyFeatureTypeInfoReader;
 import org.geoserver.config.AsynchResourceIterator.ResourceMapper;
+import org.geoserver.config.CatalogSnapshot.Snapshot;
+import org.geoserver.config.CatalogSnapshot.WorkspaceSnapshot;
 import org.geoserver.config.util.LegacyConfigurationImporter;
 import org.geoserver.config.util.XStreamPersister;
 import org.geoserver.config.util.XStreamPersisterFactory;
@@ -55,6 +61,8 @@ import org.geotools.util.logging.Logging;
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 
+import com.thoughtworks.xstream.io.binary.BinaryStreamReader;
+
 /**
  * Initializes GeoServer configuration and catalog on startup.
  * <p>
@@ -75,6 +83,10 @@ public abstract class GeoServerLoader {
         Resource resource;
         byte[] contents;
         byte[] nsContents;
+        /**
+         * True if the contents are XStream binary streams read from a {@link CatalogSnapshot}
+         */
+        boolean binary;
         
         public WorkspaceContents(Resource resource, byte[] contents, byte[] nsContents) {
             this.resource = resource;
@@ -109,6 +121,14 @@ public abstract class GeoServerLoader {
     static final class StoreContents {
         Resource resource;
         byte[] contents;
+        /**
+         * The store layers, when already read from a {@link CatalogSnapshot}, null otherwise
+         */
+        List<LayerContents> layers;
+        /**
+         * True if the contents are XStream binary streams read from a {@link CatalogSnapshot}
+         */
+        boolean binary;
         public StoreContents(Resource resource, byte[] contents) {
             super();
             this.resource = resource;
@@ -123,6 +143,10 @@ public abstract class GeoServerLoader {
         Resource resource;
         byte[] contents;
         byte[] layerContents;
+        /**
+         * True if the contents are XStream binary streams read from a {@link CatalogSnapshot}
+         */
+        boolean binary;
         
         public LayerContents(Resource resource, byte[] contents, byte[] layerContents) {
             this.resource = resource;
@@ -136,8 +160,8 @@ public abstract class GeoServerLoader {
      */
     static final class ResourceLayerMapper implements ResourceMapper<LayerContents> {
 
-        private String resourceFileName;
-        private String resourceType;
+        String resourceFileName;
+        String resourceType;
 
         public ResourceLayerMapper(String resourceFileName, String resourceType) {
             this.resourceFileName = resourceFileName;
@@ -187,7 +211,7 @@ public abstract class GeoServerLoader {
         public void accept(LayerContents lc) {
             T ft = null;
             try {
-                ft = depersist(xp, lc.contents,clazz);
+                ft = depersist(xp, lc.contents, lc.binary, clazz);
                 catalog.add(ft);
             } catch( Exception e ) {
                 LOGGER.log( Level.WARNING, "Failed to load feature type", e);
@@ -199,7 +223,7 @@ public abstract class GeoServerLoader {
             }
             
             try {
-                LayerInfo l = depersist(xp, lc.layerContents, LayerInfo.class );
+                LayerInfo l = depersist(xp, lc.layerContents, lc.binary, LayerInfo.class );
                 catalog.add( l );
                 
                 LOGGER.info( "Loaded layer '" + l.getName() + "'" );
@@ -221,8 +245,23 @@ public abstract class GeoServerLoader {
     // this ugly hack can die
     static boolean legacy = false;
     
+    /**
+     * The optional catalog snapshot, null if not enabled
+     */
+    CatalogSnapshot snapshot;
+    
+    /**
+     * The global and workspace snapshots read while loading the catalog, used to load the
+     * configuration right after, null if not available
+     */
+    Snapshot globalSnapshot;
+    Map<String, WorkspaceSnapshot> workspaceSnapshots;
+    
     public GeoServerLoader( GeoServerResourceLoader resourceLoader ) {
         this.resourceLoader = resourceLoader;
+        if (CatalogSnapshot.isEnabled()) {
+            this.snapshot = new CatalogSnapshot(resourceLoader);
+        }
     }
     
     public void setApplicationContext(ApplicationContext applicationContext)
@@ -377,6 +416,7 @@ public abstract class GeoServerLoader {
         // but these two fellas are attached to the new catalog as well
         catalog.removeListeners(ResourcePool.CacheClearingListener.class);
         catalog.removeListeners(GeoServerPersister.class);
+        catalog.removeListeners(CatalogSnapshot.class);
         List<CatalogListener> listeners = new ArrayList<CatalogListener>(catalog.getListeners());
 
         //look for catalog.xml, if it exists assume we are dealing with 
@@ -402,15 +442,15 @@ public abstract class GeoServerLoader {
     
     boolean checkStoresOnStartup(XStreamPersister xp) {
         Resource f = resourceLoader.get( "global.xml");
-        if ( Resources.exists(f) ) {
-            try {
-                GeoServerInfo global = depersist(xp, f, GeoServerInfo.class);
+        try {
+            GeoServerInfo global = depersist(xp, f, globalSnapshot, GeoServerInfo.class);
+            if ( global != null ) {
                 final ResourceErrorHandling resourceErrorHandling = global.getResourceErrorHandling();
                 return resourceErrorHandling != null && !ResourceErrorHandling.SKIP_MISCONFIGURED_LAYERS.equals(
                     resourceErrorHandling);
-            } catch (IOException e) {
-                LOGGER.log(Level.INFO, "Failed to determine the capabilities resource error handling", e);
             }
+        } catch (IOException e) {
+            LOGGER.log(Level.INFO, "Failed to determine the capabilities resource error handling", e);
         }
         return true;
     }
@@ -424,6 +464,10 @@ public abstract class GeoServerLoader {
         xp.setCatalog( catalog );
         xp.setUnwrapNulls(false);
         
+        // if enabled, read the global snapshot up front, falling back on the xml files if stale
+        globalSnapshot = snapshot != null ? snapshot.readGlobal() : null;
+        workspaceSnapshots = null;
+        
         // see if we really need to verify stores on startup 
         boolean checkStores = checkStoresOnStartup(xp);
         if(!checkStores) {
@@ -431,7 +475,11 @@ public abstract class GeoServerLoader {
         }
        
         //global styles
-        loadStyles(resourceLoader.get( "styles" ), catalog, xp);
+        if (globalSnapshot != null) {
+            loadStyles(globalSnapshot.styles, catalog, xp);
+        } else {
+            loadStyles(resourceLoader.get( "styles" ), catalog, xp);
+        }
 
         //workspaces, stores, and resources
         Resource workspaces = resourceLoader.get( "workspaces" );
@@ -454,14 +502,25 @@ public abstract class GeoServerLoader {
                     .filter(r -> Resources.DirectoryFilter.INSTANCE.accept(r))
                     .collect(Collectors.toList());
             
+            // if enabled, read the snapshots up front, workspaces without a valid one
+            // will be loaded from the xml files instead
+            Map<String, WorkspaceSnapshot> snapshots = snapshot != null
+                    ? snapshot.read(workspaceList) : Collections.emptyMap();
+            workspaceSnapshots = snapshot != null ? snapshots : null;
+            WorkspaceMapper xmlMapper = new WorkspaceMapper();
+            ResourceMapper<WorkspaceContents> workspaceMapper = rd -> {
+                WorkspaceSnapshot ws = snapshots.get(rd.name());
+                return ws != null ? ws.workspace : xmlMapper.apply(rd);
+            };
+            
             try (AsynchResourceIterator<WorkspaceContents> it = new AsynchResourceIterator<>(
-                    workspaces, Resources.DirectoryFilter.INSTANCE, new WorkspaceMapper())) {
+                    workspaces, Resources.DirectoryFilter.INSTANCE, workspaceMapper)) {
                 while (it.hasNext()) {
                     WorkspaceContents wc = it.next();
                     WorkspaceInfo ws;
                     final Resource workspaceResource = wc.resource;
                     try {
-                        ws = depersist(xp, wc.contents, WorkspaceInfo.class);
+                        ws = depersist(xp, wc.contents, wc.binary, WorkspaceInfo.class);
                         catalog.add(ws);
                         if (LOGGER.isLoggable(Level.INFO)) {
                             LOGGER.info("Loaded workspace '" + ws.getName() + "'");
@@ -475,7 +534,7 @@ public abstract class GeoServerLoader {
                     // load the namespace
                     NamespaceInfo ns = null;
                     try {
-                        ns = depersist(xp, wc.nsContents, NamespaceInfo.class);
+                        ns = depersist(xp, wc.nsContents, wc.binary, NamespaceInfo.class);
                         catalog.add(ns);
                     } catch (Exception e) {
                         LOGGER.log(Level.WARNING,
@@ -506,8 +565,11 @@ public abstract class GeoServerLoader {
                     }
 
                     //load the styles for the workspace
+                    WorkspaceSnapshot wsSnapshot = snapshots.get(workspaceResource.name());
                     Resource styles = workspaceResource.get("styles");
-                    if (styles != null) {
+                    if (wsSnapshot != null) {
+                        loadStyles(wsSnapshot.styles, catalog, xp);
+                    } else if (styles != null) {
                         loadStyles(styles, catalog, xp);
                     }
                 }
@@ -535,30 +597,31 @@ public abstract class GeoServerLoader {
                 
             };
             
+            // load the stores of the workspaces read from the snapshot in parallel
+            List<WorkspaceSnapshot> loaded = workspaceList.stream()
+                    .map(wsd -> snapshots.get(wsd.name())).filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+            loadStores(loaded, catalog, xp, checkStores);
+
+            // and the ones of the other workspaces from the xml files
             for (Resource wsd : workspaceList) {
-                // load the stores for this workspace
-                try (AsynchResourceIterator<StoreContents> it = new AsynchResourceIterator<>(wsd,
-                        Resources.DirectoryFilter.INSTANCE, storeMapper)) {
-                    while (it.hasNext()) {
-                        StoreContents storeContents = it.next();
-                        final String resourceName = storeContents.resource.name();
-                        if ("datastore.xml".equals(resourceName)) {
-                            loadDataStore(storeContents, catalog, xp, checkStores);
-                        } else if ("coveragestore.xml".equals(resourceName)) {
-                            loadCoverageStore(storeContents, catalog, xp);
-                        } else if ("wmsstore.xml".equals(resourceName)) {
-                            loadWmsStore(storeContents, catalog, xp);
-                        } else if (!isConfigDirectory(storeContents.resource)) {
-                            LOGGER.warning("Ignoring store directory '"
-                                    + storeContents.resource.name() + "'");
-                            continue;
+                if (!snapshots.containsKey(wsd.name())) {
+                    try (AsynchResourceIterator<StoreContents> it = new AsynchResourceIterator<>(
+                            wsd, Resources.DirectoryFilter.INSTANCE, storeMapper)) {
+                        while (it.hasNext()) {
+                            loadStore(it.next(), catalog, xp, checkStores);
                         }
                     }
                 }
+            }
 
-                // load the layer groups for this workspace
+            // load the layer groups once all the layers are in
+            for (Resource wsd : workspaceList) {
+                WorkspaceSnapshot ws = snapshots.get(wsd.name());
                 Resource layergroups = wsd.get("layergroups");
-                if (layergroups != null) {
+                if (ws != null) {
+                    loadLayerGroups(ws.layerGroups, catalog, xp);
+                } else if (layergroups != null) {
                     loadLayerGroups(layergroups, catalog, xp);
                 }
             }
@@ -569,7 +632,9 @@ public abstract class GeoServerLoader {
 
         //layergroups
         Resource layergroups = resourceLoader.get( "layergroups" );
-        if (layergroups != null) {
+        if (globalSnapshot != null) {
+            loadLayerGroups(globalSnapshot.layerGroups, catalog, xp);
+        } else if (layergroups != null) {
            loadLayerGroups(layergroups, catalog, xp);
         }
         xp.setUnwrapNulls(true);
@@ -581,12 +646,109 @@ public abstract class GeoServerLoader {
         return catalog;
     }
     
+    private void loadStore(StoreContents storeContents, CatalogImpl catalog,
+            XStreamPersister xp, boolean checkStores) {
+        final String resourceName = storeContents.resource.name();
+        if ("datastore.xml".equals(resourceName)) {
+            loadDataStore(storeContents, catalog, xp, checkStores);
+        } else if ("coveragestore.xml".equals(resourceName)) {
+            loadCoverageStore(storeContents, catalog, xp);
+        } else if ("wmsstore.xml".equals(resourceName)) {
+            loadWmsStore(storeContents, catalog, xp);
+        } else if (!isConfigDirectory(storeContents.resource)) {
+            LOGGER.warning("Ignoring store directory '" + storeContents.resource.name() + "'");
+        }
+    }
+
+    /**
+     * Loads the stores, resources and layers of the workspaces read from the snapshot. The
+     * documents of each kind do not reference each other, so they are depersisted in parallel,
+     * and then added to the catalog in order on the calling thread, which is the only one
+     * modifying the catalog
+     */
+    private void loadStores(List<WorkspaceSnapshot> snapshots, CatalogImpl catalog,
+            XStreamPersister xp, boolean checkStores) {
+        List<StoreContents> storeContents = snapshots.stream()
+                .flatMap(ws -> ws.stores.stream()).collect(Collectors.toList());
+        List<StoreInfo> stores = depersist(xp, storeContents, sc -> sc.contents,
+                StoreInfo.class, sc -> "store '" + sc.resource.parent().name() + "'");
+        List<LayerContents> layerContents = new ArrayList<>();
+        for (int i = 0; i < stores.size(); i++) {
+            StoreInfo store = stores.get(i);
+            if (store == null) {
+                continue;
+            }
+            try {
+                catalog.add(store);
+                if (LOGGER.isLoggable(Level.INFO)) {
+                    LOGGER.info("Loaded store '" + store.getName() + "'");
+                }
+                if (checkStores && store instanceof DataStoreInfo) {
+                    checkDataStore((DataStoreInfo) store);
+                }
+                layerContents.addAll(storeContents.get(i).layers);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load store '"
+                        + storeContents.get(i).resource.parent().name() + "'", e);
+            }
+        }
+
+        List<ResourceInfo> resources = depersist(xp, layerContents, lc -> lc.contents,
+                ResourceInfo.class, lc -> "resource '" + lc.resource.name() + "'");
+        List<LayerContents> published = new ArrayList<>();
+        for (int i = 0; i < resources.size(); i++) {
+            ResourceInfo resource = resources.get(i);
+            if (resource == null) {
+                continue;
+            }
+            try {
+                catalog.add(resource);
+                if (LOGGER.isLoggable(Level.INFO)) {
+                    LOGGER.info("Loaded resource '" + resource.getName() + "'");
+                }
+                published.add(layerContents.get(i));
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load resource '"
+                        + layerContents.get(i).resource.name() + "'", e);
+            }
+        }
+
+        List<LayerInfo> layers = depersist(xp, published, lc -> lc.layerContents,
+                LayerInfo.class, lc -> "layer " + lc.resource.name());
+        for (int i = 0; i < layers.size(); i++) {
+            LayerInfo layer = layers.get(i);
+            if (layer == null) {
+                continue;
+            }
+            try {
+                catalog.add(layer);
+                LOGGER.info("Loaded layer '" + layer.getName() + "'");
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load layer " + published.get(i).resource.name(),
+                        e);
+            }
+        }
+    }
+
+    /**
+     * Loads the layers of a store from the store directory
+     */
+    private void loadLayers(StoreContents storeContents, ResourceLayerMapper mapper,
+            Consumer<LayerContents> loader) {
+        try (AsynchResourceIterator<LayerContents> it = new AsynchResourceIterator<>(
+                storeContents.resource.parent(), Resources.DirectoryFilter.INSTANCE, mapper)) {
+            while (it.hasNext()) {
+                loader.accept(it.next());
+            }
+        }
+    }
+
     private void loadWmsStore(StoreContents storeContents, CatalogImpl catalog,
             XStreamPersister xp) {
         final Resource storeResource = storeContents.resource;
         WMSStoreInfo wms = null;
         try {
-            wms = depersist( xp, storeContents.contents, WMSStoreInfo.class );
+            wms = depersist( xp, storeContents.contents, storeContents.binary, WMSStoreInfo.class );
             catalog.add( wms );
         
             LOGGER.info( "Loaded wmsstore '" + wms.getName() +"'");
@@ -597,12 +759,7 @@ public abstract class GeoServerLoader {
         
         // load wms layers
         LayerLoader<WMSLayerInfo> coverageLoader = new LayerLoader<>(WMSLayerInfo.class, xp, catalog);
-        try(AsynchResourceIterator<LayerContents> it = new AsynchResourceIterator<>(storeResource.parent(), Resources.DirectoryFilter.INSTANCE, WMS_LAYER_MAPPER)) {
-            while(it.hasNext()) {
-                LayerContents lc = it.next();
-                coverageLoader.accept(lc);
-            }
-        }
+        loadLayers(storeContents, WMS_LAYER_MAPPER, coverageLoader);
     }
 
     private void loadCoverageStore(StoreContents storeContents, CatalogImpl catalog,
@@ -610,7 +767,7 @@ public abstract class GeoServerLoader {
         CoverageStoreInfo cs = null;
         final Resource storeResource = storeContents.resource;
         try {
-            cs = depersist( xp, storeContents.contents, CoverageStoreInfo.class );
+            cs = depersist( xp, storeContents.contents, storeContents.binary, CoverageStoreInfo.class );
             catalog.add( cs );
 
             if(LOGGER.isLoggable(Level.INFO)) {
@@ -624,38 +781,22 @@ public abstract class GeoServerLoader {
         // load coverages
         LayerLoader<CoverageInfo> coverageLoader = new LayerLoader<>(CoverageInfo.class, xp,
                 catalog);
-        try (AsynchResourceIterator<LayerContents> it = new AsynchResourceIterator<>(
-                storeResource.parent(), Resources.DirectoryFilter.INSTANCE,
-                COVERAGE_LAYER_MAPPER)) {
-            while (it.hasNext()) {
-                LayerContents lc = it.next();
-                coverageLoader.accept(lc);
-            }
-        }
+        loadLayers(storeContents, COVERAGE_LAYER_MAPPER, coverageLoader);
     }
 
     private void loadDataStore(StoreContents storeContents, CatalogImpl catalog, XStreamPersister xp, boolean checkStores) {
         final Resource storeResource = storeContents.resource;
         DataStoreInfo ds;
         try {    
-            ds = depersist( xp, storeContents.contents, DataStoreInfo.class );
+            ds = depersist( xp, storeContents.contents, storeContents.binary, DataStoreInfo.class );
             catalog.add( ds );
             
             if(LOGGER.isLoggable(Level.INFO)) {
                 LOGGER.info( "Loaded data store '" + ds.getName() +"'");
             }
             
-            if (checkStores && ds.isEnabled()) {
-                //connect to the datastore to determine if we should disable it
-                try {
-                    ds.getDataStore(null);
-                } catch( Throwable t ) {
-                    LOGGER.warning( "Error connecting to '" + ds.getName() + "'. Disabling." );
-                    LOGGER.log( Level.INFO, "", t );
-                    
-                    ds.setError(t);
-                    ds.setEnabled(false);
-                }
+            if (checkStores) {
+                checkDataStore(ds);
             }
         } catch( Exception e ) {
             LOGGER.log( Level.WARNING, "Failed to load data store '" + storeResource.parent().name() + "'", e);
@@ -664,13 +805,26 @@ public abstract class GeoServerLoader {
         
         // load feature types
         LayerLoader<FeatureTypeInfo> featureLoader = new LayerLoader<>(FeatureTypeInfo.class, xp, catalog);
-        try(AsynchResourceIterator<LayerContents> it = new AsynchResourceIterator<>(storeResource.parent(), Resources.DirectoryFilter.INSTANCE, FEATURE_LAYER_MAPPER)) {
-            while(it.hasNext()) {
-                LayerContents lc = it.next();
-                featureLoader.accept(lc);
+        loadLayers(storeContents, FEATURE_LAYER_MAPPER, featureLoader);
+        
+    }
+
+    /**
+     * Connects to an enabled data store, disabling it if the connection fails
+     */
+    private void checkDataStore(DataStoreInfo ds) {
+        if (ds.isEnabled()) {
+            //connect to the datastore to determine if we should disable it
+            try {
+                ds.getDataStore(null);
+            } catch( Throwable t ) {
+                LOGGER.warning( "Error connecting to '" + ds.getName() + "'. Disabling." );
+                LOGGER.log( Level.INFO, "", t );
+                
+                ds.setError(t);
+                ds.setEnabled(false);
             }
         }
-        
     }
 
     /**
@@ -762,24 +916,24 @@ public abstract class GeoServerLoader {
         if (!Resources.exists(f)) {
             //assume 2.x style
             f = resourceLoader.get( "global.xml");
-            if ( Resources.exists(f) ) {
-                try {
-                    GeoServerInfo global = depersist(xp, f, GeoServerInfo.class);
+            try {
+                GeoServerInfo global = depersist(xp, f, globalSnapshot, GeoServerInfo.class);
+                if ( global != null ) {
                     geoServer.setGlobal( global );
-                } catch (Exception e) {
-                    LOGGER.log(Level.WARNING, "Failed to load global configuration file '" + f.name() + "'" , e );
                 }
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load global configuration file '" + f.name() + "'" , e );
             }
             
             //load logging
             f = resourceLoader.get( "logging.xml" );
-            if ( Resources.exists(f) ) {
-                try {
-                    LoggingInfo logging = depersist(xp, f, LoggingInfo.class );
+            try {
+                LoggingInfo logging = depersist(xp, f, globalSnapshot, LoggingInfo.class );
+                if ( logging != null ) {
                     geoServer.setLogging( logging );
-                } catch (Exception e) {
-                    LOGGER.log(Level.WARNING, "Failed to load logging configuration file '" + f.name() + "'" , e );
                 }
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load logging configuration file '" + f.name() + "'" , e );
             }
 
             // load workspace specific settings
@@ -789,13 +943,14 @@ public abstract class GeoServerLoader {
                     if (dir.getType() != Type.DIRECTORY) continue;
     
                     f = dir.get("settings.xml");
-                    if (Resources.exists(f)) {
-                        try {
-                            SettingsInfo settings = depersist(xp, f, SettingsInfo.class );
+                    Snapshot ws = workspaceSnapshots != null ? workspaceSnapshots.get(dir.name()) : null;
+                    try {
+                        SettingsInfo settings = depersist(xp, f, ws, SettingsInfo.class );
+                        if (settings != null) {
                             geoServer.add(settings);
-                        } catch (Exception e) {
-                            LOGGER.log(Level.WARNING, "Failed to load configuration file '" + f.name() + "' for workspace " + dir.name() , e );
                         }
+                    } catch (Exception e) {
+                        LOGGER.log(Level.WARNING, "Failed to load configuration file '" + f.name() + "' for workspace " + dir.name() , e );
                     }
                 }
             }
@@ -828,19 +983,25 @@ public abstract class GeoServerLoader {
             //rename the services.xml file
             f.renameTo( f.parent().get("services.xml.old" ) );
         }
+        
+        // the snapshots are not needed anymore
+        globalSnapshot = null;
+        workspaceSnapshots = null;
+    }
+
+    /**
+     * Selects the style configuration files in a styles directory, skipping the style files
+     * named as xml
+     */
+    static Filter<Resource> styleFilter(Resource styles) {
+        return r -> XML_FILTER.accept(r) && !Resources.exists(styles.get(r.name() + ".xml"));
     }
 
     void loadStyles(Resource styles, Catalog catalog, XStreamPersister xp) throws IOException {
-        Filter<Resource> styleFilter = r -> XML_FILTER.accept(r) && !Resources.exists(styles.get(r.name() + ".xml"));
-        try (AsynchResourceIterator<byte[]> it = new AsynchResourceIterator<>(styles, styleFilter, r -> r.getContents())) {
+        try (AsynchResourceIterator<byte[]> it = new AsynchResourceIterator<>(styles, styleFilter(styles), r -> r.getContents())) {
             while (it.hasNext()) {
                 try {
-                    StyleInfo s = depersist(xp, it.next(), StyleInfo.class);
-                    catalog.add(s);
-
-                    if(LOGGER.isLoggable(Level.INFO)) {
-                        LOGGER.info("Loaded style '" + s.getName() + "'");
-                    }
+                    addStyle(depersist(xp, it.next(), StyleInfo.class), catalog);
                 } catch (Exception e) {
                     LOGGER.log(Level.WARNING, "Failed to load style", e);
                 }
@@ -848,21 +1009,35 @@ public abstract class GeoServerLoader {
         }
     }
     
+    /**
+     * Loads the styles read from a snapshot, depersisting them in parallel
+     */
+    void loadStyles(List<byte[]> styles, Catalog catalog, XStreamPersister xp) {
+        for (StyleInfo s : depersist(xp, styles, c -> c, StyleInfo.class, c -> "style")) {
+            if (s != null) {
+                try {
+                    addStyle(s, catalog);
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Failed to load style", e);
+                }
+            }
+        }
+    }
+
+    private void addStyle(StyleInfo s, Catalog catalog) {
+        catalog.add(s);
+
+        if(LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.info("Loaded style '" + s.getName() + "'");
+        }
+    }
    
     void loadLayerGroups(Resource layerGroups, Catalog catalog, XStreamPersister xp) {
         try (AsynchResourceIterator<byte[]> it = new AsynchResourceIterator<>(layerGroups,
                 XML_FILTER, r -> r.getContents())) {
             while (it.hasNext()) {
                 try {
-                    LayerGroupInfo lg = depersist(xp, it.next(), LayerGroupInfo.class);
-                    if (lg.getLayers() == null || lg.getLayers().size() == 0) {
-                        LOGGER.warning(
-                                "Skipping empty layer group '" + lg.getName() + "', it is invalid");
-                        continue;
-                    }
-                    catalog.add(lg);
-
-                    LOGGER.info("Loaded layer group '" + lg.getName() + "'");
+                    addLayerGroup(depersist(xp, it.next(), LayerGroupInfo.class), catalog);
                 } catch (Exception e) {
                     LOGGER.log(Level.WARNING, "Failed to load layer group", e);
                 }
@@ -870,6 +1045,31 @@ public abstract class GeoServerLoader {
         }
     }
 
+    /**
+     * Loads the layer groups read from a snapshot. Unlike the other catalog objects they are
+     * depersisted sequentially, as nested groups can reference each other
+     */
+    void loadLayerGroups(List<byte[]> layerGroups, Catalog catalog, XStreamPersister xp) {
+        for (byte[] contents : layerGroups) {
+            try {
+                addLayerGroup(depersist(xp, contents, true, LayerGroupInfo.class), catalog);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load layer group", e);
+            }
+        }
+    }
+
+    private void addLayerGroup(LayerGroupInfo lg, Catalog catalog) {
+        if (lg.getLayers() == null || lg.getLayers().size() == 0) {
+            LOGGER.warning(
+                    "Skipping empty layer group '" + lg.getName() + "', it is invalid");
+            return;
+        }
+        catalog.add(lg);
+
+        LOGGER.info("Loaded layer group '" + lg.getName() + "'");
+    }
+
     void loadServices(Resource directory, boolean global, List<XStreamServiceLoader> loaders, GeoServer geoServer) {
         for ( XStreamServiceLoader<ServiceInfo> l : loaders ) {
             try {
@@ -924,7 +1124,62 @@ public abstract class GeoServerLoader {
         }
     }
     
+    /**
+     * Helper method depersisting an object either from xml, or from the XStream binary format
+     * used by the {@link CatalogSnapshot}, which skips the xml parsing
+     */
+    static <T> T depersist( XStreamPersister xp, byte[] contents, boolean binary, Class<T> clazz ) throws IOException {
+        if ( !binary ) {
+            return depersist( xp, contents, clazz );
+        }
+        try ( InputStream in = new ByteArrayInputStream(contents) ) {
+            return clazz.cast( xp.getXStream().unmarshal( new BinaryStreamReader( in ) ) );
+        }
+    }
+    
+    /**
+     * Helper method depersisting a configuration file from its snapshot document, if a snapshot
+     * is available, or from the file otherwise. Returns null if the file does not exist.
+     */
+    <T> T depersist( XStreamPersister xp, Resource f, Snapshot snapshot, Class<T> clazz ) throws IOException {
+        if ( snapshot != null ) {
+            byte[] contents = snapshot.files.get(f.name());
+            return contents != null ? depersist( xp, contents, true, clazz ) : null;
+        }
+        return Resources.exists(f) ? depersist( xp, f, clazz ) : null;
+    }
+    
+    /**
+     * Helper method depersisting in parallel the binary documents read from a {@link CatalogSnapshot}.
+     * The objects are returned in the same order as the contents, with nulls in place of the
+     * documents that could not be depersisted. The persister is only read from, the catalog
+     * must not be modified while this method runs.
+     */
+    static <C, T> List<T> depersist( XStreamPersister xp, List<C> contents,
+            Function<C, byte[]> document, Class<T> clazz, Function<C, String> description ) {
+        return contents.parallelStream().map(c -> {
+            try {
+                return depersist( xp, document.apply(c), true, clazz );
+            } catch (Exception e) {
+                LOGGER.log( Level.WARNING, "Failed to load " + description.apply(c), e );
+                return null;
+            }
+        }).collect(Collectors.toList());
+    }
+    
+    /**
+     * Makes sure all the configuration changes performed so far are stored, for loaders
+     * persisting them asynchronously
+     */
+    public void flush() throws Exception {
+        // nothing to do by default
+    }
+    
     public void destroy() throws Exception {
+        // write down the pending snapshots
+        if (snapshot != null) {
+            snapshot.dispose();
+        }
         //dispose
         geoserver.dispose();
     }
@@ -66,6 +66,15 @@ public class GeoServerLoaderProxy implements BeanPostProcessor, DisposableBean,
             loader.reload();
         }
     }
+    /**
+     * Makes sure all the configuration changes performed so far are stored
+     */
+    public void flush() throws Exception {
+        if (loader != null) {
+            loader.flush();
+        }
+    }
+
     public void destroy() throws Exception {
         if (loader != null) {
             loader.destroy();
@@ -16,7 +16,12 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -46,6 +51,7 @@ import org.geoserver.catalog.event.CatalogModifyEvent;
 import org.geoserver.catalog.event.CatalogPostModifyEvent;
 import org.geoserver.catalog.event.CatalogRemoveEvent;
 import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geoserver.platform.resource.Files;
 import org.geoserver.platform.resource.Resource;
@@ -57,11 +63,32 @@ import org.geotools.styling.Style;
 import org.geotools.util.logging.Logging;
 
 
-
+/**
+ * Listener persisting catalog and configuration changes into the data directory.
+ * <p>
+ * By default changes are written down synchronously, in the thread performing the change. In
+ * asynchronous mode the configuration files to be written are instead queued, multiple changes to
+ * the same object are coalesced into a single write, and the queue is written down in batches by
+ * a background thread. The objects are encoded in the thread performing the change, so that the
+ * background thread never reads live catalog objects that might be undergoing other changes. Removals, renames and moves are still performed synchronously, after
+ * writing down the pending changes, so that the data directory goes through the same sequence of
+ * states as in synchronous mode. Use {@link #flush()} to wait for the pending changes to be
+ * written down.
+ * </p>
+ * <p>
+ * The asynchronous mode can be enabled by setting the {@value #ASYNC_PROPERTY}
+ * system/environment/servlet context variable to true.
+ * </p>
+ */
 public class GeoServerPersister implements CatalogListener, ConfigurationListener {
 
     private static final int MAX_RENAME_ATTEMPTS = 100;
 
+    /**
+     * Property enabling the asynchronous mode
+     */
+    public static final String ASYNC_PROPERTY = "GEOSERVER_PERSISTER_ASYNC";
+
     /**
      * logging instance
      */
@@ -71,12 +98,178 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
     GeoServerDataDirectory dd;
     XStreamPersister xp;
     
+    /**
+     * The objects waiting to be written down in asynchronous mode, keyed by target path
+     */
+    Map<String, PendingWrite> pending = new LinkedHashMap<>();
+    
+    /**
+     * Held while writing down a batch of pending changes
+     */
+    ReentrantLock writeLock = new ReentrantLock();
+    
+    /**
+     * The background writer, null in synchronous mode
+     */
+    ExecutorService executor;
+    
+    /**
+     * The last failure of the background writer, reported by the next {@link #flush()}
+     */
+    Exception asyncFailure;
+    
+    static final class PendingWrite {
+        Object object;
+        byte[] contents;
+        Resource resource;
+        
+        PendingWrite(Object object, byte[] contents, Resource resource) {
+            this.object = object;
+            this.contents = contents;
+            this.resource = resource;
+        }
+    }
+    
     public GeoServerPersister(GeoServerResourceLoader rl, XStreamPersister xp) {
         this.rl = rl;
         this.dd = new GeoServerDataDirectory(rl);
         this.xp = xp;
     }
     
+    /**
+     * Returns true if the asynchronous mode has been enabled via {@value #ASYNC_PROPERTY}
+     */
+    public static boolean isAsynchronousEnabled() {
+        return Boolean.parseBoolean(GeoServerExtensions.getProperty(ASYNC_PROPERTY));
+    }
+    
+    /**
+     * Switches between synchronous and asynchronous mode. Switching back to synchronous mode
+     * writes down all pending changes.
+     */
+    public synchronized void setAsynchronous(boolean asynchronous) {
+        if (asynchronous && executor == null) {
+            executor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "GeoServerPersister");
+                t.setDaemon(true);
+                return t;
+            });
+        } else if (!asynchronous && executor != null) {
+            executor.shutdown();
+            executor = null;
+            flush();
+        }
+    }
+    
+    public synchronized boolean isAsynchronous() {
+        return executor != null;
+    }
+    
+    /**
+     * Writes down all the pending changes, returning only once they are stored in the data
+     * directory. A no-op in synchronous mode.
+     * 
+     * @throws CatalogException if writing down the changes failed, including failures of the
+     *         background writer since the last flush
+     */
+    public void flush() {
+        writeLock.lock();
+        try {
+            writePending();
+            if (asyncFailure != null) {
+                Exception failure = asyncFailure;
+                asyncFailure = null;
+                throw new CatalogException("Failed to persist configuration changes", failure);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Writes down the pending changes, without reporting earlier background writer failures
+     */
+    private void drain() {
+        writeLock.lock();
+        try {
+            writePending();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Writes down the pending changes and stops the background writer
+     */
+    public void dispose() {
+        try {
+            setAsynchronous(false);
+        } catch (CatalogException e) {
+            LOGGER.log(Level.SEVERE, "Failed to persist configuration changes", e);
+        }
+    }
+    
+    private void enqueue(Object o, Resource r) {
+        // encode a copy of the current state, the object might keep on changing
+        PendingWrite write = new PendingWrite(o, encode(o, r), r);
+        boolean schedule;
+        synchronized (pending) {
+            schedule = pending.isEmpty();
+            // coalesce with any pending write of the same file, the latest state wins
+            pending.put(r.path(), write);
+        }
+        if (schedule) {
+            synchronized (this) {
+                if (executor != null) {
+                    executor.execute(this::writeBatch);
+                    return;
+                }
+            }
+            // switched to synchronous mode in the meantime
+            drain();
+        }
+    }
+    
+    private void writeBatch() {
+        writeLock.lock();
+        try {
+            writePending();
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Failed to persist configuration changes", e);
+            asyncFailure = e;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Writes down all pending changes, must be called while holding the write lock
+     */
+    private void writePending() {
+        while (true) {
+            List<PendingWrite> batch;
+            synchronized (pending) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<>(pending.values());
+                pending.clear();
+            }
+            CatalogException failure = null;
+            for (PendingWrite write : batch) {
+                try {
+                    write(write.object, write.contents, write.resource);
+                } catch (CatalogException e) {
+                    // keep going, a failure on one file should not prevent writing the others
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+    
     public void handleAddEvent(CatalogAddEvent event) {
         Object source = event.getSource();
         try {
@@ -734,12 +927,35 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
     }
     
     private void persist( Object o, Resource r ) throws IOException {
+        if (isAsynchronous()) {
+            enqueue(o, r);
+        } else {
+            write(o, r);
+        }
+    }
+    
+    private void write( Object o, Resource r ) {
+        write( o, encode( o, r ), r );
+    }
+    
+    private byte[] encode( Object o, Resource r ) {
         try {
             synchronized ( xp ) {
                 ByteArrayOutputStream bos = new ByteArrayOutputStream();
                 xp.save(o, bos);
-                r.setContents(bos.toByteArray());
+                return bos.toByteArray();
             }
+        }
+        catch( Exception e ) {
+            //catch any exceptions and send them back as CatalogExeptions
+            String msg = "Error persisting " + o + " to " + r.path();
+            throw new CatalogException(msg, e);
+        }
+    }
+    
+    private void write( Object o, byte[] contents, Resource r ) {
+        try {
+            r.setContents(contents);
             LOGGER.fine("Persisted " + o.getClass().getName() + " to " + r.path() );
         }
         catch( Exception e ) {
@@ -749,17 +965,23 @@ public class GeoServerPersister implements CatalogListener, ConfigurationListene
         }
     }
     
+    // the following operations write down the pending changes first, in order to avoid
+    // queued writes recreating removed files, or targeting moved ones
     private void rmRes(Resource r) {
+        drain();
         rl.remove(r.path());
     }
     private void renameRes(Resource r, String newName) {
+        drain();
         rl.move(r.path(), r.parent().get(newName).path());
     }
     private void moveResToDir(Resource r, Resource newDir) {
+        drain();
         rl.move(r.path(), newDir.get(r.name()).path());
     }
     
     private void copyResToDir(Resource r, Resource newDir) throws IOException {
+        drain();
         Resource newR = newDir.get(r.name());
         try(InputStream in = r.in();
             OutputStream out = newR.out()){
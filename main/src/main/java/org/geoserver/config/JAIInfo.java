@@ -56,6 +56,27 @@ public interface JAIInfo extends Cloneable, Serializable {
     double getMemoryThreshold();
     void setMemoryThreshold(double memoryThreshold);
 
+    /**
+     * Flag replacing the jai tile cache with one accounting memory per layer, see
+     * {@link org.geoserver.jai.LayerTileCache}.
+     */
+    boolean isLayerTileCacheEnabled();
+    void setLayerTileCacheEnabled(boolean layerTileCacheEnabled);
+
+    /**
+     * The per layer tile cache quotas, as a comma separated list of <code>layer=quota</code>
+     * pairs, quotas being fractions of the memory capacity and <code>*</code> setting the default.
+     */
+    String getLayerTileCacheQuotas();
+    void setLayerTileCacheQuotas(String layerTileCacheQuotas);
+
+    /**
+     * The per layer tile cache priorities, as a comma separated list of
+     * <code>layer=priority</code> pairs, lower priority layers tiles being evicted first.
+     */
+    String getLayerTileCachePriorities();
+    void setLayerTileCachePriorities(String layerTileCachePriorities);
+
     /**
      * Flag controlling native PNG image processing.
      * @deprecated Use {@link #getPngEncoderType()} instead
@@ -36,6 +36,13 @@ public class JAIInfoImpl implements Serializable, JAIInfo {
     public static final double DEFAULT_MemoryThreshold = 0.75;
     double memoryThreshold = DEFAULT_MemoryThreshold;
     
+    public static final boolean DEFAULT_LayerTileCache = false;
+    boolean layerTileCacheEnabled = DEFAULT_LayerTileCache;
+    
+    String layerTileCacheQuotas;
+    
+    String layerTileCachePriorities;
+    
     public static final boolean DEFAULT_ImageIOCache = false;
     boolean imageIOCache = DEFAULT_ImageIOCache;
     
@@ -139,6 +146,30 @@ public class JAIInfoImpl implements Serializable, JAIInfo {
         this.memoryThreshold = memoryThreshold;
     }
     
+    public boolean isLayerTileCacheEnabled() {
+        return layerTileCacheEnabled;
+    }
+
+    public void setLayerTileCacheEnabled(boolean layerTileCacheEnabled) {
+        this.layerTileCacheEnabled = layerTileCacheEnabled;
+    }
+
+    public String getLayerTileCacheQuotas() {
+        return layerTileCacheQuotas;
+    }
+
+    public void setLayerTileCacheQuotas(String layerTileCacheQuotas) {
+        this.layerTileCacheQuotas = layerTileCacheQuotas;
+    }
+
+    public String getLayerTileCachePriorities() {
+        return layerTileCachePriorities;
+    }
+
+    public void setLayerTileCachePriorities(String layerTileCachePriorities) {
+        this.layerTileCachePriorities = layerTileCachePriorities;
+    }
+    
     public boolean isPngAcceleration() {
         return pngAcceleration;
     }
@@ -210,6 +241,11 @@ public class JAIInfoImpl implements Serializable, JAIInfo {
         result = prime * result + (allowNativeWarp ? 1231 : 1237);
         result = prime * result + (imageIOCache ? 1231 : 1237);
         result = prime * result + (jpegAcceleration ? 1231 : 1237);
+        result = prime * result + (layerTileCacheEnabled ? 1231 : 1237);
+        result = prime * result
+                + ((layerTileCachePriorities == null) ? 0 : layerTileCachePriorities.hashCode());
+        result = prime * result
+                + ((layerTileCacheQuotas == null) ? 0 : layerTileCacheQuotas.hashCode());
         long temp;
         temp = Double.doubleToLongBits(memoryCapacity);
         result = prime * result + (int) (temp ^ (temp >>> 32));
@@ -243,6 +279,18 @@ public class JAIInfoImpl implements Serializable, JAIInfo {
             return false;
         if (jpegAcceleration != other.jpegAcceleration)
             return false;
+        if (layerTileCacheEnabled != other.layerTileCacheEnabled)
+            return false;
+        if (layerTileCachePriorities == null) {
+            if (other.layerTileCachePriorities != null)
+                return false;
+        } else if (!layerTileCachePriorities.equals(other.layerTileCachePriorities))
+            return false;
+        if (layerTileCacheQuotas == null) {
+            if (other.layerTileCacheQuotas != null)
+                return false;
+        } else if (!layerTileCacheQuotas.equals(other.layerTileCacheQuotas))
+            return false;
         if (Double.doubleToLongBits(memoryCapacity) != Double
                 .doubleToLongBits(other.memoryCapacity))
             return false;
@@ -12,13 +12,16 @@ import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
 
+import org.geoserver.ows.AsyncAwareResponse;
+
 /**
  * A wrapper making sure the servlet container will never see a flush call once the output stream
  * is closed
  *  
  * @author Andrea Aime - GeoSolutions
  */
-class FlushSafeResponse extends HttpServletResponseWrapper implements HttpServletResponse {
+class FlushSafeResponse extends HttpServletResponseWrapper implements HttpServletResponse,
+        AsyncAwareResponse {
     
     ServletOutputStream os = null;
 
@@ -40,7 +40,10 @@ public class GZIPFilter implements Filter {
                 GZIPResponseWrapper wrappedResponse =
                     new GZIPResponseWrapper(response, myCompressedTypes, request.getRequestURL().toString());
                 chain.doFilter(req, wrappedResponse);
-                wrappedResponse.finishResponse();
+                // asynchronous requests are finished by the dispatcher closing the output
+                if (!request.isAsyncStarted()) {
+                    wrappedResponse.finishResponse();
+                }
                 return;
             }
         }
@@ -21,7 +21,9 @@ import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
 
-public class GZIPResponseWrapper extends HttpServletResponseWrapper {
+import org.geoserver.ows.AsyncAwareResponse;
+
+public class GZIPResponseWrapper extends HttpServletResponseWrapper implements AsyncAwareResponse {
     protected HttpServletResponse origResponse = null;
     protected AlternativesResponseStream stream = null;
     protected PrintWriter writer = null;
@@ -6,6 +6,7 @@
 package org.geoserver.jai;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -105,6 +106,25 @@ public class JAIInitializer implements GeoServerInitializer {
             }
         }
         
+        // per layer accounting tile cache, if enabled, back to the JAI default one otherwise
+        TileCache previous = jaiDef.getTileCache();
+        if (jai.isLayerTileCacheEnabled()) {
+            Map<String, Double> quotas = LayerTileCache.parseQuotas(jai.getLayerTileCacheQuotas(),
+                    false);
+            Map<String, Integer> priorities = LayerTileCache
+                    .parsePriorities(jai.getLayerTileCachePriorities(), false);
+            if (previous instanceof LayerTileCache) {
+                ((LayerTileCache) previous).configure(quotas, priorities);
+            } else {
+                jaiDef.setTileCache(
+                        new LayerTileCache(previous.getMemoryCapacity(), quotas, priorities));
+                previous.flush();
+            }
+        } else if (previous instanceof LayerTileCache) {
+            jaiDef.setTileCache(JAI.createTileCache(previous.getMemoryCapacity()));
+            previous.flush();
+        }
+        
         // Setting up Cache Capacity
         TileCache jaiCache = jaiDef.getTileCache();
         jai.setTileCache( jaiCache );
@@ -0,0 +1,889 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jai;
+
+import java.awt.Point;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.Serializable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import javax.media.jai.JAI;
+import javax.media.jai.TileCache;
+
+import org.geotools.util.logging.Logging;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.sun.media.jai.util.CacheDiagnostics;
+
+/**
+ * A JAI {@link TileCache} accounting memory per layer, so that a single large coverage cannot
+ * push every other layer's tiles out of the cache, and so that the cache occupancy can be
+ * broken down by layer.
+ * <p>
+ * Tiles are attributed to the layer whose coverage read produced the image owning them, or one
+ * of its ancestors: readers register the images they return via
+ * {@link #register(RenderedImage, String)}, images built on top of them (e.g., by the renderer)
+ * are attributed by walking their sources. Tiles that cannot be attributed are accounted under
+ * {@value #UNATTRIBUTED}.
+ * </p>
+ * <p>
+ * Each layer can be given a quota, as a fraction of the cache capacity, and a priority. A layer
+ * going over quota loses its own least recently used tiles. When the cache as a whole goes over
+ * capacity tiles are evicted, least recently used first, from the lowest priority layer using
+ * the largest share of its quota. Quotas and priorities are part of the JAI configuration, see
+ * {@link org.geoserver.config.JAIInfo#getLayerTileCacheQuotas()} and
+ * {@link org.geoserver.config.JAIInfo#getLayerTileCachePriorities()}, as comma separated lists
+ * of <code>layer=value</code> pairs, <code>*</code> setting the default for the layers not
+ * listed. The cache replaces the default JAI one when enabled in the JAI configuration, see
+ * {@link JAIInitializer}.
+ * </p>
+ * <p>
+ * Lookups do not lock: owners and their tiles are kept in concurrent maps, and the statistics
+ * in atomic counters. Changes to the tiles of a layer are serialized on that layer account, so
+ * layers do not contend with each other. Least recent use is approximated by giving the tiles
+ * looked up since they were queued a second chance before eviction.
+ * </p>
+ */
+public class LayerTileCache implements TileCache, CacheDiagnostics {
+
+    static final Logger LOGGER = Logging.getLogger(LayerTileCache.class);
+
+    /**
+     * The account of the tiles that could not be attributed to any layer
+     */
+    public static final String UNATTRIBUTED = "*unattributed*";
+
+    static final String DEFAULT_KEY = "*";
+
+    /**
+     * How many images are inspected, at most, looking for an ancestor attributed to a layer
+     */
+    static final int MAX_SOURCES_VISITED = 32;
+
+    /**
+     * The layer usage of the cache
+     */
+    public static class LayerUsage implements Serializable {
+
+        private static final long serialVersionUID = -1736622417744262853L;
+
+        final String layer;
+
+        final long memory;
+
+        final int tiles;
+
+        final long hits;
+
+        final long misses;
+
+        final long evictions;
+
+        final double quota;
+
+        final int priority;
+
+        LayerUsage(String layer, long memory, int tiles, long hits, long misses, long evictions,
+                double quota, int priority) {
+            this.layer = layer;
+            this.memory = memory;
+            this.tiles = tiles;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.quota = quota;
+            this.priority = priority;
+        }
+
+        public String getLayer() {
+            return layer;
+        }
+
+        /**
+         * Memory used by the layer tiles, in bytes
+         */
+        public long getMemory() {
+            return memory;
+        }
+
+        public int getTiles() {
+            return tiles;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * The ratio of tile lookups that found the tile in cache
+         */
+        public double getHitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 1 : ((double) hits) / lookups;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * The layer quota, as a fraction of the cache capacity
+         */
+        public double getQuota() {
+            return quota;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+    }
+
+    /**
+     * Weak reference to a tile owner, compared by identity
+     */
+    static final class OwnerRef extends WeakReference<RenderedImage> {
+
+        final int hash;
+
+        OwnerRef(RenderedImage owner, ReferenceQueue<RenderedImage> queue) {
+            super(owner, queue);
+            this.hash = System.identityHashCode(owner);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof OwnerRef)) {
+                return false;
+            }
+            RenderedImage owner = get();
+            return owner != null && owner == ((OwnerRef) obj).get();
+        }
+    }
+
+    /**
+     * The tiles of a given owner, changed only while holding the lock of its account
+     */
+    static final class OwnerTiles {
+        final OwnerRef ref;
+
+        final Account account;
+
+        final Map<Long, Tile> tiles = new ConcurrentHashMap<>();
+
+        /**
+         * Set once the owner has been dropped from the cache, no more tiles can be added to it
+         */
+        boolean removed;
+
+        OwnerTiles(OwnerRef ref, Account account) {
+            this.ref = ref;
+            this.account = account;
+        }
+    }
+
+    static final class Tile {
+        final OwnerTiles owner;
+
+        final long index;
+
+        final Raster raster;
+
+        final long size;
+
+        /**
+         * Set on lookup, the tile gets moved back at the end of the queue instead of being evicted
+         */
+        volatile boolean accessed;
+
+        Tile(OwnerTiles owner, long index, Raster raster, long size) {
+            this.owner = owner;
+            this.index = index;
+            this.raster = raster;
+            this.size = size;
+        }
+    }
+
+    /**
+     * The tiles of a layer, in eviction order, and their statistics. The tile queue is guarded by
+     * the account lock, the counters are updated without it
+     */
+    static final class Account {
+        final String layer;
+
+        volatile double quota;
+
+        volatile int priority;
+
+        final LinkedHashSet<Tile> tiles = new LinkedHashSet<>();
+
+        final AtomicLong memory = new AtomicLong();
+
+        final LongAdder hits = new LongAdder();
+
+        final LongAdder misses = new LongAdder();
+
+        final LongAdder evictions = new LongAdder();
+
+        Account(String layer, double quota, int priority) {
+            this.layer = layer;
+            this.quota = quota;
+            this.priority = priority;
+        }
+
+        /**
+         * The share of the quota in use, the eviction candidates are the ones with the highest
+         */
+        double getQuotaUsage(long capacity) {
+            return memory.get() / Math.max(1d, quota * capacity);
+        }
+    }
+
+    final ReferenceQueue<RenderedImage> queue = new ReferenceQueue<>();
+
+    final ConcurrentMap<OwnerRef, OwnerTiles> owners = new ConcurrentHashMap<>();
+
+    final ConcurrentMap<String, Account> accounts = new ConcurrentHashMap<>();
+
+    volatile Map<String, Double> quotas;
+
+    volatile Map<String, Integer> priorities;
+
+    /**
+     * Layer attribution of the images, weak keys compare by identity
+     */
+    final Cache<RenderedImage, String> layers = CacheBuilder.newBuilder().weakKeys().build();
+
+    /**
+     * Serializes the evictions needed to stay within the overall capacity
+     */
+    final Object memoryControlLock = new Object();
+
+    volatile long memoryCapacity;
+
+    volatile float memoryThreshold = 0.75f;
+
+    int tileCapacity = 1000;
+
+    Comparator<?> tileComparator;
+
+    final AtomicLong memory = new AtomicLong();
+
+    /**
+     * Builds a cache with the given quotas, as fractions of the capacity, and priorities, keyed
+     * by layer name ({@value #DEFAULT_KEY} for the default values)
+     */
+    public LayerTileCache(long memoryCapacity, Map<String, Double> quotas,
+            Map<String, Integer> priorities) {
+        this.memoryCapacity = memoryCapacity;
+        this.quotas = quotas;
+        this.priorities = priorities;
+    }
+
+    /**
+     * Replaces the quotas and priorities, applying them to the layers already in the cache too
+     */
+    public void configure(Map<String, Double> quotas, Map<String, Integer> priorities) {
+        this.quotas = quotas;
+        this.priorities = priorities;
+        for (Account account : accounts.values()) {
+            account.priority = getValue(priorities, account.layer, 0);
+            synchronized (account) {
+                account.quota = getValue(quotas, account.layer, 1d);
+                enforceQuota(account);
+            }
+        }
+    }
+
+    /**
+     * Attributes the image, and its sources not yet attributed, to the given layer, provided the
+     * JAI default tile cache is a layer tile cache
+     */
+    public static void registerDefault(RenderedImage image, String layer) {
+        TileCache cache = JAI.getDefaultInstance().getTileCache();
+        if (cache instanceof LayerTileCache) {
+            ((LayerTileCache) cache).register(image, layer);
+        }
+    }
+
+    /**
+     * Attributes the image, and its sources not yet attributed, to the given layer
+     */
+    public void register(RenderedImage image, String layer) {
+        if (image == null || layer == null) {
+            return;
+        }
+        Set<RenderedImage> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<RenderedImage> images = new ArrayDeque<>();
+        images.add(image);
+        while (!images.isEmpty() && visited.size() < MAX_SOURCES_VISITED) {
+            RenderedImage current = images.poll();
+            if (!visited.add(current) || layers.getIfPresent(current) != null) {
+                continue;
+            }
+            layers.put(current, layer);
+            addSources(current, images);
+        }
+    }
+
+    static void addSources(RenderedImage image, Deque<RenderedImage> images) {
+        Vector<RenderedImage> sources = image.getSources();
+        if (sources != null) {
+            for (Object source : sources) {
+                if (source instanceof RenderedImage) {
+                    images.add((RenderedImage) source);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the layer the image is attributed to, looking up its ancestors if needed
+     */
+    String getLayer(RenderedImage image) {
+        String layer = layers.getIfPresent(image);
+        if (layer != null) {
+            return layer;
+        }
+        Set<RenderedImage> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<RenderedImage> images = new ArrayDeque<>();
+        addSources(image, images);
+        while (!images.isEmpty() && visited.size() < MAX_SOURCES_VISITED) {
+            RenderedImage current = images.poll();
+            if (!visited.add(current)) {
+                continue;
+            }
+            layer = layers.getIfPresent(current);
+            if (layer != null) {
+                // remember it, the owner is likely going to get more tiles
+                layers.put(image, layer);
+                return layer;
+            }
+            addSources(current, images);
+        }
+        return UNATTRIBUTED;
+    }
+
+    Account getAccount(String layer) {
+        return accounts.computeIfAbsent(layer, l -> new Account(l, getValue(quotas, l, 1d),
+                getValue(priorities, l, 0)));
+    }
+
+    static <T> T getValue(Map<String, T> values, String layer, T defaultValue) {
+        T value = values.get(layer);
+        if (value == null) {
+            value = values.get(DEFAULT_KEY);
+        }
+        return value != null ? value : defaultValue;
+    }
+
+    static long getIndex(int tileX, int tileY) {
+        return (((long) tileX) << 32) | (tileY & 0xFFFFFFFFL);
+    }
+
+    static long getSize(Raster raster) {
+        DataBuffer buffer = raster.getDataBuffer();
+        return ((long) buffer.getSize()) * buffer.getNumBanks()
+                * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    /**
+     * Returns the tiles of the owner, setting them up if missing
+     */
+    OwnerTiles getOwnerTiles(RenderedImage owner) {
+        OwnerTiles tiles = owners.get(new OwnerRef(owner, null));
+        if (tiles == null) {
+            // resolve before touching the map, might have to walk the image chain
+            Account account = getAccount(getLayer(owner));
+            tiles = owners.computeIfAbsent(new OwnerRef(owner, queue),
+                    ref -> new OwnerTiles(ref, account));
+        }
+        return tiles;
+    }
+
+    @Override
+    public void add(RenderedImage owner, int tileX, int tileY, Raster data) {
+        add(owner, tileX, tileY, data, null);
+    }
+
+    @Override
+    public void add(RenderedImage owner, int tileX, int tileY, Raster data,
+            Object tileCacheMetric) {
+        long size = getSize(data);
+        if (size > memoryCapacity) {
+            return;
+        }
+        expunge();
+        long index = getIndex(tileX, tileY);
+        boolean added = false;
+        while (!added) {
+            OwnerTiles tiles = getOwnerTiles(owner);
+            Account account = tiles.account;
+            synchronized (account) {
+                // the owner might have been dropped meanwhile, if so, try again with a new entry
+                if (!tiles.removed) {
+                    Tile tile = new Tile(tiles, index, data, size);
+                    Tile previous = tiles.tiles.put(index, tile);
+                    if (previous != null) {
+                        account.tiles.remove(previous);
+                        account.memory.addAndGet(-previous.size);
+                        memory.addAndGet(-previous.size);
+                    }
+                    account.tiles.add(tile);
+                    account.memory.addAndGet(size);
+                    memory.addAndGet(size);
+                    enforceQuota(account);
+                    added = true;
+                }
+            }
+        }
+        // outside of the layer lock, staying within capacity might evict other layers tiles
+        if (memory.get() > memoryCapacity) {
+            memoryControl();
+        }
+    }
+
+    /**
+     * Evicts the account tiles until it's back within quota, to be called holding its lock
+     */
+    void enforceQuota(Account account) {
+        long quota = (long) (account.quota * memoryCapacity);
+        while (account.memory.get() > quota && !account.tiles.isEmpty()) {
+            evict(account);
+        }
+    }
+
+    @Override
+    public void addTiles(RenderedImage owner, Point[] tileIndices, Raster[] tiles,
+            Object tileCacheMetric) {
+        for (int i = 0; i < tileIndices.length; i++) {
+            add(owner, tileIndices[i].x, tileIndices[i].y, tiles[i], tileCacheMetric);
+        }
+    }
+
+    @Override
+    public Raster getTile(RenderedImage owner, int tileX, int tileY) {
+        OwnerTiles tiles = owners.get(new OwnerRef(owner, null));
+        if (tiles != null) {
+            Tile tile = tiles.tiles.get(getIndex(tileX, tileY));
+            if (tile != null) {
+                tile.accessed = true;
+                tiles.account.hits.increment();
+                return tile.raster;
+            }
+            tiles.account.misses.increment();
+            return null;
+        }
+        getAccount(getLayer(owner)).misses.increment();
+        return null;
+    }
+
+    @Override
+    public Raster[] getTiles(RenderedImage owner, Point[] tileIndices) {
+        Raster[] result = new Raster[tileIndices.length];
+        for (int i = 0; i < tileIndices.length; i++) {
+            result[i] = getTile(owner, tileIndices[i].x, tileIndices[i].y);
+        }
+        return result;
+    }
+
+    @Override
+    public Raster[] getTiles(RenderedImage owner) {
+        OwnerTiles tiles = owners.get(new OwnerRef(owner, null));
+        if (tiles == null) {
+            return null;
+        }
+        List<Raster> result = new ArrayList<>();
+        for (Tile tile : tiles.tiles.values()) {
+            result.add(tile.raster);
+        }
+        return result.isEmpty() ? null : result.toArray(new Raster[result.size()]);
+    }
+
+    @Override
+    public void remove(RenderedImage owner, int tileX, int tileY) {
+        OwnerTiles tiles = owners.get(new OwnerRef(owner, null));
+        if (tiles != null) {
+            synchronized (tiles.account) {
+                Tile tile = tiles.tiles.get(getIndex(tileX, tileY));
+                if (tile != null) {
+                    remove(tile);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void removeTiles(RenderedImage owner) {
+        OwnerTiles tiles = owners.remove(new OwnerRef(owner, null));
+        if (tiles != null) {
+            removeAll(tiles);
+        }
+    }
+
+    /**
+     * Removes a tile, to be called holding the lock of its account
+     */
+    void remove(Tile tile) {
+        OwnerTiles tiles = tile.owner;
+        tiles.tiles.remove(tile.index);
+        tiles.account.tiles.remove(tile);
+        tiles.account.memory.addAndGet(-tile.size);
+        memory.addAndGet(-tile.size);
+        if (tiles.tiles.isEmpty()) {
+            tiles.removed = true;
+            owners.remove(tiles.ref, tiles);
+        }
+    }
+
+    /**
+     * Removes all the tiles of an owner already dropped from the owners map
+     */
+    void removeAll(OwnerTiles tiles) {
+        Account account = tiles.account;
+        synchronized (account) {
+            tiles.removed = true;
+            for (Tile tile : tiles.tiles.values()) {
+                account.tiles.remove(tile);
+                account.memory.addAndGet(-tile.size);
+                memory.addAndGet(-tile.size);
+            }
+            tiles.tiles.clear();
+        }
+    }
+
+    /**
+     * Evicts the least recently used tile of the account, to be called holding its lock. Tiles
+     * looked up since they were queued get a second chance, and are queued again
+     */
+    void evict(Account account) {
+        Tile eldest = account.tiles.iterator().next();
+        while (eldest.accessed) {
+            eldest.accessed = false;
+            account.tiles.remove(eldest);
+            account.tiles.add(eldest);
+            eldest = account.tiles.iterator().next();
+        }
+        remove(eldest);
+        account.evictions.increment();
+    }
+
+    /**
+     * Drops the tiles of the owners that have been garbage collected
+     */
+    void expunge() {
+        Reference<? extends RenderedImage> ref;
+        while ((ref = queue.poll()) != null) {
+            OwnerTiles tiles = owners.remove(ref);
+            if (tiles != null) {
+                removeAll(tiles);
+            }
+        }
+    }
+
+    /**
+     * Drops all the tiles and resets the statistics, the layer accounts are kept as tiles might
+     * be getting added to them concurrently
+     */
+    @Override
+    public void flush() {
+        for (OwnerRef ref : owners.keySet()) {
+            OwnerTiles tiles = owners.remove(ref);
+            if (tiles != null) {
+                removeAll(tiles);
+            }
+        }
+        resetCounts();
+    }
+
+    /**
+     * Evicts tiles until the memory used goes below the threshold, from the lowest priority
+     * layers first, and among them, from the ones using the largest share of their quota
+     */
+    @Override
+    public void memoryControl() {
+        expunge();
+        synchronized (memoryControlLock) {
+            long capacity = memoryCapacity;
+            long target = (long) (capacity * memoryThreshold);
+            while (memory.get() > target) {
+                Account victim = null;
+                int victimPriority = 0;
+                double victimUsage = 0;
+                for (Account account : accounts.values()) {
+                    if (account.memory.get() <= 0) {
+                        continue;
+                    }
+                    int priority = account.priority;
+                    double usage = account.getQuotaUsage(capacity);
+                    if (victim == null || priority < victimPriority
+                            || (priority == victimPriority && usage > victimUsage)) {
+                        victim = account;
+                        victimPriority = priority;
+                        victimUsage = usage;
+                    }
+                }
+                if (victim == null) {
+                    break;
+                }
+                synchronized (victim) {
+                    if (!victim.tiles.isEmpty()) {
+                        evict(victim);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the usage of the cache, per layer, sorted by layer name
+     */
+    public List<LayerUsage> getUsage() {
+        expunge();
+        List<LayerUsage> result = new ArrayList<>();
+        for (Account account : accounts.values()) {
+            int tiles;
+            long memory;
+            synchronized (account) {
+                tiles = account.tiles.size();
+                memory = account.memory.get();
+            }
+            result.add(new LayerUsage(account.layer, memory, tiles, account.hits.sum(),
+                    account.misses.sum(), account.evictions.sum(), account.quota,
+                    account.priority));
+        }
+        result.sort(Comparator.comparing(LayerUsage::getLayer));
+        return result;
+    }
+
+    /**
+     * Returns the number of tiles evicted to stay within quotas and capacity
+     */
+    public long getEvictionCount() {
+        long evictions = 0;
+        for (Account account : accounts.values()) {
+            evictions += account.evictions.sum();
+        }
+        return evictions;
+    }
+
+    @Override
+    @Deprecated
+    public void setTileCapacity(int tileCapacity) {
+        // not used, the cache is bounded by memory
+        this.tileCapacity = tileCapacity;
+    }
+
+    @Override
+    @Deprecated
+    public int getTileCapacity() {
+        return tileCapacity;
+    }
+
+    @Override
+    public void setMemoryCapacity(long memoryCapacity) {
+        if (memoryCapacity < 0) {
+            throw new IllegalArgumentException("Memory capacity must be positive");
+        }
+        this.memoryCapacity = memoryCapacity;
+        if (memory.get() > memoryCapacity) {
+            memoryControl();
+        }
+    }
+
+    @Override
+    public long getMemoryCapacity() {
+        return memoryCapacity;
+    }
+
+    @Override
+    public void setMemoryThreshold(float memoryThreshold) {
+        if (memoryThreshold < 0 || memoryThreshold > 1) {
+            throw new IllegalArgumentException("Memory threshold must be between 0 and 1");
+        }
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    @Override
+    public float getMemoryThreshold() {
+        return memoryThreshold;
+    }
+
+    /**
+     * The comparator is kept for API compatibility, but not used, eviction order is driven by
+     * layer priorities, quotas, and least recent use
+     */
+    @Override
+    public void setTileComparator(Comparator comparator) {
+        this.tileComparator = comparator;
+    }
+
+    @Override
+    public Comparator getTileComparator() {
+        return tileComparator;
+    }
+
+    // CacheDiagnostics, statistics are always collected, they are needed to pick eviction victims
+
+    @Override
+    public void enableDiagnostics() {
+    }
+
+    @Override
+    public void disableDiagnostics() {
+    }
+
+    @Override
+    public long getCacheTileCount() {
+        long count = 0;
+        for (Account account : accounts.values()) {
+            synchronized (account) {
+                count += account.tiles.size();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public long getCacheMemoryUsed() {
+        return memory.get();
+    }
+
+    @Override
+    public long getCacheHitCount() {
+        long hits = 0;
+        for (Account account : accounts.values()) {
+            hits += account.hits.sum();
+        }
+        return hits;
+    }
+
+    @Override
+    public long getCacheMissCount() {
+        long misses = 0;
+        for (Account account : accounts.values()) {
+            misses += account.misses.sum();
+        }
+        return misses;
+    }
+
+    @Override
+    public void resetCounts() {
+        for (Account account : accounts.values()) {
+            account.hits.reset();
+            account.misses.reset();
+            account.evictions.reset();
+        }
+    }
+
+    /**
+     * Parses the quotas, a comma separated list of <code>layer=quota</code> pairs, with quotas
+     * between 0 and 1. Invalid entries are reported as an {@link IllegalArgumentException} if
+     * strict, logged and skipped otherwise
+     */
+    public static Map<String, Double> parseQuotas(String spec, boolean strict) {
+        Map<String, Double> result = new HashMap<>();
+        for (Map.Entry<String, String> entry : parse("quotas", spec, strict).entrySet()) {
+            try {
+                double quota = Double.parseDouble(entry.getValue());
+                if (quota < 0 || quota > 1) {
+                    throw new NumberFormatException("Quota must be between 0 and 1");
+                }
+                result.put(entry.getKey(), quota);
+            } catch (NumberFormatException e) {
+                invalid("Invalid quota for " + entry.getKey() + ": " + entry.getValue()
+                        + ", it must be a number between 0 and 1", strict);
+            }
+        }
+        return result;
+    }
+
+    static Map<String, Double> parseQuotas(String spec) {
+        return parseQuotas(spec, false);
+    }
+
+    /**
+     * Parses the priorities, a comma separated list of <code>layer=priority</code> pairs, with
+     * integer priorities. Invalid entries are reported as an {@link IllegalArgumentException} if
+     * strict, logged and skipped otherwise
+     */
+    public static Map<String, Integer> parsePriorities(String spec, boolean strict) {
+        Map<String, Integer> result = new HashMap<>();
+        for (Map.Entry<String, String> entry : parse("priorities", spec, strict).entrySet()) {
+            try {
+                result.put(entry.getKey(), Integer.parseInt(entry.getValue()));
+            } catch (NumberFormatException e) {
+                invalid("Invalid priority for " + entry.getKey() + ": " + entry.getValue()
+                        + ", it must be an integer", strict);
+            }
+        }
+        return result;
+    }
+
+    static Map<String, Integer> parsePriorities(String spec) {
+        return parsePriorities(spec, false);
+    }
+
+    static Map<String, String> parse(String name, String spec, boolean strict) {
+        Map<String, String> result = new LinkedHashMap<>();
+        if (spec == null) {
+            return result;
+        }
+        for (String pair : spec.split(",")) {
+            if (pair.trim().isEmpty()) {
+                continue;
+            }
+            int idx = pair.lastIndexOf('=');
+            if (idx <= 0) {
+                invalid("Invalid entry in the layer tile cache " + name + ": " + pair.trim()
+                        + ", expected layer=value", strict);
+                continue;
+            }
+            result.put(pair.substring(0, idx).trim(), pair.substring(idx + 1).trim());
+        }
+        return result;
+    }
+
+    static void invalid(String message, boolean strict) {
+        if (strict) {
+            throw new IllegalArgumentException(message);
+        }
+        LOGGER.warning(message + ", ignoring it");
+    }
+}
@@ -0,0 +1,131 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import static org.geoserver.platform.GeoServerExtensions.getIntProperty;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
+import org.geotools.util.logging.Logging;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Bounded executor running the OWS {@link Dispatcher} requests asynchronously, transferring the
+ * request thread locals into the pooled threads via {@link ThreadLocalsTransfer}.
+ * <p>
+ * The asynchronous mode is disabled by default, it can be enabled by setting the
+ * "OWS_ASYNC_DISPATCH" variable to "true" (as a system, environment or servlet context variable).
+ * The following variables can be used to configure it further:
+ * <ul>
+ * <li>OWS_ASYNC_DISPATCH_THREADS: the number of threads executing the requests (defaults to 
+ * eight times the number of available processors)</li>
+ * <li>OWS_ASYNC_DISPATCH_QUEUE: the number of requests that can wait for a free thread (defaults 
+ * to 1000), once full the requests are processed synchronously in the container threads</li>
+ * <li>OWS_ASYNC_DISPATCH_TIMEOUT: the asynchronous request timeout in milliseconds (defaults to
+ * zero, no timeout)</li>
+ * </ul>
+ * The servlet container will allow asynchronous requests only if the dispatcher servlet and all
+ * filters in front of it are declared as async supported in the web.xml file (as the GeoServer
+ * web application does), otherwise the requests will keep on being processed synchronously.
+ * Filters wrapping the response might complete their work as soon as the chain returns, so
+ * requests are processed asynchronously only if all the response wrappers are
+ * {@link AsyncAwareResponse} (as the GZIP compression and flush safe ones are) or have been
+ * registered in the dispatcher, as done here for the Spring Security ones. Any other wrapper
+ * (e.g. from a plugin filter) makes the request fall back on synchronous processing, unless
+ * the chain sets the {@link Dispatcher#ASYNC_AWARE_FILTER_CHAIN} request attribute.
+ * </p>
+ */
+public class AsyncDispatcherExecutor implements Executor, DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(AsyncDispatcherExecutor.class);
+
+    static final String ASYNC_DISPATCH = "OWS_ASYNC_DISPATCH";
+
+    static final String ASYNC_DISPATCH_THREADS = "OWS_ASYNC_DISPATCH_THREADS";
+
+    static final String ASYNC_DISPATCH_QUEUE = "OWS_ASYNC_DISPATCH_QUEUE";
+
+    static final String ASYNC_DISPATCH_TIMEOUT = "OWS_ASYNC_DISPATCH_TIMEOUT";
+
+    /**
+     * Spring Security response wrappers, they only look at the response status and headers and
+     * keep on working on the asynchronous threads (the security context is transferred there)
+     */
+    static final String[] ASYNC_AWARE_SECURITY_WRAPPERS = {
+            "org.springframework.security.web.context.SaveContextOnUpdateOrErrorResponseWrapper",
+            "org.springframework.security.web.firewall.FirewalledResponse" };
+
+    ThreadPoolExecutor executor;
+
+    public AsyncDispatcherExecutor(Dispatcher dispatcher) {
+        if (!Boolean.parseBoolean(GeoServerExtensions.getProperty(ASYNC_DISPATCH))) {
+            return;
+        }
+
+        int threads = getIntProperty(ASYNC_DISPATCH_THREADS,
+                Runtime.getRuntime().availableProcessors() * 8);
+        int queueSize = getIntProperty(ASYNC_DISPATCH_QUEUE, 1000);
+        int timeout = getIntProperty(ASYNC_DISPATCH_TIMEOUT, 0);
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                new CustomizableThreadFactory("AsyncDispatcher-"));
+        executor.allowCoreThreadTimeOut(true);
+
+        dispatcher.setAsyncExecutor(this);
+        dispatcher.setAsyncTimeout(timeout);
+        for (String className : ASYNC_AWARE_SECURITY_WRAPPERS) {
+            try {
+                dispatcher.addAsyncAwareResponseType(
+                        ClassUtils.forName(className, getClass().getClassLoader()));
+            } catch (ClassNotFoundException | LinkageError e) {
+                LOGGER.log(Level.FINE, "Response wrapper " + className + " not found, requests "
+                        + "wrapped by it will be processed synchronously", e);
+            }
+        }
+        LOGGER.info("Asynchronous OWS dispatching enabled, with " + threads
+                + " threads and a queue of " + queueSize + " requests");
+    }
+
+    /**
+     * Returns true if the asynchronous dispatching has been enabled
+     */
+    public boolean isEnabled() {
+        return executor != null;
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        // grab the thread locals in the calling thread
+        final ThreadLocalsTransfer transfer = new ThreadLocalsTransfer();
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    transfer.apply();
+                    command.run();
+                } finally {
+                    transfer.cleanup();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
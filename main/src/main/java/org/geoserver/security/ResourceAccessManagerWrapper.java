@@ -202,6 +202,10 @@ public abstract class ResourceAccessManagerWrapper implements ResourceAccessMana
             a.isWritable() && b.isWritable(), a.isAdminable() && b.isAdminable());
     }
 
+    public ResourceAccessManager getDelegate() {
+        return delegate;
+    }
+
     public void setDelegate(ResourceAccessManager delegate) {
         this.delegate = delegate;
     }
@@ -10,14 +10,21 @@ import static org.geoserver.security.impl.DataAccessRule.ANY;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
 import org.geoserver.catalog.CatalogInfo;
 import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
@@ -30,15 +37,22 @@ import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
 import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.Request;
 import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.security.AccessLimits;
 import org.geoserver.security.AccessMode;
 import org.geoserver.security.AdminRequest;
 import org.geoserver.security.CatalogMode;
 import org.geoserver.security.CoverageAccessLimits;
 import org.geoserver.security.DataAccessLimits;
 import org.geoserver.security.DataAccessManager;
+import org.geoserver.security.GeoServerSecurityFilterChainProxy;
 import org.geoserver.security.InMemorySecurityFilter;
 import org.geoserver.security.LayerGroupAccessLimits;
 import org.geoserver.security.ResourceAccessManager;
@@ -50,6 +64,13 @@ import org.geoserver.security.impl.LayerGroupContainmentCache.LayerGroupSummary;
 import org.geotools.util.logging.Logging;
 import org.opengis.filter.Filter;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 /**
  * Default implementation of {@link DataAccessManager}, loads simple access
@@ -77,12 +98,81 @@ import org.springframework.security.core.Authentication;
  * If no {@link Properties} is provided, one will be looked upon in
  * <code>GEOSERVER_DATA_DIR/security/layers.properties, and the class will
  * keep up to date vs changes in the file</code>
+ * <p>
+ * When the {@value #ACCESS_LIMITS_CACHE_SIZE} system/environment/servlet context variable is set
+ * the access limits are memoised, keyed by the roles of the user and the id of the catalog object.
+ * The memoised limits are dropped when the rules are reloaded and when the catalog changes.
  * 
  * @author Andrea Aime - TOPP
  */
 public class DefaultResourceAccessManager implements ResourceAccessManager, DataAccessManager {
     static final Logger LOGGER = Logging.getLogger(DefaultResourceAccessManager.class);
+
+    /**
+     * Property holding the max number of memoised access limits, memoisation is disabled if not
+     * set
+     */
+    public static final String ACCESS_LIMITS_CACHE_SIZE = "GEOSERVER_ACCESS_LIMITS_CACHE_SIZE";
     
+    /**
+     * Key of the memoised access limits. Along with the roles and the object, it contains all the
+     * request related state the access limits computation depends on
+     */
+    static final class AccessLimitsKey {
+        final Set<String> roles;
+
+        final Class<?> type;
+
+        final String id;
+
+        final String name;
+
+        final boolean directAccess;
+
+        final boolean groupContainment;
+
+        final boolean admin;
+
+        final boolean secured;
+
+        AccessLimitsKey(Set<String> roles, Class<?> type, String id, String name,
+                boolean directAccess, boolean groupContainment, boolean admin, boolean secured) {
+            this.roles = roles;
+            this.type = type;
+            this.id = id;
+            this.name = name;
+            this.directAccess = directAccess;
+            this.groupContainment = groupContainment;
+            this.admin = admin;
+            this.secured = secured;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = roles.hashCode();
+            result = 31 * result + type.hashCode();
+            result = 31 * result + id.hashCode();
+            result = 31 * result + (name == null ? 0 : name.hashCode());
+            result = 31 * result + (directAccess ? 1 : 0);
+            result = 31 * result + (groupContainment ? 1 : 0);
+            result = 31 * result + (admin ? 1 : 0);
+            result = 31 * result + (secured ? 1 : 0);
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof AccessLimitsKey)) {
+                return false;
+            }
+            AccessLimitsKey other = (AccessLimitsKey) obj;
+            return directAccess == other.directAccess && groupContainment == other.groupContainment
+                    && admin == other.admin && secured == other.secured && type == other.type
+                    && id.equals(other.id) && Objects.equals(name, other.name)
+                    && roles.equals(other.roles);
+        }
+    }
+
     /**
      * A {@link LayerGroupSummary} extended with the associated secure tree node
      */
@@ -115,6 +205,19 @@ public class DefaultResourceAccessManager implements ResourceAccessManager, Data
     
     LayerGroupContainmentCache groupsCache;
 
+    long limitsCacheSize;
+
+    /**
+     * The memoised access limits, replaced on invalidation so that values computed against the
+     * old rules or catalog state are not retained
+     */
+    volatile Cache<AccessLimitsKey, Optional<AccessLimits>> limitsCache;
+
+    /**
+     * Statistics of the replaced caches
+     */
+    CacheStats pastStatistics = new CacheStats(0, 0, 0, 0, 0, 0);
+
     @Deprecated
     public DefaultResourceAccessManager(DataAccessRuleDAO dao) {
         this(dao, (Catalog) GeoServerExtensions.bean("rawCatalog"));
@@ -131,6 +234,65 @@ public class DefaultResourceAccessManager implements ResourceAccessManager, Data
         this.rawCatalog = rawCatalog;
         this.root = buildAuthorizationTree(dao);
         this.groupsCache = new LayerGroupContainmentCache(rawCatalog);
+        this.limitsCacheSize = getLimitsCacheSize();
+        if (limitsCacheSize > 0) {
+            resetLimitsCache();
+            rawCatalog.addListener(new LimitsCacheInvalidator());
+        }
+    }
+
+    static long getLimitsCacheSize() {
+        return GeoServerExtensions.getLongProperty(ACCESS_LIMITS_CACHE_SIZE, 0);
+    }
+
+    /**
+     * Drops all the memoised access limits
+     */
+    public synchronized void resetLimitsCache() {
+        if (limitsCacheSize <= 0) {
+            return;
+        }
+        if (limitsCache != null) {
+            pastStatistics = pastStatistics.plus(limitsCache.stats());
+        }
+        limitsCache = CacheBuilder.newBuilder().maximumSize(limitsCacheSize).recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the statistics of the access limits memoisation, or null if disabled
+     */
+    public synchronized CacheStats getLimitsCacheStatistics() {
+        Cache<AccessLimitsKey, Optional<AccessLimits>> cache = limitsCache;
+        return cache == null ? null : pastStatistics.plus(cache.stats());
+    }
+
+    /**
+     * Returns the access limits for the object, from the memoised ones if possible
+     */
+    @SuppressWarnings("unchecked")
+    <T extends AccessLimits> T getLimits(Authentication user, CatalogInfo info, String name,
+            boolean directAccess, Supplier<T> loader) {
+        checkPropertyFile();
+        Cache<AccessLimitsKey, Optional<AccessLimits>> cache = limitsCache;
+        if (cache == null || info.getId() == null) {
+            return loader.get();
+        }
+
+        Set<String> roles = new HashSet<>();
+        if (user != null && user.getAuthorities() != null) {
+            for (GrantedAuthority authority : user.getAuthorities()) {
+                roles.add(authority.getAuthority());
+            }
+        }
+        AccessLimitsKey key = new AccessLimitsKey(roles, info.getClass(), info.getId(), name,
+                directAccess, layerGroupContainmentCheckRequired(), AdminRequest.get() != null,
+                GeoServerSecurityFilterChainProxy.isSecurityEnabledForCurrentRequest());
+        try {
+            return (T) cache.get(key, () -> Optional.ofNullable(loader.get())).orElse(null);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
     }
 
     
@@ -313,6 +475,7 @@ public class DefaultResourceAccessManager implements ResourceAccessManager, Data
         if(lastLoaded < daoLastModified || force) {
             root = buildAuthorizationTree(dao);
             lastLoaded = daoLastModified;
+            resetLimitsCache();
         }
     }
 
@@ -366,19 +529,23 @@ public class DefaultResourceAccessManager implements ResourceAccessManager, Data
 
     public DataAccessLimits getAccessLimits(Authentication user, LayerInfo layer, List<LayerGroupInfo> context) {
         final boolean directAccess = context == null || context.isEmpty();
-        boolean read = canAccess(user, layer, AccessMode.READ, directAccess);
-        boolean write = canAccess(user, layer, AccessMode.WRITE, directAccess);
-        Filter readFilter = read ? Filter.INCLUDE : Filter.EXCLUDE;
-        Filter writeFilter = write ? Filter.INCLUDE : Filter.EXCLUDE;
-        return buildLimits(layer.getResource().getClass(), readFilter, writeFilter);
+        return getLimits(user, layer, layer.getName(), directAccess, () -> {
+            boolean read = canAccess(user, layer, AccessMode.READ, directAccess);
+            boolean write = canAccess(user, layer, AccessMode.WRITE, directAccess);
+            Filter readFilter = read ? Filter.INCLUDE : Filter.EXCLUDE;
+            Filter writeFilter = write ? Filter.INCLUDE : Filter.EXCLUDE;
+            return buildLimits(layer.getResource().getClass(), readFilter, writeFilter);
+        });
     }
 
     public DataAccessLimits getAccessLimits(Authentication user, ResourceInfo resource) {
-        boolean read = canAccess(user, resource, AccessMode.READ);
-        boolean write = canAccess(user, resource, AccessMode.WRITE);
-        Filter readFilter = read ? Filter.INCLUDE : Filter.EXCLUDE;
-        Filter writeFilter = write ? Filter.INCLUDE : Filter.EXCLUDE;
-        return buildLimits(resource.getClass(), readFilter, writeFilter);
+        return getLimits(user, resource, resource.getName(), true, () -> {
+            boolean read = canAccess(user, resource, AccessMode.READ);
+            boolean write = canAccess(user, resource, AccessMode.WRITE);
+            Filter readFilter = read ? Filter.INCLUDE : Filter.EXCLUDE;
+            Filter writeFilter = write ? Filter.INCLUDE : Filter.EXCLUDE;
+            return buildLimits(resource.getClass(), readFilter, writeFilter);
+        });
     }
 
     DataAccessLimits buildLimits(Class<? extends ResourceInfo> resourceClass, Filter readFilter,
@@ -409,19 +576,21 @@ public class DefaultResourceAccessManager implements ResourceAccessManager, Data
     }
 
     public WorkspaceAccessLimits getAccessLimits(Authentication user, WorkspaceInfo workspace) {
-        boolean readable = canAccess(user, workspace, AccessMode.READ);
-        boolean writable = canAccess(user, workspace, AccessMode.WRITE);
-        boolean adminable = canAccess(user, workspace, AccessMode.ADMIN);
+        return getLimits(user, workspace, workspace.getName(), true, () -> {
+            boolean readable = canAccess(user, workspace, AccessMode.READ);
+            boolean writable = canAccess(user, workspace, AccessMode.WRITE);
+            boolean adminable = canAccess(user, workspace, AccessMode.ADMIN);
 
-        CatalogMode mode = getMode();
+            CatalogMode mode = getMode();
 
-        if (readable && writable) {
-            if (AdminRequest.get() == null) {
-                // not admin request, read+write means full acesss
-                return null;
+            if (readable && writable) {
+                if (AdminRequest.get() == null) {
+                    // not admin request, read+write means full acesss
+                    return null;
+                }
             }
-        }
-        return new WorkspaceAccessLimits(mode, readable, writable, adminable);
+            return new WorkspaceAccessLimits(mode, readable, writable, adminable);
+        });
     }
 
     @Override
@@ -431,8 +600,11 @@ public class DefaultResourceAccessManager implements ResourceAccessManager, Data
 
     @Override
     public LayerGroupAccessLimits getAccessLimits(Authentication user, LayerGroupInfo layerGroup, List<LayerGroupInfo> containers) {
-        boolean allowAccess = canAccess(user, layerGroup, containers == null || containers.isEmpty());
-        return allowAccess ? null : new LayerGroupAccessLimits(getMode());
+        final boolean directAccess = containers == null || containers.isEmpty();
+        return getLimits(user, layerGroup, layerGroup.prefixedName(), directAccess, () -> {
+            boolean allowAccess = canAccess(user, layerGroup, directAccess);
+            return allowAccess ? null : new LayerGroupAccessLimits(getMode());
+        });
     }
     
     
@@ -640,5 +812,36 @@ public class DefaultResourceAccessManager implements ResourceAccessManager, Data
         return getAccessLimits(user, layerGroup, Collections.emptyList());
     }
 
+    /**
+     * Drops the memoised access limits on catalog changes, as they can alter the layer names
+     * and the layer group containment
+     */
+    final class LimitsCacheInvalidator implements CatalogListener {
+
+        @Override
+        public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+            resetLimitsCache();
+        }
+
+        @Override
+        public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+            resetLimitsCache();
+        }
+
+        @Override
+        public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+            // wait for the post modify event
+        }
+
+        @Override
+        public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+            resetLimitsCache();
+        }
+
+        @Override
+        public void reloaded() {
+            resetLimitsCache();
+        }
+    }
+
 }
- 
\ No newline at end of file
@@ -32,6 +32,11 @@ import org.geoserver.catalog.event.CatalogRemoveEvent;
 
 /**
  * A cache for layer group containment, it speeds up looking up layer groups containing a particular layer (recursively). * The class is thread safe.
+ * <p>
+ * Catalog changes are applied incrementally, with a cost proportional to the size of the modified
+ * group rather than to the number of groups in the catalog. Updates are serialized, while lookups
+ * never lock, they run against concurrent structures that are updated in place, or swapped as a
+ * whole when the catalog is reloaded.
  *
  * @author Andrea Aime - GeoSolutions
  */
@@ -58,13 +63,18 @@ class LayerGroupContainmentCache {
     /**
      * Lookup from layer group id to group parent information
      */
-    Map<String, LayerGroupSummary> groupCache = new ConcurrentHashMap<>();
+    volatile Map<String, LayerGroupSummary> groupCache = new ConcurrentHashMap<>();
 
     /**
      * Lookup from {@link ResourceInfo} id to groups directly containing its associated layers (the transitive containment is computed by suing
      * {@link LayerGroupSummary}
      */
-    Map<String, Set<LayerGroupSummary>> resourceContainmentCache = new ConcurrentHashMap<>();
+    volatile Map<String, Set<LayerGroupSummary>> resourceContainmentCache = new ConcurrentHashMap<>();
+
+    /**
+     * Serializes the updates, lookups do not use it
+     */
+    private final Object updateLock = new Object();
 
     private Catalog catalog;
 
@@ -75,23 +85,28 @@ class LayerGroupContainmentCache {
     }
 
     private void buildLayerGroupCaches() {
-        groupCache.clear();
-        resourceContainmentCache.clear();
-        List<LayerGroupInfo> groups = catalog.getLayerGroups();
+        synchronized (updateLock) {
+            // build new structures and swap them in, lookups keep on using the old ones meanwhile
+            Map<String, LayerGroupSummary> groups = new ConcurrentHashMap<>();
+            Map<String, Set<LayerGroupSummary>> resources = new ConcurrentHashMap<>();
+            List<LayerGroupInfo> layerGroups = catalog.getLayerGroups();
+
+            // first populate the basic structure
+            for (LayerGroupInfo lg : layerGroups) {
+                addGroupInfo(lg, groups, resources);
+            }
 
-        // first populate the basic structure
-        for (LayerGroupInfo lg : groups) {
-            addGroupInfo(lg);
-        }
+            // now populate the containment structure
+            for (LayerGroupInfo lg : layerGroups) {
+                registerContainedGroups(lg, groups);
+            }
 
-        // now populate the containment structure
-        for (LayerGroupInfo lg : groups) {
-            registerContainedGroups(lg);
+            resourceContainmentCache = resources;
+            groupCache = groups;
         }
-
     }
 
-    private void registerContainedGroups(LayerGroupInfo lg) {
+    private void registerContainedGroups(LayerGroupInfo lg, Map<String, LayerGroupSummary> groupCache) {
         lg.getLayers().stream().filter(IS_GROUP).forEach(p -> {
             String containerId = lg.getId();
             String containedId = p.getId();
@@ -103,7 +118,8 @@ class LayerGroupContainmentCache {
         });
     }
 
-    private void addGroupInfo(LayerGroupInfo lg) {
+    private void addGroupInfo(LayerGroupInfo lg, Map<String, LayerGroupSummary> groupCache,
+            Map<String, Set<LayerGroupSummary>> resourceContainmentCache) {
         LayerGroupSummary groupData = new LayerGroupSummary(lg);
         groupCache.put(lg.getId(), groupData);
         lg.getLayers().stream().filter(IS_LAYER).forEach(p -> {
@@ -116,19 +132,31 @@ class LayerGroupContainmentCache {
 
     private void clearGroupInfo(LayerGroupInfo lg) {
         LayerGroupSummary data = groupCache.remove(lg.getId());
+        if (data == null) {
+            return;
+        }
         // clear the resource containment cache
         lg.getLayers().stream().filter(IS_LAYER).forEach(p -> {
             String rid = ((LayerInfo) p).getResource().getId();
-            synchronized (rid) {
-                Set<LayerGroupSummary> containers = resourceContainmentCache.get(rid);
-                if (containers != null) {
-                    containers.remove(data);
-                }
+            removeResourceContainer(rid, data);
+        });
+        // this group does not contain anything anymore, remove from the containers of the
+        // groups it contained (only the direct children need to be visited)
+        lg.getLayers().stream().filter(IS_GROUP).forEach(p -> {
+            LayerGroupSummary child = groupCache.get(p.getId());
+            if (child != null) {
+                child.containerGroups.remove(data);
             }
         });
-        // this group does not contain anything anymore, remove from containment
-        for (LayerGroupSummary d : groupCache.values()) {
-            d.containerGroups.remove(lg.getId());
+    }
+
+    private void removeResourceContainer(String resourceId, LayerGroupSummary group) {
+        Set<LayerGroupSummary> containers = resourceContainmentCache.get(resourceId);
+        if (containers != null) {
+            containers.remove(group);
+            if (containers.isEmpty()) {
+                resourceContainmentCache.remove(resourceId, containers);
+            }
         }
     }
 
@@ -199,11 +227,11 @@ class LayerGroupContainmentCache {
     static class LayerGroupSummary {
         String id;
 
-        String workspace;
+        volatile String workspace;
 
-        String name;
+        volatile String name;
 
-        LayerGroupInfo.Mode mode;
+        volatile LayerGroupInfo.Mode mode;
 
         Set<LayerGroupSummary> containerGroups;
 
@@ -294,8 +322,10 @@ class LayerGroupContainmentCache {
         public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
             if (event.getSource() instanceof LayerGroupInfo) {
                 LayerGroupInfo lg = (LayerGroupInfo) event.getSource();
-                addGroupInfo(lg);
-                registerContainedGroups(lg);
+                synchronized (updateLock) {
+                    addGroupInfo(lg, groupCache, resourceContainmentCache);
+                    registerContainedGroups(lg, groupCache);
+                }
             }
         }
 
@@ -303,7 +333,9 @@ class LayerGroupContainmentCache {
         public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
             if (event.getSource() instanceof LayerGroupInfo) {
                 LayerGroupInfo lg = (LayerGroupInfo) event.getSource();
-                clearGroupInfo(lg);
+                synchronized (updateLock) {
+                    clearGroupInfo(lg);
+                }
             }
             // no need to listen to workspace or layer removal, these will cascade to
             // layer groups
@@ -311,6 +343,12 @@ class LayerGroupContainmentCache {
 
         @Override
         public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+            synchronized (updateLock) {
+                applyModifyEvent(event);
+            }
+        }
+
+        private void applyModifyEvent(CatalogModifyEvent event) {
             final CatalogInfo source = event.getSource();
             if (source instanceof LayerGroupInfo) {
                 LayerGroupInfo lg = (LayerGroupInfo) event.getSource();
@@ -350,11 +388,16 @@ class LayerGroupContainmentCache {
 
         private void updateGroupMode(String id, Mode newMode) {
             LayerGroupSummary summary = groupCache.get(id);
-            summary.mode = newMode;
+            if (summary != null) {
+                summary.mode = newMode;
+            }
         }
 
         private void updateContainedLayers(LayerGroupSummary groupSummary,
                 List<PublishedInfo> oldLayers, List<PublishedInfo> newLayers) {
+            if (groupSummary == null) {
+                return;
+            }
 
             // process layers that are no more contained
             final HashSet<PublishedInfo> removedLayers = new HashSet<>(oldLayers);
@@ -362,15 +405,7 @@ class LayerGroupContainmentCache {
             for (PublishedInfo removed : removedLayers) {
                 if (removed instanceof LayerInfo) {
                     String resourceId = ((LayerInfo) removed).getResource().getId();
-                    Set<LayerGroupSummary> containers = resourceContainmentCache.get(resourceId);
-                    if (containers != null) {
-                        synchronized (resourceId) {
-                            containers.remove(groupSummary);
-                            if (containers.isEmpty()) {
-                                resourceContainmentCache.remove(resourceId, containers);
-                            }
-                        }
-                    }
+                    removeResourceContainer(resourceId, groupSummary);
                 } else {
                     LayerGroupInfo child = (LayerGroupInfo) removed;
                     LayerGroupSummary summary = groupCache.get(child.getId());
@@ -386,11 +421,9 @@ class LayerGroupContainmentCache {
             for (PublishedInfo added : addedLayers) {
                 if (added instanceof LayerInfo) {
                     String resourceId = ((LayerInfo) added).getResource().getId();
-                    synchronized (resourceId) {
-                        Set<LayerGroupSummary> containers = resourceContainmentCache
-                                .computeIfAbsent(resourceId, CONCURRENT_SET_BUILDER);
-                        containers.add(groupSummary);
-                    }
+                    Set<LayerGroupSummary> containers = resourceContainmentCache
+                            .computeIfAbsent(resourceId, CONCURRENT_SET_BUILDER);
+                    containers.add(groupSummary);
                 } else {
                     LayerGroupInfo child = (LayerGroupInfo) added;
                     LayerGroupSummary summary = groupCache.get(child.getId());
@@ -0,0 +1,88 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geoserver.platform.GeoServerExtensionsHelper;
+import org.junit.After;
+import org.junit.Test;
+
+public class BoundedResourceCacheTest {
+
+    List<String> disposed = new ArrayList<>();
+
+    @After
+    public void cleanup() {
+        GeoServerExtensionsHelper.clear();
+    }
+
+    @Test
+    public void testSizeBound() {
+        BoundedResourceCache<String, String> cache = new BoundedResourceCache<>("test",
+                "maximumSize=2", (k, v) -> disposed.add(k));
+        cache.put("a", "A");
+        cache.put("b", "B");
+        assertEquals("A", cache.get("a"));
+        cache.put("c", "C");
+
+        // the least recently used got evicted, but not disposed, it might still be in use
+        assertEquals(2, cache.size());
+        assertTrue(disposed.isEmpty());
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testRemoveAndClearDispose() {
+        BoundedResourceCache<String, String> cache = new BoundedResourceCache<>("test",
+                "maximumSize=10", (k, v) -> disposed.add(k));
+        cache.put("a", "A");
+        cache.put("b", "B");
+        // replacing does not dispose
+        cache.put("b", "B2");
+        assertTrue(disposed.isEmpty());
+
+        assertEquals("A", cache.remove("a"));
+        assertEquals(1, disposed.size());
+        cache.clear();
+        assertEquals(2, disposed.size());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testWeightBound() {
+        BoundedResourceCache<String, List<String>> cache = new BoundedResourceCache<>("test",
+                "maximumWeight=10", (k, v) -> disposed.add(k));
+        List<String> large = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            large.add("value" + i);
+        }
+        cache.put("large", large);
+        assertNull(cache.get("large"));
+        assertTrue(disposed.isEmpty());
+    }
+
+    @Test
+    public void testConfiguration() {
+        assertNull(BoundedResourceCache.create("test", (k, v) -> {}));
+
+        GeoServerExtensionsHelper.property("GEOSERVER_RESOURCE_POOL_CACHE_TEST", "invalid");
+        assertNull(BoundedResourceCache.create("test", (k, v) -> {}));
+
+        GeoServerExtensionsHelper.property("GEOSERVER_RESOURCE_POOL_CACHE_TEST",
+                "maximumSize=10,expireAfterAccess=10m");
+        BoundedResourceCache<Object, Object> cache = BoundedResourceCache.create("test",
+                (k, v) -> {});
+        assertEquals("test", cache.getName());
+    }
+}
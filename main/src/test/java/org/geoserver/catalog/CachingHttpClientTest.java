@@ -0,0 +1,286 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.geotools.data.ows.HTTPResponse;
+import org.geotools.data.ows.SimpleHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class CachingHttpClientTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    HttpServer server;
+
+    AtomicInteger hits = new AtomicInteger();
+
+    Map<String, String> responseHeaders = new HashMap<>();
+
+    String contentType = "image/png";
+
+    byte[] content = new byte[] { 1, 2, 3, 4 };
+
+    CountDownLatch release;
+
+    CachingHttpClient client;
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/wms", exchange -> {
+            hits.incrementAndGet();
+            try {
+                if (release != null) {
+                    release.await(10, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.getResponseHeaders().add("Content-Type", contentType);
+            for (Map.Entry<String, String> header : responseHeaders.entrySet()) {
+                exchange.getResponseHeaders().add(header.getKey(), header.getValue());
+            }
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(content);
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        client = new CachingHttpClient(new SimpleHttpClient(),
+                new CascadedResponseCache(1024 * 1024, 0, null), 0);
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        client.close();
+        server.stop(0);
+    }
+
+    URL url(String query) throws Exception {
+        return new URL("http://localhost:" + server.getAddress().getPort() + "/wms?" + query);
+    }
+
+    byte[] get(String query) throws Exception {
+        HTTPResponse response = client.get(url(query));
+        try (InputStream is = response.getResponseStream()) {
+            return IOUtils.toByteArray(is);
+        } finally {
+            response.dispose();
+        }
+    }
+
+    @Test
+    public void testMaxAge() throws Exception {
+        responseHeaders.put("Cache-Control", "public, max-age=60");
+        assertArrayEquals(content, get("service=WMS&request=GetMap&layers=a&bbox=0,0,1,1"));
+        // same request, different parameter order and case
+        assertArrayEquals(content, get("LAYERS=a&REQUEST=GetMap&BBOX=0,0,1,1&SERVICE=WMS"));
+        assertEquals(1, hits.get());
+
+        HTTPResponse response = client.get(url("request=GetMap&layers=a&bbox=0,0,1,1&service=WMS"));
+        assertEquals("image/png", response.getContentType());
+        assertEquals("public, max-age=60", response.getResponseHeader("Cache-Control"));
+
+        // a different request is a miss
+        get("service=WMS&request=GetMap&layers=b&bbox=0,0,1,1");
+        assertEquals(2, hits.get());
+        assertEquals(2, client.getCache().getHitCount());
+        assertEquals(2, client.getCache().getMissCount());
+    }
+
+    @Test
+    public void testNotCacheable() throws Exception {
+        for (String cacheControl : new String[] { "no-store", "no-cache", "private, max-age=60",
+                "max-age=0" }) {
+            responseHeaders.put("Cache-Control", cacheControl);
+            hits.set(0);
+            get("request=GetMap&layers=a");
+            get("request=GetMap&layers=a");
+            assertEquals(cacheControl, 2, hits.get());
+        }
+
+        // no caching headers, no default time to live
+        responseHeaders.clear();
+        hits.set(0);
+        get("request=GetMap&layers=a");
+        get("request=GetMap&layers=a");
+        assertEquals(2, hits.get());
+    }
+
+    @Test
+    public void testServiceExceptionNotCached() throws Exception {
+        responseHeaders.put("Cache-Control", "max-age=60");
+        contentType = "application/vnd.ogc.se_xml";
+        get("request=GetMap&layers=a");
+        get("request=GetMap&layers=a");
+        assertEquals(2, hits.get());
+
+        // feature info responses are not images, but can be cached
+        contentType = "text/html";
+        get("request=GetFeatureInfo&layers=a&i=10&j=10");
+        get("request=GetFeatureInfo&layers=a&i=10&j=10");
+        assertEquals(3, hits.get());
+    }
+
+    @Test
+    public void testExpires() throws Exception {
+        DateTimeFormatter format = DateTimeFormatter.RFC_1123_DATE_TIME;
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+        responseHeaders.put("Date", format.format(now));
+        responseHeaders.put("Expires", format.format(now.plusMinutes(5)));
+        get("request=GetMap&layers=a");
+        get("request=GetMap&layers=a");
+        assertEquals(1, hits.get());
+
+        responseHeaders.put("Expires", format.format(now.minusMinutes(5)));
+        get("request=GetMap&layers=b");
+        get("request=GetMap&layers=b");
+        assertEquals(3, hits.get());
+
+        // invalid dates mean already expired
+        responseHeaders.put("Expires", "0");
+        get("request=GetMap&layers=c");
+        get("request=GetMap&layers=c");
+        assertEquals(5, hits.get());
+    }
+
+    @Test
+    public void testDefaultTimeToLive() throws Exception {
+        client = new CachingHttpClient(new SimpleHttpClient(),
+                new CascadedResponseCache(1024 * 1024, 0, null), 60000);
+        get("request=GetMap&layers=a");
+        get("request=GetMap&layers=a");
+        assertEquals(1, hits.get());
+    }
+
+    @Test
+    public void testCapabilitiesNotCached() throws Exception {
+        responseHeaders.put("Cache-Control", "max-age=60");
+        contentType = "application/vnd.ogc.wms_xml";
+        get("service=WMS&request=GetCapabilities");
+        get("service=WMS&request=GetCapabilities");
+        assertEquals(2, hits.get());
+    }
+
+    @Test
+    public void testConcurrentFetchesCoalesced() throws Exception {
+        responseHeaders.put("Cache-Control", "max-age=60");
+        release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<byte[]>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(() -> get("request=GetMap&layers=a")));
+            }
+            // wait for the first fetch to reach the server, give the others time to pile up
+            while (hits.get() == 0) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(200);
+            release.countDown();
+            for (Future<byte[]> future : futures) {
+                assertArrayEquals(content, future.get());
+            }
+            assertEquals(1, hits.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDiskTier() throws Exception {
+        File directory = new File(folder.getRoot(), "cache");
+        // the memory tier is too small for the response, it will go to disk
+        client = new CachingHttpClient(new SimpleHttpClient(),
+                new CascadedResponseCache(1024, 1024 * 1024, directory), 0);
+        responseHeaders.put("Cache-Control", "max-age=60");
+        content = new byte[2048];
+        content[100] = 42;
+        assertArrayEquals(content, get("request=GetMap&layers=a"));
+        File tierDirectory = client.getCache().disk.directory;
+        assertEquals(directory.getAbsoluteFile(), tierDirectory.getParentFile());
+        assertEquals(1, tierDirectory.list().length);
+        assertNull(client.getCache().memory.getIfPresent(CachingHttpClient.getCacheKey(
+                url("request=GetMap&layers=a"), CachingHttpClient.parseQuery(
+                        url("request=GetMap&layers=a")))));
+
+        assertArrayEquals(content, get("request=GetMap&layers=a"));
+        assertEquals(1, hits.get());
+
+        // disposal cleans up the disk
+        client.close();
+        assertTrue(!tierDirectory.exists());
+    }
+
+    @Test
+    public void testDiskTierReplaced() throws Exception {
+        File directory = new File(folder.getRoot(), "cache");
+        directory.mkdirs();
+        File leftover = new File(directory, "response-1");
+        leftover.createNewFile();
+        CascadedResponseCache.CachedResponse response = new CascadedResponseCache.CachedResponse(
+                new byte[2048], "image/png", null, new HashMap<>(), Long.MAX_VALUE);
+
+        // the leftovers of a previous run are removed
+        CascadedResponseCache oldCache = new CascadedResponseCache(1024, 1024 * 1024, directory);
+        assertTrue(!leftover.exists());
+        oldCache.put("a", response);
+
+        // a new cache for the same store does not touch the directory of the old one
+        CascadedResponseCache newCache = new CascadedResponseCache(1024, 1024 * 1024, directory);
+        assertNotNull(oldCache.getIfPresent("a"));
+        newCache.put("b", response);
+
+        // and disposing the old one does not touch the new one
+        oldCache.dispose();
+        assertTrue(!oldCache.disk.directory.exists());
+        assertNotNull(newCache.getIfPresent("b"));
+        newCache.dispose();
+    }
+
+    @Test
+    public void testCacheKey() throws Exception {
+        URL a = new URL("http://Example.com:80/geoserver/wms?request=GetMap&layers=a%2Cb&Format=image/png");
+        URL b = new URL("http://example.com/geoserver/wms?FORMAT=image%2Fpng&LAYERS=a,b&REQUEST=GetMap");
+        assertEquals(CachingHttpClient.getCacheKey(a, CachingHttpClient.parseQuery(a)),
+                CachingHttpClient.getCacheKey(b, CachingHttpClient.parseQuery(b)));
+    }
+}
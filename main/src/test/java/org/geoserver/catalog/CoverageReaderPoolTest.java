@@ -0,0 +1,311 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.geoserver.catalog.CoverageReaderPool.ReaderFactory;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.GranuleSource;
+import org.geotools.coverage.grid.io.GridCoverage2DReader;
+import org.geotools.coverage.grid.io.StructuredGridCoverage2DReader;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.Query;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.gce.geotiff.GeoTiffFormat;
+import org.junit.After;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+
+public class CoverageReaderPoolTest {
+
+    List<FakeReader> readers = new ArrayList<>();
+
+    AtomicBoolean concurrentUse = new AtomicBoolean();
+
+    CountDownLatch release;
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+
+    /**
+     * A reader that cannot be used concurrently, keeps track of the calls made against it
+     */
+    class FakeReader {
+        AtomicInteger active = new AtomicInteger();
+
+        AtomicInteger reads = new AtomicInteger();
+
+        boolean disposed;
+
+        GeneralParameterValue[] parameters;
+
+        GridCoverage2DReader reader = (GridCoverage2DReader) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { GridCoverage2DReader.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "dispose":
+                        disposed = true;
+                        return null;
+                    case "getGridCoverageCount":
+                        return 1;
+                    case "read":
+                        if (active.incrementAndGet() > 1) {
+                            concurrentUse.set(true);
+                        }
+                        try {
+                            parameters = (GeneralParameterValue[]) args[0];
+                            reads.incrementAndGet();
+                            if (release != null) {
+                                release.await(10, TimeUnit.SECONDS);
+                            } else {
+                                Thread.sleep(20);
+                            }
+                            return null;
+                        } finally {
+                            active.decrementAndGet();
+                        }
+                    default:
+                        return null;
+                    }
+                });
+    }
+
+    GridCoverage2DReader newReader() {
+        FakeReader reader = new FakeReader();
+        synchronized (readers) {
+            readers.add(reader);
+        }
+        return reader.reader;
+    }
+
+    GridCoverage2DReader pooled(int minSize, int maxSize, long idleTime, long borrowTimeout) {
+        return pooled(minSize, maxSize, idleTime, borrowTimeout, true);
+    }
+
+    GridCoverage2DReader pooled(int minSize, int maxSize, long idleTime, long borrowTimeout,
+            boolean immediateLoading) {
+        GridCoverage2DReader first = newReader();
+        CoverageReaderPool pool = new CoverageReaderPool("test", first, this::newReader,
+                minSize, maxSize, idleTime, borrowTimeout, immediateLoading);
+        return CoverageReaderPool.wrap(pool, first);
+    }
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        GridCoverage2DReader reader = pooled(1, 3, 60000, 10000);
+        CoverageReaderPool pool = CoverageReaderPool.getPool(reader);
+        assertEquals(1, reader.getGridCoverageCount());
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            futures.add(executor.submit(() -> reader.read(null)));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        // no reader has been used by two threads at the same time, and the pool stayed bounded
+        assertFalse(concurrentUse.get());
+        assertTrue(readers.size() <= 3);
+        int reads = 0;
+        for (FakeReader fake : readers) {
+            reads += fake.reads.get();
+        }
+        assertEquals(30, reads);
+        assertEquals(31, pool.getBorrowCount());
+        assertEquals(readers.size(), pool.getCreatedCount());
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(readers.size(), pool.getIdleCount());
+    }
+
+    @Test
+    public void testBorrowTimeout() throws Exception {
+        GridCoverage2DReader reader = pooled(1, 1, 60000, 100);
+        CoverageReaderPool pool = CoverageReaderPool.getPool(reader);
+        release = new CountDownLatch(1);
+        Future<?> blocked = executor.submit(() -> reader.read(null));
+        while (pool.getActiveCount() == 0) {
+            Thread.sleep(10);
+        }
+
+        try {
+            reader.read(null);
+            fail("Should have timed out waiting for the only reader");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("Timed out"));
+        }
+        // methods not throwing IOException get an unchecked exception instead
+        try {
+            reader.getOriginalEnvelope();
+            fail("Should have timed out waiting for the only reader");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertEquals(2, pool.getTimeoutCount());
+        assertTrue(pool.getMaxWaitTime() >= 100);
+
+        release.countDown();
+        blocked.get();
+        assertEquals(1, readers.size());
+    }
+
+    @Test
+    public void testIdleEviction() throws Exception {
+        GridCoverage2DReader reader = pooled(1, 2, 0, 10000);
+        CoverageReaderPool pool = CoverageReaderPool.getPool(reader);
+        release = new CountDownLatch(1);
+        Future<?> first = executor.submit(() -> reader.read(null));
+        Future<?> second = executor.submit(() -> reader.read(null));
+        while (pool.getActiveCount() < 2) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, readers.size());
+        release.countDown();
+        first.get();
+        second.get();
+
+        // readers idle for longer than the idle time get disposed, down to the minimum size
+        Thread.sleep(10);
+        pool.evictIdle(System.currentTimeMillis());
+        assertEquals(1, pool.getSize());
+        assertEquals(1, pool.getDestroyedCount());
+        assertEquals(1, readers.stream().filter(r -> r.disposed).count());
+    }
+
+    @Test
+    public void testDispose() throws Exception {
+        GridCoverage2DReader reader = pooled(1, 2, 60000, 10000);
+        reader.read(null);
+        reader.dispose();
+        assertTrue(readers.get(0).disposed);
+        try {
+            reader.read(null);
+            fail("The pool has been disposed");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testImmediateLoading() throws Exception {
+        ParameterValue<Boolean> deferred = AbstractGridFormat.USE_JAI_IMAGEREAD.createValue();
+        deferred.setValue(true);
+        ParameterValue<?> transparent = AbstractGridFormat.INPUT_TRANSPARENT_COLOR
+                .createValue();
+        GeneralParameterValue[] parameters = new GeneralParameterValue[] { deferred,
+                transparent };
+
+        // deferred loading replaced, the other parameters kept
+        GridCoverage2DReader reader = pooled(1, 1, 60000, 10000, true);
+        reader.read(parameters);
+        GeneralParameterValue[] actual = readers.get(0).parameters;
+        assertEquals(2, actual.length);
+        assertSame(transparent, actual[0]);
+        assertEquals(Boolean.FALSE, ((ParameterValue<?>) actual[1]).getValue());
+        // the caller parameters are left untouched
+        assertEquals(Boolean.TRUE, deferred.getValue());
+        assertSame(deferred, parameters[0]);
+        reader.read(null);
+        assertEquals(1, readers.get(0).parameters.length);
+
+        // passed through for the formats whose deferred loading is safe
+        GridCoverage2DReader safe = pooled(1, 1, 60000, 10000, false);
+        safe.read(parameters);
+        assertSame(parameters, readers.get(1).parameters);
+    }
+
+    @Test
+    public void testDeferredLoadingFormats() {
+        assertTrue(CoverageReaderPool.isDeferredLoadingSafe(new GeoTiffFormat()));
+        assertFalse(CoverageReaderPool.isDeferredLoadingSafe(null));
+    }
+
+    @Test
+    public void testGranuleSource() throws Exception {
+        SimpleFeatureType schema = DataUtilities.createType("granules", "location:String");
+        SimpleFeature granule = DataUtilities.createFeature(schema, "granule.nc");
+        AtomicReference<CoverageReaderPool> poolReference = new AtomicReference<>();
+        AtomicInteger activeDuringCalls = new AtomicInteger();
+        // a granule source checking the reader is borrowed while it's being used
+        GranuleSource source = (GranuleSource) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { GranuleSource.class },
+                (proxy, method, args) -> {
+                    activeDuringCalls.addAndGet(poolReference.get().getActiveCount());
+                    switch (method.getName()) {
+                    case "getCount":
+                        return 1;
+                    case "getGranules":
+                        return new ListFeatureCollection(schema, Arrays.asList(granule));
+                    default:
+                        return null;
+                    }
+                });
+        ReaderFactory factory = () -> (GridCoverage2DReader) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] { StructuredGridCoverage2DReader.class },
+                (proxy, method, args) -> "getGranules".equals(method.getName()) ? source
+                        : null);
+        GridCoverage2DReader first = factory.create();
+        CoverageReaderPool pool = new CoverageReaderPool("test", first, factory, 1, 1, 60000,
+                10000, true);
+        poolReference.set(pool);
+        StructuredGridCoverage2DReader reader = (StructuredGridCoverage2DReader) CoverageReaderPool
+                .wrap(pool, first);
+
+        // the granule source is a facade, the reader went back to the pool
+        GranuleSource pooledSource = reader.getGranules("test", true);
+        assertTrue(pooledSource != source);
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(1, pool.getBorrowCount());
+
+        // each call borrows a reader, granules are loaded before giving it back
+        assertEquals(1, pooledSource.getCount(Query.ALL));
+        SimpleFeatureCollection granules = pooledSource.getGranules(Query.ALL);
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(3, pool.getBorrowCount());
+        assertEquals(2, activeDuringCalls.get());
+        assertEquals(1, granules.size());
+        assertEquals(granule, DataUtilities.first(granules));
+        pooledSource.dispose();
+        assertEquals(3, pool.getBorrowCount());
+    }
+
+    @Test
+    public void testObjectMethods() {
+        GridCoverage2DReader reader = pooled(1, 1, 60000, 10000);
+        assertTrue(reader.equals(reader));
+        assertFalse(reader.equals(pooled(1, 1, 60000, 10000)));
+        assertSame(CoverageReaderPool.getPool(reader), CoverageReaderPool.getPool(reader));
+        assertEquals(null, CoverageReaderPool.getPool(newReader()));
+        assertEquals(0, CoverageReaderPool.getPool(reader).getBorrowCount());
+    }
+}
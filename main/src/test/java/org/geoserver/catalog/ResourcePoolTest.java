@@ -387,7 +387,35 @@ public class ResourcePoolTest extends GeoServerSystemTestSupport {
             }
         }
     }
-    
+
+    @Test
+    public void testPooledCoverageReader() throws Exception {
+        CoverageInfo ci = getCatalog().getCoverageByName(getLayerId(MockData.TASMANIA_DEM));
+        CoverageStoreInfo store = ci.getStore();
+        ResourcePool pool = getCatalog().getResourcePool();
+        System.setProperty(CoverageReaderPool.FORMATS_PROPERTY, store.getFormat().getName());
+        try {
+            pool.clear(store);
+            GridCoverageReader reader = ci.getGridCoverageReader(null, null);
+            CoverageReaderPool readerPool = null;
+            for (CoverageReaderPool candidate : pool.getCoverageReaderPools()) {
+                if (candidate.getName().equals(pool.getPoolName(store))) {
+                    readerPool = candidate;
+                }
+            }
+            assertNotNull(readerPool);
+
+            GridCoverage2D gc = (GridCoverage2D) reader.read(null);
+            assertNotNull(gc);
+            gc.dispose(true);
+            assertTrue(readerPool.getBorrowCount() > 0);
+            assertEquals(0, readerPool.getActiveCount());
+        } finally {
+            System.clearProperty(CoverageReaderPool.FORMATS_PROPERTY);
+            pool.clear(store);
+        }
+    }
+
     @RunTestSetup
     @Test public void testEnvParametrizationValues() throws Exception {
         
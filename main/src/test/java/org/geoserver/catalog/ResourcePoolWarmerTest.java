@@ -0,0 +1,93 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.catalog.ResourcePoolWarmer.Status;
+import org.geoserver.platform.GeoServerExtensionsHelper;
+import org.geoserver.test.GeoServerSystemTestSupport;
+import org.junit.After;
+import org.junit.Test;
+
+public class ResourcePoolWarmerTest extends GeoServerSystemTestSupport {
+
+    @After
+    public void clearProperties() {
+        GeoServerExtensionsHelper.clear();
+        getCatalog().getResourceLoader().get(ResourcePoolWarmer.USAGE_FILE).delete();
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        ResourcePoolWarmer warmer = new ResourcePoolWarmer();
+        warmer.initialize(getGeoServer());
+        assertEquals(Status.DISABLED, warmer.getStatus());
+        assertFalse(warmer.isReady());
+    }
+
+    @Test
+    public void testCancelled() throws Exception {
+        ResourcePoolWarmer warmer = new ResourcePoolWarmer();
+        warmer.current = new ResourcePoolWarmer.WarmUp(Executors.newSingleThreadExecutor(), 1);
+        assertEquals(Status.RUNNING, warmer.getStatus());
+        assertFalse(warmer.isReady());
+
+        warmer.cancel();
+        assertEquals(Status.CANCELLED, warmer.getStatus());
+        assertFalse(warmer.isReady());
+        assertTrue(warmer.awaitCompletion(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testWarmUp() throws Exception {
+        Catalog catalog = getCatalog();
+        ResourcePool pool = catalog.getResourcePool();
+        pool.getDataStoreCache().clear();
+        pool.getFeatureTypeCache().clear();
+
+        GeoServerExtensionsHelper.property(ResourcePoolWarmer.WARMUP, "true");
+        GeoServerExtensionsHelper.property(ResourcePoolWarmer.WARMUP_THREADS, "2");
+        ResourcePoolWarmer warmer = new ResourcePoolWarmer();
+        warmer.initialize(getGeoServer());
+        assertTrue(warmer.awaitCompletion(60, TimeUnit.SECONDS));
+
+        assertEquals(Status.COMPLETE, warmer.getStatus());
+        assertTrue(warmer.isReady());
+        int stores = catalog.getDataStores().size() + catalog.getCoverageStores().size();
+        assertEquals(stores, warmer.getTotal());
+        assertEquals(stores, warmer.getCompleted());
+        assertEquals(0, warmer.getFailed());
+        for (DataStoreInfo store : catalog.getDataStores()) {
+            assertTrue(pool.getDataStoreCache().containsKey(store.getId()));
+        }
+        assertFalse(pool.getFeatureTypeCache().isEmpty());
+    }
+
+    @Test
+    public void testUsage() throws Exception {
+        Catalog catalog = getCatalog();
+        ResourcePool pool = catalog.getResourcePool();
+        pool.getDataStoreCache().clear();
+        pool.getCoverageReaderCache().clear();
+        pool.getHintCoverageReaderCache().clear();
+        DataStoreInfo store = catalog.getDataStores().get(0);
+        pool.getDataStore(store);
+
+        ResourcePoolWarmer warmer = new ResourcePoolWarmer();
+        warmer.initialize(getGeoServer());
+        // saved before the catalog disposes the pool
+        warmer.onDispose();
+        List<String> usage = warmer.readUsage();
+        assertEquals(Arrays.asList(store.getId()), usage);
+    }
+}
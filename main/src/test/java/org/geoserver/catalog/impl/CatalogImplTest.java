@@ -2750,6 +2750,97 @@ public class CatalogImplTest {
 
     }
 
+    /**
+     * Tests filters the catalog facade can answer using its secondary indexes
+     */
+    @Test
+    public void testListPredicateIndexed() {
+        addDataStore();
+        addNamespace();
+        catalog.add(wsA);
+        catalog.add(dsA);
+
+        FeatureTypeInfo ft1, ft2, ft3;
+        catalog.add(ft1 = newFeatureType("ft1", ds));
+        catalog.add(ft2 = newFeatureType("ft2", ds));
+        catalog.add(ft3 = newFeatureType("ft3", dsA));
+        ft1 = catalog.getFeatureType(ft1.getId());
+        ft2 = catalog.getFeatureType(ft2.getId());
+        ft3 = catalog.getFeatureType(ft3.getId());
+
+        StyleInfo s1;
+        catalog.add(s1 = newStyle("s1", "s1Filename"));
+        LayerInfo l1, l2, l3;
+        catalog.add(l1 = newLayer(ft1, s1));
+        catalog.add(l2 = newLayer(ft2, s1));
+        catalog.add(l3 = newLayer(ft3, s1));
+
+        Filter filter;
+        Set<? extends CatalogInfo> expected;
+        Set<? extends CatalogInfo> actual;
+
+        // by id
+        filter = equal("id", l2.getId());
+        expected = Sets.newHashSet(l2);
+        actual = Sets.newHashSet(catalog.list(LayerInfo.class, filter));
+        assertEquals(expected, actual);
+
+        // by store
+        filter = equal("store.id", dsA.getId());
+        expected = Sets.newHashSet(ft3);
+        actual = Sets.newHashSet(catalog.list(FeatureTypeInfo.class, filter));
+        assertEquals(expected, actual);
+
+        filter = equal("store.name", ds.getName());
+        expected = Sets.newHashSet(ft1, ft2);
+        actual = Sets.newHashSet(catalog.list(FeatureTypeInfo.class, filter));
+        assertEquals(expected, actual);
+
+        // by workspace, through the resource and store
+        filter = equal("resource.store.workspace.name", ws.getName());
+        expected = Sets.newHashSet(l1, l2);
+        actual = Sets.newHashSet(catalog.list(LayerInfo.class, filter));
+        assertEquals(expected, actual);
+        assertEquals(2, catalog.count(LayerInfo.class, filter));
+
+        filter = equal("resource.store.workspace.name", "notThere");
+        assertEquals(0, catalog.count(LayerInfo.class, filter));
+
+        // and the other predicates are still evaluated
+        filter = Predicates.and(equal("resource.store.workspace.name", ws.getName()),
+                equal("name", "ft2"));
+        expected = Sets.newHashSet(l2);
+        actual = Sets.newHashSet(catalog.list(LayerInfo.class, filter));
+        assertEquals(expected, actual);
+
+        // the indexes follow renames
+        ft2.setName("ft2b");
+        catalog.save(ft2);
+        filter = Predicates.and(equal("resource.store.workspace.name", ws.getName()),
+                equal("name", "ft2b"));
+        expected = Sets.newHashSet(l2);
+        actual = Sets.newHashSet(catalog.list(LayerInfo.class, filter));
+        assertEquals(expected, actual);
+
+        // and moves to another workspace
+        DataStoreInfo store = catalog.getDataStore(dsA.getId());
+        store.setWorkspace(ws);
+        catalog.save(store);
+        filter = equal("resource.store.workspace.name", ws.getName());
+        expected = Sets.newHashSet(l1, l2, l3);
+        actual = Sets.newHashSet(catalog.list(LayerInfo.class, filter));
+        assertEquals(expected, actual);
+        filter = equal("resource.store.workspace.name", wsA.getName());
+        assertEquals(0, catalog.count(LayerInfo.class, filter));
+
+        // removal
+        catalog.remove(l1);
+        filter = equal("resource.store.workspace.name", ws.getName());
+        expected = Sets.newHashSet(l2, l3);
+        actual = Sets.newHashSet(catalog.list(LayerInfo.class, filter));
+        assertEquals(expected, actual);
+    }
+
     @Test
     public void testOrderBy() {
         addDataStore();
@@ -10,12 +10,15 @@ import static org.junit.Assert.*;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Arrays;
 
+import org.apache.commons.io.FileUtils;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.config.CatalogSnapshot.WorkspaceSnapshot;
 import org.geoserver.config.impl.GeoServerImpl;
 import org.geoserver.config.impl.ServiceInfoImpl;
 import org.geoserver.config.util.XStreamPersister;
@@ -27,7 +30,9 @@ import org.geoserver.platform.GeoServerResourceLoader;
 import org.geotools.data.DataUtilities;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class DefaultGeoServerLoaderTest {
     DefaultGeoServerLoader loader;
@@ -36,6 +41,9 @@ public class DefaultGeoServerLoaderTest {
     XStreamPersister xp;
 
     boolean helloServiceSaved = false;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
     
     static interface HelloServiceInfo extends ServiceInfo {
     }
@@ -142,4 +150,92 @@ public class DefaultGeoServerLoaderTest {
         assertFalse("hello.xml should not have been saved during load", helloServiceSaved);
     }
 
+    @Test
+    public void testLoadFromSnapshot() throws Exception {
+        URL url = DefaultGeoServerLoaderTest.class.getResource("/data_dir/nested_layer_groups");
+        File dataDir = temp.newFolder("data");
+        FileUtils.copyDirectory(DataUtilities.urlToFile(url), dataDir);
+        GeoServerResourceLoader resourceLoader = new GeoServerResourceLoader(dataDir);
+
+        CatalogSnapshot snapshot = new CatalogSnapshot(resourceLoader);
+        String topp = CatalogSnapshot.getKey("topp");
+        snapshot.write(topp);
+        snapshot.write(CatalogSnapshot.GLOBAL);
+        WorkspaceSnapshot ws = snapshot.read(resourceLoader.get("workspaces/topp"));
+        assertNotNull(ws);
+        assertEquals(1, ws.stores.size());
+        assertEquals(2, ws.stores.get(0).layers.size());
+        assertEquals(2, ws.layerGroups.size());
+        // stored in binary form, no xml parsing needed
+        assertTrue(ws.workspace.binary);
+        assertTrue(ws.stores.get(0).binary);
+        assertTrue(ws.stores.get(0).layers.get(0).binary);
+        // the global snapshot packs the global styles
+        CatalogSnapshot.Snapshot global = snapshot.read(CatalogSnapshot.GLOBAL, null);
+        assertNotNull(global);
+        assertEquals(1, global.styles.size());
+
+        // load the catalog using the snapshot
+        DefaultGeoServerLoader snapshotLoader = new DefaultGeoServerLoader(resourceLoader);
+        snapshotLoader.snapshot = snapshot;
+        Catalog snapshotCatalog = new CatalogImpl();
+        snapshotCatalog.setResourceLoader(resourceLoader);
+        snapshotLoader.readCatalog(snapshotCatalog, xp);
+        assertNotNull(snapshotLoader.globalSnapshot);
+        assertNotNull(snapshotCatalog.getWorkspaceByName("topp"));
+        assertNotNull(snapshotCatalog.getStyleByName("style"));
+        assertNotNull(snapshotCatalog.getLayerByName("topp:layer1"));
+        assertNotNull(snapshotCatalog.getLayerByName("topp:layer2"));
+        assertNotNull(snapshotCatalog.getLayerGroupByName("topp", "nestedgroup"));
+
+        // touching a layer file makes the snapshot stale
+        File layer = new File(dataDir, "workspaces/topp/datastore/layer1/layer.xml");
+        layer.setLastModified(layer.lastModified() - 10000);
+        assertNull(snapshot.read(resourceLoader.get("workspaces/topp")));
+
+        // the periodic check catches the change even without catalog events
+        snapshot.checkStale();
+        assertTrue(snapshot.dirty.contains(topp));
+        assertNotNull(snapshot.flushTask);
+        snapshot.flush();
+        assertNotNull(snapshot.read(resourceLoader.get("workspaces/topp")));
+
+        // a change within the modification time granularity is caught by the size
+        long lastModified = layer.lastModified();
+        FileUtils.writeStringToFile(layer, FileUtils.readFileToString(layer, "UTF-8") + " ",
+                "UTF-8");
+        layer.setLastModified(lastModified);
+        assertNull(snapshot.read(resourceLoader.get("workspaces/topp")));
+        snapshot.write(topp);
+
+        // styles and layer groups are tracked as well
+        File group = new File(dataDir, "workspaces/topp/layergroups/simplegroup.xml");
+        group.setLastModified(group.lastModified() - 10000);
+        assertNull(snapshot.read(resourceLoader.get("workspaces/topp")));
+        File style = new File(dataDir, "styles/style.xml");
+        style.setLastModified(style.lastModified() - 10000);
+        assertNull(snapshot.read(CatalogSnapshot.GLOBAL, null));
+        // and so is the creation of configuration files
+        snapshot.write(CatalogSnapshot.GLOBAL);
+        FileUtils.writeStringToFile(new File(dataDir, "logging.xml"), "<logging/>", "UTF-8");
+        assertNull(snapshot.read(CatalogSnapshot.GLOBAL, null));
+        snapshot.write(CatalogSnapshot.GLOBAL);
+        assertNotNull(snapshot.read(CatalogSnapshot.GLOBAL, null).files.get("logging.xml"));
+
+        // a stale snapshot found at startup gets rebuilt
+        layer.setLastModified(layer.lastModified() - 10000);
+        snapshot.dispose();
+        assertNotNull(snapshot.read(resourceLoader.get("workspaces/topp")));
+        layer.setLastModified(layer.lastModified() - 10000);
+        CatalogSnapshot startup = new CatalogSnapshot(resourceLoader);
+        try {
+            assertTrue(startup.read(Arrays.asList(resourceLoader.get("workspaces/topp"))).isEmpty());
+            assertTrue(startup.dirty.contains(topp));
+            assertNotNull(startup.flushTask);
+        } finally {
+            startup.dispose();
+        }
+        assertNotNull(startup.read(resourceLoader.get("workspaces/topp")));
+    }
+
 }
@@ -34,6 +34,9 @@ import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.WMSStoreInfo;
 import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.impl.CatalogPostModifyEventImpl;
+import org.geoserver.catalog.event.impl.CatalogRemoveEventImpl;
+import org.geoserver.catalog.impl.ModificationProxy;
 import org.geoserver.config.util.XStreamPersisterFactory;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.test.GeoServerSystemTestSupport;
@@ -1056,6 +1059,53 @@ public class GeoServerPersisterTest extends GeoServerSystemTestSupport {
         assertNull(f);
     }
 
+    @Test
+    public void testAsynchronousModifyDataStore() throws Exception {
+        testAddDataStore();
+        File dir = new File(testData.getDataDirectoryRoot(), "workspaces/acme/foostore");
+
+        GeoServerPersister p = new GeoServerPersister(getResourceLoader(),
+                new XStreamPersisterFactory().createXMLPersister());
+        p.setAsynchronous(true);
+        try {
+            DataStoreInfo ds = ModificationProxy
+                    .unwrap(catalog.getDataStoreByName("acme", "foostore"));
+            // multiple changes get coalesced, the last one wins
+            for (int i = 0; i < 10; i++) {
+                ds.setDescription("description" + i);
+                CatalogPostModifyEventImpl event = new CatalogPostModifyEventImpl();
+                event.setSource(ds);
+                p.handlePostModifyEvent(event);
+            }
+            p.flush();
+            Document dom = dom(new File(dir, "datastore.xml"));
+            assertXpathEvaluatesTo("description9", "/dataStore/description", dom);
+
+            // the state at the time of the event is written, not the live object
+            ds.setDescription("queued");
+            CatalogPostModifyEventImpl queued = new CatalogPostModifyEventImpl();
+            queued.setSource(ds);
+            p.handlePostModifyEvent(queued);
+            ds.setDescription("changed without events");
+            p.flush();
+            dom = dom(new File(dir, "datastore.xml"));
+            assertXpathEvaluatesTo("queued", "/dataStore/description", dom);
+
+            // a pending write is not going to resurrect a removed store
+            ds.setDescription("removed");
+            CatalogPostModifyEventImpl event = new CatalogPostModifyEventImpl();
+            event.setSource(ds);
+            p.handlePostModifyEvent(event);
+            CatalogRemoveEventImpl remove = new CatalogRemoveEventImpl();
+            remove.setSource(ds);
+            p.handleRemoveEvent(remove);
+            p.flush();
+            assertFalse(dir.exists());
+        } finally {
+            p.dispose();
+        }
+    }
+
     Document dom( File f ) throws Exception {
         return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse( f );
     }
@@ -0,0 +1,272 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.geoserver.jai.LayerTileCache.LayerUsage;
+import org.junit.Test;
+
+public class LayerTileCacheTest {
+
+    /**
+     * A 100 bytes tile
+     */
+    static Raster tile() {
+        return Raster.createBandedRaster(DataBuffer.TYPE_BYTE, 10, 10, 1, null);
+    }
+
+    static RenderedImage image(RenderedImage... sources) {
+        return new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY) {
+            @Override
+            public Vector<RenderedImage> getSources() {
+                return sources.length == 0 ? null : new Vector<>(Arrays.asList(sources));
+            }
+        };
+    }
+
+    static LayerUsage usage(LayerTileCache cache, String layer) {
+        for (LayerUsage usage : cache.getUsage()) {
+            if (usage.getLayer().equals(layer)) {
+                return usage;
+            }
+        }
+        return null;
+    }
+
+    LayerTileCache cache(long capacity, String quotas, String priorities) {
+        LayerTileCache cache = new LayerTileCache(capacity, LayerTileCache.parseQuotas(quotas),
+                LayerTileCache.parsePriorities(priorities));
+        cache.setMemoryThreshold(1);
+        return cache;
+    }
+
+    @Test
+    public void testAttribution() {
+        LayerTileCache cache = cache(10000, null, null);
+        RenderedImage source = image();
+        RenderedImage read = image(source);
+        RenderedImage rendered = image(image(read));
+        cache.register(read, "ws:a");
+
+        cache.add(source, 0, 0, tile());
+        cache.add(rendered, 0, 0, tile());
+        cache.add(image(), 0, 0, tile());
+
+        LayerUsage usage = usage(cache, "ws:a");
+        assertEquals(2, usage.getTiles());
+        assertEquals(200, usage.getMemory());
+        assertEquals(1, usage(cache, LayerTileCache.UNATTRIBUTED).getTiles());
+        assertEquals(300, cache.getCacheMemoryUsed());
+        assertEquals(3, cache.getCacheTileCount());
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        LayerTileCache cache = cache(10000, null, null);
+        RenderedImage image = image();
+        cache.register(image, "ws:a");
+        Raster tile = tile();
+        cache.add(image, 1, 2, tile);
+
+        assertEquals(tile, cache.getTile(image, 1, 2));
+        assertNull(cache.getTile(image, 2, 1));
+        assertNull(cache.getTile(image(image), 0, 0));
+        LayerUsage usage = usage(cache, "ws:a");
+        assertEquals(1, usage.getHits());
+        assertEquals(2, usage.getMisses());
+        assertEquals(1 / 3d, usage.getHitRate(), 1e-6);
+
+        assertEquals(1, cache.getTiles(image).length);
+        cache.removeTiles(image);
+        assertNull(cache.getTiles(image));
+        assertEquals(0, cache.getCacheMemoryUsed());
+    }
+
+    @Test
+    public void testQuota() {
+        LayerTileCache cache = cache(1000, "ws:a=0.3", null);
+        RenderedImage a = image();
+        cache.register(a, "ws:a");
+        for (int i = 0; i < 5; i++) {
+            cache.add(a, i, 0, tile());
+        }
+        // touch the oldest surviving tile, the next one will be evicted instead
+        assertNotNull(cache.getTile(a, 2, 0));
+        cache.add(a, 5, 0, tile());
+
+        LayerUsage usage = usage(cache, "ws:a");
+        assertEquals(3, usage.getTiles());
+        assertEquals(3, usage.getEvictions());
+        assertEquals(0.3, usage.getQuota(), 0d);
+        assertNull(cache.getTile(a, 0, 0));
+        assertNull(cache.getTile(a, 3, 0));
+        assertNotNull(cache.getTile(a, 2, 0));
+        assertNotNull(cache.getTile(a, 5, 0));
+    }
+
+    @Test
+    public void testLargestConsumerEvicted() {
+        LayerTileCache cache = cache(1000, null, null);
+        RenderedImage mosaic = image();
+        RenderedImage small = image();
+        cache.register(mosaic, "ws:mosaic");
+        cache.register(small, "ws:small");
+        for (int i = 0; i < 3; i++) {
+            cache.add(small, i, 0, tile());
+        }
+        for (int i = 0; i < 10; i++) {
+            cache.add(mosaic, i, 0, tile());
+        }
+
+        // the mosaic paid for its own growth, the small layer kept all its tiles
+        assertEquals(3, usage(cache, "ws:small").getTiles());
+        assertEquals(0, usage(cache, "ws:small").getEvictions());
+        assertEquals(7, usage(cache, "ws:mosaic").getTiles());
+        assertEquals(3, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testPriority() {
+        LayerTileCache cache = cache(1000, null, "ws:important=1");
+        RenderedImage important = image();
+        RenderedImage other = image();
+        cache.register(important, "ws:important");
+        cache.register(other, "ws:other");
+        for (int i = 0; i < 8; i++) {
+            cache.add(important, i, 0, tile());
+        }
+        for (int i = 0; i < 4; i++) {
+            cache.add(other, i, 0, tile());
+        }
+
+        // the lower priority layer is evicted first, even if using less memory
+        assertEquals(8, usage(cache, "ws:important").getTiles());
+        assertEquals(2, usage(cache, "ws:other").getTiles());
+    }
+
+    @Test
+    public void testFlush() {
+        LayerTileCache cache = cache(1000, null, null);
+        RenderedImage image = image();
+        cache.add(image, 0, 0, tile());
+        cache.flush();
+        assertEquals(0, cache.getCacheMemoryUsed());
+        assertNull(cache.getTile(image, 0, 0));
+    }
+
+    @Test
+    public void testConfigure() {
+        LayerTileCache cache = cache(1000, null, null);
+        RenderedImage a = image();
+        cache.register(a, "ws:a");
+        for (int i = 0; i < 5; i++) {
+            cache.add(a, i, 0, tile());
+        }
+
+        // the new quota applies right away to the layers already in the cache
+        cache.configure(LayerTileCache.parseQuotas("ws:a=0.2"),
+                LayerTileCache.parsePriorities("*=2"));
+        LayerUsage usage = usage(cache, "ws:a");
+        assertEquals(2, usage.getTiles());
+        assertEquals(0.2, usage.getQuota(), 0d);
+        assertEquals(2, usage.getPriority());
+        assertEquals(200, cache.getCacheMemoryUsed());
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        LayerTileCache cache = cache(5000, "*=0.4", null);
+        int layers = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(layers * 2);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int l = 0; l < layers; l++) {
+                RenderedImage image = image();
+                cache.register(image, "ws:layer" + l);
+                // one writer and one reader per layer
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        cache.add(image, i % 50, 0, tile());
+                        if (i % 100 == 0) {
+                            cache.remove(image, i % 50, 0);
+                        }
+                    }
+                }));
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        cache.getTile(image, i % 50, 0);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // the accounting stayed consistent, and within quotas and capacity
+        long memory = 0;
+        long lookups = 0;
+        for (LayerUsage usage : cache.getUsage()) {
+            assertEquals(usage.getTiles() * 100, usage.getMemory());
+            assertTrue(usage.getMemory() <= 2000);
+            memory += usage.getMemory();
+            lookups += usage.getHits() + usage.getMisses();
+        }
+        assertEquals(memory, cache.getCacheMemoryUsed());
+        assertTrue(memory <= 5000);
+        assertEquals(layers * 1000, lookups);
+    }
+
+    @Test
+    public void testParseStrict() {
+        assertEquals(0.5, LayerTileCache.parseQuotas("ws:a=0.5", true).get("ws:a"), 0d);
+        for (String invalid : new String[] { "ws:a=2", "ws:a=x", "ws:a" }) {
+            try {
+                LayerTileCache.parseQuotas(invalid, true);
+                fail("Should have rejected " + invalid);
+            } catch (IllegalArgumentException e) {
+                // fine
+            }
+        }
+        try {
+            LayerTileCache.parsePriorities("ws:a=high", true);
+            fail("Should have rejected a non integer priority");
+        } catch (IllegalArgumentException e) {
+            // fine
+        }
+    }
+
+    @Test
+    public void testParse() {
+        Map<String, Double> expected = new HashMap<>();
+        expected.put("ws:a", 0.5);
+        expected.put("*", 0.25);
+        assertEquals(expected, LayerTileCache.parseQuotas("ws:a=0.5, *=0.25, ws:b=2, ws:c=x"));
+        assertEquals(1, LayerTileCache.getValue(LayerTileCache.parsePriorities("ws:a=1"), "ws:a",
+                0).intValue());
+        assertEquals(0.25, LayerTileCache.getValue(expected, "ws:d", 1d), 0d);
+    }
+}
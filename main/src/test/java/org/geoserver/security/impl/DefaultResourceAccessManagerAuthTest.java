@@ -12,6 +12,7 @@ import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.platform.GeoServerExtensionsHelper;
 import org.geoserver.security.AccessMode;
 import org.geoserver.security.CatalogMode;
 import org.geoserver.security.DataAccessLimits;
@@ -24,6 +25,8 @@ import org.junit.Test;
 import org.opengis.filter.Filter;
 import org.springframework.security.core.Authentication;
 
+import com.google.common.cache.CacheStats;
+
 
 public class DefaultResourceAccessManagerAuthTest extends AbstractAuthorizationTest {
     
@@ -56,6 +59,36 @@ public class DefaultResourceAccessManagerAuthTest extends AbstractAuthorizationT
         checkUserAccessFlat(manager, root, true, true);
     }
     
+    @Test
+    public void testMemoisedLimits() throws Exception {
+        DefaultResourceAccessManager manager;
+        GeoServerExtensionsHelper.property(DefaultResourceAccessManager.ACCESS_LIMITS_CACHE_SIZE,
+                "100");
+        try {
+            manager = buildAccessManager("publicRead.properties");
+        } finally {
+            GeoServerExtensionsHelper.clear();
+        }
+
+        // same results as the non memoised case, the second time from the cache
+        for (int i = 0; i < 2; i++) {
+            checkUserAccessFlat(manager, anonymous, true, false);
+            checkUserAccessFlat(manager, roUser, true, false);
+            checkUserAccessFlat(manager, rwUser, true, true);
+        }
+        // one miss per user and object (layer and resource, the mock workspace has no id)
+        CacheStats stats = manager.getLimitsCacheStatistics();
+        assertEquals(6, stats.missCount());
+        assertEquals(18, stats.hitCount());
+
+        // dropping the cache does not reset the statistics
+        manager.resetLimitsCache();
+        checkUserAccessFlat(manager, rwUser, true, true);
+        CacheStats updated = manager.getLimitsCacheStatistics();
+        assertEquals(stats.hitCount(), updated.hitCount());
+        assertTrue(updated.missCount() > stats.missCount());
+    }
+
     private void checkUserAccessFlat(ResourceAccessManager manager, Authentication user, boolean expectedRead, boolean expectedWrite) {
         // states as a layer
         assertEquals(expectedRead, canAccess(manager, user, statesLayer, AccessMode.READ));
@@ -276,6 +276,18 @@ public class LayerGroupContainmentCacheTest {
         assertThat(containerNamesForResource(MockData.ROAD_SEGMENTS), empty());
     }
     
+    @Test
+    public void testRemoveContainer() throws Exception {
+        catalog.remove(container);
+
+        // the contained group does not reference the removed one anymore
+        assertThat(containerNamesForGroup(nature), empty());
+        assertThat(cc.groupCache.get(nature.getId()).getContainerGroups(), empty());
+        assertNull(cc.groupCache.get(container.getId()));
+        assertThat(containerNamesForResource(MockData.LAKES), empty());
+        assertThat(containerNamesForResource(MockData.ROAD_SEGMENTS), empty());
+    }
+
     @Test
     public void testAddRemoveNamed() throws Exception {
         final String NAMED_GROUP = "named";
@@ -0,0 +1,21 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+/**
+ * Marker interface for response wrappers that keep working once the request is put in
+ * asynchronous mode, that is, the filter installing them does not finish the response when the
+ * filter chain returns with {@link javax.servlet.ServletRequest#isAsyncStarted()} set. The
+ * {@link Dispatcher} processes a request asynchronously only if all the wrappers around the
+ * response are asynchronous aware, and closes the response output once the asynchronous
+ * execution is done.
+ * <p>
+ * Wrappers that cannot implement this interface (e.g., coming from third party libraries) can be
+ * registered via {@link Dispatcher#addAsyncAwareResponseType(Class)}.
+ * </p>
+ */
+public interface AsyncAwareResponse {
+
+}
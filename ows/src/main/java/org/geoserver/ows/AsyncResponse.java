@@ -0,0 +1,181 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.geotools.util.logging.Logging;
+
+/**
+ * Response used by the asynchronous {@link Dispatcher} workers. Once the asynchronous context has
+ * been completed (normally, or by the container on timeout/error) the underlying response might
+ * be recycled by the container, so any further output is refused with an {@link IOException}
+ * instead of being written to a response that belongs to another request.
+ * <p>
+ * The completion flag doubles as the lock guarding the output: the check and the write happen
+ * atomically, and the {@link Dispatcher} holds the same lock while completing the request.
+ * </p>
+ */
+class AsyncResponse extends HttpServletResponseWrapper {
+
+    static final Logger LOGGER = Logging.getLogger(AsyncResponse.class);
+
+    final AtomicBoolean completed;
+
+    ServletOutputStream os;
+
+    PrintWriter writer;
+
+    public AsyncResponse(HttpServletResponse response, AtomicBoolean completed) {
+        super(response);
+        this.completed = completed;
+    }
+
+    void checkActive() throws IOException {
+        if (completed.get()) {
+            throw new IOException("The asynchronous request has already been completed");
+        }
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        synchronized (completed) {
+            checkActive();
+            if (os == null) {
+                os = new AsyncServletOutputStream(super.getOutputStream());
+            }
+            return os;
+        }
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        synchronized (completed) {
+            checkActive();
+            if (writer == null) {
+                writer = new PrintWriter(new AsyncWriter(super.getWriter()));
+            }
+            return writer;
+        }
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        synchronized (completed) {
+            checkActive();
+            super.flushBuffer();
+        }
+    }
+
+    /**
+     * Closes the output, if any was opened, so that the wrappers around the response can finish
+     * their work (e.g., write the GZIP trailer). To be called with the lock held, before completing
+     * the asynchronous request.
+     */
+    void finish() {
+        try {
+            if (writer != null) {
+                writer.close();
+            } else if (os != null) {
+                os.close();
+            }
+        } catch (IOException e) {
+            // the output might have been closed already by the response encoder
+            LOGGER.log(Level.FINE, "Failed to close the asynchronous response output", e);
+        }
+    }
+
+    class AsyncServletOutputStream extends ServletOutputStream {
+
+        OutputStream delegate;
+
+        public AsyncServletOutputStream(OutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            synchronized (completed) {
+                checkActive();
+                delegate.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte b[]) throws IOException {
+            synchronized (completed) {
+                checkActive();
+                delegate.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte b[], int off, int len) throws IOException {
+            synchronized (completed) {
+                checkActive();
+                delegate.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (completed) {
+                checkActive();
+                delegate.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (completed) {
+                checkActive();
+                delegate.close();
+            }
+        }
+    }
+
+    class AsyncWriter extends Writer {
+
+        Writer delegate;
+
+        public AsyncWriter(Writer delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            synchronized (completed) {
+                checkActive();
+                delegate.write(cbuf, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (completed) {
+                checkActive();
+                delegate.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (completed) {
+                checkActive();
+                delegate.close();
+            }
+        }
+    }
+}
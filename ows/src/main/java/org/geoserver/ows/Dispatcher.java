@@ -27,9 +27,19 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletResponse;
+import javax.servlet.ServletResponseWrapper;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.namespace.QName;
@@ -57,6 +67,9 @@ import org.geotools.util.Version;
 import org.geotools.xml.EMFUtils;
 import org.geotools.xml.transform.TransformerBase;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.context.ApplicationContext;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.AbstractController;
@@ -110,6 +123,11 @@ import org.xmlpull.v1.XmlPullParserFactory;
  * When a request is received, the <b>service</b> the <b>version</b> parameters are used to locate a service desciptor, an instance of {@link Service}
  * . With the service descriptor, the <b>request</b> parameter is used to locate the operation of the service to call.
  * </p>
+ * <p>
+ * When an asynchronous executor is configured, see {@link #setAsyncExecutor(Executor)}, and the
+ * servlet container allows it, the operation execution and the response encoding are handed over
+ * to the executor, releasing the container thread while the request is being processed.
+ * </p>
  *
  * @author Justin Deoliveira, The Open Planning Project, jdeolive@openplans.org
  */
@@ -142,6 +160,35 @@ public class Dispatcher extends AbstractController {
      */
     List<DispatcherCallback> callbacks = Collections.EMPTY_LIST;
 
+    /**
+     * caches of already parsed kvp parameters
+     */
+    List<ParsedKvpCache> kvpCaches = Collections.EMPTY_LIST;
+
+    /**
+     * Executor running the operations and writing the responses asynchronously, when null 
+     * requests are fully processed in the servlet container thread
+     */
+    Executor asyncExecutor;
+    
+    /**
+     * Timeout for asynchronous requests, in milliseconds, zero or negative means no timeout
+     */
+    long asyncTimeout = 0;
+
+    /**
+     * Response wrapper types that keep working once the request is asynchronous, in addition to
+     * the ones implementing {@link AsyncAwareResponse}
+     */
+    Set<Class<?>> asyncAwareResponseTypes = new CopyOnWriteArraySet<Class<?>>();
+
+    /**
+     * Request attribute a filter chain can set to {@link Boolean#TRUE} or {@link Boolean#FALSE}
+     * to declare whether its filters keep on working on the response after the chain returned,
+     * when the request is asynchronous, overriding the inspection of the response wrappers
+     */
+    public static final String ASYNC_AWARE_FILTER_CHAIN = "org.geoserver.ows.asyncAwareFilterChain";
+
     /** SOAP namespace */
     static final String SOAP_NS = "http://www.w3.org/2003/05/soap-envelope";
     
@@ -182,10 +229,53 @@ public class Dispatcher extends AbstractController {
         return citeCompliant;
     }
 
+    /**
+     * Sets the executor used to run the operations and write the responses asynchronously. The
+     * request parsing and the service/operation lookup still happen in the container thread,
+     * the rest of the work is handed over to the executor, which is responsible for transferring
+     * the thread locals in the pooled threads.
+     * <p>
+     * Asynchronous execution is only used if the servlet container supports it for the current
+     * request (servlet and filters need to be marked as async supported), otherwise the request
+     * is processed synchronously. Should the executor reject the request, it will be processed
+     * synchronously as well.
+     * </p>
+     * 
+     * @param asyncExecutor The executor, or <code>null</code> to disable asynchronous execution
+     */
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    public Executor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    /**
+     * Sets the timeout of asynchronous requests, in milliseconds. Zero or a negative value mean
+     * no timeout.
+     */
+    public void setAsyncTimeout(long asyncTimeout) {
+        this.asyncTimeout = asyncTimeout;
+    }
+
+    public long getAsyncTimeout() {
+        return asyncTimeout;
+    }
+
+    /**
+     * Registers a response wrapper type (and its subclasses) as asynchronous aware, for wrappers
+     * that cannot implement {@link AsyncAwareResponse}
+     */
+    public void addAsyncAwareResponseType(Class<?> type) {
+        asyncAwareResponseTypes.add(type);
+    }
+
     @Override
     protected void initApplicationContext(ApplicationContext context) {
         //load life cycle callbacks
         callbacks = GeoServerExtensions.extensions( DispatcherCallback.class, context);
+        kvpCaches = GeoServerExtensions.extensions( ParsedKvpCache.class, context);
         
         // setup the xml lookahead value
         String lookahead = GeoServerExtensions.getProperty("XML_LOOKAHEAD", context);
@@ -232,6 +322,7 @@ public class Dispatcher extends AbstractController {
         request.setHttpResponse(httpResponse);
 
         Service service = null;
+        boolean async = false;
 
         try {
             // initialize the request and allow callbacks to override it
@@ -264,12 +355,13 @@ public class Dispatcher extends AbstractController {
                 flagAsSOAP(operation);
             }
 
-            //execute it
-            Object result = execute(request, operation);
-
-            //write the response
-            if (result != null) {
-                response(result, request, operation);
+            if (isAsync(httpRequest, httpResponse)) {
+                // execute it and write the response in the executor threads
+                executeAsync(request, service, operation);
+                async = true;
+            } else {
+                //execute it and write the response
+                executeAndRespond(request, operation);
             }
         } catch (Throwable t) {
          // make Spring security exceptions flow so that exception transformer filter can handle them
@@ -277,13 +369,190 @@ public class Dispatcher extends AbstractController {
                 throw (Exception) t;
             exception(t, service, request);
         } finally {
-            fireFinishedCallback(request);
+            // the asynchronous execution takes care of the callbacks
+            if (!async) {
+                fireFinishedCallback(request);
+            }
             REQUEST.remove();
         }
 
         return null;
     }
 
+    /**
+     * Returns true if the request can be processed asynchronously. Besides the container support,
+     * this requires the filter chain to be asynchronous aware: filters wrapping the response
+     * might finish their work as soon as the chain returns, so unless the chain declares
+     * otherwise via the {@link #ASYNC_AWARE_FILTER_CHAIN} request attribute, the response is
+     * processed asynchronously only if all its wrappers are {@link AsyncAwareResponse} or have
+     * been registered via {@link #addAsyncAwareResponseType(Class)}.
+     */
+    boolean isAsync(HttpServletRequest httpRequest, HttpServletResponse httpResponse) {
+        if (asyncExecutor == null || !httpRequest.isAsyncSupported()) {
+            return false;
+        }
+        Object asyncAware = httpRequest.getAttribute(ASYNC_AWARE_FILTER_CHAIN);
+        if (asyncAware != null) {
+            return Boolean.TRUE.equals(asyncAware);
+        }
+        ServletResponse response = httpResponse;
+        while (response instanceof ServletResponseWrapper) {
+            if (!isAsyncAware(response)) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("Processing request synchronously, the response wrapper "
+                            + response.getClass().getName() + " is not asynchronous aware");
+                }
+                return false;
+            }
+            response = ((ServletResponseWrapper) response).getResponse();
+        }
+        return true;
+    }
+
+    boolean isAsyncAware(ServletResponse response) {
+        if (response instanceof AsyncAwareResponse) {
+            return true;
+        }
+        for (Class<?> type : asyncAwareResponseTypes) {
+            if (type.isInstance(response)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void executeAndRespond(Request request, Operation operation) throws Throwable {
+        //execute it
+        Object result = execute(request, operation);
+
+        //write the response
+        if (result != null) {
+            response(result, request, operation);
+        }
+    }
+
+    /**
+     * Puts the request in asynchronous mode and hands over the operation execution and response
+     * encoding to the {@link #asyncExecutor}. The worker is cancelled if the container times out
+     * or fails the asynchronous request, and any output it attempts afterwards is refused.
+     */
+    void executeAsync(final Request request, final Service service, final Operation operation) {
+        final AsyncContext asyncContext = request.getHttpRequest().startAsync();
+        asyncContext.setTimeout(asyncTimeout);
+        final AtomicBoolean completed = new AtomicBoolean(false);
+        final AsyncResponse asyncResponse = new AsyncResponse(request.getHttpResponse(), completed);
+        request.setHttpResponse(asyncResponse);
+        // the security filters have cleaned up the context by the time the worker runs
+        final SecurityContext securityContext = SecurityContextHolder.getContext();
+        final FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+
+            @Override
+            public void run() {
+                REQUEST.set(request);
+                SecurityContextHolder.setContext(securityContext);
+                try {
+                    executeAndRespond(request, operation);
+                } catch (Throwable t) {
+                    if (completed.get()) {
+                        logger.log(Level.FINE, "Asynchronous request " + request
+                                + " failed after being completed by the container", t);
+                    } else if (isSecurityException(t)) {
+                        // the security filters are out of reach at this point
+                        securityException(t, request);
+                    } else {
+                        exception(t, service, request);
+                    }
+                } finally {
+                    fireFinishedCallback(request);
+                    REQUEST.remove();
+                    SecurityContextHolder.clearContext();
+                    // the output is closed here as the asynchronous aware wrappers (e.g. GZIP
+                    // compression) cannot finish the response when the filter chain returns
+                    synchronized (completed) {
+                        if (!completed.get()) {
+                            asyncResponse.finish();
+                            completed.set(true);
+                            asyncContext.complete();
+                        }
+                    }
+                }
+            }
+        }, null);
+        asyncContext.addListener(new AsyncListener() {
+
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                abortAsync(event, task, completed, "Request timed out");
+            }
+
+            @Override
+            public void onError(AsyncEvent event) throws IOException {
+                abortAsync(event, task, completed, "Request failed");
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) throws IOException {
+                // nothing to do
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) throws IOException {
+                // nothing to do
+            }
+        });
+        
+        try {
+            asyncExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            logger.log(Level.FINE, "Asynchronous executor saturated, running request " + request
+                    + " in the container thread", e);
+            task.run();
+        }
+    }
+
+    /**
+     * Cancels the asynchronous worker and completes the request, called when the container
+     * times out or fails the asynchronous request
+     */
+    void abortAsync(AsyncEvent event, FutureTask<Void> task, AtomicBoolean completed,
+            String message) throws IOException {
+        task.cancel(true);
+        // shares the lock with the asynchronous response, no output can sneak in past this point
+        synchronized (completed) {
+            if (completed.get()) {
+                return;
+            }
+            completed.set(true);
+            logger.log(Level.WARNING, message + ", cancelling the asynchronous execution",
+                    event.getThrowable());
+            ServletResponse response = event.getAsyncContext().getResponse();
+            if (!response.isCommitted() && response instanceof HttpServletResponse) {
+                ((HttpServletResponse) response).sendError(
+                        HttpServletResponse.SC_SERVICE_UNAVAILABLE, message);
+            }
+            event.getAsyncContext().complete();
+        }
+    }
+
+    /**
+     * Reports a security exception that occurred in an asynchronous execution, where the
+     * Spring security filters cannot handle it anymore
+     */
+    void securityException(Throwable t, Request request) {
+        logger.log(Level.FINE, "Security exception during asynchronous execution", t);
+        HttpServletResponse response = request.getHttpResponse();
+        if (!response.isCommitted()) {
+            try {
+                int code = t instanceof AuthenticationException ? HttpServletResponse.SC_UNAUTHORIZED
+                        : HttpServletResponse.SC_FORBIDDEN;
+                response.sendError(code, t.getMessage());
+            } catch (IOException e) {
+                logger.log(Level.FINER, "", e);
+            }
+        }
+        request.error = t;
+    }
+
     void flagAsSOAP(Operation op) {
         for (Object reqObj : op.getParameters()) {
             if (OwsUtils.has(reqObj, "formatOptions")) {
@@ -1494,7 +1763,40 @@ public class Dispatcher extends AbstractController {
 
     void parseKVP(Request req) throws ServiceException {
         preParseKVP(req);
-        parseKVP(req, req.getKvp());
+        Map cached = getCachedKVP(req);
+        if (cached == null) {
+            parseKVP(req, req.getKvp());
+        } else {
+            // only parse the parameters the cache does not know about
+            Map kvp = req.getKvp();
+            Map remaining = new KvpMap();
+            for (Object o : kvp.entrySet()) {
+                Map.Entry entry = (Map.Entry) o;
+                if (!cached.containsKey(entry.getKey())) {
+                    remaining.put(entry.getKey(), entry.getValue());
+                }
+            }
+            parseKVP(req, remaining);
+            kvp.putAll(cached);
+            kvp.putAll(remaining);
+        }
+    }
+
+    /**
+     * Looks up the already parsed kvp parameters of the request in the {@link ParsedKvpCache}
+     * extensions, returns null if none is found
+     */
+    Map getCachedKVP(Request req) {
+        if (req.getRawKvp() == null || req.getRawKvp().isEmpty()) {
+            return null;
+        }
+        for (ParsedKvpCache cache : kvpCaches) {
+            Map<String, Object> parsed = cache.getParsedKvp(req);
+            if (parsed != null) {
+                return new KvpMap(parsed);
+            }
+        }
+        return null;
     }
 
     Map parseKVP(Request req, Map kvp) {
@@ -0,0 +1,27 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.util.Map;
+
+/**
+ * Extension point allowing the {@link Dispatcher} to skip the parsing of the KVP parameters whose
+ * parsed values are already known, e.g., because an identical request has been parsed recently.
+ * <p>
+ * Implementations are looked up in the application context, and consulted in turn right after
+ * the raw KVP has been normalized, before the {@link KvpParser} extensions run.
+ * </p>
+ */
+public interface ParsedKvpCache {
+
+    /**
+     * Returns the already parsed values of some of the request KVP parameters, keyed by
+     * parameter name, or null if none is known. The parameters missing from the result are
+     * parsed as usual.
+     *
+     * @param request The request being initialized, with its HTTP request and raw KVP set
+     */
+    Map<String, Object> getParsedKvp(Request request);
+}
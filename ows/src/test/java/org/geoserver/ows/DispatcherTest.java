@@ -22,13 +22,22 @@ import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.mail.internet.InternetHeaders;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMultipart;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
 
 import junit.framework.TestCase;
 
@@ -38,6 +47,10 @@ import org.geoserver.platform.Service;
 import org.geoserver.test.CodeExpectingHttpServletResponse;
 import org.geotools.util.Version;
 import org.springframework.context.support.FileSystemXmlApplicationContext;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.servlet.ModelAndView;
 
 import org.springframework.mock.web.MockHttpServletRequest;
@@ -152,6 +165,35 @@ public class DispatcherTest extends TestCase {
         assertEquals(new Message("Hello world!"), message);
     }
 
+    public void testParseCachedKVP() throws Exception {
+        URL url = getClass().getResource("applicationContext.xml");
+
+        FileSystemXmlApplicationContext context = new FileSystemXmlApplicationContext(url.toString());
+
+        Dispatcher dispatcher = (Dispatcher) context.getBean("dispatcher");
+        // the cache knows about the message, but not about the other parameters
+        Map<String, Object> cached = Collections.singletonMap("message", "Cached");
+        dispatcher.kvpCaches = Collections.singletonList(
+                r -> "hello".equals(r.getRawKvp().get("service")) ? cached : null);
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setContextPath("/geoserver");
+
+        request.addParameter("service", "hello");
+        request.addParameter("request", "Hello");
+        request.addParameter("message", "Hello world!");
+
+        Request req = new Request();
+        req.setHttpRequest(request);
+
+        dispatcher.parseKVP(req);
+
+        assertEquals("Hello", req.getKvp().get("request"));
+        assertEquals("Hello world!", req.getRawKvp().get("message"));
+        Message message = (Message) dispatcher.parseRequestKVP(Message.class, req);
+        assertEquals(new Message("Cached"), message);
+    }
+
     public void testParseXML() throws Exception {
         URL url = getClass().getResource("applicationContext.xml");
 
@@ -979,4 +1021,220 @@ public class DispatcherTest extends TestCase {
             assertThat(outputContent, startsWith("<ows:Exception"));
         }
     }
+
+    public void testAsyncDispatch() throws Exception {
+        URL url = getClass().getResource("applicationContext.xml");
+
+        try (FileSystemXmlApplicationContext context = new FileSystemXmlApplicationContext(
+                url.toString())) {
+            Dispatcher dispatcher = (Dispatcher) context.getBean("dispatcher");
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            dispatcher.setAsyncExecutor(executor);
+            TestDispatcherCallback callback = new TestDispatcherCallback();
+            dispatcher.callbacks.add(callback);
+            final AtomicReference<Thread> executionThread = new AtomicReference<>();
+            final AtomicReference<Authentication> executionAuth = new AtomicReference<>();
+            final AtomicBoolean finished = new AtomicBoolean(false);
+            dispatcher.callbacks.add(new AbstractDispatcherCallback() {
+                @Override
+                public Object operationExecuted(Request request, Operation operation,
+                        Object result) {
+                    executionThread.set(Thread.currentThread());
+                    executionAuth.set(SecurityContextHolder.getContext().getAuthentication());
+                    return result;
+                }
+
+                @Override
+                public void finished(Request request) {
+                    finished.set(true);
+                }
+            });
+
+            Authentication auth = new TestingAuthenticationToken("user", "password");
+            SecurityContextHolder.getContext().setAuthentication(auth);
+            MockHttpServletRequest request = setupRequest();
+            request.setAsyncSupported(true);
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            try {
+                dispatcher.handleRequest(request, response);
+            } finally {
+                // mimic the security filters cleaning up
+                SecurityContextHolder.clearContext();
+            }
+            assertTrue(request.isAsyncStarted());
+
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            assertEquals("Hello world!", response.getContentAsString());
+            // the container thread only got as far as the operation dispatch
+            assertEquals(TestDispatcherCallback.Status.OPERATION_DISPATCHED,
+                    callback.dispatcherStatus.get());
+            assertTrue(finished.get());
+            assertNotNull(executionThread.get());
+            assertNotSame(Thread.currentThread(), executionThread.get());
+            // the security context has been restored in the worker
+            assertSame(auth, executionAuth.get());
+            assertNull(Dispatcher.REQUEST.get());
+        }
+    }
+
+    public void testAsyncNotSupported() throws Exception {
+        URL url = getClass().getResource("applicationContext.xml");
+
+        try (FileSystemXmlApplicationContext context = new FileSystemXmlApplicationContext(
+                url.toString())) {
+            Dispatcher dispatcher = (Dispatcher) context.getBean("dispatcher");
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            dispatcher.setAsyncExecutor(executor);
+
+            // the container did not enable async support, the request is run synchronously
+            MockHttpServletRequest request = setupRequest();
+            request.setAsyncSupported(false);
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            dispatcher.handleRequest(request, response);
+            assertFalse(request.isAsyncStarted());
+            assertEquals("Hello world!", response.getContentAsString());
+            executor.shutdown();
+        }
+    }
+
+    public void testAsyncRejected() throws Exception {
+        URL url = getClass().getResource("applicationContext.xml");
+
+        try (FileSystemXmlApplicationContext context = new FileSystemXmlApplicationContext(
+                url.toString())) {
+            Dispatcher dispatcher = (Dispatcher) context.getBean("dispatcher");
+            dispatcher.setAsyncExecutor(command -> {
+                throw new RejectedExecutionException("Saturated");
+            });
+            TestDispatcherCallback callback = new TestDispatcherCallback();
+            dispatcher.callbacks.add(callback);
+
+            // the executor is saturated, the request is run in the calling thread
+            MockHttpServletRequest request = setupRequest();
+            request.setAsyncSupported(true);
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            dispatcher.handleRequest(request, response);
+            assertEquals("Hello world!", response.getContentAsString());
+            assertEquals(TestDispatcherCallback.Status.FINISHED, callback.dispatcherStatus.get());
+        }
+    }
+
+    public void testAsyncWrappedResponse() throws Exception {
+        URL url = getClass().getResource("applicationContext.xml");
+
+        try (FileSystemXmlApplicationContext context = new FileSystemXmlApplicationContext(
+                url.toString())) {
+            Dispatcher dispatcher = (Dispatcher) context.getBean("dispatcher");
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            dispatcher.setAsyncExecutor(executor);
+
+            // a filter wrapped the response, and the chain did not declare itself async aware
+            MockHttpServletRequest request = setupRequest();
+            request.setAsyncSupported(true);
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            dispatcher.handleRequest(request, new HttpServletResponseWrapper(response));
+            assertFalse(request.isAsyncStarted());
+            assertEquals("Hello world!", response.getContentAsString());
+
+            // the chain declares itself async aware
+            request = setupRequest();
+            request.setAsyncSupported(true);
+            request.setAttribute(Dispatcher.ASYNC_AWARE_FILTER_CHAIN, Boolean.TRUE);
+            response = new MockHttpServletResponse();
+            dispatcher.handleRequest(request, new HttpServletResponseWrapper(response));
+            assertTrue(request.isAsyncStarted());
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            assertEquals("Hello world!", response.getContentAsString());
+        }
+    }
+
+    public void testAsyncAwareWrappedResponse() throws Exception {
+        URL url = getClass().getResource("applicationContext.xml");
+
+        try (FileSystemXmlApplicationContext context = new FileSystemXmlApplicationContext(
+                url.toString())) {
+            Dispatcher dispatcher = (Dispatcher) context.getBean("dispatcher");
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            dispatcher.setAsyncExecutor(executor);
+
+            // a filter wrapped the response with an async aware wrapper
+            MockHttpServletRequest request = setupRequest();
+            request.setAsyncSupported(true);
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            dispatcher.handleRequest(request, new AsyncAwareResponseWrapper(response));
+            assertTrue(request.isAsyncStarted());
+
+            // one more wrapper, not async aware, forces synchronous processing
+            request = setupRequest();
+            request.setAsyncSupported(true);
+            MockHttpServletResponse syncResponse = new MockHttpServletResponse();
+            dispatcher.handleRequest(request, new HttpServletResponseWrapper(
+                    new AsyncAwareResponseWrapper(syncResponse)));
+            assertFalse(request.isAsyncStarted());
+            assertEquals("Hello world!", syncResponse.getContentAsString());
+
+            // unless its type gets registered
+            dispatcher.addAsyncAwareResponseType(HttpServletResponseWrapper.class);
+            request = setupRequest();
+            request.setAsyncSupported(true);
+            MockHttpServletResponse registeredResponse = new MockHttpServletResponse();
+            dispatcher.handleRequest(request, new HttpServletResponseWrapper(
+                    new AsyncAwareResponseWrapper(registeredResponse)));
+            assertTrue(request.isAsyncStarted());
+
+            // the chain can still opt out explicitly
+            request = setupRequest();
+            request.setAsyncSupported(true);
+            request.setAttribute(Dispatcher.ASYNC_AWARE_FILTER_CHAIN, Boolean.FALSE);
+            MockHttpServletResponse optOutResponse = new MockHttpServletResponse();
+            dispatcher.handleRequest(request, optOutResponse);
+            assertFalse(request.isAsyncStarted());
+            assertEquals("Hello world!", optOutResponse.getContentAsString());
+
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            assertEquals("Hello world!", response.getContentAsString());
+            assertEquals("Hello world!", registeredResponse.getContentAsString());
+        }
+    }
+
+    static class AsyncAwareResponseWrapper extends HttpServletResponseWrapper
+            implements AsyncAwareResponse {
+
+        public AsyncAwareResponseWrapper(HttpServletResponse response) {
+            super(response);
+        }
+    }
+
+    public void testAsyncTimeout() throws Exception {
+        URL url = getClass().getResource("applicationContext.xml");
+
+        try (FileSystemXmlApplicationContext context = new FileSystemXmlApplicationContext(
+                url.toString())) {
+            Dispatcher dispatcher = (Dispatcher) context.getBean("dispatcher");
+            // an executor that never gets to run the task
+            final AtomicReference<Runnable> queued = new AtomicReference<>();
+            dispatcher.setAsyncExecutor(command -> queued.set(command));
+
+            MockHttpServletRequest request = setupRequest();
+            request.setAsyncSupported(true);
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            dispatcher.handleRequest(request, response);
+            assertTrue(request.isAsyncStarted());
+
+            // the container times out the request
+            MockAsyncContext asyncContext = (MockAsyncContext) request.getAsyncContext();
+            for (AsyncListener listener : asyncContext.getListeners()) {
+                listener.onTimeout(new AsyncEvent(asyncContext, request, response));
+            }
+            assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, response.getStatus());
+            assertTrue(((Future<?>) queued.get()).isCancelled());
+
+            // a late run does not touch the response anymore
+            queued.get().run();
+            assertEquals("", response.getContentAsString());
+        }
+    }
 }
@@ -481,7 +481,63 @@ public class GeoServerExtensions implements ApplicationContextAware, Application
 
         return result;
     }
-    
+
+    /**
+     * Looks up a named integer property as {@link #getProperty(String)} does. Values are trimmed,
+     * a missing value returns the default, an invalid one is logged and returns the default.
+     *
+     * @param propertyName The property name to lookup
+     * @param defaultValue The value returned when the property is missing or invalid
+     */
+    public static int getIntProperty(String propertyName, int defaultValue) {
+        return getIntProperty(propertyName, defaultValue, Integer.MIN_VALUE);
+    }
+
+    /**
+     * Same as {@link #getIntProperty(String, int)}, values lower than <code>minValue</code> are
+     * considered invalid
+     */
+    public static int getIntProperty(String propertyName, int defaultValue, int minValue) {
+        return (int) getLongProperty(propertyName, defaultValue, minValue, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Looks up a named long property as {@link #getProperty(String)} does. Values are trimmed,
+     * a missing value returns the default, an invalid one is logged and returns the default.
+     *
+     * @param propertyName The property name to lookup
+     * @param defaultValue The value returned when the property is missing or invalid
+     */
+    public static long getLongProperty(String propertyName, long defaultValue) {
+        return getLongProperty(propertyName, defaultValue, Long.MIN_VALUE);
+    }
+
+    /**
+     * Same as {@link #getLongProperty(String, long)}, values lower than <code>minValue</code> are
+     * considered invalid
+     */
+    public static long getLongProperty(String propertyName, long defaultValue, long minValue) {
+        return getLongProperty(propertyName, defaultValue, minValue, Long.MAX_VALUE);
+    }
+
+    static long getLongProperty(String propertyName, long defaultValue, long minValue,
+            long maxValue) {
+        String value = getProperty(propertyName);
+        if (value != null) {
+            try {
+                long result = Long.parseLong(value.trim());
+                if (result >= minValue && result <= maxValue) {
+                    return result;
+                }
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+            LOGGER.warning("Invalid value for " + propertyName + ": '" + value
+                    + "', using the default " + defaultValue);
+        }
+        return defaultValue;
+    }
+
     /**
      * Search the context for indicated file.
      * 
@@ -0,0 +1,546 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.platform.resource;
+
+import static org.geoserver.platform.GeoServerExtensions.getLongProperty;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+import org.geoserver.platform.resource.Resource.Lock;
+import org.geoserver.platform.resource.Resource.Type;
+import org.geotools.util.logging.Logging;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * {@link ResourceStore} decorator caching resource metadata (type, last modification time,
+ * directory listings) and the contents of small resources, to cut down on the file system
+ * accesses of repeated lookups, which can be expensive on network file systems.
+ * <p>
+ * The cache is bounded by an estimate of its memory usage in bytes. Changes performed through this
+ * store invalidate the cache immediately, file and directory access only when they create the
+ * resource. Changes performed on the returned {@link File}, as well as external ones, are picked
+ * up via the store
+ * {@link ResourceNotificationDispatcher}, which needs to deliver events: the cache is not enabled
+ * when the store relies on the polling {@link FileSystemWatcher}, as watching the cached
+ * directories by polling them would defeat the purpose, and not watching them would leave
+ * external changes unnoticed until the cache entries expire.
+ * </p>
+ * <p>
+ * Used by {@link ResourceStoreFactory} when the {@value #CACHE_SIZE_PROPERTY}
+ * system/environment/servlet context variable is set to the cache size in megabytes, while
+ * {@value #CACHE_TTL_PROPERTY} controls the entries time to live in seconds (defaults to
+ * {@value #DEFAULT_TTL_SECONDS}).
+ * </p>
+ */
+public class CachingResourceStore implements ResourceStore {
+
+    static final Logger LOGGER = Logging.getLogger("org.geoserver.platform");
+
+    /**
+     * Property holding the cache size, in megabytes
+     */
+    public static final String CACHE_SIZE_PROPERTY = "GEOSERVER_RESOURCE_CACHE_SIZE";
+
+    /**
+     * Property holding the cache entries time to live, in seconds
+     */
+    public static final String CACHE_TTL_PROPERTY = "GEOSERVER_RESOURCE_CACHE_TTL";
+
+    static final int DEFAULT_TTL_SECONDS = 30;
+
+    /**
+     * Resources larger than this are never cached
+     */
+    static final int MAX_CONTENT_SIZE = 64 * 1024;
+
+    /**
+     * Max number of directories watched for invalidation
+     */
+    static final int MAX_WATCHED_DIRECTORIES = 1000;
+
+    enum EntryType {
+        STAT, LIST, CONTENTS
+    }
+
+    static final class Key {
+        final String path;
+
+        final EntryType type;
+
+        Key(String path, EntryType type) {
+            this.path = path;
+            this.type = type;
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode() * 31 + type.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return type == other.type && path.equals(other.path);
+        }
+
+        @Override
+        public String toString() {
+            return "Key [path=" + path + ", type=" + type + "]";
+        }
+    }
+
+    static final class Stat {
+        final Type type;
+
+        final long lastmodified;
+
+        Stat(Type type, long lastmodified) {
+            this.type = type;
+            this.lastmodified = lastmodified;
+        }
+    }
+
+    final ResourceStore delegate;
+
+    final Cache<Key, Object> cache;
+
+    final long maxBytes;
+
+    /**
+     * Incremented at each invalidation, used to avoid caching values loaded before an
+     * invalidation
+     */
+    final AtomicLong generation = new AtomicLong();
+
+    final Set<String> watched = ConcurrentHashMap.newKeySet();
+
+    final ResourceListener invalidator = notification -> invalidate(notification.getPath());
+
+    /**
+     * Wraps the store into a caching one if {@value #CACHE_SIZE_PROPERTY} is set and the store
+     * notification dispatcher delivers events, returns it as is otherwise
+     */
+    public static ResourceStore wrap(ResourceStore store) {
+        long size = getLongProperty(CACHE_SIZE_PROPERTY, 0);
+        if (size <= 0 || store == null) {
+            return store;
+        }
+        ResourceNotificationDispatcher dispatcher = store.getResourceNotificationDispatcher();
+        if (dispatcher == null || dispatcher instanceof FileSystemWatcher) {
+            LOGGER.warning("Resource cache requested, but the resource store does not deliver "
+                    + "change events (see " + WatchServiceResourceNotificationDispatcher.WATCHER_PROPERTY
+                    + "), the cache will not be enabled");
+            return store;
+        }
+        LOGGER.config("Enabling resource cache, size " + size + "MB");
+        return new CachingResourceStore(store, size * 1024 * 1024,
+                getLongProperty(CACHE_TTL_PROPERTY, DEFAULT_TTL_SECONDS));
+    }
+
+    public CachingResourceStore(ResourceStore delegate, long maxBytes, long ttlSeconds) {
+        this.delegate = delegate;
+        this.maxBytes = maxBytes;
+        CacheBuilder<Key, Object> builder = CacheBuilder.newBuilder().maximumWeight(maxBytes)
+                .weigher(CachingResourceStore::weight).recordStats();
+        if (ttlSeconds > 0) {
+            builder.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS);
+        }
+        this.cache = builder.build();
+    }
+
+    /**
+     * Rough estimate of the memory used by a cache entry
+     */
+    static int weight(Key key, Object value) {
+        int weight = 64 + key.path.length() * 2;
+        if (value instanceof byte[]) {
+            weight += ((byte[]) value).length;
+        } else if (value instanceof List) {
+            for (Object path : (List<?>) value) {
+                weight += 48 + ((String) path).length() * 2;
+            }
+        } else {
+            weight += 32;
+        }
+        return weight;
+    }
+
+    public ResourceStore getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Returns the cache statistics, hit and miss counts in particular
+     */
+    public CacheStats getStatistics() {
+        return cache.stats();
+    }
+
+    /**
+     * Returns the number of cached entries
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Returns the max size of the cache, in bytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Removes all the cached entries
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    /**
+     * Removes the cached entries of the specified path, its children, and its parent directory
+     */
+    void invalidate(String path) {
+        generation.incrementAndGet();
+        if (path == null || Paths.BASE.equals(path)) {
+            cache.invalidateAll();
+            return;
+        }
+        String prefix = path + "/";
+        cache.asMap().keySet().removeIf(k -> k.path.equals(path) || k.path.startsWith(prefix));
+        String parent = Paths.parent(path);
+        if (parent != null) {
+            cache.invalidate(new Key(parent, EntryType.STAT));
+            cache.invalidate(new Key(parent, EntryType.LIST));
+        }
+    }
+
+    /**
+     * Removes the cached entries affected by the creation of the specified path, which might
+     * have created its missing ancestors as well. Unlike {@link #invalidate(String)} this does not
+     * scan the cache, a newly created resource has no cached children
+     */
+    void invalidateCreated(String path) {
+        generation.incrementAndGet();
+        cache.invalidate(new Key(path, EntryType.STAT));
+        cache.invalidate(new Key(path, EntryType.LIST));
+        cache.invalidate(new Key(path, EntryType.CONTENTS));
+        String parent = Paths.parent(path);
+        while (parent != null) {
+            Stat stat = getCached(parent, EntryType.STAT);
+            cache.invalidate(new Key(parent, EntryType.LIST));
+            if (stat != null && stat.type == Type.DIRECTORY) {
+                // existed already, only its contents changed
+                return;
+            }
+            cache.invalidate(new Key(parent, EntryType.STAT));
+            parent = Paths.parent(parent);
+        }
+    }
+
+    <T> T getCached(String path, EntryType type) {
+        @SuppressWarnings("unchecked")
+        T value = (T) cache.getIfPresent(new Key(path, type));
+        return value;
+    }
+
+    void putCached(String path, EntryType type, Object value, long loadGeneration) {
+        // directory listings change with the directory contents, everything else with the
+        // parent directory contents, entries beyond the watched directories limit are not cached
+        if (generation.get() == loadGeneration
+                && watch(type == EntryType.LIST ? path : Paths.parent(path))) {
+            cache.put(new Key(path, type), value);
+        }
+    }
+
+    /**
+     * Watches the directory for changes, returns false if the max number of watched directories
+     * has been reached. Stores whose dispatcher does not deliver events are not wrapped by
+     * {@link #wrap(ResourceStore)} in the first place, so they are not reported here.
+     */
+    private boolean watch(String directory) {
+        if (directory == null || watched.contains(directory)) {
+            return true;
+        }
+        if (watched.size() >= MAX_WATCHED_DIRECTORIES) {
+            return false;
+        }
+        ResourceNotificationDispatcher dispatcher = delegate.getResourceNotificationDispatcher();
+        if (dispatcher != null && !(dispatcher instanceof FileSystemWatcher)
+                && watched.add(directory)) {
+            dispatcher.addListener(directory, invalidator);
+        }
+        return true;
+    }
+
+    @Override
+    public Resource get(String path) {
+        return new CachingResource(delegate.get(path));
+    }
+
+    @Override
+    public boolean remove(String path) {
+        try {
+            return delegate.remove(path);
+        } finally {
+            invalidate(path);
+        }
+    }
+
+    @Override
+    public boolean move(String path, String target) {
+        try {
+            return delegate.move(path, target);
+        } finally {
+            invalidate(path);
+            invalidate(target);
+        }
+    }
+
+    @Override
+    public ResourceNotificationDispatcher getResourceNotificationDispatcher() {
+        return delegate.getResourceNotificationDispatcher();
+    }
+
+    @Override
+    public String toString() {
+        return "CachingResourceStore [delegate=" + delegate + "]";
+    }
+
+    /**
+     * Resource serving metadata and contents from the cache when possible
+     */
+    class CachingResource implements Resource {
+
+        final Resource delegate;
+
+        CachingResource(Resource delegate) {
+            this.delegate = delegate;
+        }
+
+        Stat stat() {
+            String path = delegate.path();
+            Stat stat = getCached(path, EntryType.STAT);
+            if (stat == null) {
+                long loadGeneration = generation.get();
+                stat = new Stat(delegate.getType(), delegate.lastmodified());
+                putCached(path, EntryType.STAT, stat, loadGeneration);
+            }
+            return stat;
+        }
+
+        @Override
+        public String path() {
+            return delegate.path();
+        }
+
+        @Override
+        public String name() {
+            return delegate.name();
+        }
+
+        @Override
+        public Lock lock() {
+            return delegate.lock();
+        }
+
+        @Override
+        public void addListener(ResourceListener listener) {
+            delegate.addListener(listener);
+        }
+
+        @Override
+        public void removeListener(ResourceListener listener) {
+            delegate.removeListener(listener);
+        }
+
+        @Override
+        public InputStream in() {
+            String path = delegate.path();
+            byte[] contents = getCached(path, EntryType.CONTENTS);
+            if (contents != null) {
+                return new ByteArrayInputStream(contents);
+            }
+
+            long loadGeneration = generation.get();
+            InputStream in = delegate.in();
+            try {
+                // read up to the max cacheable size, if there is more just return the stream
+                byte[] buffer = new byte[MAX_CONTENT_SIZE + 1];
+                int read = IOUtils.read(in, buffer);
+                if (read > MAX_CONTENT_SIZE) {
+                    return new SequenceInputStream(new ByteArrayInputStream(buffer), in);
+                }
+                in.close();
+                contents = Arrays.copyOf(buffer, read);
+                putCached(path, EntryType.CONTENTS, contents, loadGeneration);
+                return new ByteArrayInputStream(contents);
+            } catch (IOException e) {
+                IOUtils.closeQuietly(in);
+                throw new IllegalStateException("Failed to read " + path, e);
+            }
+        }
+
+        @Override
+        public OutputStream out() {
+            invalidate(delegate.path());
+            return new FilterOutputStream(delegate.out()) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        invalidate(delegate.path());
+                    }
+                }
+            };
+        }
+
+        /**
+         * File and directory access create the resource when missing, in which case the cached
+         * entries are invalidated. Modifications performed through the returned file are
+         * delivered by the notification dispatcher, as the cached entries parent directories are
+         * watched
+         */
+        @Override
+        public File file() {
+            boolean exists = stat().type == Type.RESOURCE;
+            try {
+                return delegate.file();
+            } finally {
+                if (!exists) {
+                    invalidateCreated(delegate.path());
+                }
+            }
+        }
+
+        @Override
+        public File dir() {
+            boolean exists = stat().type == Type.DIRECTORY;
+            try {
+                return delegate.dir();
+            } finally {
+                if (!exists) {
+                    invalidateCreated(delegate.path());
+                }
+            }
+        }
+
+        @Override
+        public long lastmodified() {
+            return stat().lastmodified;
+        }
+
+        @Override
+        public Resource parent() {
+            Resource parent = delegate.parent();
+            return parent != null ? new CachingResource(parent) : null;
+        }
+
+        @Override
+        public Resource get(String resourcePath) {
+            return new CachingResource(delegate.get(resourcePath));
+        }
+
+        @Override
+        public List<Resource> list() {
+            String path = delegate.path();
+            List<String> paths = getCached(path, EntryType.LIST);
+            if (paths == null) {
+                long loadGeneration = generation.get();
+                List<Resource> children = delegate.list();
+                paths = new ArrayList<String>(children.size());
+                for (Resource child : children) {
+                    paths.add(child.path());
+                }
+                putCached(path, EntryType.LIST, paths, loadGeneration);
+            }
+            List<Resource> result = new ArrayList<Resource>(paths.size());
+            for (String child : paths) {
+                result.add(CachingResourceStore.this.get(child));
+            }
+            return result;
+        }
+
+        @Override
+        public Type getType() {
+            return stat().type;
+        }
+
+        @Override
+        public boolean delete() {
+            try {
+                return delegate.delete();
+            } finally {
+                invalidate(delegate.path());
+            }
+        }
+
+        @Override
+        public boolean renameTo(Resource dest) {
+            Resource target = dest instanceof CachingResource ? ((CachingResource) dest).delegate
+                    : dest;
+            try {
+                return delegate.renameTo(target);
+            } finally {
+                invalidate(delegate.path());
+                invalidate(target.path());
+            }
+        }
+
+        CachingResourceStore getStore() {
+            return CachingResourceStore.this;
+        }
+
+        @Override
+        public int hashCode() {
+            return delegate.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            CachingResource other = (CachingResource) obj;
+            return getStore() == other.getStore() && delegate.equals(other.delegate);
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+}
@@ -25,11 +25,12 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.geotools.util.logging.Logging;
+import org.springframework.beans.factory.DisposableBean;
 
 /**
  * Implementation of ResourceStore backed by the file system.
  */
-public class FileSystemResourceStore implements ResourceStore {
+public class FileSystemResourceStore implements ResourceStore, DisposableBean {
     
     static final Logger LOGGER = Logging.getLogger(FileSystemResource.class);
     
@@ -47,6 +48,8 @@ public class FileSystemResourceStore implements ResourceStore {
 
     protected FileSystemWatcher watcher;
 
+    protected WatchServiceResourceNotificationDispatcher nativeWatcher;
+
     protected FileSystemResourceStore(){
         // Used by Spring, baseDirectory set by subclass
     }
@@ -493,6 +496,16 @@ public class FileSystemResourceStore implements ResourceStore {
                 LOGGER.log(Level.FINE, "Cannot rename a resource to a descendant of itself");
                 return false;
             }
+            if (dest instanceof CachingResourceStore.CachingResource) {
+                // rename on the wrapped resource, then let the cache know
+                CachingResourceStore.CachingResource caching =
+                        (CachingResourceStore.CachingResource) dest;
+                try {
+                    return renameTo(caching.delegate);
+                } finally {
+                    caching.getStore().invalidate(caching.path());
+                }
+            }
             try {
                 if(dest instanceof FileSystemResource) {
                     rename(file, ((FileSystemResource)dest).file);
@@ -548,7 +561,7 @@ public class FileSystemResourceStore implements ResourceStore {
     }
 
     @Override
-    public ResourceNotificationDispatcher getResourceNotificationDispatcher() {
+    public synchronized ResourceNotificationDispatcher getResourceNotificationDispatcher() {
         if( watcher == null ){
             watcher = new FileSystemWatcher(new FileSystemWatcher.FileExtractor() {
 
@@ -558,7 +571,27 @@ public class FileSystemResourceStore implements ResourceStore {
                 }
                 
             });
+            if (WatchServiceResourceNotificationDispatcher.isEnabled()) {
+                // the polling watcher becomes the fallback for what cannot be watched natively
+                nativeWatcher = new WatchServiceResourceNotificationDispatcher(baseDirectory,
+                        watcher);
+            }
+        }
+        return nativeWatcher != null ? nativeWatcher : watcher;
+    }
+
+    /**
+     * Shuts down the threads of the notification dispatcher, if one has been started
+     */
+    @Override
+    public synchronized void destroy() throws Exception {
+        if (nativeWatcher != null) {
+            // also destroys the polling watcher it falls back onto
+            nativeWatcher.destroy();
+        } else if (watcher != null) {
+            watcher.destroy();
         }
-        return watcher;
+        nativeWatcher = null;
+        watcher = null;
     }
 }
@@ -220,7 +220,16 @@ public final class Files {
 
         @Override
         public boolean renameTo(Resource dest) {
-            if(dest instanceof FileSystemResourceStore.FileSystemResource) {
+            if (dest instanceof CachingResourceStore.CachingResource) {
+                // rename on the wrapped resource, then let the cache know
+                CachingResourceStore.CachingResource caching =
+                        (CachingResourceStore.CachingResource) dest;
+                try {
+                    return renameTo(caching.delegate);
+                } finally {
+                    caching.getStore().invalidate(caching.path());
+                }
+            } else if(dest instanceof FileSystemResourceStore.FileSystemResource) {
                 return file.renameTo(((FileSystemResourceStore.FileSystemResource)dest).file);
             } else if(dest instanceof ResourceAdaptor) {
                     return file.renameTo(((ResourceAdaptor)dest).file);
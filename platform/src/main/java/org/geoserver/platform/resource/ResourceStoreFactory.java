@@ -43,7 +43,8 @@ public class ResourceStoreFactory implements FactoryBean<ResourceStore>, Applica
                     "dataDirectoryResourceStore", applicationContext);
         }
 
-        return resourceStore;
+        // optionally cache metadata and small resources
+        return CachingResourceStore.wrap(resourceStore);
     }
 
     @Override
@@ -84,6 +84,9 @@ public class Resources {
         if (resource instanceof SerializableResourceWrapper) {
             resource = ((SerializableResourceWrapper) resource).delegate;
         }
+        if (resource instanceof CachingResourceStore.CachingResource) {
+            resource = ((CachingResourceStore.CachingResource) resource).delegate;
+        }
         if (resource instanceof FileSystemResourceStore.FileSystemResource || 
                 resource instanceof Files.ResourceAdaptor) {
             //this is a file based resource, just check the file
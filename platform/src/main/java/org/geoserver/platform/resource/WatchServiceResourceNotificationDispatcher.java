@@ -0,0 +1,495 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.platform.resource;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.resource.ResourceNotification.Kind;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Resource notification dispatcher receiving file system events from a
+ * {@link java.nio.file.WatchService}, instead of polling the file system like
+ * {@link FileSystemWatcher} does.
+ * <p>
+ * Directories are registered with the watch service only once a listener subscribes to them (or
+ * to a file they contain), and released when the last listener goes away. Events are debounced,
+ * a notification is sent once no further change has been seen for a short quiet period, coalescing
+ * all the changes of a burst into a single notification per watched path (a never ending burst is
+ * still notified every {@value #MAX_DEBOUNCE_FACTOR} quiet periods). As with {@link FileSystemWatcher}, directory listeners are notified of changes to
+ * the directory direct children.
+ * </p>
+ * <p>
+ * Polling, via a delegate {@link FileSystemWatcher}, is used when the file system does not deliver
+ * events (no watch service support, or a watch service that polls on its own), or the directory to
+ * register does not exist yet. A directory watched before being created is registered with the
+ * watch service as soon as its creation is seen in its parent. Paths that fell back on polling
+ * are periodically registered again with the watch service, and go back to native watching as
+ * soon as that succeeds.
+ * </p>
+ * <p>
+ * This dispatcher is used by {@link FileSystemResourceStore} when the {@value #WATCHER_PROPERTY}
+ * system/environment/servlet context variable is set to {@value #WATCHER_NATIVE}.
+ * </p>
+ */
+public class WatchServiceResourceNotificationDispatcher implements ResourceNotificationDispatcher,
+        DisposableBean {
+
+    static final Logger LOGGER = Logger.getLogger(
+            WatchServiceResourceNotificationDispatcher.class.getPackage().getName());
+
+    /**
+     * Property selecting the file system watcher implementation
+     */
+    public static final String WATCHER_PROPERTY = "GEOSERVER_RESOURCE_WATCHER";
+
+    /**
+     * Value of {@link #WATCHER_PROPERTY} enabling this dispatcher
+     */
+    public static final String WATCHER_NATIVE = "native";
+
+    static final long DEFAULT_DEBOUNCE_MS = 500;
+
+    /**
+     * Max wait for a notification, in quiet periods, when changes keep on coming
+     */
+    static final int MAX_DEBOUNCE_FACTOR = 10;
+
+    static final long DEFAULT_RETRY_MS = 10000;
+
+    /**
+     * Record of the listeners interested in a path, along with the changes not yet notified
+     */
+    private class Watch {
+        final File file;
+
+        final String path;
+
+        final List<ResourceListener> listeners = new CopyOnWriteArrayList<ResourceListener>();
+
+        /** Directory registered with the watch service for this watch */
+        Path directory;
+
+        /** Pending changes to the directory children, by file */
+        Map<File, Kind> pending = new LinkedHashMap<File, Kind>();
+
+        /** Pending change to the watched resource itself */
+        Kind kind;
+
+        /** The scheduled notification, restarted on each change */
+        ScheduledFuture<?> notification;
+
+        /** Time of the first change not yet notified */
+        long firstChange;
+
+        Watch(File file, String path) {
+            this.file = file;
+            this.path = path;
+        }
+
+        boolean isDirectoryWatch() {
+            return directory != null && directory.equals(file.toPath());
+        }
+    }
+
+    private static CustomizableThreadFactory tFactory;
+    static {
+        tFactory = new CustomizableThreadFactory("WatchServiceDispatcher-");
+        tFactory.setDaemon(true);
+    }
+
+    private File baseDirectory;
+
+    private FileSystemWatcher polling;
+
+    private WatchService watchService;
+
+    private Thread watchThread;
+
+    private ScheduledExecutorService scheduler;
+
+    private long debounce = DEFAULT_DEBOUNCE_MS;
+
+    /** Watches receiving events from the watch service, by path */
+    private Map<String, Watch> watches = new HashMap<String, Watch>();
+
+    /** Registered directories, along with the number of watches using them */
+    private Map<Path, WatchKey> keys = new HashMap<Path, WatchKey>();
+
+    private Map<Path, Integer> keyUsage = new HashMap<Path, Integer>();
+
+    /** Listeners handed over to the polling watcher that could be watched natively later, by path */
+    private Map<String, List<ResourceListener>> polled = new HashMap<String, List<ResourceListener>>();
+
+    /**
+     * Returns true if this dispatcher has been selected via {@value #WATCHER_PROPERTY}
+     */
+    public static boolean isEnabled() {
+        return WATCHER_NATIVE.equalsIgnoreCase(GeoServerExtensions.getProperty(WATCHER_PROPERTY));
+    }
+
+    /**
+     * Creates a new dispatcher
+     *
+     * @param baseDirectory The directory resource paths are relative to
+     * @param polling The watcher to fall back onto for paths that cannot be watched natively
+     */
+    WatchServiceResourceNotificationDispatcher(File baseDirectory, FileSystemWatcher polling) {
+        this.baseDirectory = baseDirectory;
+        this.polling = polling;
+        try {
+            WatchService service = FileSystems.getDefault().newWatchService();
+            // the JDK falls back on polling by itself on platforms lacking native events,
+            // with less control than our own polling, so use the latter instead
+            if (service.getClass().getName().contains("Polling")) {
+                LOGGER.info("File system does not deliver events, falling back on polling");
+                service.close();
+            } else {
+                this.watchService = service;
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.log(Level.INFO, "Watch service not available, falling back on polling", e);
+        }
+        if (watchService != null) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(tFactory);
+            this.watchThread = tFactory.newThread(this::processEvents);
+            this.watchThread.start();
+            this.scheduler.scheduleWithFixedDelay(this::retryNative, DEFAULT_RETRY_MS,
+                    DEFAULT_RETRY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Package visibility to allow test cases to set a shorter debounce time
+     */
+    void setDebounce(long debounce, TimeUnit unit) {
+        this.debounce = unit.toMillis(debounce);
+    }
+
+    @Override
+    public synchronized void addListener(String path, ResourceListener listener) {
+        if (path == null) {
+            throw new NullPointerException("Path for notification is required");
+        }
+        Watch watch = watches.get(path);
+        if (watch == null) {
+            File file = Paths.toFile(baseDirectory, path);
+            Path directory = null;
+            if (watchService != null) {
+                directory = register(file.isDirectory() ? file : file.getParentFile());
+            }
+            if (directory == null) {
+                poll(path, listener);
+                return;
+            }
+            watch = new Watch(file, path);
+            watch.directory = directory;
+            watches.put(path, watch);
+        }
+        watch.listeners.add(listener);
+    }
+
+    @Override
+    public synchronized boolean removeListener(String path, ResourceListener listener) {
+        if (path == null) {
+            throw new NullPointerException("Path for notification is required");
+        }
+        Watch watch = watches.get(path);
+        if (watch == null) {
+            List<ResourceListener> listeners = polled.get(path);
+            if (listeners != null && listeners.remove(listener) && listeners.isEmpty()) {
+                polled.remove(path);
+            }
+            return polling.removeListener(path, listener);
+        }
+        watch.listeners.remove(listener);
+        if (watch.listeners.isEmpty()) {
+            watches.remove(path);
+            unregister(watch.directory);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Hands over the listener to the polling watcher, keeping track of it to attempt native
+     * watching again later
+     */
+    private void poll(String path, ResourceListener listener) {
+        polling.addListener(path, listener);
+        if (watchService != null) {
+            polled.computeIfAbsent(path, p -> new ArrayList<ResourceListener>()).add(listener);
+        }
+    }
+
+    /**
+     * Moves back onto the watch service the paths that fell back on polling, if their directory
+     * can be registered now
+     */
+    synchronized void retryNative() {
+        try {
+            for (Iterator<Map.Entry<String, List<ResourceListener>>> it = polled.entrySet()
+                    .iterator(); it.hasNext();) {
+                Map.Entry<String, List<ResourceListener>> entry = it.next();
+                String path = entry.getKey();
+                File file = Paths.toFile(baseDirectory, path);
+                Path directory = register(file.isDirectory() ? file : file.getParentFile());
+                if (directory == null) {
+                    continue;
+                }
+                it.remove();
+                Watch watch = new Watch(file, path);
+                watch.directory = directory;
+                for (ResourceListener listener : entry.getValue()) {
+                    polling.removeListener(path, listener);
+                    watch.listeners.add(listener);
+                }
+                watches.put(path, watch);
+                LOGGER.fine("Watching " + path + " natively again");
+            }
+        } catch (Exception e) {
+            // keep the periodic retry alive
+            LOGGER.log(Level.WARNING, "Failed to move polled paths back to native watching", e);
+        }
+    }
+
+    /**
+     * Registers the directory with the watch service, returns null if that's not possible
+     */
+    private Path register(File directory) {
+        if (directory == null || !directory.isDirectory()) {
+            return null;
+        }
+        Path path = directory.toPath();
+        if (!keys.containsKey(path)) {
+            try {
+                keys.put(path, path.register(watchService, ENTRY_CREATE, ENTRY_DELETE,
+                        ENTRY_MODIFY));
+            } catch (IOException | UnsupportedOperationException e) {
+                LOGGER.log(Level.FINE, "Cannot watch " + directory + ", will poll it instead", e);
+                return null;
+            }
+        }
+        keyUsage.merge(path, 1, Integer::sum);
+        return path;
+    }
+
+    private void unregister(Path directory) {
+        Integer usage = keyUsage.merge(directory, -1, Integer::sum);
+        if (usage != null && usage <= 0) {
+            keyUsage.remove(directory);
+            WatchKey key = keys.remove(directory);
+            if (key != null) {
+                key.cancel();
+            }
+        }
+    }
+
+    private void processEvents() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path directory = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    // events got lost, let the directory listeners know something changed
+                    changed(directory, directory, Kind.ENTRY_MODIFY);
+                } else {
+                    Path child = directory.resolve((Path) event.context());
+                    changed(directory, child, toKind(event.kind()));
+                }
+            }
+            if (!key.reset()) {
+                // the directory is gone, poll it until it comes back
+                changed(directory, directory, Kind.ENTRY_DELETE);
+                fallback(directory, key);
+            }
+        }
+    }
+
+    /**
+     * Moves the watches of a directory that cannot be watched anymore onto the polling watcher
+     */
+    private synchronized void fallback(Path directory, WatchKey key) {
+        if (!keys.remove(directory, key)) {
+            return;
+        }
+        keyUsage.remove(directory);
+        for (Iterator<Watch> it = watches.values().iterator(); it.hasNext();) {
+            Watch watch = it.next();
+            if (directory.equals(watch.directory)) {
+                it.remove();
+                for (ResourceListener listener : watch.listeners) {
+                    poll(watch.path, listener);
+                }
+            }
+        }
+    }
+
+    private Kind toKind(WatchEvent.Kind<?> kind) {
+        if (kind == ENTRY_CREATE) {
+            return Kind.ENTRY_CREATE;
+        } else if (kind == ENTRY_DELETE) {
+            return Kind.ENTRY_DELETE;
+        }
+        return Kind.ENTRY_MODIFY;
+    }
+
+    /**
+     * Queues the change for all interested watches
+     */
+    private synchronized void changed(Path directory, Path child, Kind kind) {
+        File childFile = child.toFile();
+        for (Watch watch : watches.values()) {
+            if (!directory.equals(watch.directory)) {
+                continue;
+            }
+            synchronized (watch) {
+                if (watch.file.equals(childFile)) {
+                    // change to the watched resource itself
+                    watch.kind = merge(watch.kind, kind);
+                    if (kind == Kind.ENTRY_CREATE && !watch.isDirectoryWatch()
+                            && childFile.isDirectory()) {
+                        watchCreatedDirectory(watch);
+                    }
+                } else if (watch.isDirectoryWatch()) {
+                    watch.pending.put(childFile, merge(watch.pending.get(childFile), kind));
+                } else {
+                    continue;
+                }
+                // restart the quiet period, up to the max wait since the first change
+                long now = System.currentTimeMillis();
+                if (watch.notification == null) {
+                    watch.firstChange = now;
+                } else {
+                    watch.notification.cancel(false);
+                }
+                long deadline = watch.firstChange + debounce * MAX_DEBOUNCE_FACTOR;
+                long delay = Math.max(0, Math.min(debounce, deadline - now));
+                watch.notification = scheduler.schedule(() -> notify(watch), delay,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Moves a watch registered on the parent of a directory that did not exist yet onto the
+     * directory itself, now that it has been created, so that its children changes are seen too.
+     * The children created before the registration are reported as created.
+     */
+    private void watchCreatedDirectory(Watch watch) {
+        Path directory = register(watch.file);
+        if (directory == null) {
+            return;
+        }
+        unregister(watch.directory);
+        watch.directory = directory;
+        File[] children = watch.file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                watch.pending.put(child, Kind.ENTRY_CREATE);
+            }
+        }
+    }
+
+    /**
+     * Coalesces two subsequent changes to the same file
+     */
+    private Kind merge(Kind previous, Kind current) {
+        if (previous == Kind.ENTRY_CREATE && current == Kind.ENTRY_MODIFY) {
+            return Kind.ENTRY_CREATE;
+        } else if (previous == Kind.ENTRY_DELETE && current == Kind.ENTRY_CREATE) {
+            return Kind.ENTRY_MODIFY;
+        }
+        return current;
+    }
+
+    private void notify(Watch watch) {
+        ResourceNotification notification;
+        synchronized (watch) {
+            watch.notification = null;
+            if (watch.kind == null && watch.pending.isEmpty()) {
+                // already notified by a run that could not be cancelled in time
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if (watch.kind != null && !watch.isDirectoryWatch()) {
+                notification = new ResourceNotification(watch.path, watch.kind, now, null);
+            } else {
+                List<File> created = new ArrayList<File>();
+                List<File> removed = new ArrayList<File>();
+                List<File> modified = new ArrayList<File>();
+                for (Map.Entry<File, Kind> entry : watch.pending.entrySet()) {
+                    if (entry.getValue() == Kind.ENTRY_CREATE) {
+                        created.add(entry.getKey());
+                    } else if (entry.getValue() == Kind.ENTRY_DELETE) {
+                        removed.add(entry.getKey());
+                    } else {
+                        modified.add(entry.getKey());
+                    }
+                }
+                Kind kind = watch.kind != null ? watch.kind : Kind.ENTRY_MODIFY;
+                notification = new ResourceNotification(watch.path, kind, now,
+                        ResourceNotification.delta(watch.file, created, removed, modified));
+            }
+            watch.kind = null;
+            watch.pending = new LinkedHashMap<File, Kind>();
+        }
+
+        for (ResourceListener listener : watch.listeners) {
+            try {
+                listener.changed(notification);
+            } catch (Throwable t) {
+                Logger logger = Logger.getLogger(listener.getClass().getPackage().getName());
+                logger.log(Level.FINE, "Unable to notify " + watch.path + ":" + t.getMessage(), t);
+            }
+        }
+    }
+
+    @Override
+    public void changed(ResourceNotification notification) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (watchService != null) {
+            watchService.close();
+            scheduler.shutdown();
+        }
+        polling.destroy();
+    }
+}
@@ -283,4 +283,25 @@ public class GeoServerExtensionsTest {
         assertEquals("WWW", GeoServerExtensions.getProperty("WEB_PROPERTY", servletContext));
     }
 
+    @Test
+    public void testNumericProperties() {
+        System.setProperty("TEST_INT_PROPERTY", " 42 ");
+        System.setProperty("TEST_INVALID_PROPERTY", "abc");
+        System.setProperty("TEST_NEGATIVE_PROPERTY", "-1");
+        try {
+            assertEquals(42, GeoServerExtensions.getIntProperty("TEST_INT_PROPERTY", 10));
+            assertEquals(42L, GeoServerExtensions.getLongProperty("TEST_INT_PROPERTY", 10));
+            assertEquals(10, GeoServerExtensions.getIntProperty("TEST_MISSING_PROPERTY", 10));
+            assertEquals(10, GeoServerExtensions.getIntProperty("TEST_INVALID_PROPERTY", 10));
+            assertEquals(-1, GeoServerExtensions.getIntProperty("TEST_NEGATIVE_PROPERTY", 10));
+            assertEquals(10, GeoServerExtensions.getIntProperty("TEST_NEGATIVE_PROPERTY", 10, 0));
+            assertEquals(10L,
+                    GeoServerExtensions.getLongProperty("TEST_NEGATIVE_PROPERTY", 10, 1));
+        } finally {
+            System.clearProperty("TEST_INT_PROPERTY");
+            System.clearProperty("TEST_INVALID_PROPERTY");
+            System.clearProperty("TEST_NEGATIVE_PROPERTY");
+        }
+    }
+
 }
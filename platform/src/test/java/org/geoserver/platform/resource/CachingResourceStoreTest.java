@@ -0,0 +1,195 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.platform.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.geoserver.platform.resource.Resource.Type;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CachingResourceStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    CachingResourceStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        File dir = folder.newFolder("DirA");
+        FileUtils.writeStringToFile(new File(dir, "FileB"), "contents", StandardCharsets.UTF_8);
+        store = new CachingResourceStore(new FileSystemResourceStore(folder.getRoot()),
+                1024 * 1024, 0);
+    }
+
+    String read(Resource resource) throws Exception {
+        try (InputStream in = resource.in()) {
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void testContentsCached() throws Exception {
+        Resource resource = store.get("DirA/FileB");
+        assertEquals("contents", read(resource));
+        assertEquals(0, store.getStatistics().hitCount());
+        assertEquals("contents", read(resource));
+        assertEquals(1, store.getStatistics().hitCount());
+
+        // external changes are not seen until the cache is cleared
+        FileUtils.writeStringToFile(store.getDelegate().get("DirA/FileB").file(), "external",
+                StandardCharsets.UTF_8);
+        assertEquals("contents", read(resource));
+        store.clear();
+        assertEquals("external", read(resource));
+    }
+
+    @Test
+    public void testWriteInvalidates() throws Exception {
+        Resource resource = store.get("DirA/FileB");
+        assertEquals("contents", read(resource));
+        try (OutputStream out = resource.out()) {
+            out.write("updated".getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals("updated", read(resource));
+    }
+
+    @Test
+    public void testMetadataCached() throws Exception {
+        Resource dir = store.get("DirA");
+        assertEquals(Type.DIRECTORY, dir.getType());
+        assertEquals(1, dir.list().size());
+        assertEquals(Type.DIRECTORY, dir.getType());
+        assertEquals(1, dir.list().size());
+        assertEquals(2, store.getStatistics().hitCount());
+
+        // creating a child updates the parent listing
+        Resource child = store.get("DirA/FileC");
+        assertEquals(Type.UNDEFINED, child.getType());
+        try (OutputStream out = child.out()) {
+            out.write("new".getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(Type.RESOURCE, child.getType());
+        assertEquals(2, dir.list().size());
+
+        // and so does removing it
+        assertTrue(child.delete());
+        assertEquals(Type.UNDEFINED, child.getType());
+        assertEquals(1, dir.list().size());
+    }
+
+    @Test
+    public void testRemoveDirectory() throws Exception {
+        Resource file = store.get("DirA/FileB");
+        assertEquals("contents", read(file));
+        assertTrue(store.remove("DirA"));
+        assertEquals(Type.UNDEFINED, file.getType());
+        assertFalse(Resources.exists(file));
+    }
+
+    @Test
+    public void testSizeBound() throws Exception {
+        CachingResourceStore small = new CachingResourceStore(
+                new FileSystemResourceStore(folder.getRoot()), 200, 0);
+        byte[] data = new byte[1000];
+        for (int i = 0; i < 5; i++) {
+            Resource resource = small.get("DirA/File" + i);
+            try (OutputStream out = resource.out()) {
+                out.write(data);
+            }
+            resource.in().close();
+        }
+        assertTrue(small.size() < 5);
+    }
+
+    @Test
+    public void testFileAccess() throws Exception {
+        Resource resource = store.get("DirA/FileB");
+        assertEquals("contents", read(resource));
+
+        // accessing an existing file does not invalidate the cache
+        resource.file();
+        assertEquals("contents", read(resource));
+        assertEquals(1, store.getStatistics().hitCount());
+
+        // creating a file or directory through file access does
+        Resource dir = store.get("DirA");
+        assertEquals(1, dir.list().size());
+        assertTrue(store.get("DirA/FileD").file().exists());
+        assertEquals(2, dir.list().size());
+        assertTrue(store.get("DirA/DirE/FileF").file().exists());
+        assertEquals(3, dir.list().size());
+        assertEquals(Type.DIRECTORY, store.get("DirA/DirE").getType());
+        assertTrue(store.get("DirA/DirG").dir().isDirectory());
+        assertEquals(4, dir.list().size());
+    }
+
+    @Test
+    public void testRenameFromFile() throws Exception {
+        Resource dir = store.get("DirA");
+        assertEquals(1, dir.list().size());
+        File source = folder.newFile("FileH");
+        FileUtils.writeStringToFile(source, "renamed", StandardCharsets.UTF_8);
+
+        // the caching wrapper is unwrapped, and its entries invalidated
+        Resource target = store.get("DirA/FileH");
+        assertEquals(Type.UNDEFINED, target.getType());
+        assertTrue(Files.asResource(source).renameTo(target));
+        assertFalse(source.exists());
+        assertEquals(Type.RESOURCE, target.getType());
+        assertEquals("renamed", read(target));
+        assertEquals(2, dir.list().size());
+    }
+
+    @Test
+    public void testEquals() throws Exception {
+        Resource resource = store.get("DirA/FileB");
+        assertEquals(resource, store.get("DirA/FileB"));
+        assertEquals(resource.hashCode(), store.get("DirA/FileB").hashCode());
+        assertFalse(resource.equals(store.get("DirA")));
+
+        // a wrapper and the wrapped resource are never equal, in either direction
+        Resource wrapped = store.getDelegate().get("DirA/FileB");
+        assertFalse(resource.equals(wrapped));
+        assertFalse(wrapped.equals(resource));
+    }
+
+    @Test
+    public void testWrapRequiresEvents() throws Exception {
+        System.setProperty(CachingResourceStore.CACHE_SIZE_PROPERTY, "1");
+        try {
+            // the polling watcher does not deliver events for the cached directories
+            FileSystemResourceStore polling = new FileSystemResourceStore(folder.getRoot());
+            assertSame(polling, CachingResourceStore.wrap(polling));
+
+            // the native one does
+            System.setProperty(WatchServiceResourceNotificationDispatcher.WATCHER_PROPERTY,
+                    WatchServiceResourceNotificationDispatcher.WATCHER_NATIVE);
+            FileSystemResourceStore watched = new FileSystemResourceStore(folder.getRoot());
+            try {
+                assertTrue(CachingResourceStore.wrap(watched) instanceof CachingResourceStore);
+            } finally {
+                ((WatchServiceResourceNotificationDispatcher) watched
+                        .getResourceNotificationDispatcher()).destroy();
+            }
+        } finally {
+            System.clearProperty(CachingResourceStore.CACHE_SIZE_PROPERTY);
+            System.clearProperty(WatchServiceResourceNotificationDispatcher.WATCHER_PROPERTY);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package org.geoserver.platform.resource;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 
 import java.io.File;
 import java.io.IOException;
@@ -68,6 +69,18 @@ public class FileSystemResourceStoreTest {
         assertEquals(newName, folder.getRoot().list()[0]);
     }
 
+    @Test
+    public void destroyReleasesDispatcher() throws Exception {
+        FileSystemResourceStore store = new FileSystemResourceStore(folder.getRoot());
+        ResourceNotificationDispatcher dispatcher = store.getResourceNotificationDispatcher();
+
+        store.destroy();
+
+        // a new dispatcher is started on demand after the old one got shut down
+        assertNotSame(dispatcher, store.getResourceNotificationDispatcher());
+        store.destroy();
+    }
+
     private void attemptRenameDir(String oldName, String newName) throws IOException {
         File toBeRenamed = folder.newFolder(oldName);
         attemptRename(oldName, newName);
@@ -0,0 +1,177 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.platform.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.geoserver.platform.resource.FileSystemResourceTheoryTest.AwaitResourceListener;
+import org.geoserver.platform.resource.ResourceNotification.Event;
+import org.geoserver.platform.resource.ResourceNotification.Kind;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WatchServiceResourceNotificationDispatcherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    WatchServiceResourceNotificationDispatcher dispatcher;
+
+    FileSystemWatcher polling;
+
+    @Before
+    public void setUp() throws Exception {
+        folder.newFile("FileA");
+        File c = folder.newFolder("DirC");
+        (new File(c, "FileD")).createNewFile();
+        polling = new FileSystemWatcher(path -> Paths.toFile(folder.getRoot(), path));
+        polling.schedule(30, TimeUnit.MILLISECONDS);
+        dispatcher = new WatchServiceResourceNotificationDispatcher(folder.getRoot(), polling);
+        dispatcher.setDebounce(50, TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dispatcher.destroy();
+    }
+
+    @Test
+    public void fileEvents() throws Exception {
+        File fileD = Paths.toFile(folder.getRoot(), "DirC/FileD");
+        AwaitResourceListener listener = new AwaitResourceListener();
+        dispatcher.addListener("DirC/FileD", listener);
+
+        FileUtils.writeStringToFile(fileD, "changed", StandardCharsets.UTF_8);
+        ResourceNotification n = listener.await(5, TimeUnit.SECONDS);
+        assertNotNull("detected event", n);
+        assertEquals(Kind.ENTRY_MODIFY, n.getKind());
+        assertEquals("DirC/FileD", n.getPath());
+        assertTrue("Resource only", n.events().isEmpty());
+
+        listener.reset();
+        fileD.delete();
+        n = listener.await(5, TimeUnit.SECONDS);
+        assertNotNull("detected event", n);
+        assertEquals(Kind.ENTRY_DELETE, n.getKind());
+
+        listener.reset();
+        fileD.createNewFile();
+        n = listener.await(5, TimeUnit.SECONDS);
+        assertNotNull("detected event", n);
+        assertEquals(Kind.ENTRY_CREATE, n.getKind());
+
+        assertTrue(dispatcher.removeListener("DirC/FileD", listener));
+    }
+
+    @Test
+    public void directoryEventsAreDebounced() throws Exception {
+        File dirC = Paths.toFile(folder.getRoot(), "DirC");
+        AwaitResourceListener listener = new AwaitResourceListener();
+        dispatcher.addListener("DirC", listener);
+
+        // a burst of changes to the same file results in a single event
+        File fileE = new File(dirC, "FileE");
+        for (int i = 0; i < 10; i++) {
+            FileUtils.writeStringToFile(fileE, "content" + i, StandardCharsets.UTF_8);
+        }
+        ResourceNotification n = listener.await(5, TimeUnit.SECONDS);
+        assertNotNull("detected event", n);
+        assertEquals(Kind.ENTRY_MODIFY, n.getKind());
+        assertEquals("DirC", n.getPath());
+        assertEquals(1, n.events().size());
+        Event e = n.events().get(0);
+        assertEquals(Kind.ENTRY_CREATE, e.getKind());
+        assertEquals("FileE", e.getPath());
+
+        assertTrue(dispatcher.removeListener("DirC", listener));
+    }
+
+    @Test
+    public void missingDirectoryFallsBackOnPolling() throws Exception {
+        AwaitResourceListener listener = new AwaitResourceListener();
+        dispatcher.addListener("DirF/FileG", listener);
+
+        File fileG = Paths.toFile(folder.getRoot(), "DirF/FileG");
+        fileG.getParentFile().mkdirs();
+        fileG.createNewFile();
+        ResourceNotification n = listener.await(5, TimeUnit.SECONDS);
+        assertNotNull("detected event", n);
+        assertEquals(Kind.ENTRY_CREATE, n.getKind());
+
+        assertTrue(dispatcher.removeListener("DirF/FileG", listener));
+    }
+
+    @Test
+    public void createdDirectoryIsWatched() throws Exception {
+        AwaitResourceListener listener = new AwaitResourceListener();
+        dispatcher.addListener("DirF", listener);
+
+        File dirF = Paths.toFile(folder.getRoot(), "DirF");
+        dirF.mkdir();
+        ResourceNotification n = listener.await(5, TimeUnit.SECONDS);
+        assertNotNull("detected event", n);
+        assertEquals(Kind.ENTRY_CREATE, n.getKind());
+
+        // the new directory is watched, its children changes are notified
+        listener.reset();
+        new File(dirF, "FileG").createNewFile();
+        n = listener.await(5, TimeUnit.SECONDS);
+        assertNotNull("detected event", n);
+        assertEquals("DirF", n.getPath());
+        assertEquals(1, n.events().size());
+        assertEquals("FileG", n.events().get(0).getPath());
+
+        assertTrue(dispatcher.removeListener("DirF", listener));
+    }
+
+    @Test
+    public void debounceWaitsForQuietPeriod() throws Exception {
+        dispatcher.setDebounce(200, TimeUnit.MILLISECONDS);
+        File dirC = Paths.toFile(folder.getRoot(), "DirC");
+        List<ResourceNotification> notifications = new CopyOnWriteArrayList<>();
+        dispatcher.addListener("DirC", notifications::add);
+
+        // a burst lasting longer than the quiet period, but without pauses as long as it
+        File fileE = new File(dirC, "FileE");
+        for (int i = 0; i < 12; i++) {
+            FileUtils.writeStringToFile(fileE, "content" + i, StandardCharsets.UTF_8);
+            Thread.sleep(50);
+        }
+        Thread.sleep(1000);
+        assertEquals(1, notifications.size());
+    }
+
+    @Test
+    public void pollingGoesBackToNative() throws Exception {
+        AwaitResourceListener listener = new AwaitResourceListener();
+        dispatcher.addListener("DirF/FileG", listener);
+
+        // the directory shows up, the next retry moves the path to native watching
+        File fileG = Paths.toFile(folder.getRoot(), "DirF/FileG");
+        fileG.getParentFile().mkdirs();
+        dispatcher.retryNative();
+        assertFalse(polling.removeListener("DirF/FileG", listener));
+
+        fileG.createNewFile();
+        ResourceNotification n = listener.await(5, TimeUnit.SECONDS);
+        assertNotNull("detected event", n);
+        assertEquals(Kind.ENTRY_CREATE, n.getKind());
+
+        assertTrue(dispatcher.removeListener("DirF/FileG", listener));
+    }
+}
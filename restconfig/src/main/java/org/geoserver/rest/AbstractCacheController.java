@@ -0,0 +1,65 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import org.geoserver.rest.catalog.NamedMap;
+import org.geoserver.rest.util.MediaTypeExtensions;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import com.google.common.cache.CacheStats;
+
+/**
+ * Base controller for the in memory caches, reporting their statistics on GET. Subclasses are
+ * mapped to the cache specific path, and fill in the statistics, the ones for caches that can be
+ * cleared as a whole extend {@link ClearableCacheController} instead.
+ */
+public abstract class AbstractCacheController extends RestBaseController {
+
+    final String rootElement;
+
+    protected AbstractCacheController(String rootElement) {
+        this.rootElement = rootElement;
+    }
+
+    @GetMapping(produces = {
+            MediaType.APPLICATION_JSON_VALUE,
+            MediaTypeExtensions.TEXT_JSON_VALUE,
+            MediaType.APPLICATION_XML_VALUE,
+            MediaType.TEXT_XML_VALUE })
+    @ResponseBody
+    public NamedMap<String, Object> cacheGet() {
+        checkAccess();
+        NamedMap<String, Object> map = new NamedMap<>(rootElement);
+        fillStatistics(map);
+        return map;
+    }
+
+    /**
+     * Checks the current user can access the cache, by default it's left to the REST security
+     * configuration
+     */
+    protected void checkAccess() {
+        // nothing to do by default
+    }
+
+    /**
+     * Adds the cache statistics to the map
+     */
+    protected abstract void fillStatistics(NamedMap<String, Object> map);
+
+    /**
+     * Adds the common statistics of a Guava cache to the map, if not null
+     */
+    protected static void putStatistics(NamedMap<String, Object> map, CacheStats stats) {
+        if (stats != null) {
+            map.put("hitCount", stats.hitCount());
+            map.put("missCount", stats.missCount());
+            map.put("hitRate", stats.hitRate());
+            map.put("evictionCount", stats.evictionCount());
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import org.springframework.web.bind.annotation.DeleteMapping;
+
+/**
+ * Base controller for the in memory caches that can be cleared as a whole, reporting their
+ * statistics on GET and clearing them on DELETE
+ */
+public abstract class ClearableCacheController extends AbstractCacheController {
+
+    protected ClearableCacheController(String rootElement) {
+        super(rootElement);
+    }
+
+    @DeleteMapping
+    public void cacheDelete() {
+        checkAccess();
+        clear();
+    }
+
+    /**
+     * Removes all the cached entries
+     */
+    protected abstract void clear();
+}
@@ -0,0 +1,72 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.media.jai.JAI;
+import javax.media.jai.TileCache;
+
+import org.geoserver.jai.LayerTileCache;
+import org.geoserver.jai.LayerTileCache.LayerUsage;
+import org.geoserver.rest.catalog.NamedMap;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.sun.media.jai.util.CacheDiagnostics;
+
+/**
+ * Reports the occupancy and statistics of the JAI tile cache, broken down by layer when the
+ * {@link LayerTileCache} is in use, and allows flushing it
+ */
+@RestController
+@RequestMapping(path = RestBaseController.ROOT_PATH + "/jaitilecache")
+public class JAITileCacheController extends ClearableCacheController {
+
+    static final String XML_ROOT_ELEM = "jaiTileCache";
+
+    public JAITileCacheController() {
+        super(XML_ROOT_ELEM);
+    }
+
+    @Override
+    protected void fillStatistics(NamedMap<String, Object> map) {
+        TileCache cache = JAI.getDefaultInstance().getTileCache();
+        map.put("memoryCapacity", cache.getMemoryCapacity());
+        map.put("memoryThreshold", cache.getMemoryThreshold());
+        if (cache instanceof CacheDiagnostics) {
+            CacheDiagnostics diagnostics = (CacheDiagnostics) cache;
+            map.put("memoryUsed", diagnostics.getCacheMemoryUsed());
+            map.put("tileCount", diagnostics.getCacheTileCount());
+            map.put("hitCount", diagnostics.getCacheHitCount());
+            map.put("missCount", diagnostics.getCacheMissCount());
+        }
+        if (cache instanceof LayerTileCache) {
+            LayerTileCache layerCache = (LayerTileCache) cache;
+            map.put("evictionCount", layerCache.getEvictionCount());
+            List<NamedMap<String, Object>> layers = new ArrayList<>();
+            for (LayerUsage usage : layerCache.getUsage()) {
+                NamedMap<String, Object> layer = new NamedMap<>("layer");
+                layer.put("name", usage.getLayer());
+                layer.put("memoryUsed", usage.getMemory());
+                layer.put("tileCount", usage.getTiles());
+                layer.put("hitCount", usage.getHits());
+                layer.put("missCount", usage.getMisses());
+                layer.put("hitRate", usage.getHitRate());
+                layer.put("evictionCount", usage.getEvictions());
+                layer.put("quota", usage.getQuota());
+                layer.put("priority", usage.getPriority());
+                layers.add(layer);
+            }
+            map.put("layers", layers);
+        }
+    }
+
+    @Override
+    protected void clear() {
+        JAI.getDefaultInstance().getTileCache().flush();
+    }
+}
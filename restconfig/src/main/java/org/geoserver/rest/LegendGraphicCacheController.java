@@ -0,0 +1,45 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import org.geoserver.rest.catalog.NamedMap;
+import org.geoserver.wms.legendgraphic.LegendGraphicCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Reports the statistics of the encoded GetLegendGraphic cache (see {@link LegendGraphicCache}),
+ * and allows clearing it
+ */
+@RestController
+@RequestMapping(path = RestBaseController.ROOT_PATH + "/legendgraphiccache")
+public class LegendGraphicCacheController extends ClearableCacheController {
+
+    static final String XML_ROOT_ELEM = "legendGraphicCache";
+
+    LegendGraphicCache cache;
+
+    @Autowired
+    public LegendGraphicCacheController(
+            @Qualifier("legendGraphicCache") LegendGraphicCache cache) {
+        super(XML_ROOT_ELEM);
+        this.cache = cache;
+    }
+
+    @Override
+    protected void fillStatistics(NamedMap<String, Object> map) {
+        map.put("enabled", cache.isEnabled());
+        map.put("size", cache.size());
+        map.put("sizeInBytes", cache.getSizeInBytes());
+        putStatistics(map, cache.getStatistics());
+    }
+
+    @Override
+    protected void clear() {
+        cache.clear();
+    }
+}
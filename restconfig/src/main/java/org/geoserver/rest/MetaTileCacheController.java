@@ -0,0 +1,51 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import org.geoserver.rest.catalog.NamedMap;
+import org.geoserver.wms.map.QuickTileCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.google.common.cache.CacheStats;
+
+/**
+ * Reports the statistics of the WMS meta-tile cache used by tiled=true requests (see
+ * {@link QuickTileCache}), and allows clearing it
+ */
+@RestController
+@RequestMapping(path = RestBaseController.ROOT_PATH + "/metatilecache")
+public class MetaTileCacheController extends ClearableCacheController {
+
+    static final String XML_ROOT_ELEM = "metaTileCache";
+
+    QuickTileCache cache;
+
+    @Autowired
+    public MetaTileCacheController(@Qualifier("metaTileCache") QuickTileCache cache) {
+        super(XML_ROOT_ELEM);
+        this.cache = cache;
+    }
+
+    @Override
+    protected void fillStatistics(NamedMap<String, Object> map) {
+        // hits and misses are counted per tile request, not per cache lookup
+        map.put("size", cache.size());
+        map.put("hitCount", cache.getHitCount());
+        map.put("missCount", cache.getMissCount());
+        map.put("coalescedCount", cache.getCoalescedCount());
+        CacheStats stats = cache.getStatistics();
+        if (stats != null) {
+            map.put("evictionCount", stats.evictionCount());
+        }
+    }
+
+    @Override
+    protected void clear() {
+        cache.clear();
+    }
+}
@@ -0,0 +1,58 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geoserver.platform.resource.CachingResourceStore;
+import org.geoserver.platform.resource.ResourceStore;
+import org.geoserver.rest.catalog.NamedMap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Reports the statistics of the resource cache (see {@link CachingResourceStore}), and allows
+ * clearing it
+ */
+@RestController
+@RequestMapping(path = RestBaseController.ROOT_PATH + "/resourcecache")
+public class ResourceCacheController extends ClearableCacheController {
+
+    static final String XML_ROOT_ELEM = "resourceCache";
+
+    GeoServerResourceLoader resourceLoader;
+
+    @Autowired
+    public ResourceCacheController(
+            @Qualifier("resourceLoader") GeoServerResourceLoader resourceLoader) {
+        super(XML_ROOT_ELEM);
+        this.resourceLoader = resourceLoader;
+    }
+
+    CachingResourceStore getCache() {
+        ResourceStore store = resourceLoader.getResourceStore();
+        return store instanceof CachingResourceStore ? (CachingResourceStore) store : null;
+    }
+
+    @Override
+    protected void fillStatistics(NamedMap<String, Object> map) {
+        CachingResourceStore cache = getCache();
+        map.put("enabled", cache != null);
+        if (cache != null) {
+            map.put("size", cache.size());
+            map.put("maxBytes", cache.getMaxBytes());
+            putStatistics(map, cache.getStatistics());
+        }
+    }
+
+    @Override
+    protected void clear() {
+        CachingResourceStore cache = getCache();
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+}
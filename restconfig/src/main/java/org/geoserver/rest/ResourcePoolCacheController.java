@@ -0,0 +1,88 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.catalog.CoverageReaderPool;
+import org.geoserver.catalog.ResourcePool;
+import org.geoserver.config.GeoServer;
+import org.geoserver.rest.catalog.NamedMap;
+import org.geoserver.rest.util.MediaTypeExtensions;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.google.common.cache.CacheStats;
+
+/**
+ * Reports the statistics of the {@link ResourcePool} caches configured as bounded ones (see
+ * {@link org.geoserver.catalog.BoundedResourceCache}). The pool caches cannot be cleared as a
+ * whole, they are cleared one resource at a time as the catalog changes, or on reset.
+ */
+@RestController
+@RequestMapping(path = RestBaseController.ROOT_PATH + "/resourcepool")
+public class ResourcePoolCacheController extends AbstractCacheController {
+
+    static final String XML_ROOT_ELEM = "resourcePool";
+
+    GeoServer geoServer;
+
+    @Autowired
+    public ResourcePoolCacheController(@Qualifier("geoServer") GeoServer geoServer) {
+        super(XML_ROOT_ELEM);
+        this.geoServer = geoServer;
+    }
+
+    @Override
+    protected void fillStatistics(NamedMap<String, Object> result) {
+        ResourcePool pool = geoServer.getCatalog().getResourcePool();
+        for (Map.Entry<String, CacheStats> entry : pool.getCacheStatistics().entrySet()) {
+            NamedMap<String, Object> cache = new NamedMap<>(entry.getKey());
+            putStatistics(cache, entry.getValue());
+            result.put(entry.getKey(), cache);
+        }
+    }
+
+    /**
+     * Reports the statistics of the coverage reader pools (see
+     * {@link org.geoserver.catalog.CoverageReaderPool})
+     */
+    @GetMapping(path = "/readerpools", produces = {
+            MediaType.APPLICATION_JSON_VALUE,
+            MediaTypeExtensions.TEXT_JSON_VALUE,
+            MediaType.APPLICATION_XML_VALUE,
+            MediaType.TEXT_XML_VALUE })
+    @ResponseBody
+    public NamedMap<String, Object> readerPoolsGet() {
+        ResourcePool resourcePool = geoServer.getCatalog().getResourcePool();
+        NamedMap<String, Object> result = new NamedMap<>("readerPools");
+        List<NamedMap<String, Object>> pools = new ArrayList<>();
+        for (CoverageReaderPool pool : resourcePool.getCoverageReaderPools()) {
+            NamedMap<String, Object> map = new NamedMap<>("pool");
+            map.put("name", pool.getName());
+            map.put("minSize", pool.getMinSize());
+            map.put("maxSize", pool.getMaxSize());
+            map.put("size", pool.getSize());
+            map.put("activeCount", pool.getActiveCount());
+            map.put("idleCount", pool.getIdleCount());
+            map.put("borrowCount", pool.getBorrowCount());
+            map.put("createdCount", pool.getCreatedCount());
+            map.put("destroyedCount", pool.getDestroyedCount());
+            map.put("timeoutCount", pool.getTimeoutCount());
+            map.put("averageWaitTime", pool.getAverageWaitTime());
+            map.put("maxWaitTime", pool.getMaxWaitTime());
+            pools.add(map);
+        }
+        result.put("pools", pools);
+        return result;
+    }
+}
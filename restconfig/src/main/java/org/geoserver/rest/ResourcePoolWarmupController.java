@@ -0,0 +1,82 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import org.geoserver.catalog.ResourcePoolWarmer;
+import org.geoserver.catalog.ResourcePoolWarmer.Status;
+import org.geoserver.rest.catalog.NamedMap;
+import org.geoserver.rest.util.MediaTypeExtensions;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Reports the progress of the resource pool warm-up (see {@link ResourcePoolWarmer}). Answers with
+ * a 503 status code while the warm-up is running, or if it got cancelled before completion, so
+ * that it can be used as a readiness check. The status element tells apart a completed warm-up
+ * from a disabled one.
+ * <p>
+ * The full report is available to administrators under the REST API, while load balancers and
+ * orchestrators can poll {@value #READINESS_PATH} anonymously, as it sits outside of the
+ * <code>/rest</code> security filter chain. The latter only reports the status.
+ * </p>
+ */
+@RestController
+public class ResourcePoolWarmupController extends RestBaseController {
+
+    static final String XML_ROOT_ELEM = "warmup";
+
+    /**
+     * Path of the anonymous readiness check
+     */
+    public static final String READINESS_PATH = "/resourcepool/ready";
+
+    ResourcePoolWarmer warmer;
+
+    @Autowired
+    public ResourcePoolWarmupController(
+            @Qualifier("resourcePoolWarmer") ResourcePoolWarmer warmer) {
+        this.warmer = warmer;
+    }
+
+    @GetMapping(path = RestBaseController.ROOT_PATH + "/resourcepool/warmup", produces = {
+            MediaType.APPLICATION_JSON_VALUE,
+            MediaTypeExtensions.TEXT_JSON_VALUE,
+            MediaType.APPLICATION_XML_VALUE,
+            MediaType.TEXT_XML_VALUE })
+    public ResponseEntity<NamedMap<String, Object>> warmupGet() {
+        Status status = warmer.getStatus();
+        NamedMap<String, Object> map = new NamedMap<>(XML_ROOT_ELEM);
+        map.put("status", status.name());
+        map.put("total", warmer.getTotal());
+        map.put("completed", warmer.getCompleted());
+        map.put("failed", warmer.getFailed());
+        return new ResponseEntity<>(map, getHttpStatus(status));
+    }
+
+    @GetMapping(path = READINESS_PATH, produces = {
+            MediaType.APPLICATION_JSON_VALUE,
+            MediaTypeExtensions.TEXT_JSON_VALUE,
+            MediaType.APPLICATION_XML_VALUE,
+            MediaType.TEXT_XML_VALUE })
+    public ResponseEntity<NamedMap<String, Object>> readinessGet() {
+        Status status = warmer.getStatus();
+        NamedMap<String, Object> map = new NamedMap<>(XML_ROOT_ELEM);
+        map.put("status", status.name());
+        return new ResponseEntity<>(map, getHttpStatus(status));
+    }
+
+    /**
+     * Only a running or interrupted warm-up makes the server not ready yet
+     */
+    static HttpStatus getHttpStatus(Status status) {
+        return status == Status.RUNNING || status == Status.CANCELLED
+                ? HttpStatus.SERVICE_UNAVAILABLE : HttpStatus.OK;
+    }
+}
@@ -0,0 +1,120 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest.catalog;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.geoserver.config.GeoServerLoaderProxy;
+import org.geoserver.rest.DispatcherCallbackAdapter;
+import org.geoserver.rest.RestException;
+import org.geotools.util.logging.Logging;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+/**
+ * Allows REST calls modifying the configuration to wait for their changes to be written down in
+ * the data directory before completing, when the configuration is persisted asynchronously (see
+ * {@link org.geoserver.config.GeoServerPersister}). Calls opt in by adding the
+ * {@value #FLUSH_PARAMETER}=true query parameter.
+ * <p>
+ * The flush happens before the response is committed, so that a failure to write down the
+ * changes is reported to the client as a 500 error: responses with a body are flushed right
+ * before the body is written, responses without one at the end of the request.
+ * </p>
+ */
+@ControllerAdvice
+public class PersisterFlushCallback extends DispatcherCallbackAdapter
+        implements ResponseBodyAdvice<Object> {
+
+    static final Logger LOGGER = Logging.getLogger(PersisterFlushCallback.class);
+
+    static final String FLUSH_PARAMETER = "flush";
+
+    /**
+     * Request attribute marking requests whose changes have already been flushed
+     */
+    static final String FLUSHED_ATTRIBUTE = PersisterFlushCallback.class.getName() + ".flushed";
+
+    GeoServerLoaderProxy loader;
+
+    public PersisterFlushCallback(GeoServerLoaderProxy loader) {
+        this.loader = loader;
+    }
+
+    @Override
+    public boolean supports(MethodParameter returnType,
+            Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType,
+            MediaType selectedContentType,
+            Class<? extends HttpMessageConverter<?>> selectedConverterType,
+            ServerHttpRequest request, ServerHttpResponse response) {
+        if (request instanceof ServletServerHttpRequest) {
+            HttpServletRequest httpRequest = ((ServletServerHttpRequest) request)
+                    .getServletRequest();
+            if (isFlushRequested(httpRequest)) {
+                try {
+                    flush(httpRequest);
+                } catch (Exception e) {
+                    throw new RestException("Failed to write down the configuration changes",
+                            HttpStatus.INTERNAL_SERVER_ERROR, e);
+                }
+            }
+        }
+        return body;
+    }
+
+    @Override
+    public void finished(HttpServletRequest request, HttpServletResponse response) {
+        // responses without a body are not committed yet at this point
+        if (isFlushRequested(request)) {
+            try {
+                flush(request);
+            } catch (Exception e) {
+                LOGGER.log(Level.SEVERE, "Failed to write down the configuration changes", e);
+                if (!response.isCommitted()) {
+                    try {
+                        response.sendError(HttpStatus.INTERNAL_SERVER_ERROR.value(),
+                                "Failed to write down the configuration changes: "
+                                        + e.getMessage());
+                    } catch (IOException ioe) {
+                        LOGGER.log(Level.FINE, "Failed to report the flush failure", ioe);
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isFlushRequested(HttpServletRequest request) {
+        return isWriteMethod(request.getMethod())
+                && Boolean.parseBoolean(request.getParameter(FLUSH_PARAMETER))
+                && request.getAttribute(FLUSHED_ATTRIBUTE) == null;
+    }
+
+    private void flush(HttpServletRequest request) throws Exception {
+        request.setAttribute(FLUSHED_ATTRIBUTE, Boolean.TRUE);
+        loader.flush();
+    }
+
+    private boolean isWriteMethod(String method) {
+        return "PUT".equalsIgnoreCase(method) || "POST".equalsIgnoreCase(method)
+                || "DELETE".equalsIgnoreCase(method);
+    }
+}
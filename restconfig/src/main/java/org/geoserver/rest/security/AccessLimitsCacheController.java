@@ -0,0 +1,74 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest.security;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.rest.ClearableCacheController;
+import org.geoserver.rest.RestBaseController;
+import org.geoserver.rest.RestException;
+import org.geoserver.rest.catalog.NamedMap;
+import org.geoserver.security.GeoServerSecurityManager;
+import org.geoserver.security.ResourceAccessManager;
+import org.geoserver.security.ResourceAccessManagerWrapper;
+import org.geoserver.security.SecureCatalogImpl;
+import org.geoserver.security.impl.DefaultResourceAccessManager;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.google.common.cache.CacheStats;
+
+/**
+ * Reports the statistics of the data access limits memoisation (see
+ * {@link DefaultResourceAccessManager}), and allows clearing it
+ */
+@RestController
+@RequestMapping(path = RestBaseController.ROOT_PATH + "/security/acl/cache")
+public class AccessLimitsCacheController extends ClearableCacheController {
+
+    static final String XML_ROOT_ELEM = "accessLimitsCache";
+
+    public AccessLimitsCacheController() {
+        super(XML_ROOT_ELEM);
+    }
+
+    GeoServerSecurityManager getManager() {
+        return GeoServerExtensions.bean(GeoServerSecurityManager.class);
+    }
+
+    @Override
+    protected void checkAccess() {
+        if (!getManager().checkAuthenticationForAdminRole()) {
+            throw new RestException("Administrative privileges required", HttpStatus.FORBIDDEN);
+        }
+    }
+
+    DefaultResourceAccessManager getAccessManager() {
+        SecureCatalogImpl catalog = GeoServerExtensions.bean(SecureCatalogImpl.class);
+        ResourceAccessManager manager = catalog != null ? catalog.getResourceAccessManager()
+                : null;
+        while (manager instanceof ResourceAccessManagerWrapper) {
+            manager = ((ResourceAccessManagerWrapper) manager).getDelegate();
+        }
+        return manager instanceof DefaultResourceAccessManager
+                ? (DefaultResourceAccessManager) manager : null;
+    }
+
+    @Override
+    protected void fillStatistics(NamedMap<String, Object> map) {
+        DefaultResourceAccessManager manager = getAccessManager();
+        CacheStats stats = manager != null ? manager.getLimitsCacheStatistics() : null;
+        map.put("enabled", stats != null);
+        putStatistics(map, stats);
+    }
+
+    @Override
+    protected void clear() {
+        DefaultResourceAccessManager manager = getAccessManager();
+        if (manager != null) {
+            manager.resetLimitsCache();
+        }
+    }
+}
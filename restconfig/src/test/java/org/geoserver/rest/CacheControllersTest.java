@@ -0,0 +1,100 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import static org.geoserver.rest.RestBaseController.ROOT_PATH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.geoserver.rest.catalog.CatalogRESTTestSupport;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.w3c.dom.Document;
+
+import net.sf.json.JSONObject;
+
+public class CacheControllersTest extends CatalogRESTTestSupport {
+
+    JSONObject getStatistics(String path, String root) throws Exception {
+        JSONObject json = (JSONObject) getAsJSON(ROOT_PATH + path + ".json");
+        assertTrue(json.containsKey(root));
+        return json.getJSONObject(root);
+    }
+
+    void assertCleared(String path, String root) throws Exception {
+        MockHttpServletResponse response = deleteAsServletResponse(ROOT_PATH + path);
+        assertEquals(200, response.getStatus());
+        assertEquals(0, getStatistics(path, root).getLong("size"));
+    }
+
+    @Test
+    public void testResourceCache() throws Exception {
+        JSONObject stats = getStatistics("/resourcecache", "resourceCache");
+        assertTrue(stats.containsKey("enabled"));
+
+        MockHttpServletResponse response = deleteAsServletResponse(ROOT_PATH + "/resourcecache");
+        assertEquals(200, response.getStatus());
+    }
+
+    @Test
+    public void testMetaTileCache() throws Exception {
+        JSONObject stats = getStatistics("/metatilecache", "metaTileCache");
+        assertTrue(stats.containsKey("hitCount"));
+        assertTrue(stats.containsKey("missCount"));
+        assertTrue(stats.containsKey("coalescedCount"));
+
+        assertCleared("/metatilecache", "metaTileCache");
+    }
+
+    @Test
+    public void testLegendGraphicCache() throws Exception {
+        JSONObject stats = getStatistics("/legendgraphiccache", "legendGraphicCache");
+        assertTrue(stats.containsKey("enabled"));
+        assertTrue(stats.containsKey("sizeInBytes"));
+
+        assertCleared("/legendgraphiccache", "legendGraphicCache");
+    }
+
+    @Test
+    public void testJAITileCache() throws Exception {
+        JSONObject stats = getStatistics("/jaitilecache", "jaiTileCache");
+        assertTrue(stats.getLong("memoryCapacity") > 0);
+
+        MockHttpServletResponse response = deleteAsServletResponse(ROOT_PATH + "/jaitilecache");
+        assertEquals(200, response.getStatus());
+    }
+
+    @Test
+    public void testResourcePool() throws Exception {
+        Document dom = getAsDOM(ROOT_PATH + "/resourcepool.xml");
+        assertEquals("resourcePool", dom.getDocumentElement().getNodeName());
+
+        // the pool caches cannot be cleared as a whole
+        MockHttpServletResponse response = deleteAsServletResponse(ROOT_PATH + "/resourcepool");
+        assertEquals(405, response.getStatus());
+    }
+
+    @Test
+    public void testAccessLimitsCache() throws Exception {
+        JSONObject stats = getStatistics("/security/acl/cache", "accessLimitsCache");
+        assertNotNull(stats.get("enabled"));
+
+        MockHttpServletResponse response = deleteAsServletResponse(
+                ROOT_PATH + "/security/acl/cache");
+        assertEquals(200, response.getStatus());
+    }
+
+    @Test
+    public void testAccessLimitsCacheRequiresAdmin() throws Exception {
+        logout();
+        MockHttpServletResponse response = getAsServletResponse(
+                ROOT_PATH + "/security/acl/cache.json");
+        assertTrue(response.getStatus() >= 400);
+
+        response = deleteAsServletResponse(ROOT_PATH + "/security/acl/cache");
+        assertTrue(response.getStatus() >= 400);
+    }
+}
@@ -0,0 +1,45 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import static org.geoserver.rest.RestBaseController.ROOT_PATH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.geoserver.rest.catalog.CatalogRESTTestSupport;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import net.sf.json.JSONObject;
+
+public class ResourcePoolWarmupControllerTest extends CatalogRESTTestSupport {
+
+    @Test
+    public void testWarmup() throws Exception {
+        JSONObject json = (JSONObject) getAsJSON(ROOT_PATH + "/resourcepool/warmup.json");
+        JSONObject warmup = json.getJSONObject("warmup");
+        // not enabled in tests
+        assertEquals("DISABLED", warmup.getString("status"));
+        assertEquals(0, warmup.getInt("total"));
+    }
+
+    @Test
+    public void testReadinessAnonymous() throws Exception {
+        logout();
+        // the detailed report is for administrators only
+        MockHttpServletResponse response = getAsServletResponse(
+                ROOT_PATH + "/resourcepool/warmup.json");
+        assertTrue(response.getStatus() >= 400);
+
+        // while the readiness check is public, and only reports the status
+        response = getAsServletResponse(ResourcePoolWarmupController.READINESS_PATH + ".json");
+        assertEquals(200, response.getStatus());
+        JSONObject warmup = JSONObject.fromObject(response.getContentAsString())
+                .getJSONObject("warmup");
+        assertEquals("DISABLED", warmup.getString("status"));
+        assertFalse(warmup.containsKey("total"));
+    }
+}
@@ -0,0 +1,105 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geoserver.config.GeoServerLoaderProxy;
+import org.geoserver.rest.RestException;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class PersisterFlushCallbackTest {
+
+    static class TestLoader extends GeoServerLoaderProxy {
+        AtomicInteger flushes = new AtomicInteger();
+
+        boolean fail;
+
+        public TestLoader() {
+            super(null);
+        }
+
+        @Override
+        public void flush() throws Exception {
+            flushes.incrementAndGet();
+            if (fail) {
+                throw new Exception("Disk full");
+            }
+        }
+    }
+
+    MockHttpServletRequest request(String method, boolean flush) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, "/rest/workspaces");
+        if (flush) {
+            request.setParameter("flush", "true");
+        }
+        return request;
+    }
+
+    @Test
+    public void testFlushBeforeBody() throws Exception {
+        TestLoader loader = new TestLoader();
+        PersisterFlushCallback callback = new PersisterFlushCallback(loader);
+        MockHttpServletRequest request = request("POST", true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        callback.beforeBodyWrite("ws", null, null, null, new ServletServerHttpRequest(request),
+                new ServletServerHttpResponse(response));
+        assertEquals(1, loader.flushes.get());
+
+        // not flushed a second time at the end of the request
+        callback.finished(request, response);
+        assertEquals(1, loader.flushes.get());
+    }
+
+    @Test
+    public void testFlushFailureBeforeBody() throws Exception {
+        TestLoader loader = new TestLoader();
+        loader.fail = true;
+        PersisterFlushCallback callback = new PersisterFlushCallback(loader);
+        MockHttpServletRequest request = request("PUT", true);
+        try {
+            callback.beforeBodyWrite("ws", null, null, null,
+                    new ServletServerHttpRequest(request),
+                    new ServletServerHttpResponse(new MockHttpServletResponse()));
+            fail("The flush failure should have been reported");
+        } catch (RestException e) {
+            assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, e.getStatus());
+        }
+    }
+
+    @Test
+    public void testFlushFailureWithoutBody() throws Exception {
+        TestLoader loader = new TestLoader();
+        loader.fail = true;
+        PersisterFlushCallback callback = new PersisterFlushCallback(loader);
+        MockHttpServletRequest request = request("DELETE", true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        response.setStatus(200);
+
+        callback.finished(request, response);
+        assertEquals(1, loader.flushes.get());
+        assertEquals(500, response.getStatus());
+    }
+
+    @Test
+    public void testNoFlush() throws Exception {
+        TestLoader loader = new TestLoader();
+        PersisterFlushCallback callback = new PersisterFlushCallback(loader);
+        // not requested
+        callback.finished(request("POST", false), new MockHttpServletResponse());
+        // not a write
+        callback.finished(request("GET", true), new MockHttpServletResponse());
+        assertEquals(0, loader.flushes.get());
+    }
+}
@@ -7,23 +7,37 @@ package org.geoserver.web.admin;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
+import javax.media.jai.JAI;
+import javax.media.jai.TileCache;
+
+import org.apache.wicket.markup.html.WebMarkupContainer;
+import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.markup.html.form.Button;
 import org.apache.wicket.markup.html.form.CheckBox;
 import org.apache.wicket.markup.html.form.ChoiceRenderer;
 import org.apache.wicket.markup.html.form.DropDownChoice;
 import org.apache.wicket.markup.html.form.Form;
 import org.apache.wicket.markup.html.form.TextField;
+import org.apache.wicket.markup.html.list.ListItem;
+import org.apache.wicket.markup.html.list.ListView;
 import org.apache.wicket.model.CompoundPropertyModel;
 import org.apache.wicket.model.IModel;
+import org.apache.wicket.model.LoadableDetachableModel;
 import org.apache.wicket.model.StringResourceModel;
+import org.apache.wicket.validation.IValidatable;
+import org.apache.wicket.validation.IValidator;
+import org.apache.wicket.validation.ValidationError;
 import org.apache.wicket.validation.validator.RangeValidator;
 import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
 import org.geoserver.config.JAIEXTInfo;
 import org.geoserver.config.JAIInfo;
 import org.geoserver.config.JAIInfo.PngEncoderType;
+import org.geoserver.jai.LayerTileCache;
+import org.geoserver.jai.LayerTileCache.LayerUsage;
 import org.geoserver.web.wicket.ParamResourceModel;
 import org.geoserver.web.wicket.PercentageTextField;
 import org.geotools.image.ImageWorker;
@@ -64,6 +78,15 @@ public class JAIPage extends ServerAdminPage {
         tilePriority.add(RangeValidator.minimum(0));
         form.add(tilePriority);
         form.add(new CheckBox("recycling"));
+        form.add(new CheckBox("layerTileCacheEnabled"));
+        TextField<String> layerTileCacheQuotas = new TextField<String>("layerTileCacheQuotas");
+        layerTileCacheQuotas.add(new LayerTileCacheValidator(true));
+        form.add(layerTileCacheQuotas);
+        TextField<String> layerTileCachePriorities = new TextField<String>(
+                "layerTileCachePriorities");
+        layerTileCachePriorities.add(new LayerTileCacheValidator(false));
+        form.add(layerTileCachePriorities);
+        addTileCacheUsage(form);
         form.add(new CheckBox("jpegAcceleration"));
         addPngEncoderEditor(form);
         CheckBox checkBoxMosaic = new CheckBox("allowNativeMosaic");
@@ -109,6 +132,72 @@ public class JAIPage extends ServerAdminPage {
         form.add(cancel);
     }
 
+    /**
+     * Shows the tile cache usage per layer, if the cache accounts for it
+     */
+    private void addTileCacheUsage(Form<JAIInfo> form) {
+        IModel<List<LayerUsage>> usageModel = new LoadableDetachableModel<List<LayerUsage>>() {
+            private static final long serialVersionUID = 3187423561437052217L;
+
+            @Override
+            protected List<LayerUsage> load() {
+                TileCache cache = JAI.getDefaultInstance().getTileCache();
+                if (cache instanceof LayerTileCache) {
+                    return ((LayerTileCache) cache).getUsage();
+                }
+                return Collections.emptyList();
+            }
+        };
+        WebMarkupContainer container = new WebMarkupContainer("tileCacheUsage");
+        container.setVisible(JAI.getDefaultInstance().getTileCache() instanceof LayerTileCache);
+        form.add(container);
+        container.add(new ListView<LayerUsage>("layers", usageModel) {
+            private static final long serialVersionUID = -6513398712425287451L;
+
+            @Override
+            protected void populateItem(ListItem<LayerUsage> item) {
+                LayerUsage usage = item.getModelObject();
+                item.add(new Label("layer", usage.getLayer()));
+                item.add(new Label("memory", String.format("%.1f MB",
+                        usage.getMemory() / 1024d / 1024d)));
+                item.add(new Label("tiles", String.valueOf(usage.getTiles())));
+                item.add(new Label("hitRate", String.format("%.1f%%",
+                        usage.getHitRate() * 100)));
+                item.add(new Label("evictions", String.valueOf(usage.getEvictions())));
+                item.add(new Label("quota", String.format("%.0f%%", usage.getQuota() * 100)));
+                item.add(new Label("priority", String.valueOf(usage.getPriority())));
+            }
+        });
+    }
+
+    /**
+     * Checks the syntax of the layer tile cache quotas or priorities
+     */
+    static class LayerTileCacheValidator implements IValidator<String> {
+        private static final long serialVersionUID = 2936614773429562153L;
+
+        final boolean quotas;
+
+        LayerTileCacheValidator(boolean quotas) {
+            this.quotas = quotas;
+        }
+
+        @Override
+        public void validate(IValidatable<String> validatable) {
+            String spec = validatable.getValue();
+            try {
+                if (quotas) {
+                    LayerTileCache.parseQuotas(spec, true);
+                } else {
+                    LayerTileCache.parsePriorities(spec, true);
+                }
+            } catch (IllegalArgumentException e) {
+                validatable.error(new ValidationError("invalidLayerTileCacheEntry")
+                        .addKey("invalidLayerTileCacheEntry").setVariable("error", e.getMessage()));
+            }
+        }
+    }
+
     private void addPngEncoderEditor(Form<JAIInfo> form) {
         // get the list of available encoders
         List<PngEncoderType> encoders = new ArrayList<PngEncoderType>(Arrays.asList(JAIInfo.PngEncoderType.values()));
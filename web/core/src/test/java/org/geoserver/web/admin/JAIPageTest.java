@@ -12,8 +12,10 @@ import java.util.Set;
 
 import it.geosolutions.jaiext.JAIExt;
 
+import javax.media.jai.JAI;
 import javax.media.jai.registry.RenderedRegistryMode;
 
+import org.apache.wicket.feedback.FeedbackMessage;
 import org.apache.wicket.extensions.markup.html.form.palette.Palette;
 import org.apache.wicket.markup.html.form.TextField;
 import org.apache.wicket.util.tester.FormTester;
@@ -21,6 +23,7 @@ import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
 import org.geoserver.config.JAIEXTInfo;
 import org.geoserver.config.JAIInfo;
+import org.geoserver.jai.LayerTileCache;
 import org.geoserver.web.GeoServerWicketTestSupport;
 import org.geotools.image.ImageWorker;
 import org.geotools.resources.image.ImageUtilities;
@@ -44,6 +47,43 @@ public class JAIPageTest extends GeoServerWicketTestSupport {
         tester.assertModelValue("form:tileThreads", info.getTileThreads());
     }
     
+    @Test
+    public void testLayerTileCache() {
+        GeoServer geoServer = getGeoServerApplication().getGeoServer();
+        login();
+
+        tester.startPage(JAIPage.class);
+        FormTester form = tester.newFormTester("form");
+        form.setValue("layerTileCacheEnabled", true);
+        form.setValue("layerTileCacheQuotas", "cite:BasicPolygons=0.5, *=0.25");
+        form.setValue("layerTileCachePriorities", "cite:BasicPolygons=1");
+        form.submit("submit");
+        tester.assertNoErrorMessage();
+
+        try {
+            JAIInfo info = geoServer.getGlobal().getJAI();
+            assertTrue(info.isLayerTileCacheEnabled());
+            assertEquals("cite:BasicPolygons=0.5, *=0.25", info.getLayerTileCacheQuotas());
+            assertEquals("cite:BasicPolygons=1", info.getLayerTileCachePriorities());
+            assertTrue(JAI.getDefaultInstance().getTileCache() instanceof LayerTileCache);
+            tester.startPage(JAIPage.class);
+            tester.assertVisible("form:tileCacheUsage");
+
+            // invalid entries are rejected
+            form = tester.newFormTester("form");
+            form.setValue("layerTileCacheQuotas", "cite:BasicPolygons=2");
+            form.submit("submit");
+            assertEquals(1, tester.getMessages(FeedbackMessage.ERROR).size());
+        } finally {
+            GeoServerInfo global = geoServer.getGlobal();
+            JAIInfo jai = global.getJAI().clone();
+            jai.setLayerTileCacheEnabled(false);
+            global.setJAI(jai);
+            geoServer.save(global);
+        }
+        assertFalse(JAI.getDefaultInstance().getTileCache() instanceof LayerTileCache);
+    }
+
     @Test
     public void testNativeWarp(){
         if(!ImageUtilities.isMediaLibAvailable()){
@@ -173,6 +173,11 @@ public class WMSAdminPage extends BaseServiceAdminPage<WMSInfo> {
         MapModel maxRenderingSize = defaultedModel(metadataModel, WMS.MAX_RENDERING_SIZE, null);
         TextField<Integer> maxRenderingSizeField = new TextField<Integer>("anim.maxrenderingsize", maxRenderingSize, Integer.class);
         form.add(maxRenderingSizeField);
+        // MAX_INFLIGHT_FRAMES
+        MapModel maxInflightFrames = defaultedModel(metadataModel, WMS.MAX_INFLIGHT_FRAMES, WMS.MAX_INFLIGHT_FRAMES_DEFAULT);
+        TextField<Integer> maxInflightFramesField = new TextField<Integer>("anim.maxinflightframes", maxInflightFrames, Integer.class);
+        maxInflightFramesField.add(new RangeValidator<Integer>(1, Integer.MAX_VALUE));
+        form.add(maxInflightFramesField);
         // FRAMES_DELAY
         MapModel framesDelay = defaultedModel(metadataModel, WMS.FRAMES_DELAY, WMS.FRAMES_DELAY_DEFAULT);
         TextField<Integer> framesDelayField = new TextField<Integer>("anim.framesdelay", framesDelay, Integer.class);
@@ -14,9 +14,11 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.util.Iterator;
 import java.util.List;
 import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
 
 import org.custommonkey.xmlunit.XMLAssert;
 import org.custommonkey.xmlunit.XMLUnit;
@@ -25,6 +27,7 @@ import org.geoserver.catalog.DataStoreInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.config.CapabilitiesCacheHeadersCallback;
+import org.geoserver.config.CapabilitiesResponseCache;
 import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
 import org.geoserver.config.ResourceErrorHandling;
@@ -291,6 +294,85 @@ public class GetCapabilitiesTest extends WFSTestSupport {
         }
     }
        
+    @Test
+    public void testResponseCache() throws Exception {
+        CapabilitiesResponseCache cache = GeoServerExtensions.bean(CapabilitiesResponseCache.class);
+        cache.setCacheSize(10);
+        try {
+            String path = "wfs?service=WFS&version=1.0.0&request=getCapabilities";
+            MockHttpServletResponse response = dispatch(createGetRequestWithHeaders(path));
+            assertEquals(HttpStatus.OK.value(), response.getStatus());
+            String etag = response.getHeader(HttpHeaders.ETAG);
+            assertNotNull(etag);
+            assertNull(response.getHeader(HttpHeaders.CONTENT_ENCODING));
+            assertEquals(HttpHeaders.ACCEPT_ENCODING, response.getHeader(HttpHeaders.VARY));
+            String contents = response.getContentAsString();
+            assertEquals(1, cache.getStatistics().missCount());
+
+            // same request, served from the cache
+            response = dispatch(createGetRequestWithHeaders(path));
+            assertEquals(HttpStatus.OK.value(), response.getStatus());
+            assertEquals(etag, response.getHeader(HttpHeaders.ETAG));
+            assertEquals(contents, response.getContentAsString());
+            assertEquals(1, cache.getStatistics().hitCount());
+
+            // conditional request
+            response = dispatch(createGetRequestWithHeaders(path, HttpHeaders.IF_NONE_MATCH, etag));
+            assertEquals(HttpStatus.NOT_MODIFIED.value(), response.getStatus());
+
+            // gzipped request
+            response = dispatch(createGetRequestWithHeaders(path, HttpHeaders.ACCEPT_ENCODING,
+                    "gzip, deflate"));
+            assertEquals(HttpStatus.OK.value(), response.getStatus());
+            assertEquals("gzip", response.getHeader(HttpHeaders.CONTENT_ENCODING));
+            String gzipEtag = response.getHeader(HttpHeaders.ETAG);
+            assertNotEquals(etag, gzipEtag);
+            Document dom = dom(new GZIPInputStream(new ByteArrayInputStream(
+                    response.getContentAsByteArray())));
+            assertTrue(dom.getDocumentElement().getNodeName().endsWith("WFS_Capabilities"));
+
+            // the identity tag does not validate the gzipped entity, and the other way around
+            response = dispatch(createGetRequestWithHeaders(path, HttpHeaders.ACCEPT_ENCODING,
+                    "gzip", HttpHeaders.IF_NONE_MATCH, etag));
+            assertEquals(HttpStatus.OK.value(), response.getStatus());
+            response = dispatch(createGetRequestWithHeaders(path, HttpHeaders.IF_NONE_MATCH,
+                    gzipEtag));
+            assertEquals(HttpStatus.OK.value(), response.getStatus());
+            response = dispatch(createGetRequestWithHeaders(path, HttpHeaders.ACCEPT_ENCODING,
+                    "gzip", HttpHeaders.IF_NONE_MATCH, gzipEtag));
+            assertEquals(HttpStatus.NOT_MODIFIED.value(), response.getStatus());
+
+            // a different version is a different document
+            response = dispatch(createGetRequestWithHeaders(
+                    "wfs?service=WFS&version=1.1.0&request=getCapabilities"));
+            assertNotEquals(etag, response.getHeader(HttpHeaders.ETAG));
+        } finally {
+            cache.setCacheSize(0);
+        }
+    }
+
+    @Test
+    public void testResponseCacheCatalogChange() throws Exception {
+        CapabilitiesResponseCache cache = GeoServerExtensions.bean(CapabilitiesResponseCache.class);
+        cache.setCacheSize(10);
+        String layerId = getLayerId(CiteTestData.MLINES);
+        LayerInfo layer = getCatalog().getLayerByName(layerId);
+        try {
+            Document dom = getAsDOM("wfs?request=getCapabilities&version=1.0.0");
+            assertXpathExists("//wfs:FeatureType[wfs:Name='" + layerId + "']", dom);
+
+            // the update sequence changes, the cached document is not used anymore
+            layer.setAdvertised(false);
+            getCatalog().save(layer);
+            dom = getAsDOM("wfs?request=getCapabilities&version=1.0.0");
+            assertXpathNotExists("//wfs:FeatureType[wfs:Name = '" + layerId + "']", dom);
+        } finally {
+            cache.setCacheSize(0);
+            layer.setAdvertised(true);
+            getCatalog().save(layer);
+        }
+    }
+
     MockHttpServletRequest createGetRequestWithHeaders(String path, String... headers) {
         MockHttpServletRequest request = createRequest( path ); 
         request.setMethod( "GET" );
@@ -8,9 +8,13 @@ package org.geoserver.wms;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import net.opengis.wfs.FeatureCollectionType;
 
@@ -28,6 +32,7 @@ import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.geotools.referencing.operation.projection.ProjectionException;
 import org.geotools.styling.Style;
 import org.geotools.styling.StyledLayerDescriptor;
+import org.geotools.util.logging.Logging;
 import org.geotools.xml.transform.TransformerBase;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.NoSuchAuthorityCodeException;
@@ -37,6 +42,7 @@ import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 import com.vividsolutions.jts.geom.Envelope;
 
@@ -67,6 +73,9 @@ import com.vividsolutions.jts.geom.Envelope;
  */
 public class DefaultWebMapService implements WebMapService, ApplicationContextAware,
         DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(DefaultWebMapService.class);
+
     /**
      * default for 'format' parameter.
      */
@@ -148,6 +157,16 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
      */
     private static Boolean USE_GLOBAL_RENDERING_POOL = null;
 
+    /**
+     * Pool used to paint groups of layers in parallel, null if parallel layer rendering is disabled
+     */
+    private static ExecutorService LAYER_RENDERING_POOL;
+
+    /**
+     * Max number of layer groups painted in parallel for a single request
+     */
+    private static int LAYER_RENDERING_RUNS = 4;
+
     private GetCapabilities getCapabilities;
 
     private DescribeLayer describeLayer;
@@ -247,6 +266,60 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
             else
                 USE_GLOBAL_RENDERING_POOL = Boolean.valueOf(usePool);
         }
+
+        // parallel layer rendering, disabled by default
+        if (LAYER_RENDERING_POOL == null) {
+            String threads = GeoServerExtensions.getProperty("WMS_LAYER_RENDERING_THREADS",
+                    context);
+            String runs = GeoServerExtensions.getProperty("WMS_LAYER_RENDERING_RUNS", context);
+            try {
+                if (runs != null) {
+                    LAYER_RENDERING_RUNS = Integer.parseInt(runs);
+                }
+                if (threads != null) {
+                    setLayerRenderingThreads(Integer.parseInt(threads));
+                }
+            } catch (NumberFormatException e) {
+                LOGGER.log(Level.WARNING, "Invalid parallel layer rendering configuration, "
+                        + "WMS_LAYER_RENDERING_THREADS=" + threads + ", WMS_LAYER_RENDERING_RUNS="
+                        + runs, e);
+            }
+        }
+    }
+
+    /**
+     * Sets the number of threads painting layers in parallel, shared among all requests. Zero or
+     * a negative number disables parallel layer rendering
+     */
+    public static synchronized void setLayerRenderingThreads(int threads) {
+        if (LAYER_RENDERING_POOL != null) {
+            LAYER_RENDERING_POOL.shutdown();
+            LAYER_RENDERING_POOL = null;
+        }
+        if (threads > 0) {
+            // bounded queue, when full the requests paint the extra runs in their own thread
+            // (see ParallelLayerRenderer) instead of piling up work nobody might wait for
+            LAYER_RENDERING_POOL = new ThreadPoolExecutor(threads, threads, 0L,
+                    TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(threads),
+                    new CustomizableThreadFactory("LayerRenderer-"));
+        }
+    }
+
+    /**
+     * Returns the pool painting layers in parallel, or null if parallel layer rendering is
+     * disabled (the default). It is enabled by setting the WMS_LAYER_RENDERING_THREADS property
+     * to the number of threads to be used, while WMS_LAYER_RENDERING_RUNS controls in how many
+     * groups of consecutive layers a map can be split at most (defaults to 4)
+     */
+    public static ExecutorService getLayerRenderingPool() {
+        return LAYER_RENDERING_POOL;
+    }
+
+    /**
+     * Returns the max number of groups of consecutive layers painted in parallel for a single map
+     */
+    public static int getLayerRenderingRuns() {
+        return LAYER_RENDERING_RUNS;
     }
 
     /**
@@ -692,6 +765,7 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
             RENDERING_POOL.awaitTermination(10, TimeUnit.SECONDS);
             RENDERING_POOL = null;
         }
+        setLayerRenderingThreads(0);
     }
 
 }
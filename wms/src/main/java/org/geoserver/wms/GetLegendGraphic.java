@@ -8,6 +8,7 @@ package org.geoserver.wms;
 import org.geoserver.ows.Response;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.legendgraphic.BufferedImageLegendGraphic;
+import org.geoserver.wms.legendgraphic.LegendGraphicCache;
 import org.geotools.filter.function.EnvFunction;
 
 /**
@@ -19,10 +20,19 @@ public class GetLegendGraphic {
 
     private final WMS wms;
 
+    private LegendGraphicCache cache;
+
     public GetLegendGraphic(final WMS wms) {
         this.wms = wms;
     }
 
+    /**
+     * Sets the cache of the encoded legends, null to disable caching
+     */
+    public void setCache(LegendGraphicCache cache) {
+        this.cache = cache;
+    }
+
     /**
      * Produces a representation of the map's legend graphic given by the {@code request} by means
      * of a {@link GetLegendGraphicOutputFormat}.
@@ -46,6 +56,9 @@ public class GetLegendGraphic {
             throw new ServiceException("There is no support for creating legends in "
                     + outputFormat + " format", "InvalidFormat");
         }
+        if (cache != null && cache.isCacheable(request)) {
+            return cache.getLegend(request, format);
+        }
         Object legend = format.produceLegendGraphic(request);
         return legend;
     }
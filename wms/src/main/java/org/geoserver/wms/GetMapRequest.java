@@ -857,6 +857,14 @@ public class GetMapRequest extends WMSRequest implements Cloneable {
         return returnString.toString();
     }
 
+    /**
+     * Returns the HTTP request headers captured when the request was parsed, or null if none were
+     * captured
+     */
+    public Map<String, String> getHttpRequestHeaders() {
+        return httpRequestHeaders;
+    }
+
     public String getHttpRequestHeader(String headerName) {
         return httpRequestHeaders == null ? null : httpRequestHeaders.get(headerName);
     }
@@ -875,6 +883,10 @@ public class GetMapRequest extends WMSRequest implements Cloneable {
 			GetMapRequest copy = (GetMapRequest) super.clone();
 			copy.mandatoryParams = (MandatoryParameters) mandatoryParams.clone();
 			copy.optionalParams = (OptionalParameters) optionalParams.clone();
+			if (httpRequestHeaders != null) {
+			    copy.httpRequestHeaders = new CaseInsensitiveMap(new HashMap<String, String>(
+			            httpRequestHeaders));
+			}
 			
 			return copy;
 		} catch (CloneNotSupportedException e) {
@@ -15,6 +15,8 @@ import javax.media.jai.RenderedImageList;
 
 import org.geoserver.ows.AbstractDispatcherCallback;
 import org.geoserver.ows.Request;
+import org.geoserver.wms.animate.AnimationFrames;
+import org.geoserver.wms.map.ImageBufferPool;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.resources.image.ImageUtilities;
 
@@ -70,6 +72,10 @@ public class RasterCleaner extends AbstractDispatcherCallback {
         if (list != null) {
             images.remove();
             for (RenderedImage image : list) {
+                if (image instanceof AnimationFrames) {
+                    // stop rendering the frames the encoder did not get to
+                    ((AnimationFrames) image).dispose();
+                }
                 if (image instanceof RenderedImageList) {
                     RenderedImageList ril = (RenderedImageList) image;
                     for (int i = 0; i < ril.size(); i++) {
@@ -89,6 +95,8 @@ public class RasterCleaner extends AbstractDispatcherCallback {
         } else if (image instanceof BufferedImage) {
             BufferedImage bi = (BufferedImage) image;
             bi.flush();
+            // hand back the image data, if it came from the pool
+            ImageBufferPool.getInstance().release(bi);
         } 
     }
 
@@ -50,7 +50,9 @@ import org.geoserver.wms.WMSInfo.WMSInterpolation;
 import org.geoserver.wms.WatermarkInfo.Position;
 import org.geoserver.wms.dimension.DimensionDefaultValueSelectionStrategy;
 import org.geoserver.wms.dimension.DimensionDefaultValueSelectionStrategyFactory;
+import org.geoserver.wms.dimension.DimensionDomain;
 import org.geoserver.wms.dimension.DimensionFilterBuilder;
+import org.geoserver.wms.dimension.FeatureDimensionDomainIndex;
 import org.geoserver.wms.featureinfo.GetFeatureInfoOutputFormat;
 import org.geoserver.wms.map.RenderedImageMapOutputFormat;
 import org.geoserver.wms.map.RenderedImageMapResponse;
@@ -121,6 +123,10 @@ public class WMS implements ApplicationContextAware {
     public static final String MAX_RENDERING_TIME = "maxAnimatorRenderingTime";
     
     public static final String MAX_RENDERING_SIZE = "maxRenderingSize";
+
+    public static final String MAX_INFLIGHT_FRAMES = "maxAnimatorInflightFrames";
+
+    public static final int MAX_INFLIGHT_FRAMES_DEFAULT = 4;
     
     public static final String FRAMES_DELAY = "framesDelay";
 
@@ -247,6 +253,8 @@ public class WMS implements ApplicationContextAware {
 
     private DimensionDefaultValueSelectionStrategyFactory defaultDimensionValueFactory;
 
+    private FeatureDimensionDomainIndex dimensionDomainIndex;
+
     public WMS(GeoServer geoserver) {
         this.geoserver = geoserver;
     }
@@ -568,6 +576,14 @@ public class WMS implements ApplicationContextAware {
         return getMetadataValue( MAX_RENDERING_SIZE, null, Long.class);
     }
 
+    /**
+     * Returns how many animation frames can be rendered, or waiting to be encoded, at the same
+     * time for a single animation
+     */
+    public int getMaxInflightFrames() {
+        return getMetadataValue(MAX_INFLIGHT_FRAMES, MAX_INFLIGHT_FRAMES_DEFAULT, Integer.class);
+    }
+
     public Integer getFramesDelay() {
         return getMetadataValue(FRAMES_DELAY, FRAMES_DELAY_DEFAULT, Integer.class);
     }
@@ -815,6 +831,9 @@ public class WMS implements ApplicationContextAware {
         defaultDimensionValueFactory = GeoServerExtensions.extensions(
                 DimensionDefaultValueSelectionStrategyFactory.class).get(0);
 
+        dimensionDomainIndex = GeoServerExtensions.bean(FeatureDimensionDomainIndex.class,
+                applicationContext);
+
         // enable/disable map wrapping
         if (ENABLE_MAP_WRAPPING == null) {
             String wrapping = GeoServerExtensions.getProperty("ENABLE_MAP_WRAPPING",
@@ -1188,6 +1207,23 @@ public class WMS implements ApplicationContextAware {
                     + " does not have time support enabled");
         }
 
+        DimensionDomain domain = getDimensionDomain(typeInfo, ResourceInfo.TIME);
+        if (domain != null) {
+            TreeSet<Date> result = new TreeSet<Date>();
+            if (time.getPresentation() == DimensionPresentation.LIST) {
+                if (domain.isEmpty()) {
+                    return null;
+                }
+                for (Object value : domain.getValues()) {
+                    result.add((Date) value);
+                }
+            } else if (!domain.isEmpty()) {
+                result.add((Date) domain.getMinimum());
+                result.add((Date) domain.getMaximum());
+            }
+            return result;
+        }
+
         FeatureCollection collection = getDimensionCollection(typeInfo, time);
 
         TreeSet<Date> result = new TreeSet<Date>();
@@ -1263,12 +1299,30 @@ public class WMS implements ApplicationContextAware {
                     + " does not have elevation support enabled");
         }
 
+        boolean allValues = elevation.getPresentation() == DimensionPresentation.LIST
+                || (elevation.getPresentation() == DimensionPresentation.DISCRETE_INTERVAL && elevation
+                        .getResolution() == null);
+        DimensionDomain domain = getDimensionDomain(typeInfo, ResourceInfo.ELEVATION);
+        if (domain != null) {
+            TreeSet<Double> result = new TreeSet<Double>();
+            if (allValues) {
+                if (domain.isEmpty()) {
+                    return null;
+                }
+                for (Object value : domain.getValues()) {
+                    result.add(((Number) value).doubleValue());
+                }
+            } else if (!domain.isEmpty()) {
+                result.add(((Number) domain.getMinimum()).doubleValue());
+                result.add(((Number) domain.getMaximum()).doubleValue());
+            }
+            return result;
+        }
+
         FeatureCollection collection = getDimensionCollection(typeInfo, elevation);
 
         TreeSet<Double> result = new TreeSet<Double>();
-        if (elevation.getPresentation() == DimensionPresentation.LIST
-                || (elevation.getPresentation() == DimensionPresentation.DISCRETE_INTERVAL && elevation
-                        .getResolution() == null)) {
+        if (allValues) {
             final UniqueVisitor visitor = new UniqueVisitor(elevation.getAttribute());
             collection.accepts(visitor, null);
 
@@ -1315,6 +1369,14 @@ public class WMS implements ApplicationContextAware {
                     + " does not have " + dimensionName + " support enabled");
         }
 
+        DimensionDomain domain = getDimensionDomain(typeInfo, dimensionName);
+        if (domain != null) {
+            TreeSet<Object> result = domain.getValues(range, maxItems);
+            if (result != null) {
+                return result;
+            }
+        }
+
         // filter by date range
         FeatureSource fs = getFeatureSource(typeInfo);
         // build query to grab the time values
@@ -1431,6 +1493,23 @@ public class WMS implements ApplicationContextAware {
         return source.getFeatures(dimQuery);
     }
 
+    /**
+     * Returns the indexed domain of the given dimension, or null if the domain index is not
+     * available
+     */
+    DimensionDomain getDimensionDomain(FeatureTypeInfo typeInfo, String dimensionName) {
+        if (dimensionDomainIndex == null) {
+            return null;
+        }
+        try {
+            return dimensionDomainIndex.getDomain(typeInfo, dimensionName);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to build the " + dimensionName + " domain of "
+                    + typeInfo.prefixedName() + ", scanning the data instead", e);
+            return null;
+        }
+    }
+
     /**
      * Returns the feature source for the given feature type
      */
@@ -0,0 +1,236 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.animate;
+
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.media.jai.RenderedImageList;
+
+import org.geoserver.platform.ServiceException;
+import org.geotools.util.logging.Logging;
+
+/**
+ * The frames of an animation, rendered on demand as the encoder walks the list.
+ * <p>
+ * Frames are rendered in parallel on the animator executor, but at most a given number of them
+ * are rendering, or rendered and waiting for the encoder, at any time. Frames are meant to be
+ * read once and in order: when the encoder moves to a frame, the previous ones are let go and
+ * the rendering of the next ones is scheduled, so that memory usage is bounded regardless of the
+ * animation length. The first frame is kept for the whole life of the list, as it backs the
+ * {@link RenderedImage} methods of the list itself, frames already let go are returned as null.
+ * Frames whose loader returned null are skipped by the encoder, the first frame is then the first
+ * non null one.
+ * </p>
+ */
+public class AnimationFrames extends RenderedImageList {
+
+    private static final long serialVersionUID = -3587128451520566183L;
+
+    static final Logger LOGGER = Logging.getLogger(AnimationFrames.class);
+
+    final transient ExecutorService executor;
+
+    final List<Callable<RenderedImage>> loaders;
+
+    final List<Future<RenderedImage>> futures;
+
+    final int maxInflightFrames;
+
+    final Long maxRenderingSize;
+
+    /**
+     * Index of the next frame to be scheduled for rendering
+     */
+    int scheduled;
+
+    /**
+     * Index of the last frame handed to the encoder
+     */
+    int current;
+
+    /**
+     * Index of the first non null frame
+     */
+    int firstIndex;
+
+    transient RenderedImage first;
+
+    transient RenderedImage currentImage;
+
+    long renderingSize;
+
+    boolean disposed;
+
+    /**
+     * Starts rendering the frames, and waits for the first non null one
+     *
+     * @param loaders the frame loaders, in animation order
+     * @param executor the executor rendering the frames
+     * @param maxInflightFrames the maximum number of frames rendering, or waiting for the encoder
+     * @param maxRenderingSize the maximum size of all frames, in bytes, or null for no limit
+     * @throws IOException if the first frame cannot be rendered, or all frames are null
+     */
+    public AnimationFrames(List<? extends Callable<RenderedImage>> loaders,
+            ExecutorService executor, int maxInflightFrames, Long maxRenderingSize)
+            throws IOException {
+        if (loaders.isEmpty()) {
+            throw new IOException("Empty list of frames.");
+        }
+        this.loaders = new ArrayList<Callable<RenderedImage>>(loaders);
+        this.executor = executor;
+        this.maxInflightFrames = Math.max(1, maxInflightFrames);
+        this.maxRenderingSize = maxRenderingSize;
+        this.futures = new ArrayList<Future<RenderedImage>>(loaders.size());
+        for (int i = 0; i < loaders.size(); i++) {
+            futures.add(null);
+        }
+
+        try {
+            while (first == null && current < loaders.size()) {
+                schedule(current + this.maxInflightFrames);
+                first = take(current);
+                if (first == null) {
+                    current++;
+                }
+            }
+        } catch (Exception e) {
+            dispose();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+        if (first == null) {
+            dispose();
+            throw new IOException("Empty list of frames.");
+        }
+        firstIndex = current;
+        currentImage = first;
+        imageCollection = new FrameAccessor();
+    }
+
+    /**
+     * Returns the frame at the given position, waiting for it to be rendered if necessary
+     */
+    synchronized RenderedImage getFrame(int index) {
+        if (index < 0 || index >= loaders.size()) {
+            throw new IndexOutOfBoundsException("Frame " + index + " of " + loaders.size());
+        }
+        if (index == firstIndex) {
+            return first;
+        } else if (index == current) {
+            return currentImage;
+        } else if (index < current || disposed) {
+            // already let go, or never rendered
+            return null;
+        }
+
+        // let go of the previous frames and make room for the next ones
+        for (int i = current + 1; i < index; i++) {
+            cancel(i);
+        }
+        currentImage = null;
+        current = index;
+        schedule(index + maxInflightFrames);
+        try {
+            currentImage = take(index);
+            return currentImage;
+        } catch (IOException e) {
+            dispose();
+            throw new ServiceException(e);
+        }
+    }
+
+    /**
+     * Schedules the rendering of the frames before the given index
+     */
+    void schedule(int end) {
+        int last = Math.min(end, loaders.size());
+        for (; scheduled < last; scheduled++) {
+            futures.set(scheduled, executor.submit(loaders.get(scheduled)));
+        }
+    }
+
+    /**
+     * Waits for the frame to be rendered and accounts for its size
+     */
+    RenderedImage take(int index) throws IOException {
+        Future<RenderedImage> future = futures.set(index, null);
+        RenderedImage image;
+        try {
+            image = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+
+        if (image != null) {
+            renderingSize += getImageSizeInBytes(image);
+            if (maxRenderingSize != null && renderingSize >= maxRenderingSize) {
+                throw new IOException("Max rendering size exceed!");
+            }
+        }
+        return image;
+    }
+
+    private void cancel(int index) {
+        Future<RenderedImage> future = futures.set(index, null);
+        if (future != null) {
+            future.cancel(true);
+        }
+    }
+
+    private long getImageSizeInBytes(RenderedImage image) {
+        int tileWidth = image.getTileWidth();
+        int tileLength = image.getNumXTiles();
+        int numBands = image.getSampleModel().getNumBands();
+        int[] sampleSize = image.getSampleModel().getSampleSize();
+
+        return (long) Math.ceil(2 * tileWidth * tileLength * numBands * (sampleSize[0] / 8.0));
+    }
+
+    /**
+     * Cancels the rendering of the frames not yet handed to the encoder. The first and current
+     * frames are still returned afterwards, so that they can be disposed of.
+     */
+    public synchronized void dispose() {
+        if (disposed) {
+            return;
+        }
+        disposed = true;
+        for (int i = 0; i < futures.size(); i++) {
+            cancel(i);
+        }
+        if (LOGGER.isLoggable(Level.FINE) && scheduled < loaders.size()) {
+            LOGGER.fine("Animation disposed after rendering " + scheduled + " out of "
+                    + loaders.size() + " frames");
+        }
+    }
+
+    /**
+     * The list view handed to {@link RenderedImageList}
+     */
+    class FrameAccessor extends AbstractList<RenderedImage> {
+
+        @Override
+        public RenderedImage get(int index) {
+            return getFrame(index);
+        }
+
+        @Override
+        public int size() {
+            return loaders.size();
+        }
+    }
+}
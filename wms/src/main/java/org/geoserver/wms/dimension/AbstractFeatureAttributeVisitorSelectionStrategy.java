@@ -12,6 +12,7 @@ import java.util.logging.Logger;
 
 import org.geoserver.catalog.DimensionInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
@@ -61,6 +62,28 @@ public abstract class AbstractFeatureAttributeVisitorSelectionStrategy extends A
         return retval;
     }
 
+    /**
+     * Returns the indexed domain of the given dimension, or null if the
+     * {@link FeatureDimensionDomainIndex} is not available, in which case
+     * the values have to be computed with {@link #getCalculatedResult}
+     * 
+     * @param typeInfo
+     * @param dimensionName
+     */
+    protected DimensionDomain getDimensionDomain(FeatureTypeInfo typeInfo, String dimensionName) {
+        FeatureDimensionDomainIndex index = GeoServerExtensions
+                .bean(FeatureDimensionDomainIndex.class);
+        if (index == null) {
+            return null;
+        }
+        try {
+            return index.getDomain(typeInfo, dimensionName);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINER, e.getMessage(), e);
+            return null;
+        }
+    }
+
     private FeatureCollection<?, ?> getDimensionCollection(FeatureTypeInfo typeInfo,
             DimensionInfo dimension) throws IOException {
         // grab the feature source
@@ -0,0 +1,191 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.dimension;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.geotools.util.Converters;
+import org.geotools.util.Range;
+
+/**
+ * The distinct values of a vector dimension attribute, along with how many features carry each
+ * of them, so that the domain can be kept up to date as features are added and removed.
+ * <p>
+ * Values are stored converted to the attribute binding, nulls are not part of the domain.
+ * Instances are thread safe, and get persisted by the {@link FeatureDimensionDomainIndex}.
+ * </p>
+ */
+public class DimensionDomain implements Serializable {
+
+    private static final long serialVersionUID = 6071383346217208412L;
+
+    private final String attribute;
+
+    private final Class<?> binding;
+
+    private final long created;
+
+    private final TreeMap<Object, Integer> counts = new TreeMap<Object, Integer>();
+
+    public DimensionDomain(String attribute, Class<?> binding) {
+        this.attribute = attribute;
+        this.binding = binding;
+        this.created = System.currentTimeMillis();
+    }
+
+    /**
+     * The dimension attribute this domain has been built from
+     */
+    public String getAttribute() {
+        return attribute;
+    }
+
+    /**
+     * The dimension attribute type
+     */
+    public Class<?> getBinding() {
+        return binding;
+    }
+
+    /**
+     * The time the domain has been built at, in milliseconds since the epoch
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * Adds a feature value to the domain
+     */
+    public synchronized void add(Object value) {
+        update(value, 1);
+    }
+
+    /**
+     * Removes a feature value from the domain, the value leaves the domain when no other feature
+     * carries it
+     */
+    public synchronized void remove(Object value) {
+        update(value, -1);
+    }
+
+    /**
+     * Adds (positive delta) or removes (negative delta) the given number of features with the
+     * specified value
+     */
+    synchronized void update(Object value, int delta) {
+        Object key = toBinding(value);
+        if (key == null) {
+            return;
+        }
+        Integer count = counts.get(key);
+        int updated = (count == null ? 0 : count) + delta;
+        if (updated > 0) {
+            counts.put(key, updated);
+        } else {
+            counts.remove(key);
+        }
+    }
+
+    /**
+     * Returns true if no feature carries a value for the dimension
+     */
+    public synchronized boolean isEmpty() {
+        return counts.isEmpty();
+    }
+
+    /**
+     * Returns the number of distinct values
+     */
+    public synchronized int size() {
+        return counts.size();
+    }
+
+    /**
+     * Returns the distinct values, sorted
+     */
+    public synchronized TreeSet<Object> getValues() {
+        return new TreeSet<Object>(counts.keySet());
+    }
+
+    /**
+     * Returns the first distinct values, up to maxItems, falling in the given range (inclusive),
+     * or null if the range cannot be compared with the domain values
+     */
+    public synchronized TreeSet<Object> getValues(Range<?> range, int maxItems) {
+        Object min = toBinding(range.getMinValue());
+        Object max = toBinding(range.getMaxValue());
+        if (min == null || max == null) {
+            return null;
+        }
+        TreeSet<Object> result = new TreeSet<Object>();
+        for (Object value : counts.subMap(min, true, max, true).keySet()) {
+            if (maxItems > 0 && result.size() >= maxItems) {
+                break;
+            }
+            result.add(value);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the smallest value, or null if the domain is empty
+     */
+    public synchronized Object getMinimum() {
+        return counts.isEmpty() ? null : counts.firstKey();
+    }
+
+    /**
+     * Returns the largest value, or null if the domain is empty
+     */
+    public synchronized Object getMaximum() {
+        return counts.isEmpty() ? null : counts.lastKey();
+    }
+
+    /**
+     * Returns the value closest to the reference one, or null if the domain is empty or the
+     * distance between values cannot be computed (only numbers and dates are supported)
+     */
+    public synchronized Object getNearest(Object reference) {
+        Object target = toBinding(reference);
+        if (target == null || counts.isEmpty()
+                || !(target instanceof Number || target instanceof Date)) {
+            return null;
+        }
+        Map.Entry<Object, Integer> below = counts.floorEntry(target);
+        Map.Entry<Object, Integer> above = counts.ceilingEntry(target);
+        if (below == null) {
+            return above.getKey();
+        } else if (above == null) {
+            return below.getKey();
+        }
+        double distanceBelow = distance(below.getKey(), target);
+        double distanceAbove = distance(above.getKey(), target);
+        return distanceAbove < distanceBelow ? above.getKey() : below.getKey();
+    }
+
+    static double distance(Object a, Object b) {
+        if (a instanceof Date) {
+            return Math.abs(((Date) a).getTime() - ((Date) b).getTime());
+        } else {
+            return Math.abs(((Number) a).doubleValue() - ((Number) b).doubleValue());
+        }
+    }
+
+    Object toBinding(Object value) {
+        if (value == null || binding.isInstance(value)) {
+            return value;
+        }
+        // dates of different types compare fine, and converting might lose precision
+        if (value instanceof Date && Date.class.isAssignableFrom(binding)) {
+            return value;
+        }
+        return Converters.convert(value, binding);
+    }
+}
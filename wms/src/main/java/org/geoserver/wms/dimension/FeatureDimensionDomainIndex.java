@@ -0,0 +1,583 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.dimension;
+
+import static org.geoserver.platform.GeoServerExtensions.getIntProperty;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
+
+import net.opengis.wfs.TransactionResponseType;
+import net.opengis.wfs.TransactionType;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.DimensionInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.resource.Resource;
+import org.geoserver.platform.resource.Resource.Type;
+import org.geoserver.security.AccessLimits;
+import org.geoserver.security.DataAccessLimits;
+import org.geoserver.security.VectorAccessLimits;
+import org.geoserver.security.WrapperPolicy;
+import org.geoserver.security.decorators.DecoratingFeatureTypeInfo;
+import org.geoserver.security.decorators.SecuredFeatureTypeInfo;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionEventType;
+import org.geoserver.wfs.TransactionPlugin;
+import org.geoserver.wfs.WFSException;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.factory.GeoTools;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.Property;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.type.PropertyDescriptor;
+import org.opengis.filter.Filter;
+import org.opengis.filter.expression.PropertyName;
+
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * Keeps the {@link DimensionDomain} of the dimension enabled vector layers, so that capabilities
+ * documents and default value lookups do not need to scan the whole data set each time.
+ * <p>
+ * Domains are built on first use with a single pass over the dimension attribute, and persisted
+ * in the {@value #INDEX_DIRECTORY} directory of the data directory, so that they survive
+ * restarts. Afterwards they are kept up to date by WFS transactions (applied on commit), and
+ * dropped when the feature type, or its store, are modified or removed.
+ * </p>
+ * <p>
+ * Domains are shared among users, so they are built from the raw catalog, and not used for the
+ * users whose access limits filter the features or hide the dimension attribute.
+ * </p>
+ * <p>
+ * Changes made to the data outside of GeoServer cannot be tracked, so the index is disabled by
+ * default, the {@value #INDEX_PROPERTY} system/environment/servlet context variable enables it,
+ * while {@value #INDEX_TTL_PROPERTY} sets after how many seconds a domain gets rebuilt anyways
+ * (defaults to zero, never).
+ * </p>
+ */
+public class FeatureDimensionDomainIndex implements TransactionPlugin, CatalogListener,
+        GeoServerLifecycleHandler {
+
+    static final Logger LOGGER = Logging.getLogger(FeatureDimensionDomainIndex.class);
+
+    /**
+     * Property enabling the index
+     */
+    public static final String INDEX_PROPERTY = "WMS_DIMENSION_DOMAIN_INDEX";
+
+    /**
+     * Property holding the time to live of the domains, in seconds
+     */
+    public static final String INDEX_TTL_PROPERTY = "WMS_DIMENSION_DOMAIN_INDEX_TTL";
+
+    /**
+     * The data directory folder holding the persisted domains
+     */
+    public static final String INDEX_DIRECTORY = "dimension-index";
+
+    /**
+     * Key of the transaction extended property collecting the changes made to the domains
+     */
+    static final String TRANSACTION_CHANGES = "DIMENSION_DOMAIN_INDEX_CHANGES";
+
+    /**
+     * Feature type properties that do not affect the data
+     */
+    static final Set<String> DESCRIPTIVE_PROPERTIES = new HashSet<String>(Arrays.asList("title",
+            "abstract", "description", "keywords", "metadataLinks", "dataLinks"));
+
+    private final Catalog catalog;
+
+    private final boolean enabled;
+
+    private final long ttl;
+
+    private final Map<String, DimensionDomain> domains = new ConcurrentHashMap<String, DimensionDomain>();
+
+    private final Map<String, Tracker> trackers = new ConcurrentHashMap<String, Tracker>();
+
+    private final Striped<Lock> locks = Striped.lock(64);
+
+    /**
+     * Tracks the transactions changing a domain, so that a domain built while one of them was
+     * running, which might or might not contain its changes, does not get them applied twice
+     */
+    static class Tracker {
+        /**
+         * The transactions that changed the domain values, and are not over yet
+         */
+        final AtomicInteger pending = new AtomicInteger();
+
+        /**
+         * Incremented each time a transaction changing the domain is over
+         */
+        final AtomicLong version = new AtomicLong();
+
+        boolean isQuiet(long expectedVersion) {
+            return pending.get() == 0 && version.get() == expectedVersion;
+        }
+    }
+
+    /**
+     * @param rawCatalog the catalog without security wrappers, the domains are shared among users
+     */
+    public FeatureDimensionDomainIndex(Catalog rawCatalog) {
+        this(rawCatalog, Boolean.valueOf(GeoServerExtensions.getProperty(INDEX_PROPERTY)),
+                getIntProperty(INDEX_TTL_PROPERTY, 0));
+        catalog.addListener(this);
+    }
+
+    FeatureDimensionDomainIndex(Catalog catalog, boolean enabled, int ttlSeconds) {
+        this.catalog = catalog;
+        this.enabled = enabled;
+        this.ttl = TimeUnit.SECONDS.toMillis(Math.max(0, ttlSeconds));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the domain of the given dimension, building it if needed, or null if the index is
+     * disabled, the dimension is not enabled on the feature type, or the access limits of the
+     * feature type do not allow to see the whole domain
+     */
+    public DimensionDomain getDomain(FeatureTypeInfo typeInfo, String dimensionName)
+            throws IOException {
+        if (!enabled) {
+            return null;
+        }
+        DimensionInfo dimension = typeInfo.getMetadata().get(dimensionName, DimensionInfo.class);
+        if (dimension == null || !dimension.isEnabled() || dimension.getAttribute() == null) {
+            return null;
+        }
+        if (!isFullyReadable(typeInfo, dimension.getAttribute())) {
+            return null;
+        }
+
+        String key = getKey(typeInfo.getId(), dimensionName);
+        DimensionDomain domain = domains.get(key);
+        if (isValid(domain, dimension)) {
+            return domain;
+        }
+
+        Lock lock = locks.get(key);
+        lock.lock();
+        try {
+            domain = domains.get(key);
+            if (isValid(domain, dimension)) {
+                return domain;
+            }
+            Resource resource = getResource(typeInfo.getId(), dimensionName);
+            domain = load(resource);
+            if (!isValid(domain, dimension)) {
+                Tracker tracker = getTracker(key);
+                long version = tracker.version.get();
+                boolean quiet = tracker.pending.get() == 0;
+                // the domain is shared, scan the data as is, not as the current user sees it
+                FeatureTypeInfo rawTypeInfo = catalog.getFeatureType(typeInfo.getId());
+                if (rawTypeInfo == null) {
+                    return null;
+                }
+                domain = build(rawTypeInfo, dimension);
+                if (!quiet || !tracker.isQuiet(version)) {
+                    // a transaction was running, the scan might or might not contain its changes
+                    LOGGER.fine("Transactions changed the " + dimensionName + " domain of "
+                            + typeInfo.prefixedName() + " while it was built, not caching it");
+                    return domain;
+                }
+                store(domain, resource);
+            }
+            domains.put(key, domain);
+            return domain;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Tracker getTracker(String key) {
+        return trackers.computeIfAbsent(key, k -> new Tracker());
+    }
+
+    /**
+     * Returns true if the current user can see the whole domain, that is, if the feature type
+     * access limits do not filter the features, nor hide the dimension attribute
+     */
+    static boolean isFullyReadable(FeatureTypeInfo typeInfo, String attribute) {
+        if (typeInfo instanceof SecuredFeatureTypeInfo) {
+            WrapperPolicy policy = ((SecuredFeatureTypeInfo) typeInfo).getPolicy();
+            if (policy.isMetadata()) {
+                return false;
+            }
+            AccessLimits limits = policy.getLimits();
+            if (limits instanceof DataAccessLimits) {
+                Filter readFilter = ((DataAccessLimits) limits).getReadFilter();
+                if (readFilter != null && readFilter != Filter.INCLUDE) {
+                    return false;
+                }
+            }
+            if (limits instanceof VectorAccessLimits) {
+                List<PropertyName> readAttributes = ((VectorAccessLimits) limits)
+                        .getReadAttributes();
+                if (readAttributes != null) {
+                    return readAttributes.stream()
+                            .anyMatch(p -> attribute.equals(p.getPropertyName()));
+                }
+            }
+            return true;
+        }
+        // other decorators might change the data in ways we cannot tell
+        return !(typeInfo instanceof DecoratingFeatureTypeInfo);
+    }
+
+    boolean isValid(DimensionDomain domain, DimensionInfo dimension) {
+        return domain != null && domain.getAttribute().equals(dimension.getAttribute())
+                && (ttl <= 0 || System.currentTimeMillis() - domain.getCreated() < ttl);
+    }
+
+    /**
+     * Scans the dimension attribute values
+     */
+    DimensionDomain build(FeatureTypeInfo typeInfo, DimensionInfo dimension) throws IOException {
+        FeatureSource<?, ?> source = typeInfo.getFeatureSource(null, GeoTools.getDefaultHints());
+        final String attribute = dimension.getAttribute();
+        PropertyDescriptor descriptor = source.getSchema().getDescriptor(attribute);
+        if (descriptor == null) {
+            throw new IOException("Could not find dimension attribute " + attribute + " in "
+                    + typeInfo.prefixedName());
+        }
+
+        final DimensionDomain domain = new DimensionDomain(attribute,
+                descriptor.getType().getBinding());
+        Query query = new Query(source.getSchema().getName().getLocalPart());
+        query.setPropertyNames(Arrays.asList(attribute));
+        long start = System.currentTimeMillis();
+        source.getFeatures(query).accepts(feature -> {
+            Property property = feature.getProperty(attribute);
+            if (property != null) {
+                domain.add(property.getValue());
+            }
+        }, null);
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Built the " + attribute + " domain of " + typeInfo.prefixedName()
+                    + " in " + (System.currentTimeMillis() - start) + "ms, "
+                    + domain.size() + " distinct values");
+        }
+
+        return domain;
+    }
+
+    DimensionDomain load(Resource resource) {
+        if (resource.getType() != Type.RESOURCE) {
+            return null;
+        }
+        try (InputStream in = resource.in(); ObjectInputStream ois = new ObjectInputStream(in)) {
+            return (DimensionDomain) ois.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            LOGGER.log(Level.FINE, "Could not read the persisted domain " + resource.path()
+                    + ", rebuilding it", e);
+            return null;
+        }
+    }
+
+    void store(DimensionDomain domain, Resource resource) {
+        try (OutputStream out = resource.out(); ObjectOutputStream oos = new ObjectOutputStream(out)) {
+            synchronized (domain) {
+                oos.writeObject(domain);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not persist the domain " + resource.path(), e);
+        }
+    }
+
+    Resource getResource(String featureTypeId, String dimensionName) {
+        return getDirectory(featureTypeId).get(toFileName(dimensionName) + ".ser");
+    }
+
+    Resource getDirectory(String featureTypeId) {
+        return catalog.getResourceLoader().get(INDEX_DIRECTORY).get(toFileName(featureTypeId));
+    }
+
+    static String toFileName(String name) {
+        return name.replaceAll("[^A-Za-z0-9_\\-\\.]", "_");
+    }
+
+    static String getKey(String featureTypeId, String dimensionName) {
+        return featureTypeId + "/" + dimensionName;
+    }
+
+    /**
+     * Drops the domains of the given feature type, both in memory and on disk
+     */
+    public void drop(String featureTypeId) {
+        String prefix = getKey(featureTypeId, "");
+        domains.keySet().removeIf(key -> key.startsWith(prefix));
+        if (enabled) {
+            getDirectory(featureTypeId).delete();
+        }
+    }
+
+    /**
+     * Drops all the domains, both in memory and on disk
+     */
+    public void clear() {
+        domains.clear();
+        if (enabled) {
+            catalog.getResourceLoader().get(INDEX_DIRECTORY).delete();
+        }
+    }
+
+    /**
+     * Returns the names of the enabled dimensions with an attribute
+     */
+    static Map<String, String> getDimensionAttributes(FeatureTypeInfo typeInfo) {
+        Map<String, String> result = new HashMap<String, String>();
+        for (Map.Entry<String, Serializable> entry : typeInfo.getMetadata().entrySet()) {
+            if (entry.getValue() instanceof DimensionInfo) {
+                DimensionInfo dimension = (DimensionInfo) entry.getValue();
+                if (dimension.isEnabled() && dimension.getAttribute() != null) {
+                    result.put(entry.getKey(), dimension.getAttribute());
+                }
+            }
+        }
+        return result;
+    }
+
+    // ----------------------------------------------------------------------------------------
+    // Transaction plugin methods
+    // ----------------------------------------------------------------------------------------
+
+    @Override
+    public TransactionType beforeTransaction(TransactionType request) throws WFSException {
+        return request;
+    }
+
+    @Override
+    public void beforeCommit(TransactionType request) throws WFSException {
+        // nothing to do
+    }
+
+    /**
+     * Collects the dimension values being removed and added, they are going to be applied
+     * to the domains only if the transaction gets committed
+     */
+    @Override
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        if (!enabled) {
+            return;
+        }
+        int delta;
+        TransactionEventType type = event.getType();
+        if (TransactionEventType.POST_INSERT.equals(type)
+                || TransactionEventType.POST_UPDATE.equals(type)) {
+            delta = 1;
+        } else if (TransactionEventType.PRE_UPDATE.equals(type)
+                || TransactionEventType.PRE_DELETE.equals(type)) {
+            delta = -1;
+        } else {
+            return;
+        }
+
+        QName name = event.getLayerName();
+        FeatureTypeInfo typeInfo = catalog.getFeatureTypeByName(name.getNamespaceURI(),
+                name.getLocalPart());
+        if (typeInfo == null) {
+            return;
+        }
+        Map<String, String> attributes = getDimensionAttributes(typeInfo);
+        if (attributes.isEmpty()) {
+            return;
+        }
+
+        try {
+            Map<String, Map<Object, Integer>> changes = getChanges(event.getRequest());
+            SimpleFeatureCollection features = event.getAffectedFeatures();
+            try (SimpleFeatureIterator it = features.features()) {
+                while (it.hasNext()) {
+                    SimpleFeature feature = it.next();
+                    for (Map.Entry<String, String> entry : attributes.entrySet()) {
+                        Object value = feature.getAttribute(entry.getValue());
+                        if (value != null) {
+                            Map<Object, Integer> domainChanges = changes.computeIfAbsent(
+                                    getKey(typeInfo.getId(), entry.getKey()), k -> {
+                                        // pending until the transaction is over
+                                        getTracker(k).pending.incrementAndGet();
+                                        return new HashMap<Object, Integer>();
+                                    });
+                            domainChanges.merge(value, delta, Integer::sum);
+                        }
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // do not make the transaction fail, just forget about the domains
+            LOGGER.log(Level.WARNING, "Failed to track the dimension values changes of "
+                    + typeInfo.prefixedName() + ", dropping its domains", e);
+            drop(typeInfo.getId());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    Map<String, Map<Object, Integer>> getChanges(TransactionType request) {
+        Map<Object, Object> properties = request.getExtendedProperties();
+        Map<String, Map<Object, Integer>> changes = (Map<String, Map<Object, Integer>>) properties
+                .get(TRANSACTION_CHANGES);
+        if (changes == null) {
+            changes = new HashMap<String, Map<Object, Integer>>();
+            properties.put(TRANSACTION_CHANGES, changes);
+        }
+        return changes;
+    }
+
+    @Override
+    public void afterTransaction(TransactionType request, TransactionResponseType result,
+            boolean committed) {
+        if (!enabled) {
+            return;
+        }
+        Map<String, Map<Object, Integer>> changes = getChanges(request);
+        for (Map.Entry<String, Map<Object, Integer>> entry : changes.entrySet()) {
+            String key = entry.getKey();
+            String featureTypeId = key.substring(0, key.lastIndexOf('/'));
+            String dimensionName = key.substring(key.lastIndexOf('/') + 1);
+            Lock lock = locks.get(key);
+            lock.lock();
+            try {
+                Tracker tracker = getTracker(key);
+                tracker.version.incrementAndGet();
+                tracker.pending.decrementAndGet();
+                if (!committed) {
+                    continue;
+                }
+                DimensionDomain domain = domains.get(key);
+                Resource resource = getResource(featureTypeId, dimensionName);
+                if (domain == null) {
+                    // not loaded, the persisted copy (if any) is stale
+                    resource.delete();
+                    continue;
+                }
+                for (Map.Entry<Object, Integer> change : entry.getValue().entrySet()) {
+                    domain.update(change.getKey(), change.getValue());
+                }
+                store(domain, resource);
+            } finally {
+                lock.unlock();
+            }
+        }
+        changes.clear();
+    }
+
+    @Override
+    public int getPriority() {
+        return 0;
+    }
+
+    // ----------------------------------------------------------------------------------------
+    // Catalog listener methods
+    // ----------------------------------------------------------------------------------------
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) {
+        // new feature types get indexed on first use
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) {
+        CatalogInfo source = event.getSource();
+        if (source instanceof FeatureTypeInfo) {
+            drop(source.getId());
+        }
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) {
+        // wait for the post modify event
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+        CatalogInfo source = event.getSource();
+        if (source instanceof FeatureTypeInfo) {
+            if (!isDescriptive(event.getPropertyNames())) {
+                drop(source.getId());
+            }
+        } else if (source instanceof DataStoreInfo) {
+            // connection parameters might now point to different data
+            for (FeatureTypeInfo typeInfo : catalog.getFeatureTypesByDataStore((DataStoreInfo) source)) {
+                drop(typeInfo.getId());
+            }
+        }
+    }
+
+    static boolean isDescriptive(List<String> propertyNames) {
+        for (String name : propertyNames) {
+            if (!DESCRIPTIVE_PROPERTIES.contains(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void reloaded() {
+        domains.clear();
+    }
+
+    // ----------------------------------------------------------------------------------------
+    // Lifecycle methods
+    // ----------------------------------------------------------------------------------------
+
+    @Override
+    public void onReset() {
+        clear();
+    }
+
+    @Override
+    public void onDispose() {
+        domains.clear();
+    }
+
+    @Override
+    public void beforeReload() {
+        // nothing to do
+    }
+
+    @Override
+    public void onReload() {
+        domains.clear();
+    }
+}
@@ -13,6 +13,7 @@ import org.geoserver.catalog.DimensionInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.wms.dimension.AbstractFeatureAttributeVisitorSelectionStrategy;
+import org.geoserver.wms.dimension.DimensionDomain;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.visitor.CalcResult;
 import org.geotools.feature.visitor.FeatureCalc;
@@ -67,6 +68,17 @@ public class FeatureNearestValueSelectionStrategyImpl extends
             }                       
         }
 
+        DimensionDomain domain = getDimensionDomain((FeatureTypeInfo) resource, dimensionName);
+        if (domain != null) {
+            if (domain.isEmpty()) {
+                return null;
+            }
+            Object value = domain.getNearest(this.toMatch);
+            if (value != null) {
+                return Converters.convert(value, clz);
+            }
+        }
+
         final FeatureCalc nearest = new NearestVisitor(ff.property(dimension.getAttribute()),
                 this.toMatch);
         
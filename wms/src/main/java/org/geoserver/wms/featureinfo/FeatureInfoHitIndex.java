@@ -0,0 +1,271 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.featureinfo;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.styling.Style;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.type.FeatureType;
+import org.opengis.filter.Filter;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygonal;
+import com.vividsolutions.jts.geom.Puntal;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * A spatial index of the features painted in a map, used by {@link VectorRenderingLayerIdentifier}
+ * to answer the clicks on a map it has already seen without painting it again.
+ * <p>
+ * Each feature is indexed with the parts of its geometry, in the map CRS, its symbols are painted
+ * on (see {@link Footprint}) and the radius, in pixels, of the largest symbol painted on each of
+ * them: a click hits the feature if it is within that radius plus the request buffer from one of
+ * the parts. This approximates the painted footprint, so the index is only used for styles whose
+ * symbol sizes are static and that do not transform the geometries (see
+ * {@link VectorRenderingLayerIdentifier.StyleAnalysis}).
+ * </p>
+ */
+class FeatureInfoHitIndex {
+
+    static final GeometryFactory GF = new GeometryFactory();
+
+    /**
+     * The part of a geometry a symbolizer paints on, mirroring the style prepared by
+     * {@link FeatureInfoStylePreprocessor}, which fills all polygon symbolizers and removes the
+     * labels
+     */
+    enum Footprint {
+        /**
+         * The whole geometry, for polygon symbolizers
+         */
+        AREA,
+        /**
+         * The outline of polygons, the geometry itself otherwise, for line symbolizers
+         */
+        OUTLINE,
+        /**
+         * The points of point geometries, the centroid of the others, for point symbolizers
+         */
+        POINT;
+
+        /**
+         * Returns the part of the geometry painted
+         */
+        Geometry apply(Geometry geometry) {
+            switch (this) {
+            case OUTLINE:
+                return geometry instanceof Polygonal ? geometry.getBoundary() : geometry;
+            case POINT:
+                return geometry instanceof Puntal ? geometry : geometry.getCentroid();
+            default:
+                return geometry;
+            }
+        }
+    }
+
+    /**
+     * Identifies a map, that is, the features painted, their position on screen and their
+     * symbols
+     */
+    static class Key {
+        final String layer;
+
+        final Style style;
+
+        final FeatureType schema;
+
+        final String user;
+
+        final ReferencedEnvelope bounds;
+
+        final int width;
+
+        final int height;
+
+        final Integer dpi;
+
+        final Filter filter;
+
+        final Map<String, String> viewParams;
+
+        final String featureVersion;
+
+        final Integer startIndex;
+
+        final int maxFeatures;
+
+        /**
+         * The data generation the index is built from, changes with each WFS transaction
+         */
+        final long generation;
+
+        Key(String layer, Style style, FeatureType schema, String user,
+                ReferencedEnvelope bounds, int width, int height, Integer dpi, Filter filter,
+                Map<String, String> viewParams, String featureVersion, Integer startIndex,
+                int maxFeatures, long generation) {
+            this.layer = layer;
+            this.style = style;
+            this.schema = schema;
+            this.user = user;
+            this.bounds = bounds;
+            this.width = width;
+            this.height = height;
+            this.dpi = dpi;
+            this.filter = filter;
+            this.viewParams = viewParams;
+            this.featureVersion = featureVersion;
+            this.startIndex = startIndex;
+            this.maxFeatures = maxFeatures;
+            this.generation = generation;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            // the catalog hands out new style and feature type instances when they change
+            return style == other.style && schema == other.schema && width == other.width
+                    && height == other.height && maxFeatures == other.maxFeatures
+                    && generation == other.generation
+                    && Objects.equals(layer, other.layer) && Objects.equals(user, other.user)
+                    && Objects.equals(bounds, other.bounds) && Objects.equals(dpi, other.dpi)
+                    && Objects.equals(filter, other.filter)
+                    && Objects.equals(viewParams, other.viewParams)
+                    && Objects.equals(featureVersion, other.featureVersion)
+                    && Objects.equals(startIndex, other.startIndex);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(layer, System.identityHashCode(style), user, bounds, width,
+                    height, filter);
+        }
+    }
+
+    /**
+     * A feature, as painted on the map
+     */
+    static class Entry {
+        final SimpleFeature feature;
+
+        final Envelope envelope;
+
+        /**
+         * The parts of the geometry painted, and the radius of the largest symbol on each
+         */
+        final Geometry[] parts;
+
+        final int[] radii;
+
+        final int radius;
+
+        final int order;
+
+        /**
+         * @param feature the feature
+         * @param geometry the feature geometry, in the map CRS
+         * @param footprints the radius of the largest symbol painted on each footprint
+         * @param order the painting order
+         */
+        Entry(SimpleFeature feature, Geometry geometry, Map<Footprint, Integer> footprints,
+                int order) {
+            this.feature = feature;
+            this.envelope = geometry.getEnvelopeInternal();
+            this.parts = new Geometry[footprints.size()];
+            this.radii = new int[footprints.size()];
+            int i = 0;
+            int max = 0;
+            for (Map.Entry<Footprint, Integer> footprint : footprints.entrySet()) {
+                parts[i] = footprint.getKey().apply(geometry);
+                radii[i] = footprint.getValue();
+                max = Math.max(max, radii[i]);
+                i++;
+            }
+            this.radius = max;
+            this.order = order;
+        }
+
+        /**
+         * Returns true if one of the symbols painted is within the buffer from the point
+         */
+        boolean isHit(Point point, double pixelSize, int buffer) {
+            for (int i = 0; i < parts.length; i++) {
+                if (parts[i].isWithinDistance(point, (radii[i] + buffer) * pixelSize)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    final STRtree tree = new STRtree();
+
+    final int size;
+
+    final int maxRadius;
+
+    final boolean complete;
+
+    /**
+     * @param entries the painted features
+     * @param complete false if the map had too many features to be indexed, in which case the
+     *        index cannot be queried
+     */
+    FeatureInfoHitIndex(List<Entry> entries, boolean complete) {
+        int radius = 0;
+        for (Entry entry : entries) {
+            tree.insert(entry.envelope, entry);
+            radius = Math.max(radius, entry.radius);
+        }
+        // build upfront, so that concurrent queries only read the tree
+        tree.build();
+        this.size = entries.size();
+        this.maxRadius = radius;
+        this.complete = complete;
+    }
+
+    /**
+     * Returns the features hit by a click, in painting order
+     *
+     * @param click the click position, in the map CRS
+     * @param pixelSize the size of a pixel, in the map CRS units
+     * @param buffer the tolerance around the click, in pixels
+     * @param maxFeatures the maximum number of features to return
+     */
+    @SuppressWarnings("unchecked")
+    List<SimpleFeature> query(Coordinate click, double pixelSize, int buffer, int maxFeatures) {
+        Envelope searchArea = new Envelope(click);
+        searchArea.expandBy((maxRadius + buffer) * pixelSize);
+        List<Entry> candidates = new ArrayList<>(tree.query(searchArea));
+        candidates.sort(Comparator.comparingInt(e -> e.order));
+
+        Point point = GF.createPoint(click);
+        List<SimpleFeature> result = new ArrayList<>();
+        for (Entry entry : candidates) {
+            if (result.size() >= maxFeatures) {
+                break;
+            }
+            if (entry.isHit(point, pixelSize, buffer)) {
+                result.add(entry.feature);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,53 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.featureinfo;
+
+import net.opengis.wfs.TransactionResponseType;
+import net.opengis.wfs.TransactionType;
+
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionPlugin;
+import org.geoserver.wfs.WFSException;
+
+/**
+ * Drops the maps indexed by the {@link VectorRenderingLayerIdentifier} once a WFS transaction
+ * commits, as the features they contain might have changed
+ */
+public class FeatureInfoHitIndexTransactionListener implements TransactionPlugin {
+
+    final VectorRenderingLayerIdentifier identifier;
+
+    public FeatureInfoHitIndexTransactionListener(VectorRenderingLayerIdentifier identifier) {
+        this.identifier = identifier;
+    }
+
+    @Override
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        // nothing to do, the changes are not visible until committed
+    }
+
+    @Override
+    public TransactionType beforeTransaction(TransactionType request) throws WFSException {
+        return request;
+    }
+
+    @Override
+    public void beforeCommit(TransactionType request) throws WFSException {
+        // nothing to do
+    }
+
+    @Override
+    public void afterTransaction(TransactionType request, TransactionResponseType result,
+            boolean committed) {
+        if (committed) {
+            identifier.invalidateHitIndexes();
+        }
+    }
+
+    @Override
+    public int getPriority() {
+        return 0;
+    }
+}
@@ -5,6 +5,8 @@
  */
 package org.geoserver.wms.featureinfo;
 
+import static org.geoserver.platform.GeoServerExtensions.getIntProperty;
+
 import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Composite;
@@ -13,6 +15,7 @@ import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.RenderingHints.Key;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.awt.image.DirectColorModel;
@@ -22,12 +25,18 @@ import java.awt.image.RenderedImage;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -35,6 +44,7 @@ import javax.imageio.ImageTypeSpecifier;
 
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.platform.ExtensionPriority;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.security.decorators.DecoratingFeatureSource;
 import org.geoserver.wms.FeatureInfoRequestParameters;
@@ -44,6 +54,7 @@ import org.geoserver.wms.MapLayerInfo;
 import org.geoserver.wms.RenderingVariables;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSMapContent;
+import org.geoserver.wms.featureinfo.FeatureInfoHitIndex.Footprint;
 import org.geoserver.wms.map.RenderedImageMapOutputFormat;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
@@ -52,20 +63,27 @@ import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.factory.Hints;
 import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.geometry.jts.JTS;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.map.FeatureLayer;
+import org.geotools.referencing.CRS;
 import org.geotools.referencing.operation.transform.AffineTransform2D;
 import org.geotools.renderer.RenderListener;
 import org.geotools.renderer.lite.GraphicsAwareDpiRescaleStyleVisitor;
 import org.geotools.renderer.lite.MetaBufferEstimator;
 import org.geotools.renderer.lite.RendererUtilities;
 import org.geotools.renderer.lite.StreamingRenderer;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.LineSymbolizer;
+import org.geotools.styling.PointSymbolizer;
+import org.geotools.styling.PolygonSymbolizer;
 import org.geotools.styling.Rule;
 import org.geotools.styling.Style;
 import org.geotools.styling.StyleAttributeExtractor;
+import org.geotools.styling.Symbolizer;
 import org.geotools.styling.visitor.DpiRescaleStyleVisitor;
 import org.geotools.styling.visitor.UomRescaleStyleVisitor;
 import org.geotools.util.logging.Logging;
@@ -78,13 +96,31 @@ import org.opengis.filter.Filter;
 import org.opengis.filter.FilterFactory2;
 import org.opengis.filter.spatial.BBOX;
 import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
 
 /**
  * Painting based layer identifier: this method actually paints a reduced version of the map to find
  * out which features really intercept the clicked point
+ * <p>
+ * The analysis of the style (active rules, symbol sizes) is cached per style, feature type, scale
+ * and dpi, the size of the cache is controlled by the "WMS_FEATUREINFO_STYLE_CACHE_SIZE" variable.
+ * Setting the "WMS_FEATUREINFO_INDEX" variable to "true" enables an alternate strategy for styles
+ * with static symbol sizes and no rendering transformations: the features of the map being clicked
+ * are indexed (see {@link FeatureInfoHitIndex}), and the index reused by the following clicks on
+ * the same map for "WMS_FEATUREINFO_INDEX_TTL" seconds (defaults to 60). Maps having more than
+ * "WMS_FEATUREINFO_INDEX_MAX_FEATURES" features (defaults to 10000) are not indexed. The indexes
+ * are dropped by WFS transactions (see {@link FeatureInfoHitIndexTransactionListener}).
+ * </p>
  * 
  * @author Andrea Aime - GeoSolutions
  * 
@@ -100,6 +136,31 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
     private WMS wms;
     private VectorBasicLayerIdentifier fallback;
     private static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+
+    static final String STYLE_CACHE_SIZE = "WMS_FEATUREINFO_STYLE_CACHE_SIZE";
+
+    static final String HIT_INDEX = "WMS_FEATUREINFO_INDEX";
+
+    static final String HIT_INDEX_TTL = "WMS_FEATUREINFO_INDEX_TTL";
+
+    static final String HIT_INDEX_MAX_FEATURES = "WMS_FEATUREINFO_INDEX_MAX_FEATURES";
+
+    /**
+     * How many maps can be indexed at the same time, at most
+     */
+    static final int HIT_INDEX_COUNT = 10;
+
+    final Cache<StyleKey, StyleAnalysis> styleCache;
+
+    final Cache<FeatureInfoHitIndex.Key, FeatureInfoHitIndex> hitIndexes;
+
+    final int hitIndexMaxFeatures;
+
+    /**
+     * Part of the hit index keys, incremented when the data changes so that the maps indexed
+     * before, or while, the change happened are not used anymore
+     */
+    final AtomicLong hitIndexGeneration = new AtomicLong();
     
     static {
         String value = System.getProperty(FEATURE_INFO_RENDERING_ENABLED_KEY, "true");
@@ -112,8 +173,30 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
     public VectorRenderingLayerIdentifier(WMS wms, VectorBasicLayerIdentifier fallback) {
         this.wms = wms;
         this.fallback = fallback;
+        this.styleCache = CacheBuilder.newBuilder()
+                .maximumSize(getIntProperty(STYLE_CACHE_SIZE, 100, 1)).build();
+        this.hitIndexMaxFeatures = getIntProperty(HIT_INDEX_MAX_FEATURES, 10000, 1);
+        if (Boolean.parseBoolean(GeoServerExtensions.getProperty(HIT_INDEX))) {
+            this.hitIndexes = CacheBuilder.newBuilder()
+                    .maximumWeight((long) hitIndexMaxFeatures * HIT_INDEX_COUNT)
+                    .weigher((FeatureInfoHitIndex.Key k, FeatureInfoHitIndex v) -> v.size + 1)
+                    .expireAfterWrite(getIntProperty(HIT_INDEX_TTL, 60, 1), TimeUnit.SECONDS)
+                    .build();
+        } else {
+            this.hitIndexes = null;
+        }
     }
     
+    /**
+     * Drops the indexed maps, their features might have changed
+     */
+    void invalidateHitIndexes() {
+        hitIndexGeneration.incrementAndGet();
+        if (hitIndexes != null) {
+            hitIndexes.invalidateAll();
+        }
+    }
+
     @Override
     public boolean canHandle(MapLayerInfo layer) {
         // selectively disable based on system settings
@@ -135,15 +218,25 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
             return fallback.identify(params, maxFeatures);
         }
         
-        final Style style = preprocessStyle(params.getStyle(), params.getLayer().getFeature().getFeatureType());
+        final StyleAnalysis analysis = getStyleAnalysis(params);
+        final Style style = analysis.style;
         final int userBuffer = params.getBuffer() > 0 ? params.getBuffer() : MIN_BUFFER_SIZE;
         final int buffer = getBuffer(userBuffer);
 
         // check the style to see what's active
-        final List<Rule> rules = getActiveRules(style, params.getScaleDenominator());
-        if (rules.size() == 0) {
+        if (analysis.rules.size() == 0) {
             return null;
         }
+
+        // can we avoid painting altogether?
+        if (hitIndexes != null && analysis.indexable) {
+            List<SimpleFeature> features = identifyFromIndex(params, analysis, buffer,
+                    maxFeatures);
+            if (features != null) {
+                return aggregateByFeatureType(features);
+            }
+        }
+
         GetMapRequest getMap = params.getGetMapRequest();
         getMap.getFormatOptions().put("antialias", "NONE");
         WMSMapContent mc = new WMSMapContent(getMap);
@@ -164,11 +257,8 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
                     params.getRequestedBounds(), new Rectangle(params.getWidth(), params.getHeight()));
             AffineTransform screenToWorld = worldToScreen.createInverse();
             
-            // apply uom rescale on the rules
-            rescaleRules(rules, params);
-            
             // setup the area we are actually going to paint
-            int radius = getSearchRadius(params, rules, layer, getMap, screenToWorld);
+            int radius = getSearchRadius(params, analysis, layer, getMap, screenToWorld);
             if(radius < buffer) {
                 radius = buffer;
             }
@@ -209,6 +299,160 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
         }
     }
 
+    /**
+     * Returns the analysis of the request style, from the cache if possible
+     */
+    StyleAnalysis getStyleAnalysis(FeatureInfoRequestParameters params) throws IOException {
+        FeatureType schema = params.getLayer().getFeature().getFeatureType();
+        StyleKey key = new StyleKey(params.getStyle(), schema, params.getScaleDenominator(),
+                getDpi(params));
+        StyleAnalysis analysis = styleCache.getIfPresent(key);
+        if (analysis == null) {
+            analysis = new StyleAnalysis(params, schema);
+            styleCache.put(key, analysis);
+        }
+        return analysis;
+    }
+
+    static Integer getDpi(FeatureInfoRequestParameters params) {
+        return (Integer) params.getGetMapRequest().getFormatOptions().get("dpi");
+    }
+
+    /**
+     * Looks up the clicked features in the index of the map, building it if needed
+     *
+     * @return the features hit, or null if the map could not be indexed
+     */
+    List<SimpleFeature> identifyFromIndex(FeatureInfoRequestParameters params,
+            StyleAnalysis analysis, int buffer, int maxFeatures) throws IOException {
+        final Query query = buildQuery(params);
+        final GetMapRequest getMap = params.getGetMapRequest();
+        final ReferencedEnvelope bounds = params.getRequestedBounds();
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        FeatureInfoHitIndex.Key key = new FeatureInfoHitIndex.Key(params.getLayer().getName(),
+                params.getStyle(), params.getLayer().getFeature().getFeatureType(),
+                auth == null ? null : auth.getName(), bounds, params.getWidth(),
+                params.getHeight(), getDpi(params), query.getFilter(), params.getViewParams(),
+                getMap.getFeatureVersion(), getMap.getStartIndex(), query.getMaxFeatures(),
+                hitIndexGeneration.get());
+        FeatureInfoHitIndex index;
+        try {
+            index = hitIndexes.get(key, () -> buildHitIndex(params, analysis, query, buffer));
+        } catch (ExecutionException e) {
+            LOGGER.log(Level.FINE, "Failed to index the map features, painting it instead", e);
+            return null;
+        }
+        if (!index.complete) {
+            return null;
+        }
+
+        final double pixelSize = Math.max(bounds.getWidth() / params.getWidth(),
+                bounds.getHeight() / params.getHeight());
+        final Point2D click;
+        try {
+            AffineTransform screenToWorld = RendererUtilities.worldToScreenTransform(bounds,
+                    new Rectangle(params.getWidth(), params.getHeight())).createInverse();
+            click = screenToWorld.transform(
+                    new Point2D.Double(params.getX() + 0.5, params.getY() + 0.5), null);
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Failed to locate the click, painting the map instead", e);
+            return null;
+        }
+        List<SimpleFeature> features = index.query(new Coordinate(click.getX(), click.getY()),
+                pixelSize, buffer, maxFeatures);
+        return retype(features, params.getPropertyNames());
+    }
+
+    /**
+     * Indexes the features painted in the requested map, along with the size of their symbols
+     */
+    FeatureInfoHitIndex buildHitIndex(FeatureInfoRequestParameters params,
+            StyleAnalysis analysis, Query definitionQuery, int buffer) throws Exception {
+        // grab also the features just outside of the map, whose symbols spill into it
+        ReferencedEnvelope bounds = params.getRequestedBounds();
+        double pixelSize = Math.max(bounds.getWidth() / params.getWidth(),
+                bounds.getHeight() / params.getHeight());
+        ReferencedEnvelope expanded = new ReferencedEnvelope(bounds);
+        expanded.expandBy((analysis.maxRadius + buffer) * pixelSize);
+
+        FeatureSource<? extends FeatureType, ? extends Feature> featureSource = params.getLayer()
+                .getFeatureSource(true);
+        CoordinateReferenceSystem nativeCRS = featureSource.getSchema()
+                .getCoordinateReferenceSystem();
+        CoordinateReferenceSystem mapCRS = bounds.getCoordinateReferenceSystem();
+        ReferencedEnvelope queryBounds = expanded;
+        MathTransform toMap = null;
+        if (nativeCRS != null && mapCRS != null && !CRS.equalsIgnoreMetadata(nativeCRS, mapCRS)) {
+            queryBounds = expanded.transform(nativeCRS, true);
+            toMap = CRS.findMathTransform(nativeCRS, mapCRS, true);
+        }
+
+        Query query = new Query(definitionQuery);
+        query.setProperties(Query.ALL_PROPERTIES);
+        BBOX bbox = FF.bbox(FF.property(""), queryBounds);
+        Filter filter = query.getFilter();
+        query.setFilter(filter == null || filter == Filter.INCLUDE ? bbox : FF.and(filter, bbox));
+        // one more than the limit, to find out if the map has too many features
+        query.setMaxFeatures((int) Math.min(query.getMaxFeatures(), hitIndexMaxFeatures + 1L));
+
+        List<FeatureInfoHitIndex.Entry> entries = new ArrayList<>();
+        int count = 0;
+        FeatureIterator<? extends Feature> it = featureSource.getFeatures(query).features();
+        try {
+            while (it.hasNext()) {
+                if (++count > hitIndexMaxFeatures) {
+                    LOGGER.fine("Too many features in the map, will not index it");
+                    return new FeatureInfoHitIndex(new ArrayList<>(), false);
+                }
+                SimpleFeature feature = (SimpleFeature) it.next();
+                Map<Footprint, Integer> footprints = analysis.getFootprints(feature);
+                Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                if (footprints.isEmpty() || geometry == null) {
+                    // not painted
+                    continue;
+                }
+                if (toMap != null) {
+                    try {
+                        geometry = JTS.transform(geometry, toMap);
+                    } catch (TransformException e) {
+                        LOGGER.log(Level.FINE, "Skipping feature that cannot be reprojected", e);
+                        continue;
+                    }
+                }
+                entries.add(new FeatureInfoHitIndex.Entry(feature, geometry, footprints, count));
+            }
+        } finally {
+            it.close();
+        }
+        return new FeatureInfoHitIndex(entries, true);
+    }
+
+    /**
+     * Limits the features to the requested properties, keeping the geometry
+     */
+    List<SimpleFeature> retype(List<SimpleFeature> features, String[] propertyNames) {
+        if (propertyNames == null || propertyNames.length == 0 || features.isEmpty()) {
+            return features;
+        }
+        Map<SimpleFeatureType, SimpleFeatureBuilder> builders = new HashMap<>();
+        List<SimpleFeature> result = new ArrayList<>(features.size());
+        for (SimpleFeature feature : features) {
+            SimpleFeatureType type = feature.getFeatureType();
+            SimpleFeatureBuilder builder = builders.get(type);
+            if (builder == null) {
+                Set<String> names = new LinkedHashSet<>(Arrays.asList(propertyNames));
+                if (type.getGeometryDescriptor() != null) {
+                    names.add(type.getGeometryDescriptor().getLocalName());
+                }
+                builder = new SimpleFeatureBuilder(SimpleFeatureTypeBuilder.retype(type,
+                        names.toArray(new String[names.size()])));
+                builders.put(type, builder);
+            }
+            result.add(SimpleFeatureBuilder.retype(feature, builder));
+        }
+        return result;
+    }
+
     protected int getBuffer(final int userBuffer) {
         return Math.min(userBuffer, wms.getMaxBuffer());
     }
@@ -317,6 +561,19 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
     }
 
     private FeatureLayer getLayer(FeatureInfoRequestParameters params, Style style) throws IOException {
+        FeatureSource<? extends FeatureType, ? extends Feature> featureSource = params.getLayer()
+                .getFeatureSource(true);
+        FeatureLayer result = new FeatureLayer(new FeatureInfoFeatureSource(featureSource,
+                params.getPropertyNames()), style);
+        result.setQuery(buildQuery(params));
+
+        return result;
+    }
+
+    /**
+     * Builds the query selecting the features of the layer painted in the map
+     */
+    private Query buildQuery(FeatureInfoRequestParameters params) throws IOException {
         // build the full filter
         List<Object> times = params.getTimes();
         List<Object> elevations = params.getElevations();
@@ -363,14 +620,10 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
                 : Integer.MAX_VALUE;
         definitionQuery.setMaxFeatures(maxFeatures);
 
-        FeatureLayer result = new FeatureLayer(new FeatureInfoFeatureSource(featureSource,
-                params.getPropertyNames()), style);
-        result.setQuery(definitionQuery);
-
-        return result;
+        return definitionQuery;
     }
 
-    private int getSearchRadius(FeatureInfoRequestParameters params, List<Rule> rules, FeatureLayer layer, GetMapRequest getMap, AffineTransform screenToWorld) throws TransformException, FactoryException, IOException {
+    private int getSearchRadius(FeatureInfoRequestParameters params, StyleAnalysis analysis, FeatureLayer layer, GetMapRequest getMap, AffineTransform screenToWorld) throws TransformException, FactoryException, IOException {
         // is it part of the request params?
         int requestBuffer = params.getBuffer();
         if(requestBuffer > 0) {
@@ -389,14 +642,9 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
         }
         
         // estimate the radius given the currently active rules
-        MetaBufferEstimator estimator = new MetaBufferEstimator();
-        for (Rule rule : rules) {
-            rule.accept(estimator);
-        }
-
         // easy case, the style is static, we can just use size computed from the style
-        int estimatedRadius = estimator.getBuffer() / 2;
-        if (estimator.isEstimateAccurate()) {
+        int estimatedRadius = analysis.estimatedRadius;
+        if (analysis.estimateAccurate) {
             if (estimatedRadius < MIN_BUFFER_SIZE) {
                 return MIN_BUFFER_SIZE;
             } else {
@@ -404,16 +652,8 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
             }
         } else {
             // ok, so we have an estimate based on the static portion of the style,
-            // let's extract the dynamic one
-            DynamicSizeStyleExtractor extractor = new DynamicSizeStyleExtractor();
-            final List<Rule> dynamicRules = new ArrayList<Rule>();
-            for (Rule rule : rules) {
-                rule.accept(extractor);
-                Rule copy = (Rule) extractor.getCopy();
-                if(copy != null) {
-                    dynamicRules.add(copy);
-                }
-            }
+            // the dynamic one has been extracted during the style analysis
+            final List<Rule> dynamicRules = analysis.dynamicRules;
             
             // this can happen, the meta buffer estimator can get tripped by 
             // graphic fills using dynamic sizes for their strokes
@@ -444,8 +684,7 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
                 Filter and = FF.and(query.getFilter(), bbox);
                 query.setFilter(and);
             }
-            String[] dynamicProperties = getDynamicProperties(dynamicRules);
-            query.setPropertyNames(dynamicProperties);
+            query.setPropertyNames(analysis.dynamicProperties);
             
             // visit all features and evaluate buffer size
             final DynamicBufferEstimator dbe = new DynamicBufferEstimator(); 
@@ -483,6 +722,198 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
         return (ExtensionPriority.LOWEST + ExtensionPriority.HIGHEST) / 2;
     }
 
+    /**
+     * Identifies a style analysis: the style and feature type instances, the catalog hands out new
+     * ones when they change, and the scale and dpi the rules are rescaled with
+     */
+    static final class StyleKey {
+        final Style style;
+
+        final FeatureType schema;
+
+        final double scaleDenominator;
+
+        final Integer dpi;
+
+        StyleKey(Style style, FeatureType schema, double scaleDenominator, Integer dpi) {
+            this.style = style;
+            this.schema = schema;
+            this.scaleDenominator = scaleDenominator;
+            this.dpi = dpi;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof StyleKey)) {
+                return false;
+            }
+            StyleKey other = (StyleKey) obj;
+            return style == other.style && schema == other.schema
+                    && Double.compare(scaleDenominator, other.scaleDenominator) == 0
+                    && (dpi == null ? other.dpi == null : dpi.equals(other.dpi));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(style) + Double.hashCode(scaleDenominator);
+        }
+    }
+
+    /**
+     * The parts of the style analysis that do not depend on the features being identified: the
+     * style prepared for feature info, the rules active at the request scale rescaled to pixels,
+     * and the sizes of their symbols
+     */
+    final class StyleAnalysis {
+        final Style style;
+
+        final List<Rule> rules;
+
+        /**
+         * The feature type style each rule belongs to, for else filter handling
+         */
+        final int[] ruleGroups;
+
+        /**
+         * The radius of the largest symbol each rule paints on each footprint, in pixels
+         */
+        final List<Map<Footprint, Integer>> ruleFootprints;
+
+        final int maxRadius;
+
+        final int estimatedRadius;
+
+        final boolean estimateAccurate;
+
+        final List<Rule> dynamicRules;
+
+        final String[] dynamicProperties;
+
+        /**
+         * True if the features painted can be identified by their geometry and symbol size
+         */
+        final boolean indexable;
+
+        StyleAnalysis(FeatureInfoRequestParameters params, FeatureType schema) {
+            style = preprocessStyle(params.getStyle(), schema);
+            List<Rule> activeRules = getActiveRules(style, params.getScaleDenominator());
+            boolean transformations = false;
+            Map<Rule, Integer> groups = new IdentityHashMap<>();
+            List<FeatureTypeStyle> featureTypeStyles = style.featureTypeStyles();
+            for (int i = 0; i < featureTypeStyles.size(); i++) {
+                FeatureTypeStyle fts = featureTypeStyles.get(i);
+                transformations |= fts.getTransformation() != null;
+                for (Rule rule : fts.rules()) {
+                    groups.put(rule, i);
+                }
+            }
+            ruleGroups = new int[activeRules.size()];
+            for (int i = 0; i < ruleGroups.length; i++) {
+                ruleGroups[i] = groups.get(activeRules.get(i));
+            }
+
+            // apply uom rescale on the rules
+            rescaleRules(activeRules, params);
+            rules = Collections.unmodifiableList(activeRules);
+
+            MetaBufferEstimator estimator = new MetaBufferEstimator();
+            List<Map<Footprint, Integer>> footprints = new ArrayList<>(rules.size());
+            boolean geometryExpressions = false;
+            int max = 0;
+            for (Rule rule : rules) {
+                rule.accept(estimator);
+                Map<Footprint, Integer> ruleFootprint = new EnumMap<>(Footprint.class);
+                for (Symbolizer symbolizer : rule.symbolizers()) {
+                    geometryExpressions |= symbolizer.getGeometry() != null;
+                    Footprint footprint = getFootprint(symbolizer);
+                    if (footprint == null) {
+                        continue;
+                    }
+                    MetaBufferEstimator symbolizerEstimator = new MetaBufferEstimator();
+                    symbolizer.accept(symbolizerEstimator);
+                    int radius = (int) Math.ceil(symbolizerEstimator.getBuffer() / 2.0);
+                    ruleFootprint.merge(footprint, radius, Math::max);
+                    max = Math.max(max, radius);
+                }
+                footprints.add(ruleFootprint);
+            }
+            ruleFootprints = Collections.unmodifiableList(footprints);
+            maxRadius = max;
+            estimatedRadius = estimator.getBuffer() / 2;
+            estimateAccurate = estimator.isEstimateAccurate();
+
+            if (estimateAccurate) {
+                dynamicRules = Collections.emptyList();
+                dynamicProperties = new String[0];
+            } else {
+                // extract the dynamic portion of the style
+                DynamicSizeStyleExtractor extractor = new DynamicSizeStyleExtractor();
+                List<Rule> dynamic = new ArrayList<Rule>();
+                for (Rule rule : rules) {
+                    rule.accept(extractor);
+                    Rule copy = (Rule) extractor.getCopy();
+                    if (copy != null) {
+                        dynamic.add(copy);
+                    }
+                }
+                dynamicRules = Collections.unmodifiableList(dynamic);
+                dynamicProperties = getDynamicProperties(dynamic);
+            }
+
+            indexable = estimateAccurate && !transformations && !geometryExpressions;
+        }
+
+        /**
+         * Returns the radius of the largest symbol the feature is painted with on each footprint,
+         * in pixels, empty if the feature is not painted at all.
+         * <p>
+         * The rule filters are evaluated here, once per feature when the map is indexed, rather
+         * than at each click.
+         * </p>
+         */
+        Map<Footprint, Integer> getFootprints(SimpleFeature feature) {
+            Map<Footprint, Integer> result = new EnumMap<>(Footprint.class);
+            boolean[] matched = new boolean[ruleGroups.length == 0 ? 0
+                    : ruleGroups[ruleGroups.length - 1] + 1];
+            for (int i = 0; i < ruleGroups.length; i++) {
+                Rule rule = rules.get(i);
+                if (!rule.isElseFilter()
+                        && (rule.getFilter() == null || rule.getFilter().evaluate(feature))) {
+                    matched[ruleGroups[i]] = true;
+                    merge(result, ruleFootprints.get(i));
+                }
+            }
+            // else rules apply when no other rule in the same feature type style did
+            for (int i = 0; i < ruleGroups.length; i++) {
+                if (rules.get(i).isElseFilter() && !matched[ruleGroups[i]]) {
+                    merge(result, ruleFootprints.get(i));
+                }
+            }
+            return result;
+        }
+
+        private void merge(Map<Footprint, Integer> target, Map<Footprint, Integer> source) {
+            for (Map.Entry<Footprint, Integer> entry : source.entrySet()) {
+                target.merge(entry.getKey(), entry.getValue(), Math::max);
+            }
+        }
+
+        /**
+         * Returns the part of the geometry the symbolizer paints on, or null if the symbolizer
+         * cannot be hit
+         */
+        private Footprint getFootprint(Symbolizer symbolizer) {
+            if (symbolizer instanceof PolygonSymbolizer) {
+                return Footprint.AREA;
+            } else if (symbolizer instanceof LineSymbolizer) {
+                return Footprint.OUTLINE;
+            } else if (symbolizer instanceof PointSymbolizer) {
+                return Footprint.POINT;
+            }
+            return null;
+        }
+    }
+
     /**
      * Checks if the features just rendered hit the target area, and collects them.
      * Stops the rendering once enough features are collected
@@ -0,0 +1,32 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.legendgraphic;
+
+/**
+ * A legend graphic already encoded in its output format, as stored by the
+ * {@link LegendGraphicCache}
+ */
+public class EncodedLegendGraphic {
+
+    private final byte[] data;
+
+    private final String mimeType;
+
+    public EncodedLegendGraphic(byte[] data, String mimeType) {
+        this.data = data;
+        this.mimeType = mimeType;
+    }
+
+    /**
+     * The encoded legend. The array is shared, it must not be modified.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+}
@@ -0,0 +1,37 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.legendgraphic;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.geoserver.ows.Response;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
+import org.springframework.util.Assert;
+
+/**
+ * OWS {@link Response} writing out an {@link EncodedLegendGraphic} as is
+ */
+public class EncodedLegendGraphicResponse extends Response {
+
+    public EncodedLegendGraphicResponse() {
+        super(EncodedLegendGraphic.class);
+    }
+
+    @Override
+    public String getMimeType(Object value, Operation operation) throws ServiceException {
+        Assert.isInstanceOf(EncodedLegendGraphic.class, value);
+        return ((EncodedLegendGraphic) value).getMimeType();
+    }
+
+    @Override
+    public void write(Object value, OutputStream output, Operation operation)
+            throws IOException, ServiceException {
+        Assert.isInstanceOf(EncodedLegendGraphic.class, value);
+        output.write(((EncodedLegendGraphic) value).getData());
+    }
+
+}
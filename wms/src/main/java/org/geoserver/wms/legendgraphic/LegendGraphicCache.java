@@ -0,0 +1,295 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.legendgraphic;
+
+import static org.geoserver.platform.GeoServerExtensions.getIntProperty;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.CacheClearingListener;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.LocalWorkspace;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.Response;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.GetLegendGraphicOutputFormat;
+import org.geoserver.wms.GetLegendGraphicRequest;
+import org.geotools.util.logging.Logging;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Caches the encoded GetLegendGraphic results, so that clients asking for the same legend over
+ * and over (e.g., on every map pan) do not have it rebuilt each time.
+ * <p>
+ * Legends are keyed by the request parameters (layer, style, rule, size, format, legend options,
+ * env and so on), the virtual workspace and the authenticated user, as the secured catalog might
+ * show each user different layer group contents and styles. Only the legends depending solely on the
+ * configuration are cached, that is, the image ones that do not count the matching features and
+ * do not refer to remote SLD documents. The whole cache is dropped on any catalog or
+ * configuration change.
+ * </p>
+ * <p>
+ * The cache size, in megabytes, is controlled by the {@value #CACHE_SIZE_PROPERTY}
+ * system/environment/servlet context variable (default {@value #DEFAULT_SIZE_MB}, zero disables
+ * the cache), while {@value #CACHE_TTL_PROPERTY} controls the legends time to live, in seconds
+ * (default {@value #DEFAULT_TTL_SECONDS}), to pick up changes in external graphics.
+ * </p>
+ */
+public class LegendGraphicCache implements CatalogListener, GeoServerLifecycleHandler {
+
+    static final Logger LOGGER = Logging.getLogger(LegendGraphicCache.class);
+
+    public static final String CACHE_SIZE_PROPERTY = "WMS_LEGEND_GRAPHIC_CACHE_SIZE";
+
+    public static final String CACHE_TTL_PROPERTY = "WMS_LEGEND_GRAPHIC_CACHE_TTL";
+
+    static final int DEFAULT_SIZE_MB = 16;
+
+    static final int DEFAULT_TTL_SECONDS = 300;
+
+    /**
+     * Parameters that do not affect the legend contents
+     */
+    static final Set<String> IGNORED_PARAMETERS = new HashSet<String>(Arrays.asList("SERVICE",
+            "REQUEST", "EXCEPTIONS"));
+
+    private final Cache<String, EncodedLegendGraphic> cache;
+
+    public LegendGraphicCache(GeoServer geoServer) {
+        this(getIntProperty(CACHE_SIZE_PROPERTY, DEFAULT_SIZE_MB),
+                getIntProperty(CACHE_TTL_PROPERTY, DEFAULT_TTL_SECONDS));
+        geoServer.getCatalog().addListener(this);
+        geoServer.addListener(new CacheClearingListener(this::clear));
+    }
+
+    /**
+     * Builds a cache holding at most the given megabytes of legends, for the given amount of
+     * seconds
+     */
+    LegendGraphicCache(int sizeMB, int ttlSeconds) {
+        if (sizeMB > 0) {
+            CacheBuilder<String, EncodedLegendGraphic> builder = CacheBuilder.newBuilder()
+                    .maximumWeight(sizeMB * 1024L * 1024L)
+                    .weigher((String k, EncodedLegendGraphic v) -> weigh(k, v))
+                    .recordStats();
+            if (ttlSeconds > 0) {
+                builder.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS);
+            }
+            cache = builder.build();
+        } else {
+            cache = null;
+        }
+    }
+
+    static int weigh(String key, EncodedLegendGraphic legend) {
+        return key.length() * 2 + legend.getData().length;
+    }
+
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * Returns true if the legend depends only on the request parameters and the configuration
+     */
+    public boolean isCacheable(GetLegendGraphicRequest request) {
+        if (cache == null || request.getRawKvp() == null) {
+            return false;
+        }
+        // the counts depend on the data
+        if (Boolean.TRUE.equals(request.getLegendOption(GetLegendGraphicRequest.COUNT_MATCHED_KEY,
+                Boolean.class))) {
+            return false;
+        }
+        // remote style documents can change at any time
+        for (String name : request.getRawKvp().keySet()) {
+            if ("SLD".equalsIgnoreCase(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the encoded legend from the cache, building it with the given output format if
+     * missing. Concurrent requests for the same missing legend wait for a single build. Legends
+     * that cannot be encoded upfront are built and returned as usual.
+     */
+    public Object getLegend(final GetLegendGraphicRequest request,
+            final GetLegendGraphicOutputFormat format) throws ServiceException {
+        final Response response = findResponse(request.getFormat());
+        if (response == null) {
+            return format.produceLegendGraphic(request);
+        }
+
+        try {
+            return cache.get(getKey(request), () -> {
+                Object legend = format.produceLegendGraphic(request);
+                Request dispatched = Dispatcher.REQUEST.get();
+                Operation operation = dispatched != null ? dispatched.getOperation() : null;
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                response.write(legend, bytes, operation);
+                return new EncodedLegendGraphic(bytes.toByteArray(),
+                        response.getMimeType(legend, operation));
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new ServiceException("Failed to build the legend graphic", cause);
+        }
+    }
+
+    /**
+     * Looks up the response encoding image legends in the given format
+     */
+    Response findResponse(String outputFormat) {
+        for (Response response : GeoServerExtensions.extensions(Response.class)) {
+            if (response instanceof AbstractGetLegendGraphicResponse
+                    && response.getBinding().equals(BufferedImageLegendGraphic.class)
+                    && response.getOutputFormats().contains(outputFormat)) {
+                return response;
+            }
+        }
+        return null;
+    }
+
+    String getKey(GetLegendGraphicRequest request) {
+        StringBuilder sb = new StringBuilder();
+
+        // request parameters, sorted
+        Map<String, String> sorted = new TreeMap<String, String>();
+        for (Map.Entry<String, String> entry : request.getRawKvp().entrySet()) {
+            String name = entry.getKey().toUpperCase();
+            if (!IGNORED_PARAMETERS.contains(name)) {
+                sorted.put(name, entry.getValue());
+            }
+        }
+        for (Map.Entry<String, String> entry : sorted.entrySet()) {
+            sb.append(entry.getKey()).append('=').append(entry.getValue()).append('&');
+        }
+
+        // virtual services resolve layer names differently
+        WorkspaceInfo ws = LocalWorkspace.get();
+        if (ws != null) {
+            sb.append("@workspace=").append(ws.getName());
+        }
+
+        // the secured catalog contents depend on the user
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null) {
+            sb.append("@user=").append(auth.getName());
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Drops all the cached legends
+     */
+    public void clear() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * Returns the hit, miss and eviction statistics, or null if the cache is disabled
+     */
+    public CacheStats getStatistics() {
+        return cache == null ? null : cache.stats();
+    }
+
+    /**
+     * Returns the number of cached legends
+     */
+    public long size() {
+        return cache == null ? 0 : cache.size();
+    }
+
+    /**
+     * Returns the memory used by the cached legends, in bytes
+     */
+    public long getSizeInBytes() {
+        long bytes = 0;
+        if (cache != null) {
+            for (Map.Entry<String, EncodedLegendGraphic> entry : cache.asMap().entrySet()) {
+                bytes += weigh(entry.getKey(), entry.getValue());
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) {
+        // new objects do not affect the legends built so far
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) {
+        clear();
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) {
+        // wait for the post modify event
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+        // styles, layer titles, layer group contents, all affect the legends
+        clear();
+    }
+
+    @Override
+    public void reloaded() {
+        clear();
+    }
+
+    @Override
+    public void onReset() {
+        clear();
+    }
+
+    @Override
+    public void onDispose() {
+        clear();
+    }
+
+    @Override
+    public void beforeReload() {
+        // nothing to do
+    }
+
+    @Override
+    public void onReload() {
+        clear();
+    }
+}
@@ -11,9 +11,7 @@ import java.awt.image.IndexColorModel;
 import java.awt.image.RenderedImage;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -178,7 +176,10 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
         param.setCompressionQuality(0.75f);
 
         ImageOutputStream otStream = null;
-        List<RenderedImage> images = new ArrayList<RenderedImage>();
+        RenderedImage ri = null;
+        // the first frame backs the image methods of the list, it's disposed once the animation
+        // is written
+        RenderedImage firstFrame = null;
         try {
             otStream = ImageIO.createImageOutputStream(outStream);
             gifWriter.setOutput(otStream);
@@ -222,8 +223,11 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
             for (int i = 0; i < numfiles; i++) {
                 if (LOGGER.isLoggable(Level.FINE))
                     LOGGER.fine("Writing image " + i);
-                // get the image
-                RenderedImage ri = (RenderedImage) ril.get(i);
+                // get the image, the animator might still be rendering it
+                ri = (RenderedImage) ril.get(i);
+                if (ri == null) {
+                    continue;
+                }
                 // convert it to gif compatible
                 ri = applyPalette(ri, mapContent, MIME_TYPE, false);
                 if (ri != null) {
@@ -232,9 +236,16 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
                     	new ImageTypeSpecifier(ri), param);
                     prepareMetadata(ri, imageMetadata, loopContinuosly, delay, disposalMethod);
 
-                    // write
+                    // write, and flush, so that the client gets the frames as they are ready
                     gifWriter.writeToSequence(new IIOImage(ri, null, imageMetadata), param);
-                    images.add(ri);
+                    otStream.flush();
+                    // let go of the frame image chain as soon as possible to free memory
+                    if (i == 0) {
+                        firstFrame = ri;
+                    } else {
+                        disposeFrame(ri);
+                    }
+                    ri = null;
                 }
             }
 
@@ -262,20 +273,23 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
                 // swallow
             }
 
-            // let go of the image chain as soon as possible to free memory
-            for (RenderedImage image : images) {
-                if (image instanceof PlanarImage) {
-                    ImageUtilities.disposePlanarImageChain((PlanarImage) image);
-                } else if (image instanceof BufferedImage) {
-                    ((BufferedImage) image).flush();
-                }
-            }
+            // let go of the frame being written, if we failed half way
+            disposeFrame(ri);
+            disposeFrame(firstFrame);
         }
 
         if (LOGGER.isLoggable(Level.FINE))
             LOGGER.fine("Done writing animated gif");
     }
 
+    private static void disposeFrame(RenderedImage image) {
+        if (image instanceof PlanarImage) {
+            ImageUtilities.disposePlanarImageChain((PlanarImage) image);
+        } else if (image instanceof BufferedImage) {
+            ((BufferedImage) image).flush();
+        }
+    }
+
     public String getContentDisposition() {
         // can be null
         return null;
@@ -123,6 +123,11 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
      * the first style that can be applied to a given layer. This is for backwards compatibility
      */
     private boolean laxStyleMatchAllowed = true;
+
+    /**
+     * Optional cache of parsed requests, used to skip the catalog resolution of repeated requests
+     */
+    private GetMapRequestCache requestCache;
     
     
     public GetMapKvpRequestReader(WMS wms) {
@@ -159,6 +164,18 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
         this.parseStyles = styleRequired;
     }
 
+    public GetMapRequestCache getRequestCache() {
+        return requestCache;
+    }
+
+    /**
+     * Sets the cache of parsed requests, requests that can be found in the cache won't be parsed
+     * again, save for their BBOX, WIDTH and HEIGHT parameters
+     */
+    public void setRequestCache(GetMapRequestCache requestCache) {
+        this.requestCache = requestCache;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public GetMapRequest createRequest() throws Exception {
@@ -183,9 +200,30 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
         return false;
     }
     
-    @SuppressWarnings("rawtypes")
+    @SuppressWarnings({ "rawtypes", "unchecked" })
     @Override
     public GetMapRequest read(Object request, Map kvp, Map rawKvp) throws Exception {
+        String cacheKey = null;
+        if (requestCache != null && requestCache.isEnabled()) {
+            cacheKey = requestCache.getKey(LocalHttpServletRequest.get(), rawKvp);
+            if (cacheKey != null) {
+                GetMapRequest cached = requestCache.get(cacheKey, (GetMapRequest) request, kvp,
+                        rawKvp);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+        }
+
+        GetMapRequest getMap = parseRequest(request, kvp, rawKvp);
+        if (cacheKey != null) {
+            requestCache.put(cacheKey, getMap, kvp);
+        }
+        return getMap;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private GetMapRequest parseRequest(Object request, Map kvp, Map rawKvp) throws Exception {
         GetMapRequest getMap = (GetMapRequest) super.read(request, kvp, rawKvp);
         // set the raw params used to create the request
         getMap.setRawKvp(rawKvp);
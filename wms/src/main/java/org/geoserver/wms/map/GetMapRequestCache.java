@@ -0,0 +1,431 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.geoserver.platform.GeoServerExtensions.getIntProperty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.CacheClearingListener;
+import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.ows.ParsedKvpCache;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.util.CaseInsensitiveMap;
+import org.geoserver.ows.util.KvpMap;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.MapLayerInfo;
+import org.geoserver.wms.WMS;
+import org.geotools.util.logging.Logging;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Cache of parsed and validated {@link GetMapRequest} objects, used by
+ * {@link GetMapKvpRequestReader} to avoid resolving layers, styles and filters against the catalog
+ * over and over for requests that differ only in their BBOX, WIDTH and HEIGHT, as it's typical of
+ * tiled clients. Along with the request the cache keeps its parsed KVP parameters, which are
+ * handed to the {@link org.geoserver.ows.Dispatcher} as a {@link ParsedKvpCache}, so that on a
+ * hit only BBOX, WIDTH and HEIGHT go through the KVP parsers.
+ * <p>
+ * Requests are keyed on their raw KVP parameters minus BBOX/WIDTH/HEIGHT, the current user and
+ * roles, and the request path, which identifies the virtual service they are targeting. The key
+ * is thus available before the KVP parsing and the dispatching of the request. Only GetMap
+ * requests are cached, and requests carrying dynamic styles (SLD, SLD_BODY), remote OWS
+ * references or dimension values relative to the current time (e.g. TIME=current or
+ * TIME=P1D/PRESENT) are never cached. The whole cache is cleared on any catalog
+ * or service configuration change, and entries expire after a configurable time to pick up
+ * changes that are not reported as events, such as data security rules.
+ * </p>
+ * <p>
+ * The cache is disabled by default, it can be enabled by setting the
+ * {@value #CACHE_SIZE_PROPERTY} system/environment/servlet context variable to the maximum number
+ * of entries, while {@value #CACHE_TTL_PROPERTY} controls the entry expiration time in seconds
+ * (defaults to {@value #DEFAULT_TTL_SECONDS}).
+ * </p>
+ */
+public class GetMapRequestCache implements CatalogListener, GeoServerLifecycleHandler,
+        ParsedKvpCache {
+
+    static final Logger LOGGER = Logging.getLogger(GetMapRequestCache.class);
+
+    /**
+     * Property holding the max number of cached requests, 0 or negative disables the cache
+     */
+    public static final String CACHE_SIZE_PROPERTY = "WMS_GETMAP_REQUEST_CACHE_SIZE";
+
+    /**
+     * Property holding the cache entries time to live, in seconds
+     */
+    public static final String CACHE_TTL_PROPERTY = "WMS_GETMAP_REQUEST_CACHE_TTL";
+
+    static final int DEFAULT_TTL_SECONDS = 60;
+
+    /**
+     * Parameters that do not take part in the cache key, they are set on the request at each hit
+     */
+    static final Set<String> VARIABLE_PARAMETERS = new HashSet<String>(Arrays.asList("BBOX",
+            "WIDTH", "HEIGHT"));
+
+    /**
+     * Parameters making the request uncacheable, they either refer to external resources that can
+     * change without notice, or would make the cache grow unbounded in size
+     */
+    static final Set<String> UNCACHEABLE_PARAMETERS = new HashSet<String>(Arrays.asList("SLD",
+            "SLD_BODY", "STYLE_URL", "STYLE_BODY", "REMOTE_OWS_TYPE", "REMOTE_OWS_URL"));
+
+    /**
+     * Dimension keywords resolved against the current time while parsing, requests using them
+     * would be frozen at the time the request was cached
+     */
+    static final Set<String> RELATIVE_DIMENSION_VALUES = new HashSet<String>(Arrays.asList(
+            "CURRENT", "NOW", "PRESENT"));
+
+    /**
+     * A cached request, along with the parsed KVP it was built from
+     */
+    static final class CachedRequest {
+        GetMapRequest request;
+
+        Map<String, Object> kvp;
+
+        CachedRequest(GetMapRequest request, Map<String, Object> kvp) {
+            this.request = request;
+            this.kvp = kvp;
+        }
+    }
+
+    Cache<String, CachedRequest> cache;
+
+    public GetMapRequestCache(WMS wms) {
+        this(getIntProperty(CACHE_SIZE_PROPERTY, 0), getIntProperty(CACHE_TTL_PROPERTY,
+                DEFAULT_TTL_SECONDS));
+        if (cache != null) {
+            wms.getCatalog().addListener(this);
+            wms.getGeoServer().addListener(new CacheClearingListener(this::clear));
+            LOGGER.config("GetMap request cache enabled");
+        }
+    }
+
+    /**
+     * Builds a cache with the given max size and time to live, a non positive size disables the
+     * cache
+     */
+    GetMapRequestCache(int maxSize, int ttlSeconds) {
+        if (maxSize > 0) {
+            CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().maximumSize(maxSize)
+                    .recordStats();
+            if (ttlSeconds > 0) {
+                builder.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS);
+            }
+            cache = builder.build();
+        }
+    }
+
+    /**
+     * Returns true if the cache is enabled
+     */
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * Returns the cache key for the specified raw KVP, or null if the request cannot be cached
+     *
+     * @param httpRequest The HTTP request, used to tell apart the virtual services, can be null
+     * @param rawKvp The raw KVP of the request
+     */
+    String getKey(HttpServletRequest httpRequest, Map<String, ?> rawKvp) {
+        if (cache == null || rawKvp == null || !isGetMap(rawKvp)) {
+            return null;
+        }
+        Map<String, Object> sorted = new TreeMap<String, Object>();
+        for (Map.Entry<String, ?> entry : rawKvp.entrySet()) {
+            String name = entry.getKey().toUpperCase();
+            if (UNCACHEABLE_PARAMETERS.contains(name)) {
+                return null;
+            }
+            Object value = entry.getValue();
+            if (isDimension(name) && isRelative(value)) {
+                return null;
+            }
+            if (!VARIABLE_PARAMETERS.contains(name)) {
+                sorted.put(name, value instanceof Object[] ? Arrays.asList((Object[]) value)
+                        : value);
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Object> entry : sorted.entrySet()) {
+            sb.append(entry.getKey()).append('=').append(entry.getValue()).append('&');
+        }
+        // the layers visible to the user depend on its roles
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null) {
+            Set<String> roles = new TreeSet<String>();
+            if (auth.getAuthorities() != null) {
+                for (GrantedAuthority authority : auth.getAuthorities()) {
+                    roles.add(authority.getAuthority());
+                }
+            }
+            sb.append("@user=").append(auth.getName()).append(roles);
+        }
+        // and so does the virtual service, which is not known yet before dispatching, the path
+        // identifies it though
+        if (httpRequest != null) {
+            sb.append("@path=").append(httpRequest.getRequestURI());
+        }
+
+        return sb.toString();
+    }
+
+    private boolean isGetMap(Map<String, ?> rawKvp) {
+        for (Map.Entry<String, ?> entry : rawKvp.entrySet()) {
+            if ("REQUEST".equalsIgnoreCase(entry.getKey())) {
+                return "GetMap".equalsIgnoreCase(String.valueOf(entry.getValue()));
+            }
+        }
+        return false;
+    }
+
+    boolean isDimension(String name) {
+        return "TIME".equals(name) || "ELEVATION".equals(name) || name.startsWith("DIM_");
+    }
+
+    /**
+     * Returns true if the dimension value contains a keyword relative to the current time, in
+     * any of its list or range elements
+     */
+    boolean isRelative(Object value) {
+        if (value instanceof Object[]) {
+            for (Object v : (Object[]) value) {
+                if (isRelative(v)) {
+                    return true;
+                }
+            }
+            return false;
+        } else if (value == null) {
+            return false;
+        }
+        for (String element : String.valueOf(value).split("[,/]")) {
+            if (RELATIVE_DIMENSION_VALUES.contains(element.trim().toUpperCase())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a copy of the cached request for the given key, initialized with the variable
+     * parameters and HTTP request information found in the request passed as a parameter, or null
+     * if the key is not found in the cache
+     *
+     * @param key The cache key, as returned by {@link #getKey(HttpServletRequest, Map)}
+     * @param request The new request, containing the HTTP request information
+     * @param kvp The parsed KVP of the current request
+     * @param rawKvp The raw KVP of the current request
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    GetMapRequest get(String key, GetMapRequest request, Map kvp, Map rawKvp) {
+        CachedRequest cached = cache.getIfPresent(key);
+        if (cached == null) {
+            return null;
+        }
+
+        GetMapRequest result = copy(cached.request);
+        result.setRawKvp(rawKvp);
+        result.setBbox((Envelope) kvp.get("BBOX"));
+        result.setWidth(toInt(kvp.get("WIDTH")));
+        result.setHeight(toInt(kvp.get("HEIGHT")));
+
+        // the HTTP request information is not part of the key
+        result.setRequestCharset(request.getRequestCharset());
+        result.setGet(request.isGet());
+        if (result.getHttpRequestHeaders() != null) {
+            result.getHttpRequestHeaders().clear();
+        }
+        if (request.getHttpRequestHeaders() != null) {
+            for (Map.Entry<String, String> entry : request.getHttpRequestHeaders().entrySet()) {
+                result.putHttpRequestHeader(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return result;
+    }
+
+    private int toInt(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        } else if (value != null) {
+            return Integer.parseInt(String.valueOf(value));
+        }
+        return 0;
+    }
+
+    /**
+     * Caches a copy of the fully parsed request, along with the parsed KVP it was built from, under
+     * the specified key
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    void put(String key, GetMapRequest request, Map kvp) {
+        Map<String, Object> parsed = new KvpMap();
+        for (Map.Entry<String, Object> entry : ((Map<String, Object>) kvp).entrySet()) {
+            if (!VARIABLE_PARAMETERS.contains(entry.getKey().toUpperCase())) {
+                parsed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        cache.put(key, new CachedRequest(copy(request), parsed));
+    }
+
+    /**
+     * Returns the parsed KVP of the cached request matching the current one, minus BBOX, WIDTH and
+     * HEIGHT. The lookup does not count in the statistics, the reader looks up the request again
+     * afterwards. List values are copied, as downstream code might modify them.
+     */
+    @Override
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public Map<String, Object> getParsedKvp(Request request) {
+        String key = getKey(request.getHttpRequest(), request.getRawKvp());
+        CachedRequest cached = key != null ? cache.asMap().get(key) : null;
+        if (cached == null) {
+            return null;
+        }
+        Map<String, Object> result = new KvpMap();
+        for (Map.Entry<String, Object> entry : cached.kvp.entrySet()) {
+            Object value = entry.getValue();
+            result.put(entry.getKey(), value instanceof List ? new ArrayList((List) value) : value);
+        }
+        return result;
+    }
+
+    /**
+     * Copies the request along with all the mutable state that downstream code might modify
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    GetMapRequest copy(GetMapRequest request) {
+        GetMapRequest copy = (GetMapRequest) request.clone();
+        List<MapLayerInfo> layers = new ArrayList<MapLayerInfo>();
+        for (MapLayerInfo layer : request.getLayers()) {
+            layers.add(layer.getLayerInfo() != null ? new MapLayerInfo(layer.getLayerInfo())
+                    : layer);
+        }
+        copy.setLayers(layers);
+        copy.setStyles(request.getStyles());
+        copy.setInterpolations(new ArrayList(request.getInterpolations()));
+        if (request.getFilter() != null) {
+            copy.setFilter(new ArrayList(request.getFilter()));
+        }
+        if (request.getCQLFilter() != null) {
+            copy.setCQLFilter(new ArrayList(request.getCQLFilter()));
+        }
+        if (request.getFeatureId() != null) {
+            copy.setFeatureId(new ArrayList(request.getFeatureId()));
+        }
+        if (request.getViewParams() != null) {
+            copy.setViewParams(new ArrayList(request.getViewParams()));
+        }
+        copy.setTime(request.getTime());
+        copy.setElevation(request.getElevation());
+        if (request.getFormatOptions() != null) {
+            copy.setFormatOptions(new CaseInsensitiveMap(request.getFormatOptions()));
+        }
+        if (request.getEnv() != null) {
+            copy.setEnv(new HashMap(request.getEnv()));
+        }
+
+        return copy;
+    }
+
+    /**
+     * Returns the cache statistics, hit and miss counts in particular
+     */
+    public CacheStats getStatistics() {
+        return cache != null ? cache.stats() : new CacheStats(0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Returns the number of cached requests
+     */
+    public long size() {
+        return cache != null ? cache.size() : 0;
+    }
+
+    /**
+     * Removes all the cached requests
+     */
+    public void clear() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) {
+        clear();
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) {
+        clear();
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) {
+        // wait for the post modify event, the change is not yet applied here
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+        clear();
+    }
+
+    @Override
+    public void reloaded() {
+        clear();
+    }
+
+    @Override
+    public void onReset() {
+        clear();
+    }
+
+    @Override
+    public void onDispose() {
+        clear();
+    }
+
+    @Override
+    public void beforeReload() {
+        // nothing to do
+    }
+
+    @Override
+    public void onReload() {
+        clear();
+    }
+
+}
@@ -0,0 +1,189 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wms.RasterCleaner;
+import org.geotools.util.logging.Logging;
+
+/**
+ * A pool of the byte arrays backing the images GetMap renders onto, so that they can be reused
+ * by the next requests instead of being allocated anew each time.
+ * <p>
+ * Arrays are grouped in buckets by size, rounded up to an eighth of the nearest lower power of
+ * two, so that images of similar size can share them. An image built on a pooled array (see
+ * {@link ImageUtils#createImage(int, int, java.awt.image.IndexColorModel, boolean,
+ * ImageBufferPool)}) is leased until it is handed back via {@link #release(RenderedImage)}, which
+ * the {@link RasterCleaner} does at the end of the request. Released arrays are zeroed and kept
+ * as long as the total retained size stays below the configured limit, otherwise they are left
+ * to the garbage collector. Images whose data outlives the request (e.g., meta tiles whose sub
+ * images are cached) must be {@link #detach(RenderedImage) detached} instead.
+ * </p>
+ * <p>
+ * The pool is disabled by default, it can be enabled by setting the
+ * "WMS_IMAGE_BUFFER_POOL_SIZE" variable to the maximum amount of memory to be retained, in
+ * megabytes (as a system, environment or servlet context variable).
+ * </p>
+ */
+public class ImageBufferPool {
+
+    static final Logger LOGGER = Logging.getLogger(ImageBufferPool.class);
+
+    static final String POOL_SIZE = "WMS_IMAGE_BUFFER_POOL_SIZE";
+
+    /**
+     * Smaller arrays are cheaper to allocate than to pool
+     */
+    static final int MIN_BUFFER_SIZE = 16 * 1024;
+
+    static final ImageBufferPool INSTANCE = new ImageBufferPool(getPoolSize() * 1024L * 1024L);
+
+    final long maxBytes;
+
+    final Map<Integer, Queue<byte[]>> buckets = new ConcurrentHashMap<>();
+
+    final Map<BufferedImage, byte[]> leased = Collections
+            .synchronizedMap(new WeakHashMap<BufferedImage, byte[]>());
+
+    final AtomicLong retainedBytes = new AtomicLong();
+
+    final AtomicLong hits = new AtomicLong();
+
+    final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxBytes the maximum amount of memory retained by the pool, zero or negative to
+     *        disable it
+     */
+    public ImageBufferPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the pool shared by all GetMap requests
+     */
+    public static ImageBufferPool getInstance() {
+        return INSTANCE;
+    }
+
+    static int getPoolSize() {
+        return GeoServerExtensions.getIntProperty(POOL_SIZE, 0, 0);
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Returns the capacity of the arrays serving the given length
+     */
+    static int getBucketSize(int length) {
+        int step = Math.max(1, Integer.highestOneBit(length) / 8);
+        return (int) Math.min(Integer.MAX_VALUE, ((long) length + step - 1) / step * step);
+    }
+
+    /**
+     * Returns a zeroed array at least as long as requested, or null if the length is not worth
+     * pooling or the pool is disabled
+     */
+    byte[] acquire(int length) {
+        if (!isEnabled() || length < MIN_BUFFER_SIZE || length > maxBytes) {
+            return null;
+        }
+        int size = getBucketSize(length);
+        Queue<byte[]> bucket = buckets.get(size);
+        byte[] data = bucket == null ? null : bucket.poll();
+        if (data != null) {
+            retainedBytes.addAndGet(-data.length);
+            hits.incrementAndGet();
+            return data;
+        }
+        misses.incrementAndGet();
+        return new byte[size];
+    }
+
+    /**
+     * Marks the image as built on top of the given pooled array
+     */
+    void lease(BufferedImage image, byte[] data) {
+        leased.put(image, data);
+    }
+
+    /**
+     * Hands back the array backing the image, if it was obtained from this pool. The image must
+     * not be used anymore after this call. Releasing the same image more than once is harmless.
+     *
+     * @return true if the array went back to the pool
+     */
+    public boolean release(RenderedImage image) {
+        // identity lookup, sub images are different objects sharing the same data
+        byte[] data = image instanceof BufferedImage ? leased.remove(image) : null;
+        if (data == null) {
+            return false;
+        }
+        if (retainedBytes.addAndGet(data.length) > maxBytes) {
+            retainedBytes.addAndGet(-data.length);
+            return false;
+        }
+        Arrays.fill(data, (byte) 0);
+        buckets.computeIfAbsent(data.length, k -> new ConcurrentLinkedQueue<>()).offer(data);
+        return true;
+    }
+
+    /**
+     * Makes sure the array backing the image is never handed back to the pool, for images whose
+     * data is retained past the end of the request
+     */
+    public void detach(RenderedImage image) {
+        if (image instanceof BufferedImage) {
+            leased.remove(image);
+        }
+    }
+
+    /**
+     * Drops all the retained arrays
+     */
+    public void clear() {
+        for (Queue<byte[]> bucket : buckets.values()) {
+            byte[] data;
+            while ((data = bucket.poll()) != null) {
+                retainedBytes.addAndGet(-data.length);
+            }
+        }
+    }
+
+    /**
+     * Returns the amount of memory currently retained by the pool, in bytes
+     */
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    /**
+     * Returns how many requests were served with a pooled array
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns how many requests needed a new array to be allocated
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+}
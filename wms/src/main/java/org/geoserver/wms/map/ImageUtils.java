@@ -10,9 +10,12 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.Transparency;
+import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
 import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
 import java.awt.image.IndexColorModel;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
@@ -119,6 +122,55 @@ public class ImageUtils {
         return new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
 
     }
+
+    /**
+     * Same as {@link #createImage(int, int, IndexColorModel, boolean)}, but backs the image with
+     * an array taken from the given pool, when possible. The image has to be handed back to the
+     * pool once done with it, usually by scheduling it for disposal with the
+     * {@link org.geoserver.wms.RasterCleaner}.
+     * 
+     * @param pool the pool to take the image data from, may be null
+     */
+    public static BufferedImage createImage(final int width, final int height,
+            final IndexColorModel palette, final boolean transparent, final ImageBufferPool pool) {
+        if (pool == null || !pool.isEnabled()
+                || (palette != null && palette.getTransferType() != DataBuffer.TYPE_BYTE)) {
+            return createImage(width, height, palette, transparent);
+        }
+        final int pixelBytes = palette != null ? 1 : transparent ? 4 : 3;
+        final long length = (long) width * height * pixelBytes;
+        final byte[] data = length > Integer.MAX_VALUE ? null : pool.acquire((int) length);
+        if (data == null) {
+            return createImage(width, height, palette, transparent);
+        }
+
+        // same layouts as the non pooled images, BufferedImage recognizes them as such
+        final DataBufferByte buffer = new DataBufferByte(data, (int) length);
+        final BufferedImage image;
+        if (palette != null) {
+            final WritableRaster raster = Raster.createInterleavedRaster(buffer, width, height,
+                    width, 1, new int[] { 0 }, null);
+            image = new BufferedImage(palette, raster, false, null);
+        } else {
+            final ColorSpace cs = ColorSpace.getInstance(ColorSpace.CS_sRGB);
+            final ColorModel cm;
+            final int[] offsets;
+            if (transparent) {
+                cm = new ComponentColorModel(cs, new int[] { 8, 8, 8, 8 }, true, false,
+                        Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE);
+                offsets = new int[] { 3, 2, 1, 0 };
+            } else {
+                cm = new ComponentColorModel(cs, new int[] { 8, 8, 8 }, false, false,
+                        Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+                offsets = new int[] { 2, 1, 0 };
+            }
+            final WritableRaster raster = Raster.createInterleavedRaster(buffer, width, height,
+                    width * pixelBytes, pixelBytes, offsets, null);
+            image = new BufferedImage(cm, raster, false, null);
+        }
+        pool.lease(image, data);
+        return image;
+    }
     
     /**
      * Computes the memory usage of the buffered image used as the drawing
@@ -20,9 +20,9 @@ public class MaxErrorEnforcer {
 
     int maxErrors;
 
-    int errors;
+    volatile int errors;
     
-    Exception lastException;
+    volatile Exception lastException;
 
     /**
      * Builds a new max errors enforcer. If maxErrors is not positive the enforcer will do nothing
@@ -42,8 +42,11 @@ public class MaxErrorEnforcer {
                 }
 
                 public void errorOccurred(Exception e) {
-                    errors++;
-                    lastException = e;
+                    // the renderer might paint layers in parallel, see ParallelLayerRenderer
+                    synchronized (MaxErrorEnforcer.this) {
+                        errors++;
+                        lastException = e;
+                    }
                     if (errors > MaxErrorEnforcer.this.maxErrors) {
                         MaxErrorEnforcer.this.renderer.stopRendering();
                     }
@@ -13,6 +13,7 @@ import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.logging.Level;
@@ -122,57 +123,51 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
      */
     public WebMap produceMap(WMSMapContent mapContent) throws ServiceException, IOException {
         // get the key that identifies the meta tile. The cache will make sure
-        // two threads asking
-        // for the same tile will get the same key, and thus will synchronize
-        // with each other
-        // (the first eventually builds the meta-tile, the second finds it ready
+        // two threads asking for the same meta tile wait for a single build of it
+        // (the first eventually builds the meta-tile, the others find it ready
         // to be used)
-        QuickTileCache.MetaTileKey key = tileCache.getMetaTileKey(request);
-
-        synchronized (key) {
-            RenderedImage tile = tileCache.getTile(key, request);
-            List<GridCoverage2D> renderedCoverages = null;
+        final QuickTileCache.MetaTileKey key = tileCache.getMetaTileKey(request);
+        final List<List<GridCoverage2D>> renderedCoverages = new ArrayList<>(1);
 
+        RenderedImage[] tiles = tileCache.getTiles(key, () -> {
+            // compute the meta-tile
             if (LOGGER.isLoggable(Level.FINER)) {
-                LOGGER.finer("Looked for meta tile " + key.metaTileCoords.x + ", "
-                        + key.metaTileCoords.y + "in cache: " + ((tile != null) ? "hit!" : "miss"));
-            }
-
-            if (tile == null) {
-                // compute the meta-tile
-                if (LOGGER.isLoggable(Level.FINER)) {
-                    LOGGER.finer("Building meta tile " + key.metaTileCoords.x + ", "
-                            + key.metaTileCoords.y+" of size w="+
-                            key.getTileSize() * key.getMetaFactor()+", h="+
-                            key.getTileSize() * key.getMetaFactor()+ " with metatilign factor "+key.getMetaFactor());
-                    
-                }
-
-                // alter the map definition so that we build a meta-tile instead
-                // of just the tile
-                mapContent.getViewport().setBounds(key.getMetaTileEnvelope());
-                mapContent.setMapWidth(key.getTileSize() * key.getMetaFactor());
-                mapContent.setMapHeight(key.getTileSize() * key.getMetaFactor());
-                mapContent.setTileSize(key.getTileSize());
+                LOGGER.finer("Building meta tile " + key.metaTileCoords.x + ", "
+                        + key.metaTileCoords.y+" of size w="+
+                        key.getTileSize() * key.getMetaFactor()+", h="+
+                        key.getTileSize() * key.getMetaFactor()+ " with metatilign factor "+key.getMetaFactor());
                 
-                // adjust the bbox/width/height env vars that GetMap setup, since we
-                // are changing them under its feet
-                EnvFunction.setLocalValue("wms_bbox", mapContent.getViewport().getBounds());
-                EnvFunction.setLocalValue("wms_width", mapContent.getMapWidth());
-                EnvFunction.setLocalValue("wms_height", mapContent.getMapHeight());
-
-                RenderedImageMap metaTileMap = delegate.produceMap(mapContent);
-
-                RenderedImage metaTile = metaTileMap.getImage();
-                RenderedImage[] tiles = split(key, metaTile);
-                tileCache.storeTiles(key, tiles);
-                tile = tileCache.getTile(key, request, tiles);
-                renderedCoverages = metaTileMap.getRenderedCoverages();
             }
-            RenderedImageMap tileMap = new RenderedImageMap(mapContent, tile, getMimeType());
-            tileMap.setRenderedCoverages(renderedCoverages);
-            return tileMap;
+
+            // alter the map definition so that we build a meta-tile instead
+            // of just the tile
+            mapContent.getViewport().setBounds(key.getMetaTileEnvelope());
+            mapContent.setMapWidth(key.getTileSize() * key.getMetaFactor());
+            mapContent.setMapHeight(key.getTileSize() * key.getMetaFactor());
+            mapContent.setTileSize(key.getTileSize());
+            
+            // adjust the bbox/width/height env vars that GetMap setup, since we
+            // are changing them under its feet
+            EnvFunction.setLocalValue("wms_bbox", mapContent.getViewport().getBounds());
+            EnvFunction.setLocalValue("wms_width", mapContent.getMapWidth());
+            EnvFunction.setLocalValue("wms_height", mapContent.getMapHeight());
+
+            RenderedImageMap metaTileMap = delegate.produceMap(mapContent);
+            renderedCoverages.add(metaTileMap.getRenderedCoverages());
+
+            return split(key, metaTileMap.getImage());
+        }, delegate.wms.getMaxRenderingTime(request));
+
+        if (LOGGER.isLoggable(Level.FINER)) {
+            LOGGER.finer("Looked for meta tile " + key.metaTileCoords.x + ", "
+                    + key.metaTileCoords.y + "in cache: "
+                    + (renderedCoverages.isEmpty() ? "hit!" : "miss"));
         }
+
+        RenderedImage tile = tileCache.getTile(key, request, tiles);
+        RenderedImageMap tileMap = new RenderedImageMap(mapContent, tile, getMimeType());
+        tileMap.setRenderedCoverages(renderedCoverages.isEmpty() ? null : renderedCoverages.get(0));
+        return tileMap;
     }
 
     /**
@@ -291,6 +286,8 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
                             LOGGER.finer("Metatile split on BufferedImage");
                         }
                         final BufferedImage image = (BufferedImage) metaTile;
+                        // the sub images share the meta tile data, and end up in the tile cache
+                        ImageBufferPool.getInstance().detach(image);
                         final BufferedImage subimage = image.getSubimage(x, y, tileSize, tileSize);
                         tile = new BufferedImageAdapter(subimage);
                         break;
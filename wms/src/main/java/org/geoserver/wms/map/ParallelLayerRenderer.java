@@ -0,0 +1,448 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
+import org.geotools.geometry.jts.LiteShape2;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.map.Layer;
+import org.geotools.map.MapContent;
+import org.geotools.renderer.RenderListener;
+import org.geotools.renderer.label.LabelCacheImpl;
+import org.geotools.renderer.label.LabelCacheImpl.LabelRenderingMode;
+import org.geotools.renderer.lite.StreamingRenderer;
+import org.geotools.styling.TextSymbolizer;
+import org.geotools.util.NumberRange;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.Feature;
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * A {@link StreamingRenderer} that splits the map layers in runs of consecutive layers, paints
+ * each run with its own renderer, in parallel, and composites the results in layer order.
+ * <p>
+ * The first run is painted straight on the target graphics, in the calling thread, the others on
+ * transparent images of the same size using the provided executor, with the request thread locals
+ * transferred. Labels are collected by each run and replayed in layer order against a single
+ * label cache, which is painted on top of the composited map, so that the label conflict
+ * resolution gives the same results as a sequential rendering.
+ * </p>
+ * <p>
+ * The render listeners and {@link #stopRendering()} apply to all the run renderers, so
+ * {@link MaxErrorEnforcer}, {@link RenderExceptionStrategy} and {@link RenderingTimeoutEnforcer}
+ * can be used as usual. Stopping also cancels the runs still queued in the executor, and
+ * {@link #setTimeout(long)} bounds the wait for the runs painted by the executor. Styles compositing a layer with the ones below it cannot be rendered
+ * this way, see {@link RenderedImageMapOutputFormat} for the checks performed before using it.
+ * </p>
+ */
+public class ParallelLayerRenderer extends StreamingRenderer {
+
+    static final Logger LOGGER = Logging.getLogger(ParallelLayerRenderer.class);
+
+    final Supplier<StreamingRenderer> rendererFactory;
+
+    final Executor executor;
+
+    final int runCount;
+
+    final List<RenderListener> listeners = new CopyOnWriteArrayList<>();
+
+    final List<StreamingRenderer> renderers = new CopyOnWriteArrayList<>();
+
+    final List<Run> runs = new CopyOnWriteArrayList<>();
+
+    ExecutorService threadPool;
+
+    long timeout;
+
+    volatile boolean stopRequested;
+
+    /**
+     * @param rendererFactory builds the renderers painting each run
+     * @param executor the executor painting all runs but the first
+     * @param runs the maximum number of runs the layers are split into
+     */
+    public ParallelLayerRenderer(Supplier<StreamingRenderer> rendererFactory, Executor executor,
+            int runs) {
+        this.rendererFactory = rendererFactory;
+        this.executor = executor;
+        this.runCount = runs;
+    }
+
+    @Override
+    public void setThreadPool(ExecutorService threadPool) {
+        super.setThreadPool(threadPool);
+        this.threadPool = threadPool;
+    }
+
+    @Override
+    public void addRenderListener(RenderListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeRenderListener(RenderListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Sets the max time, in milliseconds, the painting waits for the runs painted by the executor,
+     * zero or negative means no limit. Should match the rendering timeout, so that a run stuck in
+     * the executor does not hold the request past it.
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void stopRendering() {
+        stopRequested = true;
+        // runs still queued in the executor are never started
+        for (Run run : runs) {
+            run.task.cancel(false);
+        }
+        for (StreamingRenderer renderer : renderers) {
+            renderer.stopRendering();
+        }
+    }
+
+    /**
+     * Splits the layers in at most the given number of runs of consecutive layers, of similar
+     * size
+     */
+    static List<List<Layer>> split(List<Layer> layers, int runs) {
+        int count = Math.max(1, Math.min(runs, layers.size()));
+        List<List<Layer>> result = new ArrayList<>(count);
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            int end = start + (layers.size() - start) / (count - i);
+            result.add(new ArrayList<>(layers.subList(start, end)));
+            start = end;
+        }
+        return result;
+    }
+
+    @Override
+    public void paint(Graphics2D graphics, Rectangle paintArea, ReferencedEnvelope mapArea,
+            AffineTransform worldToScreen) {
+        stopRequested = false;
+        renderers.clear();
+        runs.clear();
+        List<List<Layer>> groups = split(getMapContent().layers(), runCount);
+        List<LabelRecorder> recorders = new ArrayList<>();
+        for (List<Layer> group : groups) {
+            LabelRecorder recorder = new LabelRecorder();
+            recorders.add(recorder);
+            MapContent content = new MapContent();
+            content.getViewport().setBounds(mapArea);
+            content.addLayers(group);
+            StreamingRenderer renderer = buildRunRenderer(content, recorder);
+            renderers.add(renderer);
+            runs.add(new Run(content, group, renderer));
+        }
+
+        long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+        try {
+            // paint all runs but the first on their own image
+            int width = paintArea.x + paintArea.width;
+            int height = paintArea.y + paintArea.height;
+            List<BufferedImage> images = new ArrayList<>();
+            for (int i = 1; i < runs.size(); i++) {
+                BufferedImage image = new BufferedImage(width, height,
+                        BufferedImage.TYPE_INT_ARGB_PRE);
+                Graphics2D runGraphics = image.createGraphics();
+                runGraphics.setRenderingHints(graphics.getRenderingHints());
+                images.add(image);
+                Run run = runs.get(i);
+                run.prepare(runGraphics, true, paintArea, mapArea, worldToScreen);
+                try {
+                    executor.execute(run.task);
+                } catch (RejectedExecutionException e) {
+                    // the pool queue is full or shutting down, paint in this thread instead
+                    run.task.run();
+                }
+            }
+
+            // the first run goes straight on the target
+            Run first = runs.get(0);
+            first.prepare(graphics, false, paintArea, mapArea, worldToScreen);
+            first.task.run();
+
+            for (Run run : runs) {
+                try {
+                    if (deadline > 0) {
+                        run.task.get(Math.max(0, deadline - System.currentTimeMillis()),
+                                TimeUnit.MILLISECONDS);
+                    } else {
+                        run.task.get();
+                    }
+                } catch (CancellationException e) {
+                    // stopped before it could start
+                } catch (ExecutionException e) {
+                    fireError(e.getCause());
+                } catch (TimeoutException e) {
+                    // the timeout enforcer is also going to fire, make sure nothing keeps going
+                    stopRendering();
+                    return;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    stopRendering();
+                    return;
+                }
+            }
+            if (stopRequested) {
+                return;
+            }
+
+            for (BufferedImage image : images) {
+                graphics.drawImage(image, 0, 0, null);
+            }
+
+            LabelCacheImpl labelCache = new LabelCacheImpl();
+            labelCache.setLabelRenderingMode(getLabelRenderingMode());
+            labelCache.start();
+            for (LabelRecorder recorder : recorders) {
+                recorder.replay(labelCache, graphics);
+            }
+            labelCache.end(graphics, paintArea);
+        } finally {
+            // runs that never started are cleaned up here, the others clean up when done
+            for (Run run : runs) {
+                if (run.claim()) {
+                    run.dispose();
+                }
+            }
+        }
+    }
+
+    /**
+     * A run of consecutive layers painted by its own renderer. Whoever claims the run first, the
+     * painting thread or the cleanup after a stop, releases its resources.
+     */
+    class Run {
+
+        final MapContent content;
+
+        final List<Layer> layers;
+
+        final StreamingRenderer renderer;
+
+        final AtomicBoolean claimed = new AtomicBoolean();
+
+        final FutureTask<Void> task;
+
+        Graphics2D graphics;
+
+        boolean ownsGraphics;
+
+        Rectangle paintArea;
+
+        ReferencedEnvelope mapArea;
+
+        AffineTransform worldToScreen;
+
+        ThreadLocalsTransfer transfer;
+
+        Thread requestThread;
+
+        Run(MapContent content, List<Layer> layers, StreamingRenderer renderer) {
+            this.content = content;
+            this.layers = layers;
+            this.renderer = renderer;
+            this.task = new FutureTask<>(this::paint);
+        }
+
+        /**
+         * Sets up the painting target, capturing the thread locals of the calling thread
+         *
+         * @param ownsGraphics true if the graphics has been created for this run, and has to be
+         *        disposed once done
+         */
+        void prepare(Graphics2D graphics, boolean ownsGraphics, Rectangle paintArea,
+                ReferencedEnvelope mapArea, AffineTransform worldToScreen) {
+            this.graphics = graphics;
+            this.ownsGraphics = ownsGraphics;
+            this.paintArea = paintArea;
+            this.mapArea = mapArea;
+            this.worldToScreen = worldToScreen;
+            this.transfer = new ThreadLocalsTransfer();
+            this.requestThread = Thread.currentThread();
+        }
+
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        Void paint() {
+            if (!claim()) {
+                return null;
+            }
+            // the request thread already has the thread locals, and must keep them
+            boolean transferred = Thread.currentThread() != requestThread;
+            try {
+                if (transferred) {
+                    transfer.apply();
+                }
+                // StreamingRenderer.paint resets its stop flag, a stop requested before
+                // this point has to be checked here
+                if (!stopRequested) {
+                    renderer.paint(graphics, paintArea, mapArea, worldToScreen);
+                }
+            } finally {
+                if (transferred) {
+                    transfer.cleanup();
+                }
+                dispose();
+            }
+            return null;
+        }
+
+        void dispose() {
+            if (ownsGraphics) {
+                graphics.dispose();
+            }
+            // the layers still belong to the original map content, do not dispose them
+            for (Layer layer : layers) {
+                content.removeLayer(layer);
+            }
+            content.dispose();
+        }
+    }
+
+    StreamingRenderer buildRunRenderer(MapContent content, LabelRecorder recorder) {
+        StreamingRenderer renderer = rendererFactory.get();
+        renderer.setThreadPool(threadPool);
+        renderer.setJava2DHints(getJava2DHints());
+        Map<Object, Object> hints = new HashMap<>();
+        if (getRendererHints() != null) {
+            hints.putAll(getRendererHints());
+        }
+        hints.put(StreamingRenderer.LABEL_CACHE_KEY, recorder);
+        renderer.setRendererHints(hints);
+        renderer.setMapContent(content);
+        for (RenderListener listener : listeners) {
+            renderer.addRenderListener(listener);
+        }
+        // a stop racing with the start of the paint is lost, apply it again at the next feature
+        renderer.addRenderListener(new RenderListener() {
+            @Override
+            public void featureRenderer(SimpleFeature feature) {
+                if (stopRequested) {
+                    renderer.stopRendering();
+                }
+            }
+
+            @Override
+            public void errorOccurred(Exception e) {
+                // reported by the other listeners
+            }
+        });
+        return renderer;
+    }
+
+    LabelRenderingMode getLabelRenderingMode() {
+        Map<?, ?> hints = getRendererHints();
+        Object mode = hints == null ? null : hints.get(StreamingRenderer.TEXT_RENDERING_KEY);
+        if (mode instanceof String) {
+            try {
+                return LabelRenderingMode.valueOf((String) mode);
+            } catch (IllegalArgumentException e) {
+                LOGGER.log(Level.FINE, "Unknown text rendering mode " + mode, e);
+            }
+        }
+        return LabelRenderingMode.STRING;
+    }
+
+    void fireError(Throwable t) {
+        Exception e = t instanceof Exception ? (Exception) t : new RuntimeException(t);
+        for (RenderListener listener : listeners) {
+            listener.errorOccurred(e);
+        }
+    }
+
+    /**
+     * Label cache recording the calls made by a run renderer, without painting anything, so that
+     * they can be replayed in layer order once all runs are done
+     */
+    static class LabelRecorder extends LabelCacheImpl {
+
+        // layers are started and ended by the renderer thread, labels added by its painting thread
+        final List<BiConsumer<LabelCacheImpl, Graphics2D>> calls = Collections
+                .synchronizedList(new ArrayList<>());
+
+        @Override
+        public void start() {
+            // the target label cache is started before replaying
+        }
+
+        @Override
+        public void startLayer(String layerId) {
+            calls.add((cache, graphics) -> cache.startLayer(layerId));
+        }
+
+        @Override
+        public void put(String layerId, TextSymbolizer symbolizer, Feature feature,
+                LiteShape2 shape, NumberRange<Double> scaleRange) {
+            calls.add((cache, graphics) -> cache.put(layerId, symbolizer, feature, shape,
+                    scaleRange));
+        }
+
+        @Override
+        public void put(Rectangle2D area) {
+            calls.add((cache, graphics) -> cache.put(area));
+        }
+
+        @Override
+        public void enableLayer(String layerId) {
+            calls.add((cache, graphics) -> cache.enableLayer(layerId));
+        }
+
+        @Override
+        public void disableLayer(String layerId) {
+            calls.add((cache, graphics) -> cache.disableLayer(layerId));
+        }
+
+        @Override
+        public void endLayer(String layerId, Graphics2D graphics, Rectangle displayArea) {
+            calls.add((cache, target) -> cache.endLayer(layerId, target, displayArea));
+        }
+
+        @Override
+        public void end(Graphics2D graphics, Rectangle displayArea) {
+            // labels are painted by the target label cache
+        }
+
+        void replay(LabelCacheImpl cache, Graphics2D graphics) {
+            for (BiConsumer<LabelCacheImpl, Graphics2D> call : calls) {
+                call.accept(cache, graphics);
+            }
+        }
+    }
+}
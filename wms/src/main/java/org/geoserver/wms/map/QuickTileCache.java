@@ -5,23 +5,31 @@
  */
 package org.geoserver.wms.map;
 
+import static org.geoserver.platform.GeoServerExtensions.getIntProperty;
+
 import java.awt.Point;
 import java.awt.geom.Point2D;
 import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
-import org.geoserver.config.ConfigurationListenerAdapter;
+import org.geoserver.config.CacheClearingListener;
 import org.geoserver.config.GeoServer;
-import org.geoserver.config.GeoServerInfo;
-import org.geoserver.config.ServiceInfo;
 import org.geoserver.config.impl.GeoServerLifecycleHandler;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.TransactionEvent;
@@ -31,11 +39,47 @@ import org.geoserver.wms.GetMapRequest;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.CRS.AxisOrder;
-import org.geotools.util.CanonicalSet;
+import org.geotools.util.logging.Logging;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.vividsolutions.jts.geom.Envelope;
 
+/**
+ * Caches the tiles of the meta-tiles built for tiled=true requests, and makes sure concurrent
+ * requests for tiles of the same meta-tile wait for a single rendering of it.
+ * <p>
+ * By default the meta-tiles are held by soft references, so that the garbage collector bounds
+ * their retention as it always did. Setting {@value #CACHE_SIZE_PROPERTY} to a number of megabytes
+ * holds them strongly up to that size instead, while zero disables storage, leaving only the
+ * coalescing of concurrent requests. {@value #CACHE_TTL_PROPERTY} sets how many seconds a
+ * meta-tile is kept (defaults to {@value #DEFAULT_TTL_SECONDS}). The cache is wiped out on
+ * configuration changes and WFS transactions, and meta-tiles built before a wipe out are not
+ * stored.
+ * </p>
+ */
 public class QuickTileCache implements TransactionListener, GeoServerLifecycleHandler {
+
+    static final Logger LOGGER = Logging.getLogger(QuickTileCache.class);
+
+    /**
+     * Property holding the max memory used by the cached tiles, in megabytes
+     */
+    public static final String CACHE_SIZE_PROPERTY = "WMS_META_TILE_CACHE_SIZE";
+
+    /**
+     * Property holding the cached meta-tiles time to live, in seconds
+     */
+    public static final String CACHE_TTL_PROPERTY = "WMS_META_TILE_CACHE_TTL";
+
+    /**
+     * Size used when {@link #CACHE_SIZE_PROPERTY} is not set, holding the tiles by soft references
+     */
+    static final int SOFT_SIZE = -1;
+
+    static final int DEFAULT_TTL_SECONDS = 30;
+
     /**
      * Set of parameters that we can ignore, since they do not define a map, are either unrelated,
      * or define the tiling instead
@@ -55,34 +99,92 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
     }
 
     /**
-     * Canonicalizer used to return the same object when two threads ask for the same meta-tile
+     * The meta-tiles built so far, null if storage is disabled
      */
-    private CanonicalSet<MetaTileKey> metaTileKeys = CanonicalSet.newInstance(MetaTileKey.class);
+    private final Cache<MetaTileKey, CachedTiles> tileCache;
 
-    private WeakHashMap tileCache = new WeakHashMap();
+    /**
+     * Incremented at each {@link #clear()}, cached meta-tiles from older generations are stale
+     */
+    private final AtomicLong generation = new AtomicLong();
 
-    public QuickTileCache(GeoServer geoServer) {
-        geoServer.addListener(new ConfigurationListenerAdapter() {
-            public void handleGlobalChange(GeoServerInfo global, List<String> propertyNames,
-                    List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
-            }
+    /**
+     * The meta-tiles being built, that other requests can wait for
+     */
+    private final ConcurrentHashMap<MetaTileKey, CompletableFuture<RenderedImage[]>> inFlight =
+            new ConcurrentHashMap<>();
 
-            public void handleServiceChange(ServiceInfo service, List<String> propertyNames,
-                    List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
-            }
+    private final AtomicLong hits = new AtomicLong();
 
-            public void reloaded() {
-                tileCache.clear();
-            }
-        });
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public QuickTileCache(GeoServer geoServer) {
+        this(getIntProperty(CACHE_SIZE_PROPERTY, SOFT_SIZE, 0),
+                getIntProperty(CACHE_TTL_PROPERTY, DEFAULT_TTL_SECONDS));
+        geoServer.addListener(new CacheClearingListener(this::clear));
     }
 
     /**
      * For testing only
      */
     QuickTileCache() {
+        this(SOFT_SIZE, DEFAULT_TTL_SECONDS);
+    }
+
+    /**
+     * Builds a cache holding at most the given megabytes of tiles, for the given amount of
+     * seconds. {@link #SOFT_SIZE} holds them by soft references instead, zero disables storage.
+     */
+    QuickTileCache(int sizeMB, int ttlSeconds) {
+        if (sizeMB != 0) {
+            CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().recordStats();
+            if (sizeMB > 0) {
+                builder.maximumWeight(sizeMB * 1024L * 1024L)
+                        .weigher((Object k, Object v) -> weigh(((CachedTiles) v).tiles));
+            } else {
+                builder.softValues();
+            }
+            if (ttlSeconds > 0) {
+                builder.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS);
+            }
+            tileCache = builder.build();
+        } else {
+            tileCache = null;
+        }
+    }
+
+    /**
+     * Meta-tile tiles, along with the cache generation they were built in
+     */
+    static class CachedTiles {
+        final RenderedImage[] tiles;
+
+        final long generation;
+
+        CachedTiles(RenderedImage[] tiles, long generation) {
+            this.tiles = tiles;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * Estimates the memory used by the tiles, in bytes
+     */
+    static int weigh(RenderedImage[] tiles) {
+        long bytes = 0;
+        for (RenderedImage tile : tiles) {
+            if (tile != null) {
+                SampleModel sm = tile.getSampleModel();
+                long pixelBits = 0;
+                for (int size : sm.getSampleSize()) {
+                    pixelBits += size;
+                }
+                bytes += (long) tile.getWidth() * tile.getHeight() * pixelBits / 8;
+            }
+        }
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
     }
 
     /**
@@ -111,12 +213,7 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         Point tileCoords = getTileCoordinates(bbox, origin);
         Point metaTileCoords = getMetaTileCoordinates(tileCoords);
         ReferencedEnvelope metaTileEnvelope = getMetaTileEnvelope(bbox, tileCoords, metaTileCoords);
-        MetaTileKey key = new MetaTileKey(mapKey, metaTileCoords, metaTileEnvelope);
-
-        // since this will be used for thread synchronization, we have to make
-        // sure two thread asking for the same meta tile will get the same key
-        // object
-        return metaTileKeys.unique(key);
+        return new MetaTileKey(mapKey, metaTileCoords, metaTileEnvelope);
     }
 
     private ReferencedEnvelope getMetaTileEnvelope(ReferencedEnvelope bbox, Point tileCoords, Point metaTileCoords) {
@@ -335,14 +432,100 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * @param request
      *
      */
-    public synchronized RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
-        CacheElement ce = (CacheElement) tileCache.get(key);
-
-        if (ce == null) {
+    public RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
+        RenderedImage[] tiles = getCached(key);
+        if (tiles == null) {
             return null;
         }
 
-        return getTile(key, request, ce.tiles);
+        return getTile(key, request, tiles);
+    }
+
+    /**
+     * Returns the tiles of the meta-tile, either from the cache, from a concurrent request that
+     * is already building them, or from the builder
+     * 
+     * @param key the meta-tile key
+     * @param builder builds the tiles of the meta-tile, called only if no other request is already
+     *        doing so
+     * @return the tiles, or null if the builder returned null
+     */
+    public RenderedImage[] getTiles(MetaTileKey key, Callable<RenderedImage[]> builder)
+            throws IOException {
+        return getTiles(key, builder, 0);
+    }
+
+    /**
+     * Same as {@link #getTiles(MetaTileKey, Callable)}, waiting at most the given amount of
+     * milliseconds for a concurrent request building the same meta-tile, typically the rendering
+     * timeout. Zero or a negative value waits indefinitely.
+     */
+    public RenderedImage[] getTiles(MetaTileKey key, Callable<RenderedImage[]> builder,
+            long timeout) throws IOException {
+        RenderedImage[] tiles = getCached(key);
+        if (tiles != null) {
+            hits.incrementAndGet();
+            return tiles;
+        }
+
+        CompletableFuture<RenderedImage[]> future = new CompletableFuture<>();
+        CompletableFuture<RenderedImage[]> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return await(existing, timeout);
+        }
+
+        try {
+            // another request might have stored it while we were registering
+            long buildGeneration = generation.get();
+            tiles = getCached(key);
+            if (tiles != null) {
+                hits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+                tiles = builder.call();
+                if (tiles != null) {
+                    store(key, tiles, buildGeneration);
+                }
+            }
+            future.complete(tiles);
+            return tiles;
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            throw propagate(e);
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private RenderedImage[] await(CompletableFuture<RenderedImage[]> future, long timeout)
+            throws IOException {
+        try {
+            if (timeout > 0) {
+                return future.get(timeout, TimeUnit.MILLISECONDS);
+            }
+            return future.get();
+        } catch (TimeoutException e) {
+            throw new ServiceException("This request used more time than allowed waiting for "
+                    + "the meta-tile to be rendered. Max rendering time is " + (timeout / 1000.0)
+                    + "s");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Interrupted while waiting for the meta-tile", e);
+        } catch (ExecutionException e) {
+            throw propagate(e.getCause());
+        }
+    }
+
+    private IOException propagate(Throwable t) {
+        if (t instanceof IOException) {
+            return (IOException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new IOException(t);
     }
 
     /**
@@ -371,16 +554,79 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * @param tiles
      *
      */
-    public synchronized void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
-        tileCache.put(key, new CacheElement(tiles));
+    public void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
+        store(key, tiles, generation.get());
     }
 
-    class CacheElement {
-        RenderedImage[] tiles;
+    /**
+     * Stores the tiles built in the given generation, unless the cache has been cleared since
+     */
+    void store(MetaTileKey key, RenderedImage[] tiles, long buildGeneration) {
+        if (tileCache != null && buildGeneration == generation.get()) {
+            // a clear racing with the put leaves a stale generation, ignored on lookup
+            tileCache.put(key, new CachedTiles(tiles, buildGeneration));
+        }
+    }
 
-        public CacheElement(RenderedImage[] tiles) {
-            this.tiles = tiles;
+    /**
+     * Returns the cached tiles, if any, and built after the last clear
+     */
+    RenderedImage[] getCached(MetaTileKey key) {
+        CachedTiles cached = tileCache == null ? null : tileCache.getIfPresent(key);
+        if (cached == null) {
+            return null;
+        } else if (cached.generation != generation.get()) {
+            tileCache.invalidate(key);
+            return null;
         }
+        return cached.tiles;
+    }
+
+    /**
+     * Removes all the cached meta-tiles. Meta-tiles being built are not stored, and new requests
+     * do not wait for them.
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        inFlight.clear();
+        if (tileCache != null) {
+            tileCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Returns the number of meta-tiles found in the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of meta-tiles that had to be built
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of requests that waited for a meta-tile built by a concurrent request
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * Returns the storage statistics (evictions and sizes), or null if storage is disabled
+     */
+    public CacheStats getStatistics() {
+        return tileCache == null ? null : tileCache.stats();
+    }
+
+    /**
+     * Returns the number of cached meta-tiles
+     */
+    public long size() {
+        return tileCache == null ? 0 : tileCache.size();
     }
 
     public void dataStoreChange(TransactionEvent event) throws WFSException {
@@ -388,18 +634,18 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         // contains a string with part of the map request where the layer
         // name is included, but we would have to parse it and consider
         // also that the namespace may be missing in the getmap request
-        tileCache.clear();
+        clear();
     }
 
     @Override
     public void onReset() {
         // data might have changed in the meantime
-        tileCache.clear();        
+        clear();
     }
 
     @Override
     public void onDispose() {
-        tileCache.clear();
+        clear();
     }
 
     public void beforeReload() {
@@ -408,6 +654,6 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
 
     @Override
     public void onReload() {
-        tileCache.clear();
+        clear();
     }
 }
@@ -43,7 +43,7 @@ public class RenderExceptionStrategy implements RenderListener {
     private static final Logger LOGGER = Logging.getLogger("org.geoserver.wms");
     private final GTRenderer renderer;
 
-    private Exception renderException;
+    private volatile Exception renderException;
 
     /**
      * Creates a render listener to stop the given {@code renderer} when a non ignorable
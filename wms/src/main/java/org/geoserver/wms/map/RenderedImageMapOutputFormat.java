@@ -90,6 +90,7 @@ import org.geotools.renderer.lite.StreamingRenderer;
 import org.geotools.renderer.lite.gridcoverage2d.ChannelSelectionUpdateStyleVisitor;
 import org.geotools.renderer.lite.gridcoverage2d.GridCoverageRenderer;
 import org.geotools.resources.image.ColorUtilities;
+import org.geotools.styling.FeatureTypeStyle;
 import org.geotools.styling.RasterSymbolizer;
 import org.geotools.styling.Style;
 import org.geotools.util.logging.Logging;
@@ -329,7 +330,9 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         // multiple featureTypeStyles against the same layer
         StreamingRenderer testRenderer = buildRenderer();
         testRenderer.setMapContent(mapContent);
-        memory += testRenderer.getMaxBackBufferMemory(paintArea.width, paintArea.height);
+        long backBufferMemory = testRenderer.getMaxBackBufferMemory(paintArea.width,
+                paintArea.height);
+        memory += backBufferMemory;
         if (maxMemory > 0 && memory > maxMemory) {
             long kbUsed = memory / KB;
             long kbMax = maxMemory / KB;
@@ -427,7 +430,15 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         graphic.setRenderingHints(hintsMap);
 
         RenderingHints hints = new RenderingHints(hintsMap);
-        StreamingRenderer renderer = buildRenderer();
+        int runs = getParallelRuns(mapContent, palette, maxMemory - memory,
+                (long) paintArea.width * paintArea.height * 4 + backBufferMemory);
+        StreamingRenderer renderer;
+        if (runs > 1) {
+            renderer = new ParallelLayerRenderer(this::buildRenderer,
+                    DefaultWebMapService.getLayerRenderingPool(), runs);
+        } else {
+            renderer = buildRenderer();
+        }
         renderer.setThreadPool(DefaultWebMapService.getRenderingPool());
         renderer.setMapContent(mapContent);
         renderer.setJava2DHints(hints);
@@ -500,6 +511,9 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
             }
         }
 
+        // hand the renderer only the rules active at the current scale
+        final Map<StyleLayer, Style> originalStyles = selectScaleRules(mapContent);
+
         for (int i = 0; i < request.getLayers().size(); i++) {
 
             Interpolation interpolationToSet = null;
@@ -545,6 +559,9 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         onBeforeRender(renderer);
         
         int maxRenderingTime = wms.getMaxRenderingTime(request);
+        if (renderer instanceof ParallelLayerRenderer) {
+            ((ParallelLayerRenderer) renderer).setTimeout(maxRenderingTime);
+        }
         ServiceException serviceException = null;
         boolean saveMap = (request.getRawKvp() != null && WMSServiceExceptionHandler
                 .isPartialMapExceptionType(request.getRawKvp().get("EXCEPTIONS")));
@@ -564,6 +581,7 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
             // finally render the image;
             renderer.paint(graphic, paintArea, mapContent.getRenderingArea(),
                     mapContent.getRenderingTransform());
+            restoreStyles(originalStyles);
 
             // apply watermarking
             if (layout != null) {
@@ -612,10 +630,87 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         } finally {
             timeout.stop();
             graphic.dispose();
+            restoreStyles(originalStyles);
         }
         throw serviceException;
     }
 
+    /**
+     * Replaces the layer styles with their scale indexed versions (see {@link ScaleIndexedStyle})
+     * holding only the rules active at the current scale, returning the original styles so that
+     * they can be restored after painting
+     */
+    Map<StyleLayer, Style> selectScaleRules(WMSMapContent mapContent) {
+        Map<StyleLayer, Style> originals = new HashMap<StyleLayer, Style>();
+        double scaleDenominator;
+        try {
+            scaleDenominator = mapContent.getScaleDenominator(true);
+        } catch (ServiceException e) {
+            // let the renderer deal with it
+            LOGGER.log(Level.FINE, "Could not compute the scale, skipping the rule selection", e);
+            return originals;
+        }
+        for (Layer layer : mapContent.layers()) {
+            if (layer instanceof StyleLayer) {
+                StyleLayer styleLayer = (StyleLayer) layer;
+                Style style = styleLayer.getStyle();
+                if (style != null) {
+                    Style selected = ScaleIndexedStyle.select(style, scaleDenominator);
+                    if (selected != style) {
+                        originals.put(styleLayer, style);
+                        styleLayer.setStyle(selected);
+                    }
+                }
+            }
+        }
+        return originals;
+    }
+
+    void restoreStyles(Map<StyleLayer, Style> originals) {
+        for (Map.Entry<StyleLayer, Style> entry : originals.entrySet()) {
+            entry.getKey().setStyle(entry.getValue());
+        }
+        originals.clear();
+    }
+
+    /**
+     * Returns in how many runs of consecutive layers the map can be painted in parallel (see
+     * {@link ParallelLayerRenderer}), or 1 if it has to be painted sequentially
+     * 
+     * @param availableMemory the memory still available to the request, or a negative number if
+     *        there is no limit
+     * @param runMemory the memory used by each additional run
+     */
+    int getParallelRuns(WMSMapContent mapContent, IndexColorModel palette, long availableMemory,
+            long runMemory) {
+        List<Layer> layers = mapContent.layers();
+        // paletted images are painted directly, the runs cannot be composited on them
+        if (DefaultWebMapService.getLayerRenderingPool() == null || layers.size() < 2
+                || palette != null) {
+            return 1;
+        }
+        // layers composited with, or sorted along, the ones below them need the same surface
+        for (Layer layer : layers) {
+            Style style = layer.getStyle();
+            if (style == null) {
+                continue;
+            }
+            for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+                Map<String, String> options = fts.getOptions();
+                if (options != null && (options.containsKey(FeatureTypeStyle.COMPOSITE)
+                        || options.containsKey(FeatureTypeStyle.COMPOSITE_BASE)
+                        || options.containsKey(FeatureTypeStyle.SORT_BY_GROUP))) {
+                    return 1;
+                }
+            }
+        }
+        int runs = Math.min(layers.size(), DefaultWebMapService.getLayerRenderingRuns());
+        if (availableMemory >= 0) {
+            runs = (int) Math.min(runs, 1 + availableMemory / runMemory);
+        }
+        return Math.max(runs, 1);
+    }
+
     /**
      * Creates a {@link StreamingRenderer} instance (subclasses can provide
      * their own specialized subclasses of {@link StreamingRenderer}
@@ -778,7 +873,7 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
     protected RenderedImage prepareImage(int width, int height, IndexColorModel palette,
             boolean transparent) {
         return ImageUtils.createImage(width, height, isPaletteSupported() ? palette : null,
-                transparent && isTransparencySupported());
+                transparent && isTransparencySupported(), ImageBufferPool.getInstance());
     }
 
     /**
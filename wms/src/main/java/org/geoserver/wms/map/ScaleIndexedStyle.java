@@ -0,0 +1,274 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.Rule;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleFactory;
+import org.geotools.util.logging.Logging;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A style pre-partitioned by scale: the scale denominators at which any rule turns on or off
+ * split the scale axis in ranges, and for each range a lightweight copy of the style holding only
+ * the rules active in it is built upfront. Looking up the rules to paint at a given scale then
+ * boils down to a binary search, and the renderer gets to walk only the rules it is going to use,
+ * which matters for styles with hundreds of scale dependent rules.
+ * <p>
+ * The renderer computes the scale on its own, and might end up with a slightly different value,
+ * so the selection keeps the rules active anywhere within {@value #SCALE_WINDOW} (relative) of
+ * the requested scale, and leaves the exact selection to the renderer. Feature type styles
+ * without any rule in the window are dropped, unless they start a composition group or carry a
+ * rendering transformation.
+ * </p>
+ * <p>
+ * The copies share the original rules, only the style and feature type style containers are
+ * new. Scale indexed styles are cached by style identity, with weak keys, so they live as long
+ * as the parsed style they are built from (e.g., the one held by the catalog
+ * {@link org.geoserver.catalog.ResourcePool}) and are rebuilt when the style changes. The cache
+ * holds at most {@value #DEFAULT_CACHE_SIZE} styles by default, the
+ * {@value #CACHE_SIZE_PROPERTY} system/environment/servlet context variable allows changing it,
+ * zero disables the scale selection altogether.
+ * </p>
+ */
+public class ScaleIndexedStyle {
+
+    static final Logger LOGGER = Logging.getLogger(ScaleIndexedStyle.class);
+
+    public static final String CACHE_SIZE_PROPERTY = "WMS_SCALE_INDEXED_STYLE_CACHE_SIZE";
+
+    static final int DEFAULT_CACHE_SIZE = 1000;
+
+    /**
+     * Same tolerance used by the renderer when checking if a rule applies at a given scale
+     */
+    static final double TOLERANCE = 1e-6;
+
+    /**
+     * Relative half width of the scale window the rules are selected for
+     */
+    static final double SCALE_WINDOW = 0.05;
+
+    static final StyleFactory STYLE_FACTORY = CommonFactoryFinder.getStyleFactory(null);
+
+    static final Cache<Style, ScaleIndexedStyle> CACHE = buildCache(getCacheSize());
+
+    final Style style;
+
+    final double[] boundaries;
+
+    final Style[] styles;
+
+    /**
+     * Partitions the given style, consider using {@link #get(Style)} to share the result
+     */
+    public ScaleIndexedStyle(Style style) {
+        this.style = style;
+
+        TreeSet<Double> scales = new TreeSet<Double>();
+        for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+            for (Rule rule : fts.rules()) {
+                addBoundary(scales, getWindowMin(rule));
+                addBoundary(scales, getWindowMax(rule));
+            }
+        }
+        boundaries = new double[scales.size()];
+        int i = 0;
+        for (Double scale : scales) {
+            boundaries[i++] = scale;
+        }
+
+        // range i goes from boundaries[i - 1] (inclusive) to boundaries[i] (exclusive)
+        styles = new Style[boundaries.length + 1];
+        for (i = 0; i < styles.length; i++) {
+            double scale = i == 0 ? Double.NEGATIVE_INFINITY : boundaries[i - 1];
+            styles[i] = select(scale, i == 0 ? null : styles[i - 1]);
+        }
+    }
+
+    static void addBoundary(TreeSet<Double> scales, double scale) {
+        if (!Double.isInfinite(scale) && !Double.isNaN(scale)) {
+            scales.add(scale);
+        }
+    }
+
+    static boolean isWithInScale(Rule rule, double scaleDenominator) {
+        return ((rule.getMinScaleDenominator() - TOLERANCE) <= scaleDenominator)
+                && ((rule.getMaxScaleDenominator() + TOLERANCE) > scaleDenominator);
+    }
+
+    /**
+     * Returns true if the rule is active somewhere in the scale window around the given scale
+     */
+    static boolean isWithInWindow(Rule rule, double scaleDenominator) {
+        return getWindowMin(rule) <= scaleDenominator && getWindowMax(rule) > scaleDenominator;
+    }
+
+    /**
+     * The smallest scale whose window reaches the rule minimum scale
+     */
+    static double getWindowMin(Rule rule) {
+        return (rule.getMinScaleDenominator() - TOLERANCE) / (1 + SCALE_WINDOW);
+    }
+
+    /**
+     * The largest scale whose window reaches the rule maximum scale
+     */
+    static double getWindowMax(Rule rule) {
+        return (rule.getMaxScaleDenominator() + TOLERANCE) / (1 - SCALE_WINDOW);
+    }
+
+    /**
+     * Returns true if the feature type style affects the map even without rules to paint
+     */
+    static boolean isStructural(FeatureTypeStyle fts) {
+        return fts.getTransformation() != null
+                || fts.getOptions().containsKey(FeatureTypeStyle.COMPOSITE_BASE);
+    }
+
+    /**
+     * Builds the style with the rules active in the window around the given scale, reusing the
+     * original or the previous range style when they contain the same rules
+     */
+    Style select(double scaleDenominator, Style previous) {
+        List<FeatureTypeStyle> selected = new ArrayList<FeatureTypeStyle>();
+        boolean all = true;
+        for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+            List<Rule> rules = new ArrayList<Rule>();
+            for (Rule rule : fts.rules()) {
+                if (isWithInWindow(rule, scaleDenominator)) {
+                    rules.add(rule);
+                } else {
+                    all = false;
+                }
+            }
+            if (!rules.isEmpty() || isStructural(fts)) {
+                selected.add(copy(fts, rules));
+            }
+        }
+        if (all) {
+            return style;
+        } else if (previous != null && previous != style && sameRules(previous, selected)) {
+            return previous;
+        }
+
+        Style result = STYLE_FACTORY.createStyle();
+        result.setName(style.getName());
+        result.setDefault(style.isDefault());
+        result.featureTypeStyles().addAll(selected);
+        return result;
+    }
+
+    static FeatureTypeStyle copy(FeatureTypeStyle fts, List<Rule> rules) {
+        FeatureTypeStyle copy = STYLE_FACTORY.createFeatureTypeStyle();
+        copy.setName(fts.getName());
+        copy.featureTypeNames().clear();
+        copy.featureTypeNames().addAll(fts.featureTypeNames());
+        copy.semanticTypeIdentifiers().clear();
+        copy.semanticTypeIdentifiers().addAll(fts.semanticTypeIdentifiers());
+        copy.setTransformation(fts.getTransformation());
+        copy.getOptions().putAll(fts.getOptions());
+        copy.rules().addAll(rules);
+        return copy;
+    }
+
+    static boolean sameRules(Style style, List<FeatureTypeStyle> selected) {
+        List<FeatureTypeStyle> ftsList = style.featureTypeStyles();
+        if (ftsList.size() != selected.size()) {
+            return false;
+        }
+        for (int i = 0; i < ftsList.size(); i++) {
+            List<Rule> a = ftsList.get(i).rules();
+            List<Rule> b = selected.get(i).rules();
+            if (a.size() != b.size()) {
+                return false;
+            }
+            for (int j = 0; j < a.size(); j++) {
+                if (a.get(j) != b.get(j)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the style holding only the rules active in the window around the given scale
+     * denominator, or the original style if all of them are
+     */
+    public Style getStyle(double scaleDenominator) {
+        int idx = Arrays.binarySearch(boundaries, scaleDenominator);
+        int range;
+        if (idx >= 0) {
+            range = idx + 1;
+        } else {
+            range = -(idx + 1);
+        }
+        return styles[range];
+    }
+
+    /**
+     * Returns the original style
+     */
+    public Style getStyle() {
+        return style;
+    }
+
+    /**
+     * Returns the number of scale ranges the style has been partitioned into
+     */
+    public int getRangeCount() {
+        return styles.length;
+    }
+
+    /**
+     * Returns the scale indexed version of the style, building it if not already cached, or null
+     * if the scale selection is disabled
+     */
+    public static ScaleIndexedStyle get(Style style) {
+        if (CACHE == null) {
+            return null;
+        }
+        ScaleIndexedStyle result = CACHE.getIfPresent(style);
+        if (result == null) {
+            // concurrent builds of the same style are harmless, no need to synchronize
+            result = new ScaleIndexedStyle(style);
+            CACHE.put(style, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the style holding only the rules active at the given scale, or the style itself if
+     * the scale selection is disabled
+     */
+    public static Style select(Style style, double scaleDenominator) {
+        ScaleIndexedStyle indexed = get(style);
+        return indexed == null ? style : indexed.getStyle(scaleDenominator);
+    }
+
+    static Cache<Style, ScaleIndexedStyle> buildCache(int size) {
+        if (size <= 0) {
+            return null;
+        }
+        // weak keys use identity, styles are mutable and their equals/hashcode are expensive
+        return CacheBuilder.newBuilder().weakKeys().maximumSize(size).build();
+    }
+
+    static int getCacheSize() {
+        return GeoServerExtensions.getIntProperty(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE);
+    }
+}
@@ -9,9 +9,11 @@ import it.geosolutions.imageio.plugins.png.PNGWriter;
 
 import java.awt.image.RenderedImage;
 import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.WMSMapContent;
 import org.geotools.image.ImageWorker;
@@ -24,7 +26,12 @@ import org.geotools.util.logging.Logging;
 import ar.com.hjg.pngj.FilterType;
 
 /**
- * Encodes the image in PNG using the PNGJ library
+ * Encodes the image in PNG using the PNGJ library.
+ * <p>
+ * Images having at least as many pixels as the "PNG_PARALLEL_ENCODING_THRESHOLD" variable
+ * (defaults to 2048x2048) are deflated in parallel on the common fork-join pool instead, see
+ * {@link ParallelPNGEncoder}, as long as they use 8 bits per sample.
+ * </p>
  * 
  * @author Andrea Aime - GeoSolutions
  */
@@ -32,6 +39,31 @@ public class PNGJWriter {
 
     private static final Logger LOGGER = Logging.getLogger(PNGJWriter.class);
 
+    static final String PARALLEL_THRESHOLD = "PNG_PARALLEL_ENCODING_THRESHOLD";
+
+    static final long DEFAULT_PARALLEL_THRESHOLD = 2048 * 2048;
+
+    static final long PARALLEL_THRESHOLD_VALUE = getParallelThreshold();
+
+    final long parallelThreshold;
+
+    public PNGJWriter() {
+        this(PARALLEL_THRESHOLD_VALUE);
+    }
+
+    /**
+     * @param parallelThreshold the minimum number of pixels an image must have to be deflated in
+     *        parallel
+     */
+    public PNGJWriter(long parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    static long getParallelThreshold() {
+        return GeoServerExtensions.getLongProperty(PARALLEL_THRESHOLD,
+                DEFAULT_PARALLEL_THRESHOLD, 1);
+    }
+
     public RenderedImage writePNG(RenderedImage image, OutputStream outStream, float quality,
             WMSMapContent mapContent) {
         // what kind of scaline filtering are we going to use?
@@ -48,6 +80,11 @@ public class PNGJWriter {
         RenderedImage output = null;
         // Image writing
         try {
+            if (isParallelEncoding(image)) {
+                new ParallelPNGEncoder(ForkJoinPool.commonPool(), quality, filterType)
+                        .encode(image, outStream);
+                return image;
+            }
             output =  writer.writePNG(image, outStream, quality, filterType);
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "Failed to encode the PNG", e);
@@ -57,6 +94,16 @@ public class PNGJWriter {
         return output;
     }
 
+    /**
+     * Returns true if the image is large enough to be deflated in parallel, and has a supported
+     * layout
+     */
+    boolean isParallelEncoding(RenderedImage image) {
+        return (long) image.getWidth() * image.getHeight() >= parallelThreshold
+                && ForkJoinPool.getCommonPoolParallelism() > 1
+                && ParallelPNGEncoder.isSupported(image);
+    }
+
     /**
      * SUB filtering is useful for raster images with "high" variation, otherwise we go for NONE,
      * empirically it provides better compression at lower effort
@@ -0,0 +1,376 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import ar.com.hjg.pngj.FilterType;
+
+/**
+ * Encodes 8 bit per sample images in PNG splitting the scanlines in bands, which are filtered and
+ * deflated in parallel on a fork-join pool.
+ * <p>
+ * Each band is compressed as raw deflate blocks terminated by a sync flush (the last one is
+ * finished instead), using the tail of the previous band as the preset dictionary, so that the
+ * concatenation of the bands is a single valid zlib stream with a compression ratio close to the
+ * sequential one. The adler32 checksums of the bands are combined at the end. Only the NONE and
+ * SUB filters are supported, as they do not depend on the previous scanline.
+ * </p>
+ */
+class ParallelPNGEncoder {
+
+    static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+
+    /**
+     * The deflate window size, the amount of data of the previous band used as the dictionary
+     */
+    static final int DICTIONARY_SIZE = 32768;
+
+    static final int ADLER_BASE = 65521;
+
+    static final int COLOR_TYPE_GRAY = 0;
+
+    static final int COLOR_TYPE_RGB = 2;
+
+    static final int COLOR_TYPE_PALETTE = 3;
+
+    static final int COLOR_TYPE_GRAY_ALPHA = 4;
+
+    static final int COLOR_TYPE_RGBA = 6;
+
+    /**
+     * A compressed band of scanlines
+     */
+    static class Band {
+        final byte[] data;
+
+        final long adler;
+
+        final int rawLength;
+
+        Band(byte[] data, long adler, int rawLength) {
+            this.data = data;
+            this.adler = adler;
+            this.rawLength = rawLength;
+        }
+    }
+
+    final ForkJoinPool pool;
+
+    final int level;
+
+    final FilterType filterType;
+
+    /**
+     * The minimum amount of uncompressed bytes in a band, smaller bands hurt the compression
+     * ratio and pay more in scheduling overhead
+     */
+    int minBandBytes = 256 * 1024;
+
+    ParallelPNGEncoder(ForkJoinPool pool, float quality, FilterType filterType) {
+        this.pool = pool;
+        this.level = Math.max(0, Math.min(9, Math.round(9 * (1 - quality))));
+        this.filterType = filterType;
+    }
+
+    /**
+     * Returns true if the image can be encoded by this class, that is, if it uses 8 bits per
+     * sample and either a palette or a non premultiplied gray/RGB color model
+     */
+    static boolean isSupported(RenderedImage image) {
+        return getColorType(image.getColorModel(), image.getSampleModel()) >= 0;
+    }
+
+    static int getColorType(ColorModel cm, SampleModel sm) {
+        if (cm == null || sm == null) {
+            return -1;
+        }
+        int bands = sm.getNumBands();
+        for (int i = 0; i < bands; i++) {
+            if (sm.getSampleSize(i) != 8) {
+                return -1;
+            }
+        }
+        if (cm instanceof IndexColorModel) {
+            return bands == 1 && cm.getPixelSize() == 8 ? COLOR_TYPE_PALETTE : -1;
+        }
+        if (!(cm instanceof ComponentColorModel || cm instanceof DirectColorModel)
+                || cm.isAlphaPremultiplied() || cm.getNumComponents() != bands) {
+            return -1;
+        }
+        int csType = cm.getColorSpace().getType();
+        if (csType == ColorSpace.TYPE_RGB && bands == 3) {
+            return COLOR_TYPE_RGB;
+        } else if (csType == ColorSpace.TYPE_RGB && bands == 4 && cm.hasAlpha()) {
+            return COLOR_TYPE_RGBA;
+        } else if (csType == ColorSpace.TYPE_GRAY && bands == 1) {
+            return COLOR_TYPE_GRAY;
+        } else if (csType == ColorSpace.TYPE_GRAY && bands == 2 && cm.hasAlpha()) {
+            return COLOR_TYPE_GRAY_ALPHA;
+        }
+        return -1;
+    }
+
+    /**
+     * Encodes the image, which must be supported (see {@link #isSupported(RenderedImage)})
+     */
+    void encode(RenderedImage image, OutputStream output) throws IOException {
+        int colorType = getColorType(image.getColorModel(), image.getSampleModel());
+        if (colorType < 0) {
+            throw new IllegalArgumentException("Unsupported image layout");
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int pixelBytes = image.getSampleModel().getNumBands();
+        int rowBytes = 1 + width * pixelBytes;
+
+        // the scanlines get split in bands, several per thread to balance the load
+        int bandRows = Math.max((minBandBytes + rowBytes - 1) / rowBytes,
+                (height + pool.getParallelism() * 4 - 1) / (pool.getParallelism() * 4));
+        List<Future<Band>> futures = new ArrayList<>();
+        for (int y = 0; y < height; y += bandRows) {
+            int start = y;
+            int end = Math.min(height, y + bandRows);
+            futures.add(pool.submit(() -> deflate(image, start, end, end == height)));
+        }
+
+        try {
+            DataOutputStream out = new DataOutputStream(output);
+            out.write(SIGNATURE);
+            writeHeader(out, width, height, colorType);
+            if (colorType == COLOR_TYPE_PALETTE) {
+                writePalette(out, (IndexColorModel) image.getColorModel());
+            }
+
+            // zlib header, deflate with a 32k window, flags matching the compression level
+            byte[] zlibHeader = { 0x78, getZlibFlags(level) };
+            writeChunk(out, "IDAT", zlibHeader);
+            long adler = 1;
+            for (Future<Band> future : futures) {
+                Band band = getBand(future);
+                writeChunk(out, "IDAT", band.data);
+                adler = combineAdler(adler, band.adler, band.rawLength);
+            }
+            byte[] trailer = { (byte) (adler >>> 24), (byte) (adler >>> 16),
+                    (byte) (adler >>> 8), (byte) adler };
+            writeChunk(out, "IDAT", trailer);
+            writeChunk(out, "IEND", new byte[0]);
+            out.flush();
+        } finally {
+            for (Future<Band> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    Band getBand(Future<Band> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while encoding the PNG");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to encode the PNG", cause);
+        }
+    }
+
+    /**
+     * Filters and compresses the scanlines between start (inclusive) and end (exclusive)
+     */
+    Band deflate(RenderedImage image, int start, int end, boolean last) {
+        int rowBytes = 1 + image.getWidth() * image.getSampleModel().getNumBands();
+        // also extract enough of the previous rows to use them as the dictionary
+        int dictionaryRows = Math.min(start, (DICTIONARY_SIZE + rowBytes - 1) / rowBytes);
+        byte[] raw = getScanlines(image, start - dictionaryRows, end);
+        int offset = dictionaryRows * rowBytes;
+        int length = raw.length - offset;
+
+        Adler32 adler = new Adler32();
+        adler.update(raw, offset, length);
+
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (offset > 0) {
+                int dictionaryLength = Math.min(offset, DICTIONARY_SIZE);
+                deflater.setDictionary(raw, offset - dictionaryLength, dictionaryLength);
+            }
+            deflater.setInput(raw, offset, length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length / 4 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    out.write(buffer, 0, count);
+                }
+            } else {
+                // sync flush aligns the output on a byte boundary without ending the stream
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, count);
+                } while (count == buffer.length);
+            }
+            return new Band(out.toByteArray(), adler.getValue(), length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Returns the filtered scanlines between start (inclusive) and end (exclusive), each one
+     * prefixed by its filter type
+     */
+    byte[] getScanlines(RenderedImage image, int start, int end) {
+        int width = image.getWidth();
+        int pixelBytes = image.getSampleModel().getNumBands();
+        int rowBytes = 1 + width * pixelBytes;
+        int minX = image.getMinX();
+        int minY = image.getMinY();
+        boolean palette = image.getColorModel() instanceof IndexColorModel;
+        Raster raster;
+        if (image instanceof BufferedImage) {
+            raster = ((BufferedImage) image).getRaster();
+        } else {
+            raster = image.getData(new Rectangle(minX, minY + start, width, end - start));
+        }
+
+        byte[] result = new byte[(end - start) * rowBytes];
+        int[] samples = new int[width * pixelBytes];
+        byte filter = (byte) filterType.val;
+        for (int y = start, offset = 0; y < end; y++, offset += rowBytes) {
+            if (palette) {
+                raster.getSamples(minX, minY + y, width, 1, 0, samples);
+            } else {
+                raster.getPixels(minX, minY + y, width, 1, samples);
+            }
+            result[offset] = filter;
+            for (int i = 0; i < samples.length; i++) {
+                result[offset + 1 + i] = (byte) samples[i];
+            }
+            if (filterType == FilterType.FILTER_SUB) {
+                for (int i = samples.length - 1; i >= pixelBytes; i--) {
+                    result[offset + 1 + i] -= result[offset + 1 + i - pixelBytes];
+                }
+            }
+        }
+        return result;
+    }
+
+    void writeHeader(DataOutputStream out, int width, int height, int colorType)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(13);
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(width);
+        header.writeInt(height);
+        header.writeByte(8); // bit depth
+        header.writeByte(colorType);
+        header.writeByte(0); // deflate compression
+        header.writeByte(0); // adaptive filtering
+        header.writeByte(0); // no interlacing
+        writeChunk(out, "IHDR", bytes.toByteArray());
+    }
+
+    void writePalette(DataOutputStream out, IndexColorModel icm) throws IOException {
+        int size = icm.getMapSize();
+        byte[] palette = new byte[size * 3];
+        byte[] alphas = new byte[size];
+        int alphaCount = 0;
+        for (int i = 0; i < size; i++) {
+            palette[i * 3] = (byte) icm.getRed(i);
+            palette[i * 3 + 1] = (byte) icm.getGreen(i);
+            palette[i * 3 + 2] = (byte) icm.getBlue(i);
+            alphas[i] = (byte) icm.getAlpha(i);
+            if (icm.getAlpha(i) != 255) {
+                alphaCount = i + 1;
+            }
+        }
+        writeChunk(out, "PLTE", palette);
+        if (alphaCount > 0) {
+            byte[] transparency = new byte[alphaCount];
+            System.arraycopy(alphas, 0, transparency, 0, alphaCount);
+            writeChunk(out, "tRNS", transparency);
+        }
+    }
+
+    void writeChunk(DataOutputStream out, String type, byte[] data) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        out.writeInt(data.length);
+        out.write(typeBytes);
+        out.write(data);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Returns the zlib FLG byte for the given compression level, making the header a multiple of
+     * 31 as required by the zlib specification
+     */
+    static byte getZlibFlags(int level) {
+        if (level <= 1) {
+            return 0x01;
+        } else if (level <= 5) {
+            return 0x5E;
+        } else if (level == 6) {
+            return (byte) 0x9C;
+        } else {
+            return (byte) 0xDA;
+        }
+    }
+
+    /**
+     * Combines the adler32 checksums of two consecutive byte sequences, given the length of the
+     * second one, same as zlib adler32_combine
+     */
+    static long combineAdler(long adler1, long adler2, long length2) {
+        long remainder = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = (remainder * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xffff) + ADLER_BASE - 1;
+        sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + ADLER_BASE - remainder;
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum2 >= (ADLER_BASE << 1)) {
+            sum2 -= (ADLER_BASE << 1);
+        }
+        if (sum2 >= ADLER_BASE) {
+            sum2 -= ADLER_BASE;
+        }
+        return sum1 | (sum2 << 16);
+    }
+}
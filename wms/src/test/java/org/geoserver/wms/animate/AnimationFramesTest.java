@@ -0,0 +1,168 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.animate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geoserver.platform.ServiceException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AnimationFramesTest {
+
+    ExecutorService executor;
+
+    AtomicInteger rendered = new AtomicInteger();
+
+    @Before
+    public void setupExecutor() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    List<Callable<RenderedImage>> buildLoaders(int count, int failing) {
+        return buildLoaders(count, failing, 0);
+    }
+
+    /**
+     * Builds loaders returning null for the frames before the given index
+     */
+    List<Callable<RenderedImage>> buildLoaders(int count, int failing, int firstNonNull) {
+        List<Callable<RenderedImage>> loaders = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final int frame = i;
+            loaders.add(() -> {
+                rendered.incrementAndGet();
+                if (frame == failing) {
+                    throw new IOException("Frame " + frame + " failed");
+                } else if (frame < firstNonNull) {
+                    return null;
+                }
+                // encode the frame number in the width
+                return new BufferedImage(frame + 1, 10, BufferedImage.TYPE_BYTE_GRAY);
+            });
+        }
+        return loaders;
+    }
+
+    @Test
+    public void testOrderAndBound() throws Exception {
+        AnimationFrames frames = new AnimationFrames(buildLoaders(20, -1), executor, 3, null);
+        assertEquals(20, frames.size());
+        assertEquals(1, frames.getWidth());
+        assertEquals(3, frames.scheduled);
+
+        RenderedImage first = (RenderedImage) frames.get(0);
+        for (int i = 0; i < 20; i++) {
+            RenderedImage frame = (RenderedImage) frames.get(i);
+            assertEquals(i + 1, frame.getWidth());
+            // no more than 3 frames beyond the current one are ever scheduled
+            assertTrue(frames.scheduled <= i + 3);
+        }
+        assertEquals(20, rendered.get());
+
+        // the first frame is kept, the others let go
+        assertSame(first, frames.get(0));
+        assertNull(frames.get(5));
+        assertEquals(20, ((RenderedImage) frames.get(19)).getWidth());
+    }
+
+    @Test
+    public void testFirstFrameFailure() throws Exception {
+        try {
+            new AnimationFrames(buildLoaders(10, 0), executor, 2, null);
+            fail("Should have failed");
+        } catch (IOException e) {
+            assertEquals("Frame 0 failed", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testLeadingNullFrames() throws Exception {
+        AnimationFrames frames = new AnimationFrames(buildLoaders(10, -1, 3), executor, 2, null);
+        // the first non null frame backs the list
+        assertEquals(4, frames.getWidth());
+        assertEquals(3, frames.firstIndex);
+        assertTrue(frames.scheduled <= 5);
+
+        RenderedImage first = (RenderedImage) frames.get(3);
+        assertNull(frames.get(0));
+        for (int i = 3; i < 10; i++) {
+            assertEquals(i + 1, ((RenderedImage) frames.get(i)).getWidth());
+        }
+        assertSame(first, frames.get(3));
+    }
+
+    @Test
+    public void testAllNullFrames() throws Exception {
+        try {
+            new AnimationFrames(buildLoaders(5, -1, 5), executor, 2, null);
+            fail("Should have failed");
+        } catch (IOException e) {
+            assertEquals("Empty list of frames.", e.getMessage());
+        }
+        assertEquals(5, rendered.get());
+    }
+
+    @Test
+    public void testFrameFailure() throws Exception {
+        AnimationFrames frames = new AnimationFrames(buildLoaders(10, 4), executor, 2, null);
+        for (int i = 0; i < 4; i++) {
+            frames.get(i);
+        }
+        try {
+            frames.get(4);
+            fail("Should have failed");
+        } catch (ServiceException e) {
+            assertTrue(frames.disposed);
+        }
+        // no more frames after a failure
+        assertNull(frames.get(5));
+        assertEquals(6, frames.scheduled);
+    }
+
+    @Test
+    public void testMaxRenderingSize() throws Exception {
+        // frames have a single tile, of 2 * width * 8 bits, the first three sum up to 12
+        AnimationFrames frames = new AnimationFrames(buildLoaders(10, -1), executor, 2, 12L);
+        frames.get(1);
+        try {
+            frames.get(2);
+            fail("Should have failed");
+        } catch (ServiceException e) {
+            assertTrue(e.getCause().getMessage().contains("Max rendering size"));
+        }
+    }
+
+    @Test
+    public void testDispose() throws Exception {
+        AnimationFrames frames = new AnimationFrames(buildLoaders(10, -1), executor, 2, null);
+        RenderedImage second = (RenderedImage) frames.get(1);
+        frames.dispose();
+        // the frames handed out can still be retrieved for cleanup, the others are not rendered
+        assertSame(second, frames.get(1));
+        assertNull(frames.get(2));
+        assertEquals(3, frames.scheduled);
+    }
+}
@@ -0,0 +1,171 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.dimension;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import net.opengis.wfs.TransactionType;
+import net.opengis.wfs.WfsFactory;
+
+import org.geoserver.catalog.DimensionPresentation;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.platform.resource.Resource;
+import org.geoserver.security.CatalogMode;
+import org.geoserver.security.VectorAccessLimits;
+import org.geoserver.security.WrapperPolicy;
+import org.geoserver.security.decorators.SecuredFeatureTypeInfo;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionEventType;
+import org.geoserver.wfs.request.TransactionRequest;
+import org.geoserver.wms.WMSDimensionsTestSupport;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.util.NumberRange;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory;
+
+public class FeatureDimensionDomainIndexTest extends WMSDimensionsTestSupport {
+
+    FeatureDimensionDomainIndex index;
+
+    FeatureTypeInfo typeInfo;
+
+    @Before
+    public void setupIndex() throws Exception {
+        setupVectorDimension(ResourceInfo.ELEVATION, "elevation", DimensionPresentation.LIST,
+                null, UNITS, UNIT_SYMBOL);
+        typeInfo = getCatalog().getFeatureTypeByName(V_TIME_ELEVATION.getLocalPart());
+        index = new FeatureDimensionDomainIndex(getCatalog(), true, 0);
+        index.clear();
+    }
+
+    @Test
+    public void testBuildAndPersist() throws Exception {
+        DimensionDomain domain = index.getDomain(typeInfo, ResourceInfo.ELEVATION);
+        assertEquals(new TreeSet<Object>(Arrays.asList(0d, 1d, 2d, 3d)), domain.getValues());
+        assertEquals(0d, domain.getMinimum());
+        assertEquals(3d, domain.getMaximum());
+        assertEquals(1d, domain.getNearest(1.4));
+        assertEquals(2d, domain.getNearest(1.6));
+        assertEquals(new TreeSet<Object>(Arrays.asList(1d, 2d)),
+                domain.getValues(new NumberRange<Double>(Double.class, 0.5, 2.5), 10));
+        assertEquals(new TreeSet<Object>(Arrays.asList(1d)),
+                domain.getValues(new NumberRange<Double>(Double.class, 0.5, 2.5), 1));
+
+        // persisted, another index can just read it back
+        Resource resource = index.getResource(typeInfo.getId(), ResourceInfo.ELEVATION);
+        assertEquals(Resource.Type.RESOURCE, resource.getType());
+        DimensionDomain loaded = new FeatureDimensionDomainIndex(getCatalog(), true, 0)
+                .load(resource);
+        assertNotNull(loaded);
+        assertEquals(domain.getValues(), loaded.getValues());
+
+        // dropping removes the persisted copy too
+        index.drop(typeInfo.getId());
+        assertEquals(Resource.Type.UNDEFINED, resource.getType());
+    }
+
+    @Test
+    public void testNotEnabled() throws Exception {
+        assertNull(index.getDomain(typeInfo, ResourceInfo.TIME));
+        assertNull(new FeatureDimensionDomainIndex(getCatalog(), false, 0).getDomain(typeInfo,
+                ResourceInfo.ELEVATION));
+    }
+
+    @Test
+    public void testTransaction() throws Exception {
+        DimensionDomain domain = index.getDomain(typeInfo, ResourceInfo.ELEVATION);
+
+        // delete the feature at elevation zero, insert one at elevation five
+        TransactionType tx = WfsFactory.eINSTANCE.createTransactionType();
+        fireDeleteAndInsert(tx);
+
+        // not committed yet
+        assertEquals(new TreeSet<Object>(Arrays.asList(0d, 1d, 2d, 3d)), domain.getValues());
+        index.afterTransaction(tx, null, true);
+        assertEquals(new TreeSet<Object>(Arrays.asList(1d, 2d, 3d, 5d)), domain.getValues());
+
+        // the persisted copy has been updated too
+        DimensionDomain loaded = index.load(index.getResource(typeInfo.getId(),
+                ResourceInfo.ELEVATION));
+        assertEquals(domain.getValues(), loaded.getValues());
+
+        // rolled back transactions are not applied
+        tx = WfsFactory.eINSTANCE.createTransactionType();
+        fireDeleteAndInsert(tx);
+        index.afterTransaction(tx, null, false);
+        assertEquals(new TreeSet<Object>(Arrays.asList(1d, 2d, 3d, 5d)), domain.getValues());
+    }
+
+    @Test
+    public void testBuiltDuringTransaction() throws Exception {
+        TransactionType tx = WfsFactory.eINSTANCE.createTransactionType();
+        fireDeleteAndInsert(tx);
+
+        // the scan cannot tell if it sees the transaction changes, the domain is not cached
+        DimensionDomain domain = index.getDomain(typeInfo, ResourceInfo.ELEVATION);
+        assertNotNull(domain);
+        assertEquals(Resource.Type.UNDEFINED,
+                index.getResource(typeInfo.getId(), ResourceInfo.ELEVATION).getType());
+        index.afterTransaction(tx, null, true);
+
+        // built again once the transaction is over, the changes are not applied twice
+        DimensionDomain rebuilt = index.getDomain(typeInfo, ResourceInfo.ELEVATION);
+        assertEquals(new TreeSet<Object>(Arrays.asList(0d, 1d, 2d, 3d)), rebuilt.getValues());
+        assertSame(rebuilt, index.getDomain(typeInfo, ResourceInfo.ELEVATION));
+    }
+
+    @Test
+    public void testAccessLimits() throws Exception {
+        FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+
+        // the domain is shared, not used for users seeing only part of the data
+        VectorAccessLimits filtered = new VectorAccessLimits(CatalogMode.HIDE, null,
+                ff.equals(ff.property("elevation"), ff.literal(0d)), null, null);
+        assertNull(index.getDomain(new SecuredFeatureTypeInfo(typeInfo,
+                WrapperPolicy.readOnlyHide(filtered)), ResourceInfo.ELEVATION));
+        VectorAccessLimits hidden = new VectorAccessLimits(CatalogMode.HIDE,
+                Arrays.asList(ff.property("id")), Filter.INCLUDE, null, null);
+        assertNull(index.getDomain(new SecuredFeatureTypeInfo(typeInfo,
+                WrapperPolicy.readOnlyHide(hidden)), ResourceInfo.ELEVATION));
+
+        // but it is for the ones seeing all of it
+        VectorAccessLimits visible = new VectorAccessLimits(CatalogMode.HIDE,
+                Arrays.asList(ff.property("elevation")), Filter.INCLUDE, null, null);
+        DimensionDomain domain = index.getDomain(new SecuredFeatureTypeInfo(typeInfo,
+                WrapperPolicy.readOnlyHide(visible)), ResourceInfo.ELEVATION);
+        assertEquals(new TreeSet<Object>(Arrays.asList(0d, 1d, 2d, 3d)), domain.getValues());
+    }
+
+    void fireDeleteAndInsert(TransactionType tx) throws Exception {
+        TransactionRequest request = new TransactionRequest.WFS11(tx);
+        SimpleFeatureSource source = (SimpleFeatureSource) typeInfo.getFeatureSource(null, null);
+        FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+        SimpleFeatureCollection deleted = source.getFeatures(ff.equals(
+                ff.property("elevation"), ff.literal(0d)));
+        index.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_DELETE, request,
+                V_TIME_ELEVATION, deleted));
+
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(source.getSchema());
+        fb.set("elevation", 5d);
+        SimpleFeature inserted = fb.buildFeature("TimeElevation.5");
+        index.dataStoreChange(new TransactionEvent(TransactionEventType.POST_INSERT, request,
+                V_TIME_ELEVATION, new ListFeatureCollection(source.getSchema(),
+                        Arrays.asList(inserted))));
+    }
+}
@@ -0,0 +1,85 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.featureinfo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.wms.featureinfo.FeatureInfoHitIndex.Footprint;
+import org.geotools.data.DataUtilities;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class FeatureInfoHitIndexTest {
+
+    /**
+     * A 100x100 square, with pixels of size 1
+     */
+    static final String SQUARE = "POLYGON((0 0, 100 0, 100 100, 0 100, 0 0))";
+
+    FeatureInfoHitIndex index(String wkt, Footprint footprint, int radius) throws Exception {
+        SimpleFeatureType type = DataUtilities.createType("test", "the_geom:Geometry");
+        Geometry geometry = new WKTReader().read(wkt);
+        SimpleFeature feature = SimpleFeatureBuilder.build(type, new Object[] { geometry },
+                "test.1");
+        Map<Footprint, Integer> footprints = new EnumMap<>(Footprint.class);
+        footprints.put(footprint, radius);
+        return new FeatureInfoHitIndex(
+                Arrays.asList(new FeatureInfoHitIndex.Entry(feature, geometry, footprints, 1)),
+                true);
+    }
+
+    int hits(FeatureInfoHitIndex index, double x, double y) {
+        List<SimpleFeature> features = index.query(new Coordinate(x, y), 1, 2, 10);
+        return features.size();
+    }
+
+    @Test
+    public void testFilledPolygon() throws Exception {
+        FeatureInfoHitIndex index = index(SQUARE, Footprint.AREA, 1);
+        assertEquals(1, hits(index, 50, 50));
+        assertEquals(1, hits(index, 102, 50));
+        assertEquals(0, hits(index, 110, 50));
+    }
+
+    @Test
+    public void testOutlinedPolygon() throws Exception {
+        // a polygon painted with a line symbolizer is only hit close to its outline
+        FeatureInfoHitIndex index = index(SQUARE, Footprint.OUTLINE, 1);
+        assertEquals(0, hits(index, 50, 50));
+        assertEquals(1, hits(index, 98, 50));
+        assertEquals(1, hits(index, 102, 50));
+        assertEquals(0, hits(index, 110, 50));
+    }
+
+    @Test
+    public void testPointOnPolygon() throws Exception {
+        // a graphic is painted on the centroid of the polygon
+        FeatureInfoHitIndex index = index(SQUARE, Footprint.POINT, 5);
+        assertEquals(1, hits(index, 50, 50));
+        assertEquals(1, hits(index, 54, 54));
+        assertEquals(0, hits(index, 10, 10));
+        assertEquals(0, hits(index, 100, 50));
+    }
+
+    @Test
+    public void testPointOnMultiPoint() throws Exception {
+        // each point of a multipoint gets a graphic
+        FeatureInfoHitIndex index = index("MULTIPOINT((0 0), (100 100))", Footprint.POINT, 5);
+        assertEquals(1, hits(index, 0, 0));
+        assertEquals(1, hits(index, 100, 100));
+        assertEquals(0, hits(index, 50, 50));
+    }
+}
@@ -6,11 +6,13 @@
 package org.geoserver.wms.featureinfo;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -24,6 +26,7 @@ import org.apache.commons.lang.mutable.MutableDouble;
 import org.geoserver.config.GeoServer;
 import org.geoserver.data.test.MockData;
 import org.geoserver.data.test.SystemTestData;
+import org.geoserver.platform.GeoServerExtensionsHelper;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.FeatureInfoRequestParameters;
 import org.geoserver.wms.GetFeatureInfoRequest;
@@ -38,9 +41,11 @@ import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.WMSTestSupport;
 import org.geoserver.wms.WebMap;
 import org.geoserver.wms.map.AbstractMapOutputFormat;
+import org.geotools.feature.FeatureCollection;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.geotools.renderer.lite.RendererUtilities;
+import org.geotools.styling.Style;
 import org.junit.After;
 import org.junit.Test;
 import org.opengis.referencing.FactoryException;
@@ -94,6 +99,7 @@ public class RenderingBasedFeatureInfoTest extends WMSTestSupport {
     @After 
     public void cleanup() {
         VectorRenderingLayerIdentifier.RENDERING_FEATUREINFO_ENABLED = true;
+        GeoServerExtensionsHelper.clear();
     }
     
     /**
@@ -142,6 +148,72 @@ public class RenderingBasedFeatureInfoTest extends WMSTestSupport {
     }
 
     
+    private FeatureInfoRequestParameters getBridgesRequest(Style style, int x, int y) {
+        GetFeatureInfoRequest request = new GetFeatureInfoRequest();
+        GetMapRequest getMapRequest = new GetMapRequest();
+        List<MapLayerInfo> layers = new ArrayList<MapLayerInfo>();
+
+        layers.add(new MapLayerInfo(getCatalog().getLayerByName(
+                MockData.BRIDGES.getLocalPart())));
+        getMapRequest.setLayers(layers);
+        getMapRequest.setStyles(Arrays.asList(style));
+        getMapRequest.setSRS("EPSG:4326");
+        getMapRequest.setCrs(DefaultGeographicCRS.WGS84);
+        getMapRequest.setBbox(new Envelope(0.0001955, 0.0002035, 0.000696, 0.000704));
+        getMapRequest.setWidth(100);
+        getMapRequest.setHeight(100);
+        getMapRequest.setFormat("image/png");
+        request.setGetMapRequest(getMapRequest);
+        request.setQueryLayers(layers);
+        request.setXPixel(x);
+        request.setYPixel(y);
+
+        return new FeatureInfoRequestParameters(request);
+    }
+
+    /**
+     * The bridge is painted as a 6 pixels wide point at 56.25,50, the index should find it just
+     * like the rendering does
+     */
+    @Test
+    public void testHitIndex() throws Exception {
+        Style style = getCatalog().getStyleByName("point").getStyle();
+        VectorRenderingLayerIdentifier renderer = new VectorRenderingLayerIdentifier(getWMS(),
+                null);
+        GeoServerExtensionsHelper.property(VectorRenderingLayerIdentifier.HIT_INDEX, "true");
+        VectorRenderingLayerIdentifier indexer = new VectorRenderingLayerIdentifier(getWMS(),
+                null);
+        assertEquals(null, renderer.hitIndexes);
+
+        for (int x : new int[] { 56, 30 }) {
+            List<FeatureCollection> rendered = renderer.identify(getBridgesRequest(style, x, 50),
+                    10);
+            List<FeatureCollection> indexed = indexer.identify(getBridgesRequest(style, x, 50),
+                    10);
+            assertEquals(rendered.size(), indexed.size());
+            int expected = x == 56 ? 1 : 0;
+            assertEquals(expected, rendered.isEmpty() ? 0 : rendered.get(0).size());
+            assertEquals(expected, indexed.isEmpty() ? 0 : indexed.get(0).size());
+        }
+
+        // the map has been indexed once, and the style analyzed once
+        assertEquals(1, indexer.hitIndexes.size());
+        assertEquals(1, indexer.styleCache.size());
+        FeatureInfoRequestParameters params = getBridgesRequest(style, 56, 50);
+        assertSame(indexer.getStyleAnalysis(params), indexer.getStyleAnalysis(params));
+
+        // a committed transaction drops the index, an aborted one does not
+        FeatureInfoHitIndexTransactionListener listener =
+                new FeatureInfoHitIndexTransactionListener(indexer);
+        listener.afterTransaction(null, null, false);
+        assertEquals(1, indexer.hitIndexes.size());
+        listener.afterTransaction(null, null, true);
+        assertEquals(0, indexer.hitIndexes.size());
+        assertEquals(1, indexer.hitIndexGeneration.get());
+        indexer.identify(getBridgesRequest(style, 56, 50), 10);
+        assertEquals(1, indexer.hitIndexes.size());
+    }
+
     @Test
     public void testBoxOffset() throws Exception {
         // try the old way clicking in the area of the symbol that is transparent
@@ -0,0 +1,106 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.legendgraphic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.wms.GetLegendGraphicRequest;
+import org.geoserver.wms.WMSTestSupport;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class LegendGraphicCacheTest extends WMSTestSupport {
+
+    LegendGraphicCache cache;
+
+    String getLakesLegend() {
+        return "wms?service=WMS&version=1.1.1&request=GetLegendGraphic" + "&layer="
+                + getLayerId(MockData.LAKES) + "&style=Lakes"
+                + "&format=image/png&width=20&height=20";
+    }
+
+    @Before
+    public void clearCache() {
+        cache = applicationContext.getBean(LegendGraphicCache.class);
+        cache.clear();
+    }
+
+    @Test
+    public void testCached() throws Exception {
+        long hits = cache.getStatistics().hitCount();
+        MockHttpServletResponse first = getAsServletResponse(getLakesLegend());
+        assertEquals("image/png", first.getContentType());
+        assertEquals(1, cache.size());
+        assertTrue(cache.getSizeInBytes() > first.getContentAsByteArray().length);
+
+        MockHttpServletResponse second = getAsServletResponse(getLakesLegend());
+        assertEquals("image/png", second.getContentType());
+        assertArrayEquals(first.getContentAsByteArray(), second.getContentAsByteArray());
+        assertEquals(hits + 1, cache.getStatistics().hitCount());
+
+        // a different size is a different legend
+        getAsServletResponse(getLakesLegend().replace("width=20", "width=30"));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testClearedOnStyleChange() throws Exception {
+        getAsServletResponse(getLakesLegend());
+        assertEquals(1, cache.size());
+
+        Catalog catalog = getCatalog();
+        StyleInfo style = catalog.getStyleByName("Lakes");
+        catalog.save(style);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testKeyedByUser() throws Exception {
+        GetLegendGraphicRequest request = new GetLegendGraphicRequest();
+        Map<String, String> rawKvp = new HashMap<String, String>();
+        rawKvp.put("LAYER", getLayerId(MockData.LAKES));
+        request.setRawKvp(rawKvp);
+
+        try {
+            login("admin", "geoserver", "ROLE_ADMINISTRATOR");
+            String adminKey = cache.getKey(request);
+            assertEquals(adminKey, cache.getKey(request));
+            login("cite", "cite", "ROLE_DUMMY");
+            assertFalse(adminKey.equals(cache.getKey(request)));
+        } finally {
+            logout();
+        }
+    }
+
+    @Test
+    public void testNotCacheable() throws Exception {
+        GetLegendGraphicRequest request = new GetLegendGraphicRequest();
+        Map<String, String> rawKvp = new HashMap<String, String>();
+        rawKvp.put("LAYER", getLayerId(MockData.LAKES));
+        request.setRawKvp(rawKvp);
+        assertTrue(cache.isCacheable(request));
+
+        // remote styles
+        rawKvp.put("SLD", "http://www.geoserver.org/test.sld");
+        assertFalse(cache.isCacheable(request));
+        rawKvp.remove("SLD");
+
+        // feature counts
+        request.setLegendOptions(Collections.singletonMap(
+                GetLegendGraphicRequest.COUNT_MATCHED_KEY, "true"));
+        assertFalse(cache.isCacheable(request));
+    }
+}
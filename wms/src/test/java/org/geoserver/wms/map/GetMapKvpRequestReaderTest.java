@@ -32,6 +32,8 @@ import org.geoserver.config.GeoServerInfo;
 import org.geoserver.config.GeoServerLoader;
 import org.geoserver.data.test.MockData;
 import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.LocalHttpServletRequest;
+import org.geoserver.ows.Request;
 import org.geoserver.ows.kvp.URLKvpParser;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.test.RemoteOWSTestSupport;
@@ -48,6 +50,7 @@ import org.geotools.util.DateRange;
 import org.opengis.filter.FilterFactory;
 import org.opengis.filter.Id;
 import org.opengis.filter.PropertyIsEqualTo;
+import org.springframework.mock.web.MockHttpServletRequest;
 
 @SuppressWarnings("unchecked")
 public class GetMapKvpRequestReaderTest extends KvpRequestReaderTestSupport {
@@ -813,4 +816,187 @@ public class GetMapKvpRequestReaderTest extends KvpRequestReaderTestSupport {
         assertEquals("ABCD", viewParams.get("str"));
     }
     
+    public void testRequestCache() throws Exception {
+        GetMapRequestCache cache = new GetMapRequestCache(10, 0);
+        reader.setRequestCache(cache);
+
+        HashMap raw = new HashMap();
+        raw.put("layers", getLayerId(MockData.BASIC_POLYGONS));
+        raw.put("styles", "");
+        raw.put("format", "image/png");
+        raw.put("srs", "epsg:4326");
+        raw.put("bbox", "-10,-10,10,10");
+        raw.put("height", "256");
+        raw.put("width", "256");
+        raw.put("request", "GetMap");
+        raw.put("cql_filter", "ID = 1");
+
+        GetMapRequest first = (GetMapRequest) reader.createRequest();
+        first = (GetMapRequest) reader.read(first, parseKvp(raw), caseInsensitiveKvp(raw));
+        assertEquals(0, cache.getStatistics().hitCount());
+        assertEquals(1, cache.getStatistics().missCount());
+        assertEquals(1, cache.size());
+
+        // same map, different tile
+        raw.put("bbox", "0,0,10,10");
+        raw.put("height", "512");
+        raw.put("width", "512");
+        GetMapRequest second = (GetMapRequest) reader.createRequest();
+        second = (GetMapRequest) reader.read(second, parseKvp(raw), caseInsensitiveKvp(raw));
+        assertEquals(1, cache.getStatistics().hitCount());
+        assertEquals(1, cache.size());
+
+        assertNotSame(first, second);
+        assertEquals(0d, second.getBbox().getMinX(), 0);
+        assertEquals(512, second.getWidth());
+        assertEquals(512, second.getHeight());
+        assertEquals(-10d, first.getBbox().getMinX(), 0);
+        assertEquals(256, first.getWidth());
+        assertEquals("0,0,10,10", second.getRawKvp().get("BBOX"));
+
+        // same parsed contents, not shared with the first request
+        assertEquals(1, second.getLayers().size());
+        assertEquals(first.getLayers().get(0).getName(), second.getLayers().get(0).getName());
+        assertNotSame(first.getLayers(), second.getLayers());
+        assertEquals(first.getStyles(), second.getStyles());
+        assertNotSame(first.getStyles(), second.getStyles());
+        assertEquals(first.getCQLFilter(), second.getCQLFilter());
+        assertNotSame(first.getCQLFilter(), second.getCQLFilter());
+        assertNotSame(first.getFormatOptions(), second.getFormatOptions());
+
+        // a different map is a miss
+        raw.put("format", "image/jpeg");
+        GetMapRequest third = (GetMapRequest) reader.createRequest();
+        third = (GetMapRequest) reader.read(third, parseKvp(raw), caseInsensitiveKvp(raw));
+        assertEquals("image/jpeg", third.getFormat());
+        assertEquals(2, cache.getStatistics().missCount());
+        assertEquals(2, cache.size());
+    }
+
+    public void testRequestCacheParsedKvp() throws Exception {
+        GetMapRequestCache cache = new GetMapRequestCache(10, 0);
+        reader.setRequestCache(cache);
+        MockHttpServletRequest httpRequest = new MockHttpServletRequest("GET", "/geoserver/wms");
+        LocalHttpServletRequest.set(httpRequest);
+        try {
+            HashMap raw = new HashMap();
+            raw.put("layers", getLayerId(MockData.BASIC_POLYGONS));
+            raw.put("styles", "");
+            raw.put("format", "image/png");
+            raw.put("srs", "epsg:4326");
+            raw.put("bbox", "-10,-10,10,10");
+            raw.put("height", "256");
+            raw.put("width", "256");
+            raw.put("request", "GetMap");
+            raw.put("cql_filter", "ID = 1");
+
+            // nothing known before the first request
+            Request request = new Request();
+            request.setHttpRequest(httpRequest);
+            request.setRawKvp(caseInsensitiveKvp(raw));
+            assertNull(cache.getParsedKvp(request));
+            Map kvp = parseKvp(raw);
+            reader.read(reader.createRequest(), kvp, caseInsensitiveKvp(raw));
+
+            // same map, different tile, the dispatcher can skip parsing all but the tile
+            raw.put("bbox", "0,0,10,10");
+            request.setRawKvp(caseInsensitiveKvp(raw));
+            Map<String, Object> parsed = cache.getParsedKvp(request);
+            assertNotNull(parsed);
+            assertFalse(parsed.containsKey("BBOX"));
+            assertFalse(parsed.containsKey("WIDTH"));
+            assertEquals(kvp.get("CQL_FILTER"), parsed.get("CQL_FILTER"));
+            assertNotSame(kvp.get("CQL_FILTER"), parsed.get("CQL_FILTER"));
+            // not a hit yet, the reader looks up the request afterwards
+            assertEquals(0, cache.getStatistics().hitCount());
+
+            // another virtual service is a miss
+            request.setHttpRequest(new MockHttpServletRequest("GET", "/geoserver/cite/wms"));
+            assertNull(cache.getParsedKvp(request));
+
+            // and so are other requests
+            raw.put("request", "GetFeatureInfo");
+            request.setHttpRequest(httpRequest);
+            request.setRawKvp(caseInsensitiveKvp(raw));
+            assertNull(cache.getParsedKvp(request));
+        } finally {
+            LocalHttpServletRequest.remove();
+        }
+    }
+
+    public void testRequestCacheSkipsDynamicStyles() throws Exception {
+        GetMapRequestCache cache = new GetMapRequestCache(10, 0);
+        reader.setRequestCache(cache);
+
+        HashMap raw = new HashMap();
+        raw.put("layers", getLayerId(MockData.STATES));
+        raw.put("format", "image/png");
+        raw.put("srs", "epsg:4326");
+        raw.put("bbox", "-10,-10,10,10");
+        raw.put("height", "256");
+        raw.put("width", "256");
+        raw.put("request", "GetMap");
+        raw.put("sld_body", STATES_SLD);
+
+        GetMapRequest request = (GetMapRequest) reader.createRequest();
+        reader.read(request, parseKvp(raw), caseInsensitiveKvp(raw));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getStatistics().requestCount());
+    }
+
+    public void testRequestCacheSkipsRelativeTimes() throws Exception {
+        GetMapRequestCache cache = new GetMapRequestCache(10, 0);
+        reader.setRequestCache(cache);
+
+        HashMap raw = new HashMap();
+        raw.put("layers", getLayerId(MockData.BASIC_POLYGONS));
+        raw.put("styles", "");
+        raw.put("format", "image/png");
+        raw.put("srs", "epsg:4326");
+        raw.put("bbox", "-10,-10,10,10");
+        raw.put("height", "256");
+        raw.put("width", "256");
+        raw.put("request", "GetMap");
+
+        for (String time : new String[] { "current", "now", "P1D/PRESENT" }) {
+            raw.put("time", time);
+            GetMapRequest request = (GetMapRequest) reader.createRequest();
+            reader.read(request, parseKvp(raw), caseInsensitiveKvp(raw));
+            assertEquals(time, 0, cache.size());
+            assertEquals(time, 0, cache.getStatistics().requestCount());
+        }
+
+        // absolute times are fine
+        raw.put("time", "2017-01-01/2017-01-02");
+        GetMapRequest request = (GetMapRequest) reader.createRequest();
+        reader.read(request, parseKvp(raw), caseInsensitiveKvp(raw));
+        assertEquals(1, cache.size());
+    }
+
+    public void testRequestCacheCatalogInvalidation() throws Exception {
+        GetMapRequestCache cache = new GetMapRequestCache(10, 0);
+        reader.setRequestCache(cache);
+        getCatalog().addListener(cache);
+        try {
+            HashMap raw = new HashMap();
+            raw.put("layers", getLayerId(MockData.BASIC_POLYGONS));
+            raw.put("styles", "");
+            raw.put("format", "image/png");
+            raw.put("srs", "epsg:4326");
+            raw.put("bbox", "-10,-10,10,10");
+            raw.put("height", "256");
+            raw.put("width", "256");
+            raw.put("request", "GetMap");
+
+            GetMapRequest request = (GetMapRequest) reader.createRequest();
+            reader.read(request, parseKvp(raw), caseInsensitiveKvp(raw));
+            assertEquals(1, cache.size());
+
+            LayerInfo layer = getCatalog().getLayerByName(getLayerId(MockData.BASIC_POLYGONS));
+            getCatalog().save(layer);
+            assertEquals(0, cache.size());
+        } finally {
+            getCatalog().removeListener(cache);
+        }
+    }
 }
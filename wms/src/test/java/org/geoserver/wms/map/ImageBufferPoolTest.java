@@ -0,0 +1,109 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+
+import org.junit.Test;
+
+public class ImageBufferPoolTest {
+
+    byte[] getData(BufferedImage image) {
+        return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+
+    @Test
+    public void testDisabled() {
+        ImageBufferPool pool = new ImageBufferPool(0);
+        BufferedImage image = ImageUtils.createImage(256, 256, null, true, pool);
+        assertEquals(BufferedImage.TYPE_4BYTE_ABGR, image.getType());
+        assertFalse(pool.release(image));
+        assertEquals(0, pool.getMissCount());
+    }
+
+    @Test
+    public void testImageTypes() {
+        ImageBufferPool pool = new ImageBufferPool(16 * 1024 * 1024);
+        assertEquals(BufferedImage.TYPE_4BYTE_ABGR,
+                ImageUtils.createImage(256, 256, null, true, pool).getType());
+        assertEquals(BufferedImage.TYPE_3BYTE_BGR,
+                ImageUtils.createImage(256, 256, null, false, pool).getType());
+        IndexColorModel palette = (IndexColorModel) new BufferedImage(1, 1,
+                BufferedImage.TYPE_BYTE_INDEXED).getColorModel();
+        BufferedImage indexed = ImageUtils.createImage(256, 256, palette, false, pool);
+        assertEquals(BufferedImage.TYPE_BYTE_INDEXED, indexed.getType());
+        assertSame(palette, indexed.getColorModel());
+        assertEquals(3, pool.getMissCount());
+    }
+
+    @Test
+    public void testReuse() {
+        ImageBufferPool pool = new ImageBufferPool(16 * 1024 * 1024);
+        BufferedImage image = ImageUtils.createImage(256, 256, null, true, pool);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.RED);
+        graphics.fillRect(0, 0, 256, 256);
+        graphics.dispose();
+        byte[] data = getData(image);
+
+        assertTrue(pool.release(image));
+        assertEquals(data.length, pool.getRetainedBytes());
+        // releasing twice does not put the same array in the pool twice
+        assertFalse(pool.release(image));
+        assertEquals(data.length, pool.getRetainedBytes());
+
+        // the array is reused, cleared, also for a slightly smaller image
+        BufferedImage other = ImageUtils.createImage(250, 256, null, true, pool);
+        assertSame(data, getData(other));
+        assertEquals(250, other.getWidth());
+        assertEquals(0, other.getRGB(100, 100));
+        assertEquals(1, pool.getHitCount());
+        assertEquals(0, pool.getRetainedBytes());
+    }
+
+    @Test
+    public void testSubImage() {
+        ImageBufferPool pool = new ImageBufferPool(16 * 1024 * 1024);
+        BufferedImage image = ImageUtils.createImage(256, 256, null, true, pool);
+        // sub images share the data, but do not own it
+        assertFalse(pool.release(image.getSubimage(0, 0, 128, 128)));
+        pool.detach(image);
+        assertFalse(pool.release(image));
+        assertEquals(0, pool.getRetainedBytes());
+    }
+
+    @Test
+    public void testBounded() {
+        // room for a single 256x256 RGBA image
+        ImageBufferPool pool = new ImageBufferPool(256 * 256 * 4);
+        BufferedImage first = ImageUtils.createImage(256, 256, null, true, pool);
+        BufferedImage second = ImageUtils.createImage(256, 256, null, true, pool);
+        assertNotSame(getData(first), getData(second));
+        assertTrue(pool.release(first));
+        assertFalse(pool.release(second));
+        assertEquals(256 * 256 * 4, pool.getRetainedBytes());
+
+        pool.clear();
+        assertEquals(0, pool.getRetainedBytes());
+    }
+
+    @Test
+    public void testBucketSize() {
+        assertEquals(256 * 256 * 4, ImageBufferPool.getBucketSize(256 * 256 * 4));
+        assertEquals(256 * 256 * 3, ImageBufferPool.getBucketSize(256 * 256 * 3));
+        assertEquals(256 * 256 * 4, ImageBufferPool.getBucketSize(250 * 256 * 4));
+        assertEquals(9 * 128, ImageBufferPool.getBucketSize(1025));
+    }
+}
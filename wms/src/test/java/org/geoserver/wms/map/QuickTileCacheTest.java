@@ -6,10 +6,25 @@
 package org.geoserver.wms.map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
-
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.map.QuickTileCache.MapKey;
+import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
+import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.junit.Test;
 
 import com.vividsolutions.jts.geom.Envelope;
@@ -67,4 +82,108 @@ public class QuickTileCacheTest {
         assertEquals(new Point(0, 2), cache.getTileOffsetsInMeta(box1, meta));
         assertEquals(new Point(1, 2), cache.getTileOffsetsInMeta(box2, meta));
     }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        MetaTileKey key = new MetaTileKey(new MapKey("LAYERS=test", 1, new Point2D.Double(0, 0)),
+                new Point(0, 0), new ReferencedEnvelope(0, 768, 0, 768, null));
+        RenderedImage[] tiles = new RenderedImage[9];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new BufferedImage(256, 256, BufferedImage.TYPE_4BYTE_ABGR);
+        }
+        CountDownLatch building = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger builds = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<RenderedImage[]> first = executor.submit(() -> cache.getTiles(key, () -> {
+                builds.incrementAndGet();
+                building.countDown();
+                release.await();
+                return tiles;
+            }));
+            building.await(10, TimeUnit.SECONDS);
+            Future<RenderedImage[]> second = executor.submit(() -> cache.getTiles(key, () -> {
+                builds.incrementAndGet();
+                return new RenderedImage[9];
+            }));
+            // wait for the second request to queue up behind the first
+            while (cache.getCoalescedCount() == 0) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            assertSame(tiles, first.get(10, TimeUnit.SECONDS));
+            assertSame(tiles, second.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, builds.get());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getCoalescedCount());
+
+        // now it's cached
+        assertSame(tiles, cache.getTiles(key, () -> null));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.size());
+
+        cache.clear();
+        assertNull(cache.getTiles(key, () -> null));
+        assertEquals(2, cache.getMissCount());
+    }
+
+    MetaTileKey testKey() {
+        return new MetaTileKey(new MapKey("LAYERS=test", 1, new Point2D.Double(0, 0)),
+                new Point(0, 0), new ReferencedEnvelope(0, 768, 0, 768, null));
+    }
+
+    @Test
+    public void testStaleStore() throws Exception {
+        QuickTileCache cache = new QuickTileCache(32, 30);
+        MetaTileKey key = testKey();
+        RenderedImage[] tiles = new RenderedImage[9];
+        // the cache gets cleared while the meta-tile is being built
+        assertSame(tiles, cache.getTiles(key, () -> {
+            cache.clear();
+            return tiles;
+        }));
+        assertEquals(0, cache.size());
+        assertNull(cache.getTiles(key, () -> null));
+    }
+
+    @Test
+    public void testCoalescedTimeout() throws Exception {
+        MetaTileKey key = testKey();
+        CountDownLatch building = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> cache.getTiles(key, () -> {
+                building.countDown();
+                release.await();
+                return null;
+            }));
+            building.await(10, TimeUnit.SECONDS);
+            try {
+                cache.getTiles(key, () -> null, 50);
+                fail("Should have timed out waiting for the concurrent build");
+            } catch (ServiceException e) {
+                assertEquals(1, cache.getCoalescedCount());
+            }
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDisabledStorage() throws Exception {
+        QuickTileCache cache = new QuickTileCache(0, 30);
+        MetaTileKey key = testKey();
+        RenderedImage[] tiles = new RenderedImage[9];
+        assertSame(tiles, cache.getTiles(key, () -> tiles));
+        assertEquals(0, cache.size());
+        assertNull(cache.getStatistics());
+    }
 }
@@ -66,6 +66,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -245,6 +246,64 @@ public class RenderedImageMapOutputFormatTest extends WMSTestSupport {
 
     @Test 
     public void testBlueLake() throws IOException, IllegalFilterException, Exception {
+        WMSMapContent map = buildBlueLakeMap();
+        RenderedImageMap imageMap = this.rasterMapProducer.produceMap(map);
+        BufferedImage image = (BufferedImage) imageMap.getImage();
+        imageMap.dispose();
+        assertNotBlank("testBlueLake", image);
+    }
+
+    @Test
+    public void testParallelLayerRendering() throws Exception {
+        RenderedImageMap sequentialMap = this.rasterMapProducer.produceMap(buildBlueLakeMap());
+        BufferedImage expected = (BufferedImage) sequentialMap.getImage();
+        sequentialMap.dispose();
+
+        DefaultWebMapService.setLayerRenderingThreads(2);
+        try {
+            WMSMapContent map = buildBlueLakeMap();
+            assertEquals(4, this.rasterMapProducer.getParallelRuns(map, null, -1, 0));
+            RenderedImageMap parallelMap = this.rasterMapProducer.produceMap(map);
+            BufferedImage image = (BufferedImage) parallelMap.getImage();
+            parallelMap.dispose();
+            // compositing antialiased edges might change a few pixels by one unit
+            ImageAssert.assertEquals(expected, image, 100);
+
+            // not enough memory for the extra runs
+            assertEquals(2, this.rasterMapProducer.getParallelRuns(buildBlueLakeMap(), null,
+                    1500, 1000));
+        } finally {
+            DefaultWebMapService.setLayerRenderingThreads(0);
+        }
+    }
+
+    @Test
+    public void testParallelLayerRenderingTimeout() throws Exception {
+        // an executor that never gets to run the tasks, as if its queue was stuck
+        List<Runnable> queued = new ArrayList<>();
+        WMSMapContent map = buildBlueLakeMap();
+        ParallelLayerRenderer renderer = new ParallelLayerRenderer(StreamingRenderer::new,
+                queued::add, 2);
+        renderer.setMapContent(map);
+        renderer.setTimeout(100);
+        BufferedImage image = new BufferedImage(map.getMapWidth(), map.getMapHeight(),
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            renderer.paint(graphics, new Rectangle(map.getMapWidth(), map.getMapHeight()),
+                    map.getRenderingArea(), map.getRenderingTransform());
+        } finally {
+            graphics.dispose();
+            map.dispose();
+        }
+
+        // the paint did not wait forever, and the queued run has been cancelled
+        assertEquals(1, queued.size());
+        assertTrue(((Future<?>) queued.get(0)).isCancelled());
+        assertTrue(renderer.stopRequested);
+    }
+
+    private WMSMapContent buildBlueLakeMap() throws Exception {
         final Catalog catalog = getCatalog();
         org.geoserver.catalog.FeatureTypeInfo typeInfo = catalog.getFeatureTypeByName(
                 MockData.LAKES.getNamespaceURI(), MockData.LAKES.getLocalPart());
@@ -278,10 +337,7 @@ public class RenderedImageMapOutputFormatTest extends WMSTestSupport {
         map.getViewport().setBounds(new ReferencedEnvelope(env, DefaultGeographicCRS.WGS84));
 
         request.setFormat(getMapFormat());
-        RenderedImageMap imageMap = this.rasterMapProducer.produceMap(map);
-        BufferedImage image = (BufferedImage) imageMap.getImage();
-        imageMap.dispose();
-        assertNotBlank("testBlueLake", image);
+        return map;
     }
     
     
@@ -0,0 +1,176 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.Rule;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleBuilder;
+import org.junit.Test;
+
+public class ScaleIndexedStyleTest {
+
+    StyleBuilder sb = new StyleBuilder();
+
+    Rule rule(String name, double min, double max) {
+        Rule rule = sb.createRule(sb.createPointSymbolizer());
+        rule.setName(name);
+        rule.setMinScaleDenominator(min);
+        rule.setMaxScaleDenominator(max);
+        return rule;
+    }
+
+    Style style(Rule[]... ftsRules) {
+        Style style = sb.createStyle();
+        for (Rule[] rules : ftsRules) {
+            style.featureTypeStyles().add(sb.createFeatureTypeStyle("Feature", rules));
+        }
+        return style;
+    }
+
+    List<String> ruleNames(Style style) {
+        List<String> names = new ArrayList<String>();
+        for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+            for (Rule rule : fts.rules()) {
+                names.add(rule.getName());
+            }
+        }
+        return names;
+    }
+
+    List<String> expectedNames(Style style, double scale) {
+        List<String> names = new ArrayList<String>();
+        for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+            for (Rule rule : fts.rules()) {
+                if (ScaleIndexedStyle.isWithInScale(rule, scale)) {
+                    names.add(rule.getName());
+                }
+            }
+        }
+        return names;
+    }
+
+    @Test
+    public void testSelection() {
+        Style style = style(new Rule[] { rule("always", 0, Double.POSITIVE_INFINITY),
+                rule("close", 0, 10000), rule("far", 10000, Double.POSITIVE_INFINITY) },
+                new Rule[] { rule("middle", 5000, 50000) });
+        ScaleIndexedStyle indexed = new ScaleIndexedStyle(style);
+
+        assertEquals(Arrays.asList("always", "close"), ruleNames(indexed.getStyle(1000)));
+        assertEquals(Arrays.asList("always", "close", "middle"),
+                ruleNames(indexed.getStyle(5000)));
+        assertEquals(Arrays.asList("always", "far", "middle"),
+                ruleNames(indexed.getStyle(12000)));
+        assertEquals(Arrays.asList("always", "far"), ruleNames(indexed.getStyle(1e6)));
+
+        // the feature type style without active rules has been dropped
+        assertEquals(1, indexed.getStyle(1000).featureTypeStyles().size());
+    }
+
+    @Test
+    public void testScaleWindow() {
+        Style style = style(new Rule[] { rule("close", 0, 10000),
+                rule("far", 10000, Double.POSITIVE_INFINITY) });
+        ScaleIndexedStyle indexed = new ScaleIndexedStyle(style);
+
+        // close to the boundary both rules are kept, the renderer might compute a scale on
+        // either side of it
+        assertEquals(Arrays.asList("close", "far"), ruleNames(indexed.getStyle(9800)));
+        assertEquals(Arrays.asList("close", "far"), ruleNames(indexed.getStyle(10000)));
+        assertEquals(Arrays.asList("close", "far"), ruleNames(indexed.getStyle(10200)));
+        assertEquals(Arrays.asList("close"), ruleNames(indexed.getStyle(9000)));
+        assertEquals(Arrays.asList("far"), ruleNames(indexed.getStyle(11000)));
+    }
+
+    @Test
+    public void testStructuralFeatureTypeStyles() {
+        Style style = style(new Rule[] { rule("close", 0, 10000) },
+                new Rule[] { rule("base", 50000, 100000) },
+                new Rule[] { rule("transformed", 50000, 100000) },
+                new Rule[] { rule("far", 50000, 100000) });
+        style.featureTypeStyles().get(1).getOptions().put(FeatureTypeStyle.COMPOSITE_BASE,
+                "true");
+        style.featureTypeStyles().get(2).setTransformation(
+                sb.getFilterFactory().function("env", sb.literalExpression("t")));
+
+        // the composition base and the transformation are kept, even if empty
+        Style selected = new ScaleIndexedStyle(style).getStyle(1000);
+        assertEquals(Arrays.asList("close"), ruleNames(selected));
+        assertEquals(3, selected.featureTypeStyles().size());
+        assertEquals("true", selected.featureTypeStyles().get(1).getOptions()
+                .get(FeatureTypeStyle.COMPOSITE_BASE));
+        assertSame(style.featureTypeStyles().get(2).getTransformation(),
+                selected.featureTypeStyles().get(2).getTransformation());
+    }
+
+    @Test
+    public void testAllActive() {
+        Style style = style(new Rule[] { rule("a", 0, Double.POSITIVE_INFINITY),
+                rule("b", 0, Double.POSITIVE_INFINITY) });
+        assertSame(style, new ScaleIndexedStyle(style).getStyle(1000));
+    }
+
+    @Test
+    public void testFeatureTypeStyleOptions() {
+        Style style = style(new Rule[] { rule("close", 0, 10000), rule("far", 10000, 20000) });
+        FeatureTypeStyle fts = style.featureTypeStyles().get(0);
+        fts.getOptions().put(FeatureTypeStyle.SORT_BY, "name");
+        fts.setTransformation(sb.getFilterFactory().function("env", sb.literalExpression("t")));
+
+        Style selected = new ScaleIndexedStyle(style).getStyle(1000);
+        assertNotSame(style, selected);
+        FeatureTypeStyle selectedFts = selected.featureTypeStyles().get(0);
+        assertEquals("name", selectedFts.getOptions().get(FeatureTypeStyle.SORT_BY));
+        assertSame(fts.getTransformation(), selectedFts.getTransformation());
+        assertEquals(fts.featureTypeNames(), selectedFts.featureTypeNames());
+        // rules are shared, not copied
+        assertSame(fts.rules().get(0), selectedFts.rules().get(0));
+    }
+
+    @Test
+    public void testManyRules() {
+        Random random = new Random(0);
+        Rule[] rules = new Rule[300];
+        for (int i = 0; i < rules.length; i++) {
+            double min = random.nextInt(100) * 1000;
+            double max = random.nextBoolean() ? Double.POSITIVE_INFINITY
+                    : min + (1 + random.nextInt(100)) * 1000;
+            rules[i] = rule("r" + i, min, max);
+        }
+        Style style = style(rules);
+        ScaleIndexedStyle indexed = new ScaleIndexedStyle(style);
+
+        // the selected rules are a superset, the renderer still paints the same ones
+        for (int i = 0; i < 1000; i++) {
+            double scale = random.nextDouble() * 250000;
+            assertEquals(expectedNames(style, scale),
+                    expectedNames(indexed.getStyle(scale), scale));
+        }
+        // also within the window around the requested scale
+        for (Rule rule : rules) {
+            double scale = rule.getMinScaleDenominator();
+            for (double factor : new double[] { 0.97, 1, 1.03 }) {
+                assertEquals(expectedNames(style, scale),
+                        expectedNames(indexed.getStyle(scale * factor), scale));
+            }
+        }
+    }
+
+    @Test
+    public void testCached() {
+        Style style = style(new Rule[] { rule("close", 0, 10000) });
+        assertSame(ScaleIndexedStyle.get(style), ScaleIndexedStyle.get(style));
+    }
+}
@@ -0,0 +1,124 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
+
+import javax.imageio.ImageIO;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ar.com.hjg.pngj.FilterType;
+
+public class ParallelPNGEncoderTest {
+
+    static ForkJoinPool pool;
+
+    @BeforeClass
+    public static void setupPool() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterClass
+    public static void shutdownPool() {
+        pool.shutdown();
+    }
+
+    BufferedImage buildImage(int type) {
+        BufferedImage image = new BufferedImage(300, 200, type);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            Random random = new Random(0);
+            for (int i = 0; i < 200; i++) {
+                graphics.setColor(new Color(random.nextInt(256), random.nextInt(256),
+                        random.nextInt(256), random.nextInt(256)));
+                graphics.fillRect(random.nextInt(300), random.nextInt(200), random.nextInt(50),
+                        random.nextInt(50));
+            }
+        } finally {
+            graphics.dispose();
+        }
+        return image;
+    }
+
+    void assertRoundTrip(int type, FilterType filterType) throws Exception {
+        BufferedImage image = buildImage(type);
+        ParallelPNGEncoder encoder = new ParallelPNGEncoder(pool, 0.5f, filterType);
+        // force several small bands
+        encoder.minBandBytes = 1;
+        assertTrue(ParallelPNGEncoder.isSupported(image));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(image, out);
+
+        BufferedImage read = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(image.getWidth(), read.getWidth());
+        assertEquals(image.getHeight(), read.getHeight());
+        assertEquals(image.getColorModel().hasAlpha(), read.getColorModel().hasAlpha());
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                assertEquals("Pixel " + x + "," + y, image.getRGB(x, y), read.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testRGBA() throws Exception {
+        assertRoundTrip(BufferedImage.TYPE_4BYTE_ABGR, FilterType.FILTER_NONE);
+        assertRoundTrip(BufferedImage.TYPE_INT_ARGB, FilterType.FILTER_SUB);
+    }
+
+    @Test
+    public void testRGB() throws Exception {
+        assertRoundTrip(BufferedImage.TYPE_3BYTE_BGR, FilterType.FILTER_SUB);
+        assertRoundTrip(BufferedImage.TYPE_INT_RGB, FilterType.FILTER_NONE);
+    }
+
+    @Test
+    public void testGray() throws Exception {
+        assertRoundTrip(BufferedImage.TYPE_BYTE_GRAY, FilterType.FILTER_SUB);
+    }
+
+    @Test
+    public void testPaletted() throws Exception {
+        assertRoundTrip(BufferedImage.TYPE_BYTE_INDEXED, FilterType.FILTER_NONE);
+    }
+
+    @Test
+    public void testUnsupported() throws Exception {
+        assertFalse(ParallelPNGEncoder
+                .isSupported(new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB_PRE)));
+        assertFalse(ParallelPNGEncoder
+                .isSupported(new BufferedImage(10, 10, BufferedImage.TYPE_USHORT_GRAY)));
+        assertFalse(ParallelPNGEncoder
+                .isSupported(new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_BINARY)));
+    }
+
+    @Test
+    public void testCombineAdler() throws Exception {
+        byte[] data = new byte[100000];
+        new Random(0).nextBytes(data);
+        Adler32 full = new Adler32();
+        full.update(data);
+        Adler32 first = new Adler32();
+        first.update(data, 0, 30000);
+        Adler32 second = new Adler32();
+        second.update(data, 30000, 70000);
+        assertEquals(full.getValue(),
+                ParallelPNGEncoder.combineAdler(first.getValue(), second.getValue(), 70000));
+    }
+}